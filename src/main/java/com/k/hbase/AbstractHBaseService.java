@@ -1,5 +1,6 @@
 package com.k.hbase;
 
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 
@@ -11,7 +12,13 @@ public abstract class AbstractHBaseService implements HBaseService{
 
     public void batchPut(final String tableName, final List<Put> puts, boolean waiting) {}
 
+    public void batchPut(final String tableName, final List<Put> puts, boolean waiting, boolean merge) {}
+
+    public void batchMutate(final String tableName, final List<? extends Mutation> mutations, boolean waiting, boolean merge) {}
+
     public <T> Result[] getRows(String tablename, List<T> rows) {return null;}
 
     public Result getRow(String tablename, byte[] row) {return null;}
+
+    public void increment(String tableName, byte[] row, byte[] family, byte[] qualifier, long delta) {}
 }
@@ -1,5 +1,6 @@
 package com.k.hbase;
 
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 
@@ -27,7 +28,35 @@ public interface HBaseService {
      */
     public void batchPut(String tableName, final List<Put> puts, boolean waiting);
 
+    /**
+     * 批量写入数据
+     * @param tableName  表名称
+     * @param puts         Put 类型的列表
+     * @param waiting  是否等待线程执行完成  true 可以及时看到结果, false 让线程继续执行，并跳出此方法返回调用方主程序
+     * @param merge     是否把同一行的多个Put合并成一个，同一单元格保留最后写入的值
+     */
+    public void batchPut(String tableName, final List<Put> puts, boolean waiting, boolean merge);
+
+    /**
+     * 批量写入Put、Delete混合的数据
+     * @param tableName  表名称
+     * @param mutations  写操作列表，merge为false时不保证同一行多个操作的执行顺序
+     * @param waiting  是否等待线程执行完成
+     * @param merge     是否合并同一行的写操作，Put和Delete交替时合并成一个RowMutations，按顺序生效（MutationMerger无法合并的行除外）
+     */
+    public void batchMutate(String tableName, final List<? extends Mutation> mutations, boolean waiting, boolean merge);
+
     <T> Result[] getRows(String tablename, List<T> rows);
 
     Result getRow(String tablename, byte[] row);
+
+    /**
+     * 计数器累加，增量在内存中合并后定时批量提交，不会立即对读可见
+     * @param tableName  表名称
+     * @param row          行健
+     * @param family      列族
+     * @param qualifier  列名
+     * @param delta        增量
+     */
+    void increment(String tableName, byte[] row, byte[] family, byte[] qualifier, long delta);
 }
@@ -1,7 +1,9 @@
 package com.k.hbase;
 
+import com.k.hbase.util.CounterCoalescer;
 import com.k.hbase.util.HBaseUtil;
 import com.k.hbase.util.ThreadPoolUtil;
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.slf4j.Logger;
@@ -12,6 +14,7 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 public class HBaseServiceImpl extends AbstractHBaseService{
 
@@ -32,20 +35,98 @@ public class HBaseServiceImpl extends AbstractHBaseService{
      */
     @Override
     public void batchPut(final String tableName, final List<Put> puts, boolean waiting) {
-        threadPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    HBaseUtil.sycPuts(tableName, puts);
-                } catch (Exception e) {
-                    logger.error("batchPut failed . ", e);
+        batchPut(tableName, puts, waiting, false);
+    }
+
+    /**
+     * 多线程同步提交
+     * @param tableName  表名称
+     * @param puts  待提交参数
+     * @param waiting  是否等待线程执行完成  true 可以及时看到结果, false 让线程继续执行，并跳出此方法返回调用方主程序
+     * @param merge  是否把同一行的多个Put合并成一个
+     */
+    @Override
+    public void batchPut(final String tableName, final List<Put> puts, boolean waiting, final boolean merge) {
+        batchPut(tableName, puts, waiting, merge, ThreadPoolUtil.Lane.BULK_WRITE);
+    }
+
+    /**
+     * 在指定的线程池通道中多线程同步提交，例如少量、对延迟敏感的写入可以放到在线读通道
+     * @param tableName  表名称
+     * @param puts  待提交参数
+     * @param waiting  是否等待线程执行完成
+     * @param merge  是否把同一行的多个Put合并成一个
+     * @param lane  线程池通道
+     */
+    public void batchPut(final String tableName, final List<Put> puts, boolean waiting, final boolean merge, ThreadPoolUtil.Lane lane) {
+        try {
+            threadPool.execute(lane, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HBaseUtil.sycPuts(tableName, puts, merge);
+                    } catch (Exception e) {
+                        logger.error("batchPut failed . ", e);
+                    }
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            //线程池队列已满，数据先进溢出日志，避免调用方阻塞或丢数据
+            if (!HBaseUtil.spill(tableName, puts)) {
+                logger.error("batchPut rejected . ", e);
             }
-        });
+        }
+
+        if(waiting){
+            try {
+                threadPool.awaitTermination(lane);
+            } catch (InterruptedException e) {
+                logger.error("HBase put job thread pool await termination time out.", e);
+            }
+        }
+    }
+
+    /**
+     * 多线程同步提交Put、Delete混合的数据
+     * @param tableName  表名称
+     * @param mutations  待提交参数，merge为false时不保证同一行多个操作的执行顺序
+     * @param waiting  是否等待线程执行完成
+     * @param merge  是否合并同一行的写操作，合并后同一行的操作按顺序生效（MutationMerger无法合并的行除外）
+     */
+    @Override
+    public void batchMutate(final String tableName, final List<? extends Mutation> mutations, boolean waiting, final boolean merge) {
+        batchMutate(tableName, mutations, waiting, merge, ThreadPoolUtil.Lane.BULK_WRITE);
+    }
+
+    /**
+     * 在指定的线程池通道中多线程同步提交Put、Delete混合的数据
+     * @param tableName  表名称
+     * @param mutations  待提交参数，merge为false时不保证同一行多个操作的执行顺序
+     * @param waiting  是否等待线程执行完成
+     * @param merge  是否合并同一行的写操作，合并后同一行的操作按顺序生效（MutationMerger无法合并的行除外）
+     * @param lane  线程池通道
+     */
+    public void batchMutate(final String tableName, final List<? extends Mutation> mutations, boolean waiting, final boolean merge, ThreadPoolUtil.Lane lane) {
+        try {
+            threadPool.execute(lane, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HBaseUtil.batchMutate(tableName, mutations, merge);
+                    } catch (Exception e) {
+                        logger.error("batchMutate failed . ", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (!HBaseUtil.spill(tableName, mutations)) {
+                logger.error("batchMutate rejected . ", e);
+            }
+        }
 
         if(waiting){
             try {
-                threadPool.awaitTermination();
+                threadPool.awaitTermination(lane);
             } catch (InterruptedException e) {
                 logger.error("HBase put job thread pool await termination time out.", e);
             }
@@ -62,6 +143,49 @@ public class HBaseServiceImpl extends AbstractHBaseService{
         return HBaseUtil.getRow(tablename, row);
     }
 
+    /**
+     * 在在线读通道中异步查询一行，不会排在批量写入和长扫描后面
+     * @param tablename  表名称
+     * @param row  行健
+     * @return Future.get()获得查询结果
+     */
+    public Future<Result> getRowAsync(final String tablename, final byte[] row) {
+        return threadPool.submit(ThreadPoolUtil.Lane.INTERACTIVE_READ, new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                return HBaseUtil.getRow(tablename, row);
+            }
+        });
+    }
+
+    /**
+     * 在在线读通道中异步查询多行
+     * @param tablename  表名称
+     * @param rows  行健列表
+     * @return Future.get()获得查询结果
+     */
+    public <T> Future<Result[]> getRowsAsync(final String tablename, final List<T> rows) {
+        return threadPool.submit(ThreadPoolUtil.Lane.INTERACTIVE_READ, new Callable<Result[]>() {
+            @Override
+            public Result[] call() throws Exception {
+                return HBaseUtil.getRows(tablename, rows);
+            }
+        });
+    }
+
+    /**
+     * 计数器累加，同一计数器的增量在内存中合并，按hbase-client.properties中counter.*配置定时批量提交
+     * @param tableName  表名称
+     * @param row          行健
+     * @param family      列族
+     * @param qualifier  列名
+     * @param delta        增量
+     */
+    @Override
+    public void increment(String tableName, byte[] row, byte[] family, byte[] qualifier, long delta) {
+        CounterCoalescer.getInstance().increment(tableName, row, family, qualifier, delta);
+    }
+
     /**
      * 多线程异步提交
      * @param tableName  表名称
@@ -69,11 +193,56 @@ public class HBaseServiceImpl extends AbstractHBaseService{
      * @param waiting  是否等待线程执行完成  true 可以及时看到结果, false 让线程继续执行，并跳出此方法返回调用方主程序
      */
     public void batchAsyncPut(final String tableName, final List<Put> puts, boolean waiting) {
-        Future f = threadPool.submit(new Callable() {
+        batchAsyncPut(tableName, puts, waiting, false);
+    }
+
+    /**
+     * 多线程异步提交
+     * @param tableName  表名称
+     * @param puts  待提交参数
+     * @param waiting  是否等待线程执行完成  true 可以及时看到结果, false 让线程继续执行，并跳出此方法返回调用方主程序
+     * @param merge  是否把同一行的多个Put合并成一个
+     */
+    public void batchAsyncPut(final String tableName, final List<Put> puts, boolean waiting, boolean merge) {
+        batchAsyncPut(tableName, puts, waiting, merge, ThreadPoolUtil.Lane.BULK_WRITE);
+    }
+
+    /**
+     * 在指定的线程池通道中多线程异步提交
+     * @param tableName  表名称
+     * @param puts  待提交参数
+     * @param waiting  是否等待线程执行完成
+     * @param merge  是否把同一行的多个Put合并成一个
+     * @param lane  线程池通道
+     */
+    public void batchAsyncPut(final String tableName, final List<Put> puts, boolean waiting, boolean merge, ThreadPoolUtil.Lane lane) {
+        Future<Long> f;
+        try {
+            f = submitAsyncPut(tableName, puts, merge, lane);
+        } catch (RejectedExecutionException e) {
+            if (!HBaseUtil.spill(tableName, puts)) {
+                logger.error("batchAsyncPut rejected . ", e);
+            }
+            return;
+        }
+
+        if(waiting){
+            try {
+                System.out.println(f.get());
+            } catch (InterruptedException e) {
+                logger.error("多线程异步提交返回数据执行失败.", e);
+            } catch (ExecutionException e) {
+                logger.error("多线程异步提交返回数据执行失败.", e);
+            }
+        }
+    }
+
+    private Future<Long> submitAsyncPut(final String tableName, final List<Put> puts, final boolean merge, ThreadPoolUtil.Lane lane) {
+        return threadPool.submit(lane, new Callable<Long>() {
             @Override
-            public Object call() throws Exception {
+            public Long call() throws Exception {
                 try {
-                    long result = HBaseUtil.asynPut(tableName, puts);
+                    long result = HBaseUtil.asynPut(tableName, puts, merge);
                     return result;
                 } catch (Exception e) {
                     logger.error("batchPut failed . ", e);
@@ -90,16 +259,6 @@ public class HBaseServiceImpl extends AbstractHBaseService{
 //                return 0L;
 //            }
         });
-
-        if(waiting){
-            try {
-                System.out.println(f.get());
-            } catch (InterruptedException e) {
-                logger.error("多线程异步提交返回数据执行失败.", e);
-            } catch (ExecutionException e) {
-                logger.error("多线程异步提交返回数据执行失败.", e);
-            }
-        }
     }
 
     /**
@@ -113,6 +272,23 @@ public class HBaseServiceImpl extends AbstractHBaseService{
         HBaseUtil.createTable(tableName, columnFamilies, preBuildRegion);
     }
 
+    /**
+     * 在管理通道中异步建表
+     * @param tableName         表名称
+     * @param columnFamilies   列族名称数组
+     * @param preBuildRegion  是否预分配Region
+     * @return Future.get()等待建表完成，失败时抛出ExecutionException
+     */
+    public Future<?> createTableAsync(final String tableName, final String[] columnFamilies, final boolean preBuildRegion) {
+        return threadPool.submit(ThreadPoolUtil.Lane.ADMIN, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                HBaseUtil.createTable(tableName, columnFamilies, preBuildRegion);
+                return null;
+            }
+        });
+    }
+
     /**
      * 关闭线程池
      */
@@ -0,0 +1,196 @@
+package com.k.hbase.codec;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.List;
+
+/**
+ * 按列批量解码
+ * 把多个Result中同一列的值直接解码到long[]/double[]中，读取单元格底层数组，不复制列值、不装箱；
+ * 某行没有该列时对应位置填0，并在有效位图中置0，位图第i位为1表示第i行有值：
+ * <pre>
+ * long[] values = new long[results.size()];
+ * long[] valid = ColumnDecoder.newBitmap(results.size());
+ * int count = ColumnDecoder.decodeLongs(results, family, qualifier, ColumnDecoder.Encoding.FIXED, values, valid);
+ * </pre>
+ * 值的长度与编码不符时抛出IllegalArgumentException并带上行健，不会把错误的数据当成数字返回
+ */
+public class ColumnDecoder {
+    /**
+     * 列值编码方式
+     */
+    public enum Encoding {
+        /**
+         * Bytes.toBytes(long/double)，8字节大端序
+         */
+        FIXED,
+        /**
+         * ValueCodec.encodeVarLong，只适用于long
+         */
+        VARINT,
+        /**
+         * OrderedCodec.encodeLong/encodeDouble
+         */
+        ORDERED
+    }
+
+    private ColumnDecoder() {
+    }
+
+    /**
+     * 创建能容纳rows行的有效位图
+     */
+    public static long[] newBitmap(int rows) {
+        return new long[(rows + 63) >>> 6];
+    }
+
+    /**
+     * 位图中第i行是否有值
+     */
+    public static boolean isValid(long[] bitmap, int i) {
+        return (bitmap[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public static int decodeLongs(List<Result> results, byte[] family, byte[] qualifier, Encoding encoding,
+                                  long[] out, long[] validity) {
+        return decodeLongs(results.toArray(new Result[results.size()]), family, qualifier, encoding, out, validity);
+    }
+
+    public static int decodeDoubles(List<Result> results, byte[] family, byte[] qualifier, Encoding encoding,
+                                    double[] out, long[] validity) {
+        return decodeDoubles(results.toArray(new Result[results.size()]), family, qualifier, encoding, out, validity);
+    }
+
+    /**
+     * 解码一列long
+     *
+     * @param results   结果，out[i]对应results[i]
+     * @param family    列族
+     * @param qualifier 列名
+     * @param encoding  编码方式
+     * @param out       输出，长度不小于results.length
+     * @param validity  有效位图，可以为null
+     * @return 有值的行数
+     */
+    public static int decodeLongs(Result[] results, byte[] family, byte[] qualifier, Encoding encoding,
+                                  long[] out, long[] validity) {
+        check(results.length, out.length, validity);
+        int count = 0;
+        for (int i = 0; i < results.length; i++) {
+            Cell cell = results[i] == null ? null : results[i].getColumnLatestCell(family, qualifier);
+            if (cell == null) {
+                out[i] = 0;
+                clear(validity, i);
+                continue;
+            }
+            out[i] = decodeLong(cell, encoding);
+            set(validity, i);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 解码一列double，VARINT编码的值按long读取后转换
+     *
+     * @param results   结果，out[i]对应results[i]
+     * @param family    列族
+     * @param qualifier 列名
+     * @param encoding  编码方式
+     * @param out       输出，长度不小于results.length
+     * @param validity  有效位图，可以为null
+     * @return 有值的行数
+     */
+    public static int decodeDoubles(Result[] results, byte[] family, byte[] qualifier, Encoding encoding,
+                                    double[] out, long[] validity) {
+        check(results.length, out.length, validity);
+        int count = 0;
+        for (int i = 0; i < results.length; i++) {
+            Cell cell = results[i] == null ? null : results[i].getColumnLatestCell(family, qualifier);
+            if (cell == null) {
+                out[i] = 0;
+                clear(validity, i);
+                continue;
+            }
+            out[i] = decodeDouble(cell, encoding);
+            set(validity, i);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 按编码方式解码单元格的值
+     */
+    public static long decodeLong(Cell cell, Encoding encoding) {
+        byte[] buffer = cell.getValueArray();
+        int offset = cell.getValueOffset();
+        int length = cell.getValueLength();
+        try {
+            switch (encoding) {
+                case VARINT:
+                    return ValueCodec.decodeVarLong(buffer, offset, length);
+                case ORDERED:
+                    checkOrderedLength(length);
+                    return OrderedCodec.getLong(buffer, offset);
+                default:
+                    return ValueCodec.getLong(buffer, offset, length);
+            }
+        } catch (IllegalArgumentException e) {
+            throw wrap(cell, e);
+        }
+    }
+
+    public static double decodeDouble(Cell cell, Encoding encoding) {
+        byte[] buffer = cell.getValueArray();
+        int offset = cell.getValueOffset();
+        int length = cell.getValueLength();
+        try {
+            switch (encoding) {
+                case VARINT:
+                    return ValueCodec.decodeVarLong(buffer, offset, length);
+                case ORDERED:
+                    checkOrderedLength(length);
+                    return OrderedCodec.getDouble(buffer, offset);
+                default:
+                    return ValueCodec.getDouble(buffer, offset, length);
+            }
+        } catch (IllegalArgumentException e) {
+            throw wrap(cell, e);
+        }
+    }
+
+    private static void checkOrderedLength(int length) {
+        if (length != OrderedCodec.LONG_SIZE) {
+            throw new IllegalArgumentException("保序编码需要" + OrderedCodec.LONG_SIZE + "个字节，实际为" + length + "个字节");
+        }
+    }
+
+    private static IllegalArgumentException wrap(Cell cell, IllegalArgumentException e) {
+        String row = Bytes.toStringBinary(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+        return new IllegalArgumentException("行:" + row + "的列值无法解码，" + e.getMessage(), e);
+    }
+
+    private static void check(int rows, int outLength, long[] validity) {
+        if (outLength < rows) {
+            throw new IllegalArgumentException("输出数组长度" + outLength + "小于行数" + rows);
+        }
+        if (validity != null && validity.length < ((rows + 63) >>> 6)) {
+            throw new IllegalArgumentException("有效位图长度不足，需要" + ((rows + 63) >>> 6));
+        }
+    }
+
+    private static void set(long[] bitmap, int i) {
+        if (bitmap != null) {
+            bitmap[i >>> 6] |= 1L << i;
+        }
+    }
+
+    private static void clear(long[] bitmap, int i) {
+        if (bitmap != null) {
+            bitmap[i >>> 6] &= ~(1L << i);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.k.hbase.codec;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * 组合行健
+ * 按顺序拼接多个保序编码的字段，整个行健的字典序等于各字段依次比较的结果；
+ * 不再需要用字符串拼接和补零来构造行健，数字也不会出现"10"排在"9"前面的问题。
+ * <pre>
+ * byte[] row = CompositeKey.builder().appendString("device-1").appendLong(timestamp).build();
+ * // 扫描某个设备的所有数据
+ * byte[] prefix = CompositeKey.builder().appendString("device-1").build();
+ *
+ * CompositeKey.Reader reader = CompositeKey.reader(row);
+ * String device = reader.readString();
+ * long time = reader.readLong();
+ * </pre>
+ * 编码见OrderedCodec，字段类型和顺序由调用方保证写入和读取一致
+ */
+public class CompositeKey {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private CompositeKey() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static Reader reader(byte[] key) {
+        return new Reader(key, 0, key.length);
+    }
+
+    public static Reader reader(byte[] key, int offset, int length) {
+        return new Reader(key, offset, length);
+    }
+
+    /**
+     * 组合行健构造器，可以reset后重复使用
+     */
+    public static class Builder {
+        private byte[] buffer = new byte[32];
+        private int length;
+
+        public Builder appendInt(int value) {
+            ensure(OrderedCodec.INT_SIZE);
+            length = OrderedCodec.putInt(buffer, length, value);
+            return this;
+        }
+
+        public Builder appendLong(long value) {
+            ensure(OrderedCodec.LONG_SIZE);
+            length = OrderedCodec.putLong(buffer, length, value);
+            return this;
+        }
+
+        public Builder appendDouble(double value) {
+            ensure(OrderedCodec.LONG_SIZE);
+            length = OrderedCodec.putDouble(buffer, length, value);
+            return this;
+        }
+
+        public Builder appendString(String value) {
+            byte[] raw = value.getBytes(UTF8);
+            return appendBytes(raw);
+        }
+
+        /**
+         * 变长字节数组，带转义和结束符，可以放在任意位置
+         */
+        public Builder appendBytes(byte[] value) {
+            ensure(OrderedCodec.sizeOf(value, 0, value.length));
+            length = OrderedCodec.putBytes(buffer, length, value, 0, value.length);
+            return this;
+        }
+
+        /**
+         * 原样追加的定长字节（例如盐值、哈希前缀），读取时用readFixed取回
+         */
+        public Builder appendFixed(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, buffer, length, value.length);
+            length += value.length;
+            return this;
+        }
+
+        public Builder reset() {
+            length = 0;
+            return this;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public byte[] build() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void ensure(int bytes) {
+            if (length + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes));
+            }
+        }
+    }
+
+    /**
+     * 按写入顺序读取组合行健的字段
+     */
+    public static class Reader {
+        private final byte[] key;
+        private final int end;
+        private int position;
+
+        Reader(byte[] key, int offset, int length) {
+            this.key = key;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        public int readInt() {
+            check(OrderedCodec.INT_SIZE);
+            int value = OrderedCodec.getInt(key, position);
+            position += OrderedCodec.INT_SIZE;
+            return value;
+        }
+
+        public long readLong() {
+            check(OrderedCodec.LONG_SIZE);
+            long value = OrderedCodec.getLong(key, position);
+            position += OrderedCodec.LONG_SIZE;
+            return value;
+        }
+
+        public double readDouble() {
+            check(OrderedCodec.LONG_SIZE);
+            double value = OrderedCodec.getDouble(key, position);
+            position += OrderedCodec.LONG_SIZE;
+            return value;
+        }
+
+        public String readString() {
+            return new String(readBytes(), UTF8);
+        }
+
+        public byte[] readBytes() {
+            byte[] value = OrderedCodec.getBytes(key, position, end);
+            position += OrderedCodec.encodedLength(key, position, end);
+            return value;
+        }
+
+        public byte[] readFixed(int length) {
+            check(length);
+            byte[] value = Arrays.copyOfRange(key, position, position + length);
+            position += length;
+            return value;
+        }
+
+        /**
+         * 是否还有未读取的字段
+         */
+        public boolean hasRemaining() {
+            return position < end;
+        }
+
+        private void check(int bytes) {
+            if (position + bytes > end) {
+                throw new IllegalArgumentException("组合行健长度不足，需要从位置" + position + "读取" + bytes + "个字节");
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.k.hbase.codec;
+
+import java.nio.charset.Charset;
+
+/**
+ * 保序编码
+ * 编码后的字节按无符号字典序比较的结果与原值的大小顺序一致，可以直接用于行健和范围扫描：
+ * <ul>
+ * <li>int、long：大端序，符号位取反，负数排在正数前面</li>
+ * <li>double：正数符号位取反，负数所有位取反，-0.0排在0.0前面，NaN排在最后</li>
+ * <li>字符串、字节数组：0x00转义为0x00 0xFF，以0x00 0x00结尾，前缀较短的排在前面，可以放在组合行健的中间</li>
+ * </ul>
+ * Bytes.toBytes(int/long/double)得到的编码负数会排在正数后面，不能用于需要范围扫描的行健
+ */
+public class OrderedCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * int编码长度
+     */
+    public static final int INT_SIZE = 4;
+    /**
+     * long、double编码长度
+     */
+    public static final int LONG_SIZE = 8;
+
+    private OrderedCodec() {
+    }
+
+    public static int putInt(byte[] buffer, int offset, int value) {
+        value ^= Integer.MIN_VALUE;
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+        return offset + INT_SIZE;
+    }
+
+    public static int getInt(byte[] buffer, int offset) {
+        checkBounds(buffer, offset, INT_SIZE);
+        int value = ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+        return value ^ Integer.MIN_VALUE;
+    }
+
+    public static int putLong(byte[] buffer, int offset, long value) {
+        value ^= Long.MIN_VALUE;
+        for (int i = LONG_SIZE - 1; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+        return offset + LONG_SIZE;
+    }
+
+    public static long getLong(byte[] buffer, int offset) {
+        return rawLong(buffer, offset) ^ Long.MIN_VALUE;
+    }
+
+    public static int putDouble(byte[] buffer, int offset, double value) {
+        long bits = Double.doubleToLongBits(value);
+        bits ^= (bits >> 63) | Long.MIN_VALUE;
+        for (int i = LONG_SIZE - 1; i >= 0; i--) {
+            buffer[offset + i] = (byte) bits;
+            bits >>>= 8;
+        }
+        return offset + LONG_SIZE;
+    }
+
+    public static double getDouble(byte[] buffer, int offset) {
+        long bits = rawLong(buffer, offset);
+        bits ^= ~(bits >> 63) | Long.MIN_VALUE;
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long rawLong(byte[] buffer, int offset) {
+        checkBounds(buffer, offset, LONG_SIZE);
+        long value = 0;
+        for (int i = 0; i < LONG_SIZE; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 字节数组保序编码后的长度
+     */
+    public static int sizeOf(byte[] value, int offset, int length) {
+        int size = length + 2;
+        for (int i = offset; i < offset + length; i++) {
+            if (value[i] == 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 写入转义并带结束符的字节数组
+     *
+     * @return 写入后的位置
+     */
+    public static int putBytes(byte[] buffer, int offset, byte[] value, int valueOffset, int length) {
+        for (int i = valueOffset; i < valueOffset + length; i++) {
+            byte b = value[i];
+            buffer[offset++] = b;
+            if (b == 0) {
+                buffer[offset++] = (byte) 0xFF;
+            }
+        }
+        buffer[offset++] = 0;
+        buffer[offset++] = 0;
+        return offset;
+    }
+
+    /**
+     * 从offset开始找到结束符，返回编码部分的总长度（包含结束符）
+     *
+     * @throws IllegalArgumentException 没有结束符或转义不正确
+     */
+    public static int encodedLength(byte[] buffer, int offset, int end) {
+        int i = offset;
+        while (i < end) {
+            if (buffer[i] == 0) {
+                if (i + 1 >= end) {
+                    break;
+                }
+                if (buffer[i + 1] == 0) {
+                    return i + 2 - offset;
+                }
+                if (buffer[i + 1] != (byte) 0xFF) {
+                    throw new IllegalArgumentException("保序编码的转义字符不正确，位置:" + i);
+                }
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("保序编码缺少结束符");
+    }
+
+    /**
+     * 读取putBytes写入的字节数组
+     *
+     * @param buffer 数组
+     * @param offset 起始位置
+     * @param end    可读范围的结束位置（不包含）
+     * @return 去掉转义和结束符后的内容
+     */
+    public static byte[] getBytes(byte[] buffer, int offset, int end) {
+        int encoded = encodedLength(buffer, offset, end);
+        int zeros = 0;
+        for (int i = offset; i < offset + encoded - 2; i++) {
+            if (buffer[i] == 0) {
+                zeros++;
+                i++;
+            }
+        }
+        byte[] value = new byte[encoded - 2 - zeros];
+        int p = 0;
+        for (int i = offset; i < offset + encoded - 2; i++) {
+            value[p++] = buffer[i];
+            if (buffer[i] == 0) {
+                i++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 单独编码一个int
+     */
+    public static byte[] encodeInt(int value) {
+        byte[] bytes = new byte[INT_SIZE];
+        putInt(bytes, 0, value);
+        return bytes;
+    }
+
+    /**
+     * 单独编码一个long
+     */
+    public static byte[] encodeLong(long value) {
+        byte[] bytes = new byte[LONG_SIZE];
+        putLong(bytes, 0, value);
+        return bytes;
+    }
+
+    /**
+     * 单独编码一个double
+     */
+    public static byte[] encodeDouble(double value) {
+        byte[] bytes = new byte[LONG_SIZE];
+        putDouble(bytes, 0, value);
+        return bytes;
+    }
+
+    /**
+     * 单独编码一个字符串（UTF-8）
+     */
+    public static byte[] encodeString(String value) {
+        byte[] raw = value.getBytes(UTF8);
+        byte[] bytes = new byte[sizeOf(raw, 0, raw.length)];
+        putBytes(bytes, 0, raw, 0, raw.length);
+        return bytes;
+    }
+
+    public static String decodeString(byte[] buffer, int offset, int end) {
+        return new String(getBytes(buffer, offset, end), UTF8);
+    }
+
+    static void checkBounds(byte[] buffer, int offset, int length) {
+        if (buffer == null || offset < 0 || offset + length > buffer.length) {
+            throw new IllegalArgumentException("需要从位置" + offset + "读取" + length + "个字节，数组长度为"
+                    + (buffer == null ? "null" : String.valueOf(buffer.length)));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.k.hbase.codec;
+
+/**
+ * 列值编码
+ * 定长编码与Bytes.toBytes(int/long/double)一致（大端序），读取时检查边界，长度不够时抛出IllegalArgumentException，
+ * 不会像手写循环那样读到数组外或静默返回错误的值；变长编码用于大部分值较小的计数类列，可以节省存储和传输。
+ */
+public class ValueCodec {
+    private ValueCodec() {
+    }
+
+    public static long getLong(byte[] buffer, int offset, int length) {
+        checkLength(length, 8, "long");
+        OrderedCodec.checkBounds(buffer, offset, 8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    public static int getInt(byte[] buffer, int offset, int length) {
+        checkLength(length, 4, "int");
+        OrderedCodec.checkBounds(buffer, offset, 4);
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+
+    public static double getDouble(byte[] buffer, int offset, int length) {
+        return Double.longBitsToDouble(getLong(buffer, offset, length));
+    }
+
+    public static long getLong(byte[] bytes) {
+        return getLong(bytes, 0, bytes == null ? 0 : bytes.length);
+    }
+
+    public static int getInt(byte[] bytes) {
+        return getInt(bytes, 0, bytes == null ? 0 : bytes.length);
+    }
+
+    public static double getDouble(byte[] bytes) {
+        return getDouble(bytes, 0, bytes == null ? 0 : bytes.length);
+    }
+
+    /**
+     * 有符号数的变长编码（zigzag + varint），-64到63只占1个字节
+     */
+    public static byte[] encodeVarLong(long value) {
+        return VarInt.toBytes(VarInt.zigzag(value));
+    }
+
+    /**
+     * 读取encodeVarLong写入的值
+     *
+     * @throws IllegalArgumentException 数据不完整、超长或后面有多余字节
+     */
+    public static long decodeVarLong(byte[] buffer, int offset, int length) {
+        if (buffer == null || length <= 0) {
+            throw new IllegalArgumentException("变长整数为空");
+        }
+        int end = offset + length;
+        OrderedCodec.checkBounds(buffer, offset, length);
+        if (VarInt.lengthAt(buffer, offset, end) != length) {
+            throw new IllegalArgumentException("变长整数后有多余字节");
+        }
+        return VarInt.unzigzag(VarInt.getVarLong(buffer, offset, end));
+    }
+
+    public static long decodeVarLong(byte[] bytes) {
+        return decodeVarLong(bytes, 0, bytes == null ? 0 : bytes.length);
+    }
+
+    private static void checkLength(int length, int expected, String type) {
+        if (length != expected) {
+            throw new IllegalArgumentException(type + "需要" + expected + "个字节，实际为" + length + "个字节");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.k.hbase.codec;
+
+/**
+ * 变长整数编码
+ * 每个字节的低7位存放数据，最高位为1表示后面还有字节，小的非负数只占1到2个字节；
+ * 可能为负数的值先做zigzag变换，把绝对值小的负数也映射成小的非负数。
+ */
+public class VarInt {
+    /**
+     * long最多占用的字节数
+     */
+    public static final int MAX_VARLONG_SIZE = 10;
+
+    /**
+     * int最多占用的字节数
+     */
+    public static final int MAX_VARINT_SIZE = 5;
+
+    private VarInt() {
+    }
+
+    /**
+     * 编码后的字节数
+     *
+     * @param value 按无符号数处理
+     * @return
+     */
+    public static int sizeOf(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 写入变长整数
+     *
+     * @param buffer 目标数组，调用方保证从offset开始至少有sizeOf(value)个字节
+     * @param offset 写入位置
+     * @param value  按无符号数处理
+     * @return 写入后的位置
+     */
+    public static int putVarLong(byte[] buffer, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * 读取变长整数
+     *
+     * @param buffer 数组
+     * @param offset 起始位置
+     * @param end    可读范围的结束位置（不包含）
+     * @return
+     * @throws IllegalArgumentException 数据不完整或超过10个字节
+     */
+    public static long getVarLong(byte[] buffer, int offset, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (offset >= end) {
+                throw new IllegalArgumentException("变长整数不完整");
+            }
+            byte b = buffer[offset++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("变长整数超过" + MAX_VARLONG_SIZE + "个字节");
+    }
+
+    /**
+     * offset处变长整数占用的字节数，与getVarLong配合使用
+     *
+     * @param buffer 数组
+     * @param offset 起始位置
+     * @param end    可读范围的结束位置（不包含）
+     * @return
+     * @throws IllegalArgumentException 数据不完整或超过10个字节
+     */
+    public static int lengthAt(byte[] buffer, int offset, int end) {
+        for (int i = 0; i < MAX_VARLONG_SIZE; i++) {
+            if (offset + i >= end) {
+                throw new IllegalArgumentException("变长整数不完整");
+            }
+            if ((buffer[offset + i] & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("变长整数超过" + MAX_VARLONG_SIZE + "个字节");
+    }
+
+    /**
+     * zigzag编码：0,-1,1,-2,2...映射为0,1,2,3,4...
+     */
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * zigzag解码
+     */
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 编码为独立的字节数组
+     *
+     * @param value 按无符号数处理
+     * @return
+     */
+    public static byte[] toBytes(long value) {
+        byte[] bytes = new byte[sizeOf(value)];
+        putVarLong(bytes, 0, value);
+        return bytes;
+    }
+}
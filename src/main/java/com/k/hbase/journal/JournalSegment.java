@@ -0,0 +1,223 @@
+package com.k.hbase.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 日志段文件，内存映射、只追加
+ * 文件格式：
+ * [magic 4字节][version 4字节][record]...[0]
+ * record = [payload长度 4字节][payload的CRC32 4字节][payload]
+ * 文件创建时按固定大小映射，未写入的部分全为0，读到长度为0的记录即为段末尾
+ */
+class JournalSegment {
+    private static final Logger logger = LoggerFactory.getLogger(JournalSegment.class);
+
+    static final int MAGIC = 0x4B4A524E;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".seg";
+
+    private final long id;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private volatile int writePosition;
+
+    /**
+     * 读取到的一条记录
+     */
+    static class Record {
+        final byte[] payload;
+        final int nextPosition;
+
+        Record(byte[] payload, int nextPosition) {
+            this.payload = payload;
+            this.nextPosition = nextPosition;
+        }
+    }
+
+    private JournalSegment(long id, File file, int capacity) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.capacity = capacity;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < capacity) {
+                raf.setLength(capacity);
+            }
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 新建日志段
+     *
+     * @param dir      日志目录
+     * @param id       段序号
+     * @param capacity 段大小（字节）
+     * @return
+     * @throws IOException
+     */
+    static JournalSegment create(File dir, long id, int capacity) throws IOException {
+        JournalSegment segment = new JournalSegment(id, new File(dir, fileName(id)), capacity);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.writePosition = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * 打开已有的日志段，并从头校验记录找到写入位置，末尾不完整或校验失败的记录会被截掉
+     *
+     * @param file 段文件
+     * @return
+     * @throws IOException
+     */
+    static JournalSegment open(File file) throws IOException {
+        long id = parseId(file.getName());
+        int capacity = (int) file.length();
+        JournalSegment segment = new JournalSegment(id, file, capacity);
+        if (capacity < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC) {
+            segment.close();
+            throw new IOException("日志段:" + file + "格式错误");
+        }
+        int position = HEADER_SIZE;
+        Record record;
+        while ((record = segment.read(position, capacity)) != null) {
+            position = record.nextPosition;
+        }
+        // 截掉损坏的尾部，后续追加从这里开始
+        for (int i = position; i < Math.min(capacity, position + RECORD_HEADER_SIZE); i++) {
+            segment.buffer.put(i, (byte) 0);
+        }
+        segment.writePosition = position;
+        return segment;
+    }
+
+    static boolean isSegmentFile(String name) {
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    static long parseId(String name) {
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static String fileName(long id) {
+        return String.format("%s%020d%s", PREFIX, id, SUFFIX);
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param payload 记录内容
+     * @return 空间不足时返回false
+     */
+    synchronized boolean append(byte[] payload) {
+        int position = writePosition;
+        int required = RECORD_HEADER_SIZE + payload.length;
+        // 记录之后至少保留4个字节的0作为结束标记
+        if (position + required + 4 > capacity) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + RECORD_HEADER_SIZE);
+        target.put(payload);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // 长度最后写，读取方看到非0长度时记录内容已经完整
+        buffer.putInt(position, payload.length);
+        writePosition = position + required;
+        return true;
+    }
+
+    /**
+     * 读取指定位置的记录，只读取已经追加完成的部分
+     *
+     * @param position 记录起始位置
+     * @return 到达已写入位置、段末尾或记录损坏时返回null
+     */
+    Record read(int position) {
+        // 先读volatile的写入位置，保证能看到追加线程写入映射内存的内容
+        return read(position, writePosition);
+    }
+
+    private Record read(int position, int limit) {
+        if (position + RECORD_HEADER_SIZE > limit) {
+            return null;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER_SIZE + length > limit) {
+            return null;
+        }
+        int checksum = buffer.getInt(position + 4);
+        byte[] payload = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(position + RECORD_HEADER_SIZE);
+        source.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            logger.warn("日志段:{}位置:{}的记录校验失败，视为段末尾", file.getName(), position);
+            return null;
+        }
+        return new Record(payload, position + RECORD_HEADER_SIZE + length);
+    }
+
+    /**
+     * 把映射内存中的修改刷到磁盘
+     */
+    void force() {
+        buffer.force();
+    }
+
+    long getId() {
+        return id;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            logger.error("关闭日志段:{}失败", file.getName(), e);
+        }
+    }
+
+    /**
+     * 关闭并删除段文件
+     */
+    void delete() {
+        close();
+        if (!file.delete()) {
+            logger.error("删除日志段:{}失败", file.getName());
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package com.k.hbase.journal;
+
+import com.k.hbase.util.ClientMetrics;
+import com.k.hbase.util.HBaseUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地持久化的写入溢出日志
+ * 集群拒绝写入、写入超时或客户端队列已满时，把数据追加到本地内存映射的日志段中，由后台线程在集群恢复后按写入顺序回放到HBase。
+ * 1. 日志段只追加，每条记录带CRC32校验，进程重启后从断点继续回放
+ * 2. 某张表还有未回放的数据时，这张表的新写入也直接进日志，避免新数据被之后回放的旧数据覆盖
+ * 3. 已回放完的日志段直接删除；未回放数据超过上限时拒绝追加并抛出异常，由调用方决定如何处理
+ * 注意：Increment和Append不是幂等操作，回放中途失败重试时可能被重复执行
+ */
+public class SpillJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SpillJournal.class);
+
+    private static final String CHECKPOINT_FILE = "replay.pos";
+
+    private final File dir;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final boolean syncEachAppend;
+    private final int replayBatchSize;
+
+    // 按序号排列的日志段，最后一个是当前追加的段
+    private final List<JournalSegment> segments = new ArrayList<JournalSegment>();
+    private volatile JournalSegment active;
+
+    // 回放断点
+    private volatile long checkpointSegment;
+    private volatile int checkpointPosition;
+
+    private final ConcurrentHashMap<String, AtomicLong> pendingByTable = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong appended = ClientMetrics.counter("journal.appended");
+    private final AtomicLong replayed = ClientMetrics.counter("journal.replayed");
+    private final AtomicLong rejected = ClientMetrics.counter("journal.rejected");
+    private final AtomicLong replayFailures = ClientMetrics.counter("journal.replayFailures");
+
+    private final Object replayLock = new Object();
+    private ScheduledExecutorService replayer;
+    private volatile boolean closed = false;
+
+    private SpillJournal(File dir, int segmentSize, long maxBytes, boolean syncEachAppend, int replayBatchSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.syncEachAppend = syncEachAppend;
+        this.replayBatchSize = replayBatchSize;
+    }
+
+    /**
+     * 打开日志目录，目录中已有未回放的数据会被重新计入待回放
+     *
+     * @param dir             日志目录
+     * @param segmentSize     单个日志段大小（字节）
+     * @param maxBytes        日志总大小上限（字节）
+     * @param syncEachAppend  每次追加后是否立即刷盘，关闭时由回放线程定时刷盘
+     * @param replayBatchSize 回放时每批提交的最大条数
+     * @return
+     * @throws IOException
+     */
+    public static SpillJournal open(File dir, int segmentSize, long maxBytes, boolean syncEachAppend, int replayBatchSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建日志目录:" + dir);
+        }
+        SpillJournal journal = new SpillJournal(dir, segmentSize, maxBytes, syncEachAppend, Math.max(1, replayBatchSize));
+        journal.recover();
+        journal.registerMetrics();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles();
+        List<File> segmentFiles = new ArrayList<File>();
+        if (files != null) {
+            for (File f : files) {
+                if (JournalSegment.isSegmentFile(f.getName())) {
+                    segmentFiles.add(f);
+                }
+            }
+        }
+        Collections.sort(segmentFiles);
+        for (File f : segmentFiles) {
+            segments.add(JournalSegment.open(f));
+        }
+        loadCheckpoint();
+        // 断点之前的段已经回放完成
+        while (!segments.isEmpty() && segments.get(0).getId() < checkpointSegment) {
+            segments.remove(0).delete();
+        }
+        for (JournalSegment segment : segments) {
+            int position = startPosition(segment);
+            JournalSegment.Record record;
+            while ((record = segment.read(position)) != null) {
+                pendingCounter(readTableName(record.payload)).incrementAndGet();
+                pending.incrementAndGet();
+                position = record.nextPosition;
+            }
+        }
+        if (segments.isEmpty()) {
+            active = JournalSegment.create(dir, Math.max(1, checkpointSegment), segmentSize);
+            segments.add(active);
+        } else {
+            active = segments.get(segments.size() - 1);
+        }
+        if (pending.get() > 0) {
+            logger.warn("日志目录:{}中有{}条未回放的数据", dir, pending.get());
+        }
+    }
+
+    private void registerMetrics() {
+        ClientMetrics.registerGauge("journal.pendingRecords", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return pending.get();
+            }
+        });
+        ClientMetrics.registerGauge("journal.diskBytes", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return diskBytes();
+            }
+        });
+    }
+
+    /**
+     * 追加数据到日志，一批数据要么全部追加成功，要么全部失败
+     *
+     * @param tableName 表名
+     * @param mutations 写入失败的数据
+     * @throws IOException 日志已满或写入本地文件失败
+     */
+    public void append(String tableName, List<? extends Mutation> mutations) throws IOException {
+        if (closed) {
+            throw new IOException("溢出日志已关闭");
+        }
+        List<byte[]> payloads = new ArrayList<byte[]>(mutations.size());
+        long bytes = 0;
+        for (Mutation m : mutations) {
+            byte[] payload = encode(tableName, m);
+            if (payload.length + JournalSegment.HEADER_SIZE + JournalSegment.RECORD_HEADER_SIZE + 4 > segmentSize) {
+                throw new IOException("单条数据大小:" + payload.length + "超过日志段大小:" + segmentSize);
+            }
+            payloads.add(payload);
+            bytes += payload.length + JournalSegment.RECORD_HEADER_SIZE;
+        }
+        synchronized (this) {
+            // close在同一把锁下关闭日志段，进入同步块后要再检查一次
+            if (closed) {
+                throw new IOException("溢出日志已关闭");
+            }
+            if (diskBytes() + bytes > maxBytes) {
+                rejected.addAndGet(mutations.size());
+                throw new IOException("溢出日志已达到大小上限:" + maxBytes + "字节");
+            }
+            for (byte[] payload : payloads) {
+                if (!active.append(payload)) {
+                    rollSegment();
+                    active.append(payload);
+                }
+            }
+            if (syncEachAppend) {
+                active.force();
+            }
+            pendingCounter(tableName).addAndGet(mutations.size());
+            pending.addAndGet(mutations.size());
+        }
+        appended.addAndGet(mutations.size());
+    }
+
+    /**
+     * 当前段写满，封存并新建下一个段
+     */
+    private void rollSegment() throws IOException {
+        active.force();
+        JournalSegment next = JournalSegment.create(dir, active.getId() + 1, segmentSize);
+        synchronized (segments) {
+            segments.add(next);
+        }
+        active = next;
+    }
+
+    /**
+     * 指定表是否还有未回放的数据
+     *
+     * @param tableName 表名
+     * @return
+     */
+    public boolean hasPending(String tableName) {
+        AtomicLong counter = pendingByTable.get(tableName);
+        return counter != null && counter.get() > 0;
+    }
+
+    /**
+     * 未回放的数据条数
+     *
+     * @return
+     */
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * 启动后台回放线程
+     *
+     * @param intervalMs 回放间隔（毫秒），回放失败时等待下一个间隔重试
+     */
+    public synchronized void startReplayer(long intervalMs) {
+        if (replayer != null) {
+            return;
+        }
+        replayer = Executors.newSingleThreadScheduledExecutor(ClientMetrics.daemonThreadFactory("hbase-journal-replayer"));
+        replayer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!syncEachAppend) {
+                        synchronized (SpillJournal.this) {
+                            if (closed) {
+                                return;
+                            }
+                            active.force();
+                        }
+                    }
+                    if (pending.get() > 0) {
+                        replay();
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("溢出日志回放失败", e);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 按写入顺序回放日志中的数据，遇到失败时停止，下次从断点继续
+     *
+     * @return 本次回放成功的条数
+     */
+    public long replay() {
+        synchronized (replayLock) {
+            long count = 0;
+            while (!closed) {
+                JournalSegment segment;
+                boolean sealed;
+                synchronized (segments) {
+                    segment = segments.get(0);
+                    sealed = segments.size() > 1;
+                }
+                int position = startPosition(segment);
+                List<Mutation> batch = new ArrayList<Mutation>();
+                Set<byte[]> rows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+                String batchTable = null;
+                JournalSegment.Record record;
+                while ((record = segment.read(position)) != null) {
+                    String tableName = readTableName(record.payload);
+                    Mutation mutation;
+                    try {
+                        mutation = decode(record.payload);
+                    } catch (IOException e) {
+                        // 校验通过但无法解析的记录直接跳过，避免阻塞后续回放
+                        logger.error("日志段:{}位置:{}的记录无法解析，已跳过", segment.getFile().getName(), position, e);
+                        pendingCounter(tableName).decrementAndGet();
+                        pending.decrementAndGet();
+                        position = record.nextPosition;
+                        continue;
+                    }
+                    // 同一行的多次修改分批提交，保证回放顺序
+                    if (!batch.isEmpty() && (!tableName.equals(batchTable) || rows.contains(mutation.getRow()) || batch.size() >= replayBatchSize)) {
+                        if (!submit(batchTable, batch)) {
+                            return count;
+                        }
+                        count += batch.size();
+                        saveCheckpoint(segment.getId(), position);
+                        batch.clear();
+                        rows.clear();
+                    }
+                    batchTable = tableName;
+                    batch.add(mutation);
+                    rows.add(mutation.getRow());
+                    position = record.nextPosition;
+                }
+                if (!batch.isEmpty()) {
+                    if (!submit(batchTable, batch)) {
+                        return count;
+                    }
+                    count += batch.size();
+                }
+                saveCheckpoint(segment.getId(), position);
+                if (!sealed) {
+                    return count;
+                }
+                // 封存的段已全部回放，删除后继续下一个段
+                synchronized (segments) {
+                    segments.remove(0);
+                }
+                saveCheckpoint(segment.getId() + 1, JournalSegment.HEADER_SIZE);
+                segment.delete();
+            }
+            return count;
+        }
+    }
+
+    private boolean submit(String tableName, List<Mutation> batch) {
+        Table table = HBaseUtil.getTable(tableName);
+        if (table == null) {
+            replayFailures.incrementAndGet();
+            return false;
+        }
+        try {
+            table.batch(batch, new Object[batch.size()]);
+        } catch (IOException e) {
+            replayFailures.incrementAndGet();
+            logger.warn("表:{}回放{}条数据失败，稍后重试: {}", tableName, batch.size(), e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            try {
+                table.close();
+            } catch (IOException e) {
+                logger.warn("关闭表:{}失败", tableName, e);
+            }
+        }
+        pendingCounter(tableName).addAndGet(-batch.size());
+        pending.addAndGet(-batch.size());
+        replayed.addAndGet(batch.size());
+        return true;
+    }
+
+    private int startPosition(JournalSegment segment) {
+        return segment.getId() == checkpointSegment ? Math.max(checkpointPosition, JournalSegment.HEADER_SIZE) : JournalSegment.HEADER_SIZE;
+    }
+
+    private long diskBytes() {
+        synchronized (segments) {
+            long bytes = 0;
+            for (JournalSegment segment : segments) {
+                bytes += segment == active ? segment.getWritePosition() : segment.getCapacity();
+            }
+            if (!segments.isEmpty() && segments.get(0).getId() == checkpointSegment) {
+                bytes -= checkpointPosition;
+            }
+            return Math.max(0, bytes);
+        }
+    }
+
+    private AtomicLong pendingCounter(String tableName) {
+        AtomicLong counter = pendingByTable.get(tableName);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = pendingByTable.putIfAbsent(tableName, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    private void loadCheckpoint() throws IOException {
+        File file = new File(dir, CHECKPOINT_FILE);
+        if (!file.exists()) {
+            checkpointSegment = 0;
+            checkpointPosition = JournalSegment.HEADER_SIZE;
+            return;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        checkpointSegment = Long.parseLong(properties.getProperty("segment", "0"));
+        checkpointPosition = Integer.parseInt(properties.getProperty("position", String.valueOf(JournalSegment.HEADER_SIZE)));
+    }
+
+    private void saveCheckpoint(long segmentId, int position) {
+        if (segmentId == checkpointSegment && position == checkpointPosition) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("segment", String.valueOf(segmentId));
+        properties.setProperty("position", String.valueOf(position));
+        File tmp = new File(dir, CHECKPOINT_FILE + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+            File file = new File(dir, CHECKPOINT_FILE);
+            if (!tmp.renameTo(file)) {
+                // Windows下rename不能覆盖已有文件
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("重命名" + tmp + "失败");
+                }
+            }
+            checkpointSegment = segmentId;
+            checkpointPosition = position;
+        } catch (IOException e) {
+            logger.error("保存回放断点失败", e);
+        }
+    }
+
+    static byte[] encode(String tableName, Mutation mutation) throws IOException {
+        MutationProto proto;
+        if (mutation instanceof Put) {
+            proto = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, mutation);
+        } else if (mutation instanceof Delete) {
+            proto = ProtobufUtil.toMutation(MutationProto.MutationType.DELETE, mutation);
+        } else if (mutation instanceof Increment) {
+            proto = ProtobufUtil.toMutation((Increment) mutation, MutationProto.newBuilder(), HConstants.NO_NONCE);
+        } else if (mutation instanceof Append) {
+            proto = ProtobufUtil.toMutation(MutationProto.MutationType.APPEND, mutation);
+        } else {
+            throw new IOException("不支持的数据类型:" + mutation.getClass().getName());
+        }
+        byte[] table = Bytes.toBytes(tableName);
+        byte[] body = proto.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(2 + table.length + body.length);
+        buffer.putShort((short) table.length);
+        buffer.put(table);
+        buffer.put(body);
+        return buffer.array();
+    }
+
+    static String readTableName(byte[] payload) {
+        int length = Bytes.toShort(payload, 0);
+        return Bytes.toString(payload, 2, length);
+    }
+
+    static Mutation decode(byte[] payload) throws IOException {
+        int length = Bytes.toShort(payload, 0);
+        byte[] body = Arrays.copyOfRange(payload, 2 + length, payload.length);
+        MutationProto proto = MutationProto.parseFrom(body);
+        switch (proto.getMutateType()) {
+            case PUT:
+                return ProtobufUtil.toPut(proto);
+            case DELETE:
+                return ProtobufUtil.toDelete(proto);
+            case INCREMENT:
+                return ProtobufUtil.toIncrement(proto, null);
+            case APPEND:
+                return ProtobufUtil.toAppend(proto, null);
+            default:
+                throw new IOException("不支持的数据类型:" + proto.getMutateType());
+        }
+    }
+
+    /**
+     * 停止回放线程并关闭日志，未回放的数据保留在磁盘上，下次打开时继续回放
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (replayer != null) {
+                replayer.shutdown();
+            }
+        }
+        // 等待进行中的回放结束，再在append使用的锁下关闭日志段
+        synchronized (replayLock) {
+            synchronized (this) {
+                synchronized (segments) {
+                    for (JournalSegment segment : segments) {
+                        segment.force();
+                        segment.close();
+                    }
+                }
+            }
+        }
+        ClientMetrics.removeGauge("journal.pendingRecords");
+        ClientMetrics.removeGauge("journal.diskBytes");
+    }
+}
@@ -0,0 +1,19 @@
+package com.k.hbase.sync;
+
+import java.io.IOException;
+
+/**
+ * 增量变更的接收方，会被多个线程同时调用，实现需要线程安全
+ * 同一行的变更只会在一个线程中出现；重跑未完成的region时变更可能重复投递，接收方需要按幂等处理
+ */
+public interface ChangeSink {
+
+    /**
+     * 处理一行变更
+     *
+     * @param tableName 表名
+     * @param change    变更
+     * @throws IOException 抛出异常时终止本次拉取，已完成的region记入断点，下次从未完成的region继续
+     */
+    void onChange(String tableName, RowChange change) throws IOException;
+}
@@ -0,0 +1,167 @@
+package com.k.hbase.sync;
+
+import com.k.hbase.util.CheckpointStore;
+import com.k.hbase.util.ClientMetrics;
+import com.k.hbase.util.ParallelScanner;
+import com.k.hbase.util.ScanQuery;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 增量拉取
+ * 每次拉取[上次断点, 当前时间-安全延迟)区间内写入的数据：按region并行扫描，扫描条件带上时间范围，
+ * 服务端会跳过时间范围之外的HFile和单元格，只有变化的行会返回。开启删除检测时使用原始扫描，删除标记也会返回。
+ * <p>
+ * 断点保存在本地文件中：每完成一个region记录一次，全部完成后推进水位线。中途失败时下次使用相同的区间重跑，
+ * 只扫描未完成的region。
+ * <pre>
+ * IncrementalPuller puller = new IncrementalPuller("tabletest", new CheckpointStore(new File("/data/sync/tabletest.ckpt")))
+ *         .safetyLagMs(60000).detectDeletes(true);
+ * long changed = puller.pull(sink);
+ * </pre>
+ * 注意：按单元格时间戳判断变化，客户端指定了过去时间戳的写入不会被拉到；安全延迟需要大于各节点时钟偏差和写入的最大耗时
+ */
+public class IncrementalPuller {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalPuller.class);
+
+    private final String tableName;
+    private final CheckpointStore checkpoint;
+    private ScanQuery query = ScanQuery.builder().build();
+    private long safetyLagMs = 60 * 1000L;
+    private long initialWatermark = 0;
+    private int parallelism = 8;
+    private boolean detectDeletes = false;
+
+    /**
+     * @param tableName  表名
+     * @param checkpoint 断点文件，同一个文件可以保存多张表的断点
+     */
+    public IncrementalPuller(String tableName, CheckpointStore checkpoint) {
+        this.tableName = tableName;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * 扫描条件（列族、列、过滤器等），其中的时间范围和起止行健会被忽略
+     */
+    public IncrementalPuller query(ScanQuery query) {
+        this.query = query;
+        return this;
+    }
+
+    /**
+     * 安全延迟（毫秒），只拉取这个时间之前写入的数据，默认60秒
+     */
+    public IncrementalPuller safetyLagMs(long safetyLagMs) {
+        this.safetyLagMs = safetyLagMs;
+        return this;
+    }
+
+    /**
+     * 没有断点时的起始时间，默认0，即首次拉取全表
+     */
+    public IncrementalPuller initialWatermark(long initialWatermark) {
+        this.initialWatermark = initialWatermark;
+        return this;
+    }
+
+    /**
+     * 并行扫描的最大region数，默认8
+     */
+    public IncrementalPuller parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 是否检测删除，开启后使用原始扫描，返回区间内的删除标记和所有版本；原始扫描不能使用过滤器
+     */
+    public IncrementalPuller detectDeletes(boolean detectDeletes) {
+        this.detectDeletes = detectDeletes;
+        return this;
+    }
+
+    /**
+     * 当前水位线，之前的数据已经全部拉取
+     *
+     * @return
+     */
+    public long getWatermark() {
+        return checkpoint.getLong(key("watermark"), initialWatermark);
+    }
+
+    /**
+     * 拉取一次增量
+     *
+     * @param sink 变更接收方
+     * @return 变化的行数
+     * @throws IOException 扫描或接收方失败，已完成的region已记入断点
+     */
+    public long pull(final ChangeSink sink) throws IOException {
+        long start = getWatermark();
+        // 上次没有跑完时沿用上次的区间，已完成的region不需要重跑
+        long end = checkpoint.getLong(key("pending.end"), -1);
+        if (end < 0) {
+            end = System.currentTimeMillis() - safetyLagMs;
+            if (end <= start) {
+                return 0;
+            }
+            checkpoint.put(key("pending.end"), end);
+            checkpoint.save();
+        }
+
+        final RegionProgress progress = new RegionProgress(checkpoint, tableName);
+        List<ParallelScanner.ScanRange> ranges = new ArrayList<ParallelScanner.ScanRange>();
+        for (ParallelScanner.ScanRange range : ParallelScanner.plan(tableName, null, null)) {
+            if (!progress.isDone(range)) {
+                ranges.add(range);
+            }
+        }
+        logger.info("表:{}增量拉取[{}, {})，需要扫描{}个region", tableName, start, end, ranges.size());
+
+        Scan template = query.newScan();
+        template.setTimeRange(start, end);
+        template.setCacheBlocks(false);
+        if (detectDeletes) {
+            if (template.hasFilter()) {
+                throw new IllegalArgumentException("删除检测使用原始扫描，不能带过滤器");
+            }
+            template.setRaw(true);
+            template.setMaxVersions();
+        }
+
+        final AtomicLong changed = new AtomicLong();
+        long begin = System.currentTimeMillis();
+        ParallelScanner.scan(tableName, template, ranges, parallelism, new ParallelScanner.Handler() {
+            @Override
+            public void handle(ParallelScanner.ScanRange range, Result result) throws IOException {
+                sink.onChange(tableName, RowChange.fromResult(result));
+                changed.incrementAndGet();
+            }
+
+            @Override
+            public void onRangeComplete(ParallelScanner.ScanRange range, long rows) throws IOException {
+                progress.markDone(range);
+            }
+        });
+
+        checkpoint.put(key("watermark"), end);
+        checkpoint.remove(key("pending.end"));
+        progress.clear();
+        checkpoint.save();
+        ClientMetrics.incr("incrementalPull." + tableName + ".changedRows", changed.get());
+        logger.info("表:{}增量拉取[{}, {})完成，{}行变化，耗时{}毫秒", tableName, start, end, changed.get(), System.currentTimeMillis() - begin);
+        return changed.get();
+    }
+
+    private String key(String name) {
+        return tableName + "." + name;
+    }
+}
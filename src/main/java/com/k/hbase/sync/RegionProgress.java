@@ -0,0 +1,53 @@
+package com.k.hbase.sync;
+
+import com.k.hbase.util.CheckpointStore;
+import com.k.hbase.util.ParallelScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 按region记录的任务进度，保存在断点文件中，key为“前缀.done.起始行健”，value为结束行健
+ * region边界可能在两次运行之间变化（分裂、合并），只有被某个已完成区间完整覆盖的区间才算完成
+ */
+class RegionProgress {
+    private final CheckpointStore checkpoint;
+    private final String prefix;
+    private final Map<String, String> done;
+
+    RegionProgress(CheckpointStore checkpoint, String prefix) {
+        this.checkpoint = checkpoint;
+        this.prefix = prefix + ".done.";
+        this.done = checkpoint.getPrefix(this.prefix);
+    }
+
+    boolean isDone(ParallelScanner.ScanRange range) {
+        for (Map.Entry<String, String> entry : done.entrySet()) {
+            byte[] doneStart = Bytes.toBytesBinary(entry.getKey());
+            byte[] doneStop = Bytes.toBytesBinary(entry.getValue());
+            boolean coversStart = Bytes.compareTo(doneStart, range.getStartRow()) <= 0;
+            boolean coversStop = doneStop.length == 0
+                    || (range.getStopRow().length > 0 && Bytes.compareTo(doneStop, range.getStopRow()) >= 0);
+            if (coversStart && coversStop) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 记录一个区间完成并立即写入断点文件
+     */
+    void markDone(ParallelScanner.ScanRange range) throws IOException {
+        checkpoint.put(prefix + Bytes.toStringBinary(range.getStartRow()), Bytes.toStringBinary(range.getStopRow()));
+        checkpoint.save();
+    }
+
+    /**
+     * 清除所有区间记录，调用方负责save
+     */
+    void clear() {
+        checkpoint.removePrefix(prefix);
+    }
+}
@@ -0,0 +1,83 @@
+package com.k.hbase.sync;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一行在拉取区间内的变更：新写入的单元格和删除标记
+ */
+public class RowChange {
+    private final byte[] row;
+    private final List<Cell> puts;
+    private final List<Cell> deletes;
+
+    RowChange(byte[] row, List<Cell> puts, List<Cell> deletes) {
+        this.row = row;
+        this.puts = puts;
+        this.deletes = deletes;
+    }
+
+    /**
+     * 把扫描结果中的单元格按写入和删除标记分开
+     *
+     * @param result 扫描结果，原始扫描时包含删除标记
+     * @return
+     */
+    static RowChange fromResult(Result result) {
+        List<Cell> puts = new ArrayList<Cell>();
+        List<Cell> deletes = Collections.emptyList();
+        for (Cell cell : result.rawCells()) {
+            if (CellUtil.isDelete(cell)) {
+                if (deletes.isEmpty()) {
+                    deletes = new ArrayList<Cell>();
+                }
+                deletes.add(cell);
+            } else {
+                puts.add(cell);
+            }
+        }
+        return new RowChange(result.getRow(), puts, deletes);
+    }
+
+    public byte[] getRow() {
+        return row;
+    }
+
+    /**
+     * 区间内新写入的单元格
+     *
+     * @return
+     */
+    public List<Cell> getPuts() {
+        return puts;
+    }
+
+    /**
+     * 区间内的删除标记，只有开启删除检测时才有
+     *
+     * @return
+     */
+    public List<Cell> getDeletes() {
+        return deletes;
+    }
+
+    /**
+     * 区间内只有删除没有写入
+     *
+     * @return
+     */
+    public boolean isDeleteOnly() {
+        return puts.isEmpty() && !deletes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return Bytes.toStringBinary(row) + "{puts=" + puts.size() + ", deletes=" + deletes.size() + "}";
+    }
+}
@@ -0,0 +1,21 @@
+package com.k.hbase.sync;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+
+import java.io.IOException;
+
+/**
+ * 复制时的行转换，会被多个线程同时调用，实现需要线程安全
+ */
+public interface RowTransformer {
+
+    /**
+     * 把源表的一行转换成写入目标表的Put，可以修改行健、列族、列名和值
+     *
+     * @param source 源表的一行
+     * @return 写入目标表的数据，返回null表示跳过这一行
+     * @throws IOException 抛出异常时终止复制
+     */
+    Put transform(Result source) throws IOException;
+}
@@ -0,0 +1,369 @@
+package com.k.hbase.sync;
+
+import com.k.hbase.util.AdaptiveWriteBuffer;
+import com.k.hbase.util.CheckpointStore;
+import com.k.hbase.util.ClientMetrics;
+import com.k.hbase.util.HBaseUtil;
+import com.k.hbase.util.ParallelScanner;
+import com.k.hbase.util.ScanQuery;
+import com.k.hbase.util.TokenBucket;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 表复制与迁移
+ * 按源表region并行读取，可选逐行转换后写入目标表共享的BufferedMutator（内部按region server并发提交），
+ * 按行数和字节数全局限流。每完成一个region记录断点并flush，中断后重跑只复制未完成的region。
+ * 复制完成后可以抽样校验：服务端随机抽取源表的行，与目标表对应行比较列和值的摘要。
+ * <pre>
+ * HBaseUtil.createTable("tabletest_v2", new String[]{"cfs1", "cfs2"}, true);
+ * TableCopier copier = new TableCopier("tabletest", "tabletest_v2")
+ *         .parallelism(8).rowsPerSecond(20000).bytesPerSecond(20 * 1024 * 1024)
+ *         .checkpoint(new CheckpointStore(new File("/data/copy/tabletest.ckpt")));
+ * copier.copy();
+ * long mismatched = copier.verify(0.001);
+ * </pre>
+ * 目标表需要提前创建，可以和源表使用不同的预分区、压缩、版本数等配置；未指定转换时保留单元格原有的时间戳
+ */
+public class TableCopier {
+    private static final Logger logger = LoggerFactory.getLogger(TableCopier.class);
+
+    // 每个读取线程攒够这么多行再申请令牌并提交
+    private static final int WRITE_BATCH = 100;
+    // 校验时每批Get的行数
+    private static final int VERIFY_BATCH = 100;
+
+    private final String sourceTable;
+    private final String targetTable;
+    private ScanQuery query = ScanQuery.builder().cacheBlocks(false).build();
+    private RowTransformer transformer;
+    private int parallelism = 8;
+    private double rowsPerSecond = 0;
+    private double bytesPerSecond = 0;
+    private CheckpointStore checkpoint;
+
+    public TableCopier(String sourceTable, String targetTable) {
+        this.sourceTable = sourceTable;
+        this.targetTable = targetTable;
+    }
+
+    /**
+     * 源表的读取条件（列族、列、时间范围、过滤器、起止行健等）
+     */
+    public TableCopier query(ScanQuery query) {
+        this.query = query;
+        return this;
+    }
+
+    /**
+     * 逐行转换，默认原样复制
+     */
+    public TableCopier transformer(RowTransformer transformer) {
+        this.transformer = transformer;
+        return this;
+    }
+
+    /**
+     * 并行读取的最大region数，默认8
+     */
+    public TableCopier parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 每秒最多写入的行数，小于等于0不限流
+     */
+    public TableCopier rowsPerSecond(double rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+        return this;
+    }
+
+    /**
+     * 每秒最多写入的字节数，小于等于0不限流
+     */
+    public TableCopier bytesPerSecond(double bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * 断点文件，不设置时不支持断点续跑
+     */
+    public TableCopier checkpoint(CheckpointStore checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * 复制数据
+     *
+     * @return 写入目标表的行数
+     * @throws IOException 读取、转换或写入失败，已完成的region已记入断点
+     */
+    public long copy() throws IOException {
+        final RegionProgress progress = checkpoint == null ? null : new RegionProgress(checkpoint, progressKey());
+        List<ParallelScanner.ScanRange> ranges = new ArrayList<ParallelScanner.ScanRange>();
+        for (ParallelScanner.ScanRange range : ParallelScanner.plan(sourceTable, query.getStartRow(), query.getStopRow())) {
+            if (progress == null || !progress.isDone(range)) {
+                ranges.add(range);
+            }
+        }
+        logger.info("表:{}复制到{}，需要读取{}个region", sourceTable, targetTable, ranges.size());
+
+        final AtomicLong read = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final TokenBucket rowLimiter = new TokenBucket(rowsPerSecond);
+        final TokenBucket byteLimiter = new TokenBucket(bytesPerSecond);
+
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(targetTable))
+                .listener(new BufferedMutator.ExceptionListener() {
+                    public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator bufferedMutator) {
+                        failed.addAndGet(e.getNumExceptions());
+                        List<Mutation> rows = new ArrayList<Mutation>();
+                        for (int i = 0; i < e.getNumExceptions(); i++) {
+                            rows.add((Mutation) e.getRow(i));
+                        }
+                        if (!HBaseUtil.spill(targetTable, rows)) {
+                            logger.error("表:{}写入{}行失败", targetTable, e.getNumExceptions(), e);
+                        }
+                    }
+                });
+        params.writeBufferSize(AdaptiveWriteBuffer.forTable(targetTable).getWriteBufferSize());
+        final BufferedMutator mutator = HBaseUtil.getConn().getBufferedMutator(params);
+
+        final ThreadLocal<List<Put>> pending = new ThreadLocal<List<Put>>() {
+            @Override
+            protected List<Put> initialValue() {
+                return new ArrayList<Put>(WRITE_BATCH);
+            }
+        };
+        final ThreadLocal<long[]> pendingBytes = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        try {
+            ParallelScanner.scan(sourceTable, query.newScan(), ranges, parallelism, new ParallelScanner.Handler() {
+                @Override
+                public void handle(ParallelScanner.ScanRange range, Result result) throws IOException {
+                    read.incrementAndGet();
+                    Put put = transformer == null ? copyOf(result) : transformer.transform(result);
+                    if (put == null || put.isEmpty()) {
+                        return;
+                    }
+                    List<Put> batch = pending.get();
+                    batch.add(put);
+                    pendingBytes.get()[0] += put.heapSize();
+                    if (batch.size() >= WRITE_BATCH) {
+                        submit(batch);
+                    }
+                }
+
+                @Override
+                public void onRangeComplete(ParallelScanner.ScanRange range, long rows) throws IOException {
+                    submit(pending.get());
+                    if (progress != null) {
+                        // 断点之前的数据必须已经写入目标表
+                        mutator.flush();
+                        progress.markDone(range);
+                    }
+                }
+
+                private void submit(List<Put> batch) throws IOException {
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                    long size = pendingBytes.get()[0];
+                    try {
+                        rowLimiter.acquire(batch.size());
+                        byteLimiter.acquire((int) Math.min(size, Integer.MAX_VALUE));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("复制表:" + sourceTable + "被中断");
+                    }
+                    mutator.mutate(batch);
+                    written.addAndGet(batch.size());
+                    bytes.addAndGet(size);
+                    batch.clear();
+                    pendingBytes.get()[0] = 0;
+                }
+            });
+            mutator.flush();
+        } finally {
+            mutator.close();
+        }
+        if (progress != null) {
+            progress.clear();
+            checkpoint.save();
+        }
+        long count = written.get() - failed.get();
+        ClientMetrics.incr("copy." + targetTable + ".rows", count);
+        ClientMetrics.incr("copy." + targetTable + ".bytes", bytes.get());
+        logger.info("表:{}复制到{}完成，读取{}行，写入{}行（{}字节），失败{}行，耗时{}毫秒", sourceTable, targetTable,
+                read.get(), count, bytes.get(), failed.get(), System.currentTimeMillis() - start);
+        return count;
+    }
+
+    /**
+     * 抽样校验，源表按比例随机抽取的行经过转换后与目标表对应行比较列和值（不比较时间戳）
+     *
+     * @param sampleRate 抽样比例(0, 1]
+     * @return 不一致的行数（包括目标表缺失的行）
+     * @throws IOException
+     */
+    public long verify(float sampleRate) throws IOException {
+        if (sampleRate <= 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("抽样比例必须在(0, 1]之间");
+        }
+        Scan scan = query.newScan();
+        RandomRowFilter sampler = new RandomRowFilter(sampleRate);
+        scan.setFilter(scan.getFilter() == null ? sampler
+                : new FilterList(FilterList.Operator.MUST_PASS_ALL, scan.getFilter(), sampler));
+
+        final AtomicLong sampled = new AtomicLong();
+        final AtomicLong mismatched = new AtomicLong();
+        final ThreadLocal<List<Put>> pending = new ThreadLocal<List<Put>>() {
+            @Override
+            protected List<Put> initialValue() {
+                return new ArrayList<Put>(VERIFY_BATCH);
+            }
+        };
+        ParallelScanner.scan(sourceTable, scan, parallelism, new ParallelScanner.Handler() {
+            @Override
+            public void handle(ParallelScanner.ScanRange range, Result result) throws IOException {
+                Put expected = transformer == null ? copyOf(result) : transformer.transform(result);
+                if (expected == null || expected.isEmpty()) {
+                    return;
+                }
+                List<Put> batch = pending.get();
+                batch.add(expected);
+                if (batch.size() >= VERIFY_BATCH) {
+                    compare(batch);
+                }
+            }
+
+            @Override
+            public void onRangeComplete(ParallelScanner.ScanRange range, long rows) throws IOException {
+                compare(pending.get());
+            }
+
+            private void compare(List<Put> batch) throws IOException {
+                if (batch.isEmpty()) {
+                    return;
+                }
+                List<Get> gets = new ArrayList<Get>(batch.size());
+                for (Put expected : batch) {
+                    Get get = new Get(expected.getRow());
+                    for (List<Cell> cells : expected.getFamilyCellMap().values()) {
+                        for (Cell cell : cells) {
+                            get.addColumn(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell));
+                        }
+                    }
+                    gets.add(get);
+                }
+                Table table = HBaseUtil.getTable(targetTable);
+                if (table == null) {
+                    throw new IOException("获取表:" + targetTable + "失败");
+                }
+                Result[] actual;
+                try {
+                    actual = table.get(gets);
+                } finally {
+                    table.close();
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    sampled.incrementAndGet();
+                    List<Cell> expectedCells = new ArrayList<Cell>();
+                    for (List<Cell> cells : batch.get(i).getFamilyCellMap().values()) {
+                        expectedCells.addAll(cells);
+                    }
+                    List<Cell> actualCells = actual[i] == null || actual[i].isEmpty()
+                            ? new ArrayList<Cell>() : Arrays.asList(actual[i].rawCells());
+                    if (!Arrays.equals(digest(expectedCells), digest(actualCells))) {
+                        mismatched.incrementAndGet();
+                        logger.warn("表:{}行:{}与源表:{}不一致", targetTable, Bytes.toStringBinary(batch.get(i).getRow()), sourceTable);
+                    }
+                }
+                batch.clear();
+            }
+        });
+        ClientMetrics.incr("copy." + targetTable + ".verifyMismatched", mismatched.get());
+        logger.info("表:{}抽样校验完成，抽样{}行，不一致{}行", targetTable, sampled.get(), mismatched.get());
+        return mismatched.get();
+    }
+
+    /**
+     * 原样复制一行，保留时间戳
+     */
+    private static Put copyOf(Result result) throws IOException {
+        Put put = new Put(result.getRow());
+        for (Cell cell : result.rawCells()) {
+            put.add(cell);
+        }
+        return put;
+    }
+
+    /**
+     * 单元格摘要，按列族、列排序后对列族、列、值计算MD5，同一列有多个版本时只取最新的
+     */
+    private static byte[] digest(List<Cell> cells) {
+        NavigableMap<byte[], Cell> columns = new TreeMap<byte[], Cell>(Bytes.BYTES_COMPARATOR);
+        for (Cell cell : cells) {
+            byte[] column = Bytes.add(CellUtil.cloneFamily(cell), new byte[]{0}, CellUtil.cloneQualifier(cell));
+            Cell latest = columns.get(column);
+            if (latest == null || cell.getTimestamp() > latest.getTimestamp()) {
+                columns.put(column, cell);
+            }
+        }
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            for (Map.Entry<byte[], Cell> entry : columns.entrySet()) {
+                byte[] value = CellUtil.cloneValue(entry.getValue());
+                md5.update(Bytes.toBytes(entry.getKey().length));
+                md5.update(entry.getKey());
+                md5.update(Bytes.toBytes(value.length));
+                md5.update(value);
+            }
+            return md5.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String progressKey() {
+        return "copy." + sourceTable + ">" + targetTable;
+    }
+}
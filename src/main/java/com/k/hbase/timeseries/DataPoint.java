@@ -0,0 +1,51 @@
+package com.k.hbase.timeseries;
+
+import java.util.Comparator;
+
+/**
+ * 时间序列中的一个数据点
+ */
+public class DataPoint {
+
+    /**
+     * 按时间戳升序
+     */
+    public static final Comparator<DataPoint> BY_TIME = new Comparator<DataPoint>() {
+        @Override
+        public int compare(DataPoint a, DataPoint b) {
+            return a.timestamp < b.timestamp ? -1 : (a.timestamp == b.timestamp ? 0 : 1);
+        }
+    };
+
+    private final String metric;
+    private final long timestamp;
+    private final double value;
+
+    public DataPoint(String metric, long timestamp, double value) {
+        this.metric = metric;
+        this.timestamp = timestamp;
+        this.value = value;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    /**
+     * 数据点时间（毫秒）
+     *
+     * @return
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return metric + "@" + timestamp + "=" + value;
+    }
+}
@@ -0,0 +1,269 @@
+package com.k.hbase.timeseries;
+
+import com.k.hbase.util.ClientMetrics;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 降采样任务
+ * 把原始时间序列按固定间隔汇总成count/sum/min/max写入汇总表，汇总表使用同样的加盐分桶行健，
+ * 每个汇总值占32字节。后台定时任务每次处理上一次处理到的位置到（当前时间-延迟）之间的完整间隔。
+ * <pre>
+ * RollupJob job = new RollupJob(new TimeSeriesStore("metrics"), new TimeSeriesStore("metrics_5m", 24 * 3600 * 1000L), 5 * 60 * 1000L);
+ * job.addMetric("cpu.load");
+ * job.start(60 * 1000L);
+ * </pre>
+ */
+public class RollupJob {
+    private static final Logger logger = LoggerFactory.getLogger(RollupJob.class);
+
+    /**
+     * 一个间隔内的汇总值
+     */
+    public static class Rollup {
+        private final long timestamp;
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        Rollup(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        byte[] toBytes() {
+            byte[] bytes = new byte[32];
+            Bytes.putLong(bytes, 0, count);
+            Bytes.putDouble(bytes, 8, sum);
+            Bytes.putDouble(bytes, 16, min);
+            Bytes.putDouble(bytes, 24, max);
+            return bytes;
+        }
+
+        static Rollup fromCell(long timestamp, Cell cell) {
+            byte[] value = CellUtil.cloneValue(cell);
+            Rollup rollup = new Rollup(timestamp);
+            rollup.count = Bytes.toLong(value, 0);
+            rollup.sum = Bytes.toDouble(value, 8);
+            rollup.min = Bytes.toDouble(value, 16);
+            rollup.max = Bytes.toDouble(value, 24);
+            return rollup;
+        }
+
+        /**
+         * 间隔起始时间
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getAvg() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + "{count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + "}";
+        }
+    }
+
+    private final TimeSeriesStore source;
+    private final TimeSeriesStore target;
+    private final long intervalMillis;
+    private final Set<String> metrics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // 每个指标已经汇总到的时间（不包含）
+    private final Map<String, Long> watermarks = new ConcurrentHashMap<String, Long>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param source         原始数据
+     * @param target         汇总表，时间桶应该是汇总间隔的整数倍
+     * @param intervalMillis 汇总间隔（毫秒）
+     */
+    public RollupJob(TimeSeriesStore source, TimeSeriesStore target, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("汇总间隔必须大于0");
+        }
+        this.source = source;
+        this.target = target;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * 注册需要后台汇总的指标
+     *
+     * @param metric 指标名
+     */
+    public void addMetric(String metric) {
+        metrics.add(metric);
+    }
+
+    public void removeMetric(String metric) {
+        metrics.remove(metric);
+        watermarks.remove(metric);
+    }
+
+    /**
+     * 汇总[start, end)区间的数据，区间会按汇总间隔对齐，重复执行结果相同
+     *
+     * @param metric 指标名
+     * @param start  起始时间
+     * @param end    结束时间
+     * @return 写入的汇总值个数
+     * @throws IOException
+     */
+    public int rollup(String metric, long start, long end) throws IOException {
+        long alignedStart = align(start);
+        long alignedEnd = align(end);
+        if (alignedEnd <= alignedStart) {
+            return 0;
+        }
+        final Map<Long, Rollup> rollups = new TreeMap<Long, Rollup>();
+        source.scanRange(metric, alignedStart, alignedEnd, new TimeSeriesStore.CellVisitor() {
+            @Override
+            public void visit(long timestamp, Cell cell) {
+                double value = Bytes.toDouble(cell.getValueArray(), cell.getValueOffset());
+                long slot = align(timestamp);
+                synchronized (rollups) {
+                    Rollup rollup = rollups.get(slot);
+                    if (rollup == null) {
+                        rollup = new Rollup(slot);
+                        rollups.put(slot, rollup);
+                    }
+                    rollup.add(value);
+                }
+            }
+        });
+        if (rollups.isEmpty()) {
+            return 0;
+        }
+        long[] timestamps = new long[rollups.size()];
+        byte[][] values = new byte[rollups.size()][];
+        int i = 0;
+        for (Rollup rollup : rollups.values()) {
+            timestamps[i] = rollup.getTimestamp();
+            values[i] = rollup.toBytes();
+            i++;
+        }
+        target.writeRaw(metric, timestamps, values);
+        target.flush();
+        ClientMetrics.incr("timeseries.rollup." + target.getTableName() + ".written", rollups.size());
+        return rollups.size();
+    }
+
+    /**
+     * 读取[start, end)区间内的汇总值
+     *
+     * @param metric 指标名
+     * @param start  起始时间
+     * @param end    结束时间
+     * @return 按时间升序排列
+     * @throws IOException
+     */
+    public List<Rollup> readRollups(final String metric, long start, long end) throws IOException {
+        final List<Rollup> rollups = Collections.synchronizedList(new ArrayList<Rollup>());
+        target.scanRange(metric, start, end, new TimeSeriesStore.CellVisitor() {
+            @Override
+            public void visit(long timestamp, Cell cell) {
+                rollups.add(Rollup.fromCell(timestamp, cell));
+            }
+        });
+        List<Rollup> sorted = new ArrayList<Rollup>(rollups);
+        Collections.sort(sorted, new Comparator<Rollup>() {
+            @Override
+            public int compare(Rollup a, Rollup b) {
+                return a.timestamp < b.timestamp ? -1 : (a.timestamp == b.timestamp ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * 启动后台汇总，每个汇总间隔执行一次
+     * 首次执行从当前时间往前一个间隔开始，之后从上一次处理到的位置继续
+     *
+     * @param lagMillis 延迟（毫秒），只汇总（当前时间-延迟）之前的数据，给迟到的数据留出时间
+     */
+    public synchronized void start(final long lagMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(ClientMetrics.daemonThreadFactory("hbase-rollup-" + target.getTableName()));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runOnce(System.currentTimeMillis() - lagMillis);
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void runOnce(long upTo) {
+        long end = align(upTo);
+        for (String metric : metrics) {
+            Long watermark = watermarks.get(metric);
+            long start = watermark == null ? end - intervalMillis : watermark;
+            if (start >= end) {
+                continue;
+            }
+            try {
+                int written = rollup(metric, start, end);
+                watermarks.put(metric, end);
+                logger.debug("指标:{}汇总[{}, {})完成，写入{}个汇总值", metric, start, end, written);
+            } catch (IOException e) {
+                ClientMetrics.incr("timeseries.rollup." + target.getTableName() + ".failures", 1);
+                logger.error("指标:{}汇总[{}, {})失败，下次重试", metric, start, end, e);
+            }
+        }
+    }
+
+    private long align(long timestamp) {
+        long mod = timestamp % intervalMillis;
+        return timestamp - (mod < 0 ? mod + intervalMillis : mod);
+    }
+}
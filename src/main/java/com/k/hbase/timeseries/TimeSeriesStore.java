@@ -0,0 +1,348 @@
+package com.k.hbase.timeseries;
+
+import com.k.hbase.util.AdaptiveBufferedWriter;
+import com.k.hbase.util.ClientMetrics;
+import com.k.hbase.util.HBaseUtil;
+import com.k.hbase.util.ParallelScanner;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 时间序列存储
+ * 行健格式：[盐值 1字节][指标名 UTF-8][0x00][时间桶起始时间 8字节]，列名为数据点在桶内的偏移（毫秒，4字节），值为8字节double。
+ * 盐值取自0-9、A-E共15个字符，与HBaseUtil.createTable预分区的15个region一一对应，
+ * 由指标名和时间桶序号共同决定，同一指标的连续时间桶会分散到不同region，写入不会集中在一个region上。
+ * 查询时按盐值拆成最多15个扫描并行执行，每个扫描只覆盖本盐值下查询区间内的时间桶。
+ * 写入通过HBaseUtil.bufferedMutate走表级常驻写缓冲，同一时间桶的数据点合并成一个Put。
+ */
+public class TimeSeriesStore {
+
+    /**
+     * 默认时间桶大小：1小时
+     */
+    public static final long DEFAULT_BUCKET_MILLIS = 3600 * 1000L;
+
+    static final byte[] FAMILY = Bytes.toBytes("t");
+    private static final byte[] SALTS = Bytes.toBytes("0123456789ABCDE");
+    private static final byte SEPARATOR = 0;
+
+    // 所有实例共用的查询线程池，避免每次查询创建线程
+    private static final ExecutorService queryExecutor =
+            Executors.newFixedThreadPool(SALTS.length, ClientMetrics.daemonThreadFactory("hbase-timeseries-query"));
+
+    private final String tableName;
+    private final long bucketMillis;
+
+    /**
+     * 数据点处理，多个线程同时调用
+     */
+    interface CellVisitor {
+        void visit(long timestamp, Cell cell);
+    }
+
+    public TimeSeriesStore(String tableName) {
+        this(tableName, DEFAULT_BUCKET_MILLIS);
+    }
+
+    /**
+     * @param tableName    表名
+     * @param bucketMillis 时间桶大小（毫秒），一个桶的数据点存在同一行，写入后不能修改
+     */
+    public TimeSeriesStore(String tableName, long bucketMillis) {
+        if (bucketMillis <= 0 || bucketMillis > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("时间桶大小必须在(0, " + Integer.MAX_VALUE + "]毫秒之间");
+        }
+        this.tableName = tableName;
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * 创建时间序列表，按盐值预分15个region
+     *
+     * @param tableName 表名
+     * @throws Exception
+     */
+    public static void createTable(String tableName) throws Exception {
+        HBaseUtil.createTable(tableName, new String[]{Bytes.toString(FAMILY)}, true);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * 写入一个数据点
+     *
+     * @param metric    指标名，不能包含\0
+     * @param timestamp 时间（毫秒）
+     * @param value     值
+     * @throws IOException
+     */
+    public void write(String metric, long timestamp, double value) throws IOException {
+        write(Collections.singletonList(new DataPoint(metric, timestamp, value)));
+    }
+
+    /**
+     * 批量写入数据点，同一时间桶的数据点合并成一个Put
+     *
+     * @param points 数据点
+     * @throws IOException
+     */
+    public void write(List<DataPoint> points) throws IOException {
+        Map<byte[], Put> puts = new TreeMap<byte[], Put>(Bytes.BYTES_COMPARATOR);
+        for (DataPoint point : points) {
+            addCell(puts, Bytes.toBytes(point.getMetric()), point.getTimestamp(), Bytes.toBytes(point.getValue()));
+        }
+        HBaseUtil.bufferedMutate(tableName, new ArrayList<Put>(puts.values()));
+    }
+
+    /**
+     * 批量写入原始值，供汇总表使用
+     */
+    void writeRaw(String metric, long[] timestamps, byte[][] values) throws IOException {
+        Map<byte[], Put> puts = new TreeMap<byte[], Put>(Bytes.BYTES_COMPARATOR);
+        byte[] metricBytes = Bytes.toBytes(metric);
+        for (int i = 0; i < timestamps.length; i++) {
+            addCell(puts, metricBytes, timestamps[i], values[i]);
+        }
+        HBaseUtil.bufferedMutate(tableName, new ArrayList<Put>(puts.values()));
+    }
+
+    private void addCell(Map<byte[], Put> puts, byte[] metric, long timestamp, byte[] value) {
+        long bucket = bucketStart(timestamp);
+        byte[] row = rowKey(metric, bucket);
+        Put put = puts.get(row);
+        if (put == null) {
+            put = new Put(row);
+            puts.put(row, put);
+        }
+        put.addColumn(FAMILY, Bytes.toBytes((int) (timestamp - bucket)), value);
+    }
+
+    /**
+     * 立即提交写缓冲中的数据
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        AdaptiveBufferedWriter.forTable(tableName).flush();
+    }
+
+    /**
+     * 查询最新的n个数据点
+     * 每个盐值一个反向扫描，从最新的时间桶往前读，读够n个点即停止
+     *
+     * @param metric 指标名
+     * @param n      数据点个数
+     * @return 按时间升序排列
+     * @throws IOException
+     */
+    public List<DataPoint> latest(final String metric, final int n) throws IOException {
+        final byte[] metricBytes = Bytes.toBytes(metric);
+        List<Callable<List<DataPoint>>> tasks = new ArrayList<Callable<List<DataPoint>>>(SALTS.length);
+        for (final byte salt : SALTS) {
+            tasks.add(new Callable<List<DataPoint>>() {
+                @Override
+                public List<DataPoint> call() throws Exception {
+                    return latestInSalt(salt, metric, metricBytes, n);
+                }
+            });
+        }
+        List<DataPoint> points = new ArrayList<DataPoint>();
+        for (List<DataPoint> part : invokeAll(tasks)) {
+            points.addAll(part);
+        }
+        Collections.sort(points, DataPoint.BY_TIME);
+        return points.size() > n ? new ArrayList<DataPoint>(points.subList(points.size() - n, points.size())) : points;
+    }
+
+    private List<DataPoint> latestInSalt(byte salt, String metric, byte[] metricBytes, int n) throws IOException {
+        byte[] prefix = prefix(salt, metricBytes);
+        Scan scan = new Scan();
+        scan.setReversed(true);
+        // 反向扫描时startRow是上界（包含），stopRow是下界（不包含）
+        scan.setStartRow(Bytes.add(prefix, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}));
+        scan.setStopRow(prefix);
+        scan.addFamily(FAMILY);
+        scan.setCaching(Math.min(n, 100));
+        List<DataPoint> points = new ArrayList<DataPoint>();
+        Table table = HBaseUtil.getTable(tableName);
+        if (table == null) {
+            throw new IOException("获取表:" + tableName + "失败");
+        }
+        try {
+            ResultScanner scanner = table.getScanner(scan);
+            try {
+                Result result;
+                while (points.size() < n && (result = scanner.next()) != null) {
+                    long bucket = Bytes.toLong(result.getRow(), prefix.length);
+                    for (Cell cell : result.rawCells()) {
+                        points.add(new DataPoint(metric, bucket + offset(cell), Bytes.toDouble(CellUtil.cloneValue(cell))));
+                    }
+                }
+            } finally {
+                scanner.close();
+            }
+        } finally {
+            table.close();
+        }
+        return points;
+    }
+
+    /**
+     * 查询[start, end)区间内的数据点
+     *
+     * @param metric 指标名
+     * @param start  起始时间（包含）
+     * @param end    结束时间（不包含）
+     * @return 按时间升序排列
+     * @throws IOException
+     */
+    public List<DataPoint> range(final String metric, long start, long end) throws IOException {
+        final List<DataPoint> points = Collections.synchronizedList(new ArrayList<DataPoint>());
+        scanRange(metric, start, end, new CellVisitor() {
+            @Override
+            public void visit(long timestamp, Cell cell) {
+                points.add(new DataPoint(metric, timestamp, Bytes.toDouble(CellUtil.cloneValue(cell))));
+            }
+        });
+        List<DataPoint> sorted = new ArrayList<DataPoint>(points);
+        Collections.sort(sorted, DataPoint.BY_TIME);
+        return sorted;
+    }
+
+    /**
+     * 按盐值并行扫描[start, end)区间内的所有单元格
+     */
+    void scanRange(String metric, final long start, final long end, final CellVisitor visitor) throws IOException {
+        if (end <= start) {
+            return;
+        }
+        byte[] metricBytes = Bytes.toBytes(metric);
+        long firstBucket = bucketStart(start);
+        long lastBucket = bucketStart(end - 1);
+        // 只扫描查询区间内实际用到的盐值
+        long[] minBucket = new long[SALTS.length];
+        long[] maxBucket = new long[SALTS.length];
+        if ((lastBucket - firstBucket) / bucketMillis >= SALTS.length) {
+            // 桶数不少于盐值数时每个盐值都可能用到，直接取整个区间
+            for (int i = 0; i < SALTS.length; i++) {
+                minBucket[i] = firstBucket;
+                maxBucket[i] = lastBucket;
+            }
+        } else {
+            for (int i = 0; i < SALTS.length; i++) {
+                minBucket[i] = Long.MAX_VALUE;
+                maxBucket[i] = Long.MIN_VALUE;
+            }
+            for (long bucket = firstBucket; bucket <= lastBucket; bucket += bucketMillis) {
+                int saltIndex = saltIndex(metricBytes, bucket);
+                minBucket[saltIndex] = Math.min(minBucket[saltIndex], bucket);
+                maxBucket[saltIndex] = Math.max(maxBucket[saltIndex], bucket);
+            }
+        }
+        final int prefixLength = 1 + metricBytes.length + 1;
+        List<ParallelScanner.ScanRange> ranges = new ArrayList<ParallelScanner.ScanRange>();
+        for (int i = 0; i < SALTS.length; i++) {
+            if (minBucket[i] == Long.MAX_VALUE) {
+                continue;
+            }
+            byte[] prefix = prefix(SALTS[i], metricBytes);
+            byte[] startRow = Bytes.add(prefix, Bytes.toBytes(minBucket[i]));
+            byte[] stopRow = Bytes.add(prefix, Bytes.toBytes(maxBucket[i] + 1));
+            ranges.add(new ParallelScanner.ScanRange(startRow, stopRow, new byte[]{SALTS[i]}));
+        }
+        Scan template = new Scan();
+        template.addFamily(FAMILY);
+        template.setCaching(100);
+        ParallelScanner.scan(tableName, template, ranges, queryExecutor, new ParallelScanner.Handler() {
+            @Override
+            public void handle(ParallelScanner.ScanRange range, Result result) {
+                long bucket = Bytes.toLong(result.getRow(), prefixLength);
+                for (Cell cell : result.rawCells()) {
+                    long timestamp = bucket + offset(cell);
+                    if (timestamp >= start && timestamp < end) {
+                        visitor.visit(timestamp, cell);
+                    }
+                }
+            }
+        });
+    }
+
+    private List<List<DataPoint>> invokeAll(List<Callable<List<DataPoint>>> tasks) throws IOException {
+        List<Future<List<DataPoint>>> futures = new ArrayList<Future<List<DataPoint>>>(tasks.size());
+        try {
+            for (Callable<List<DataPoint>> task : tasks) {
+                futures.add(queryExecutor.submit(task));
+            }
+            List<List<DataPoint>> results = new ArrayList<List<DataPoint>>(tasks.size());
+            for (Future<List<DataPoint>> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("查询表:" + tableName + "被中断");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("查询表:" + tableName + "失败", e.getCause());
+        } finally {
+            for (Future<List<DataPoint>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    long bucketStart(long timestamp) {
+        long mod = timestamp % bucketMillis;
+        return timestamp - (mod < 0 ? mod + bucketMillis : mod);
+    }
+
+    byte[] rowKey(byte[] metric, long bucketStart) {
+        return Bytes.add(prefix(SALTS[saltIndex(metric, bucketStart)], metric), Bytes.toBytes(bucketStart));
+    }
+
+    private int saltIndex(byte[] metric, long bucketStart) {
+        long bucketIndex = bucketStart / bucketMillis;
+        int hash = Bytes.hashCode(metric) * 31 + (int) (bucketIndex ^ (bucketIndex >>> 32));
+        return (hash & Integer.MAX_VALUE) % SALTS.length;
+    }
+
+    private static byte[] prefix(byte salt, byte[] metric) {
+        byte[] prefix = new byte[metric.length + 2];
+        prefix[0] = salt;
+        System.arraycopy(metric, 0, prefix, 1, metric.length);
+        prefix[prefix.length - 1] = SEPARATOR;
+        return prefix;
+    }
+
+    private static int offset(Cell cell) {
+        return Bytes.toInt(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+    }
+}
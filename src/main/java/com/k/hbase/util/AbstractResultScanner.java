@@ -0,0 +1,97 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.AbstractClientScanner;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 包装扫描器的公共部分，子类只需要实现next()和close()
+ */
+abstract class AbstractResultScanner implements ResultScanner {
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+        List<Result> results = new ArrayList<Result>(Math.min(nbRows, 1000));
+        Result result;
+        while (results.size() < nbRows && (result = next()) != null) {
+            results.add(result);
+        }
+        return results.toArray(new Result[results.size()]);
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+        return new Iterator<Result>() {
+            private Result next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = AbstractResultScanner.this.next();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Result result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 续租服务端的扫描器，避免调用方长时间不调用next时服务端因租约过期关闭扫描器。
+     * 与next()不是线程安全的，只能在调用next的线程中调用
+     *
+     * @return 是否续租成功
+     */
+    public abstract boolean renewLease();
+
+    /**
+     * 续租被包装的扫描器，HBase客户端的扫描器和本包的包装扫描器之外的实现不支持续租
+     */
+    static boolean renewLease(ResultScanner scanner) {
+        if (scanner instanceof AbstractResultScanner) {
+            return ((AbstractResultScanner) scanner).renewLease();
+        }
+        if (scanner instanceof AbstractClientScanner) {
+            return ((AbstractClientScanner) scanner).renewLease();
+        }
+        return false;
+    }
+
+    /**
+     * 一行数据的大致字节数（行健、列族、列名、列值）
+     */
+    static long sizeOf(Result result) {
+        long size = 0;
+        Cell[] cells = result.rawCells();
+        if (cells != null) {
+            for (Cell cell : cells) {
+                size += cell.getRowLength() + cell.getFamilyLength() + cell.getQualifierLength() + cell.getValueLength();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,250 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorImpl;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 长期持有的表级BufferedMutator，写缓冲大小和定时flush间隔由AdaptiveWriteBuffer动态调整
+ * 与asynPut每次调用新建并关闭BufferedMutator不同，这里的数据会在缓冲区写满或到达flush间隔时才提交，
+ * 适合持续写入的场景（指标、计数、日志等）
+ */
+public class AdaptiveBufferedWriter {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBufferedWriter.class);
+
+    private static final ConcurrentHashMap<String, AdaptiveBufferedWriter> writers = new ConcurrentHashMap<String, AdaptiveBufferedWriter>();
+
+    // 所有写入器共用一个定时flush线程，每次检查是否到达各自的flush间隔
+    private static final long CHECK_INTERVAL_MS = 20;
+    private static ScheduledExecutorService flusher;
+
+    private final String tableName;
+    private final AdaptiveWriteBuffer controller;
+    private final BufferedMutator mutator;
+
+    // 上次flush之后写入的数据量
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong pendingRows = new AtomicLong();
+    private volatile long lastFlushMs = System.currentTimeMillis();
+    private volatile boolean closed = false;
+
+    /**
+     * 获取表对应的写入器，不存在时创建
+     *
+     * @param tableName 表名
+     * @return
+     * @throws IOException
+     */
+    public static AdaptiveBufferedWriter forTable(String tableName) throws IOException {
+        AdaptiveBufferedWriter writer = writers.get(tableName);
+        if (writer == null) {
+            synchronized (writers) {
+                writer = writers.get(tableName);
+                if (writer == null) {
+                    writer = new AdaptiveBufferedWriter(tableName);
+                    writers.put(tableName, writer);
+                    startFlusher();
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * flush所有写入器
+     */
+    public static void flushAll() {
+        for (AdaptiveBufferedWriter writer : writers.values()) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                logger.error("表:{}写缓冲flush失败", writer.tableName, e);
+            }
+        }
+    }
+
+    /**
+     * 关闭所有写入器，关闭前会flush缓冲区中的数据
+     */
+    public static void closeAll() {
+        synchronized (writers) {
+            for (AdaptiveBufferedWriter writer : writers.values()) {
+                writer.close();
+            }
+            writers.clear();
+            if (flusher != null) {
+                flusher.shutdown();
+                flusher = null;
+            }
+        }
+    }
+
+    private static void startFlusher() {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(ClientMetrics.daemonThreadFactory("hbase-buffer-flusher"));
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                for (AdaptiveBufferedWriter writer : writers.values()) {
+                    if (writer.pendingRows.get() > 0 && now - writer.lastFlushMs >= writer.controller.getFlushIntervalMs()) {
+                        try {
+                            writer.flush();
+                        } catch (IOException e) {
+                            logger.error("表:{}定时flush失败", writer.tableName, e);
+                        } catch (RuntimeException e) {
+                            logger.error("表:{}定时flush失败", writer.tableName, e);
+                        }
+                    }
+                }
+            }
+        }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private AdaptiveBufferedWriter(String tableName) throws IOException {
+        this.tableName = tableName;
+        this.controller = AdaptiveWriteBuffer.forTable(tableName);
+        BufferedMutator.ExceptionListener listener = new BufferedMutator.ExceptionListener() {
+            public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator bufferedMutator) throws RetriesExhaustedWithDetailsException {
+                controller.onFailure(e.getNumExceptions());
+                List<Mutation> failed = new ArrayList<Mutation>();
+                for (int i = 0; i < e.getNumExceptions(); i++) {
+                    failed.add((Mutation) e.getRow(i));
+                }
+                if (!HBaseUtil.spill(AdaptiveBufferedWriter.this.tableName, failed)) {
+                    for (int i = 0; i < e.getNumExceptions(); i++) {
+                        logger.error("缓冲写入数据:{}失败", e.getRow(i));
+                    }
+                }
+            }
+        };
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(tableName)).listener(listener);
+        params.writeBufferSize(controller.getWriteBufferSize());
+        this.mutator = HBaseUtil.getConn().getBufferedMutator(params);
+    }
+
+    /**
+     * 写入数据，缓冲区未满时立即返回
+     *
+     * @param mutations Put/Delete/Increment等
+     * @throws IOException
+     */
+    public void mutate(List<? extends Mutation> mutations) throws IOException {
+        if (closed) {
+            throw new IOException("表:" + tableName + "的写入器已关闭");
+        }
+        if (HBaseUtil.mustSpill(tableName) && HBaseUtil.spill(tableName, mutations)) {
+            return;
+        }
+        long bytes = 0;
+        for (Mutation m : mutations) {
+            bytes += m.heapSize();
+        }
+        long bufferSize = mutator.getWriteBufferSize();
+        long before = pendingBytes.get();
+        long start = System.nanoTime();
+        mutator.mutate(mutations);
+        long latency = System.nanoTime() - start;
+        long after = pendingBytes.addAndGet(bytes);
+        pendingRows.addAndGet(mutations.size());
+        if (before + bytes >= bufferSize) {
+            // 缓冲区写满，mutate内部已经触发了一次提交
+            controller.onFlush(after, pendingRows.getAndSet(0), latency);
+            pendingBytes.set(0);
+            lastFlushMs = System.currentTimeMillis();
+            resize();
+        }
+    }
+
+    /**
+     * 写入单条数据
+     *
+     * @param mutation
+     * @throws IOException
+     */
+    public void mutate(Mutation mutation) throws IOException {
+        mutate(Collections.singletonList(mutation));
+    }
+
+    /**
+     * 立即提交缓冲区中的数据
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        long rows = pendingRows.getAndSet(0);
+        long bytes = pendingBytes.getAndSet(0);
+        long start = System.nanoTime();
+        mutator.flush();
+        if (rows > 0) {
+            controller.onFlush(bytes, rows, System.nanoTime() - start);
+        }
+        lastFlushMs = System.currentTimeMillis();
+        resize();
+    }
+
+    /**
+     * 控制器调整了缓冲区大小时同步到BufferedMutator
+     */
+    private void resize() throws IOException {
+        long target = controller.getWriteBufferSize();
+        if (mutator.getWriteBufferSize() != target) {
+            setWriteBufferSize(mutator, target);
+        }
+    }
+
+    /**
+     * 修改已有BufferedMutator的缓冲区大小
+     * 当前客户端版本（1.1.2）的BufferedMutator接口没有修改缓冲区大小的方法，只有内部实现类BufferedMutatorImpl
+     * 提供了已废弃的setWriteBufferSize，这里是唯一依赖它的地方。没有改为按新的大小重新创建BufferedMutator：
+     * mutate不加锁，重建时其他线程可能正写入旧实例，旧实例关闭后这些写入会失败。
+     * 升级客户端或实现类不是BufferedMutatorImpl时不调整，继续使用创建时的大小。
+     *
+     * @return 是否调整成功
+     */
+    @SuppressWarnings("deprecation")
+    private static boolean setWriteBufferSize(BufferedMutator mutator, long size) throws IOException {
+        if (!(mutator instanceof BufferedMutatorImpl)) {
+            return false;
+        }
+        ((BufferedMutatorImpl) mutator).setWriteBufferSize(size);
+        return true;
+    }
+
+    /**
+     * 关闭写入器
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("表:{}关闭前flush失败", tableName, e);
+        }
+        try {
+            mutator.close();
+        } catch (IOException e) {
+            logger.error("表:{}写入器关闭失败", tableName, e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 使用自适应caching的扫描器，caching和maxResultSize由ScanTuner决定
+ * 没有学习结果时先用试探的caching取第一批数据，按这批数据的行大小和RPC耗时算出caching，
+ * 与试探值相差一倍以上时从下一行重新打开扫描器；关闭时用整个扫描的实测值更新学习结果。
+ * 重新打开的扫描器使用Scan的副本，调用方的Scan保持原来的行健区间，两次扫描的指标由getScanMetrics合并返回。
+ * <p>
+ * 重新打开会让过滤器的状态（例如PageFilter的计数）从头开始，所以有过滤器、反向扫描或按batch拆分行时不重新打开，
+ * 只用第一次扫描学习，之后的扫描直接使用学到的值。
+ */
+public class AdaptiveResultScanner extends AbstractResultScanner {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveResultScanner.class);
+
+    private final String tableName;
+    private final Scan scan;
+    // 当前扫描器使用的Scan，重新打开后是scan的副本
+    private Scan current;
+    // 重新打开前的扫描器的指标
+    private ScanMetrics probeMetrics;
+    private ResultScanner delegate;
+    private boolean probing;
+    private byte[] lastRow;
+    // 本次打开扫描器以来的统计，学习后清零
+    private long rows;
+    private long bytes;
+    private long waitNanos;
+
+    /**
+     * @param tableName 表名
+     * @param table     用来打开扫描器的表，由调用方关闭
+     * @param scan      扫描，caching和maxResultSize会被修改
+     */
+    public AdaptiveResultScanner(String tableName, Table table, Scan scan) throws IOException {
+        this.tableName = tableName;
+        this.scan = scan;
+        this.current = scan;
+        this.probing = !ScanTuner.apply(tableName, scan);
+        this.delegate = table.getScanner(scan);
+        if (probing) {
+            ClientMetrics.incr("scanTuner.probes", 1);
+        }
+    }
+
+    @Override
+    public Result next() throws IOException {
+        long begin = System.nanoTime();
+        Result result = delegate.next();
+        waitNanos += System.nanoTime() - begin;
+        if (result == null) {
+            if (probing) {
+                probing = false;
+                learn(1);
+            }
+            return null;
+        }
+        rows++;
+        bytes += sizeOf(result);
+        if (probing) {
+            lastRow = result.getRow();
+            if (rows >= scan.getCaching() || bytes >= scan.getMaxResultSize()) {
+                probing = false;
+                finishProbe();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 第一批数据已经取完，下一次next会发出RPC，此时调整caching最合适
+     */
+    private void finishProbe() throws IOException {
+        int caching = learn(1);
+        int probe = scan.getCaching();
+        if ((caching < probe * 2 && caching * 2 > probe) || !canReopen()) {
+            return;
+        }
+        Table table = HBaseUtil.getTable(tableName);
+        if (table == null) {
+            return;
+        }
+        try {
+            delegate.close();
+            probeMetrics = metricsOf(current);
+            Scan reopened = new Scan(scan);
+            reopened.setStartRow(Bytes.add(lastRow, new byte[]{0}));
+            reopened.setCaching(caching);
+            // 慢扫描日志中显示实际使用的caching
+            scan.setCaching(caching);
+            current = reopened;
+            delegate = table.getScanner(reopened);
+            ClientMetrics.incr("scanTuner.reopens", 1);
+        } finally {
+            try {
+                table.close();
+            } catch (IOException e) {
+                logger.error("关闭表:{}失败", tableName, e);
+            }
+        }
+    }
+
+    private boolean canReopen() {
+        return scan.getFilter() == null && !scan.isReversed() && scan.getBatch() <= 0 && !scan.isSmall();
+    }
+
+    private int learn(long rpcs) {
+        int caching = ScanTuner.observe(tableName, current, rows, bytes, rpcs, waitNanos);
+        rows = 0;
+        bytes = 0;
+        waitNanos = 0;
+        return caching;
+    }
+
+    @Override
+    public boolean renewLease() {
+        return renewLease(delegate);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+        if (rows == 0) {
+            return;
+        }
+        // 开启了扫描指标时用实际的RPC次数，否则按caching和maxResultSize估算
+        ScanMetrics metrics = metricsOf(current);
+        long rpcs;
+        if (metrics != null && metrics.countOfRPCcalls.get() > 0) {
+            rpcs = metrics.countOfRPCcalls.get();
+        } else {
+            rpcs = Math.max((rows + current.getCaching() - 1) / current.getCaching(),
+                    (bytes + current.getMaxResultSize() - 1) / current.getMaxResultSize());
+        }
+        learn(Math.max(rpcs, 1));
+    }
+
+    /**
+     * 整个扫描的指标，重新打开过时合并两个扫描器的指标；没有开启扫描指标或还没有关闭时返回null
+     */
+    public ScanMetrics getScanMetrics() {
+        ScanMetrics metrics = metricsOf(current);
+        if (probeMetrics == null || metrics == null) {
+            return metrics == null ? probeMetrics : metrics;
+        }
+        ScanMetrics merged = new ScanMetrics();
+        for (Map.Entry<String, Long> entry : probeMetrics.getMetricsMap().entrySet()) {
+            Long other = metrics.getMetricsMap().get(entry.getKey());
+            merged.setCounter(entry.getKey(), entry.getValue() + (other == null ? 0 : other));
+        }
+        return merged;
+    }
+
+    private static ScanMetrics metricsOf(Scan scan) {
+        return scan.isScanMetricsEnabled() ? scan.getScanMetrics() : null;
+    }
+}
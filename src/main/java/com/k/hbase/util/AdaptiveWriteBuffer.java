@@ -0,0 +1,197 @@
+package com.k.hbase.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 写缓冲自适应控制器
+ * 每张表一个实例，根据观察到的flush耗时、吞吐量和RetriesExhaustedWithDetailsException失败率，
+ * 在配置的上下限之间调整BufferedMutator的writeBufferSize和定时flush间隔：
+ * 1. 失败率超限或flush耗时超过目标值的1.5倍时，缓冲区减半，flush间隔加倍（退避）
+ * 2. flush耗时低于目标值一半且缓冲区基本写满时，缓冲区扩大1.5倍
+ * 3. flush间隔取“按当前吞吐写满缓冲区所需时间”，小行写入不会在缓冲区里等太久，大行写入不会频繁flush
+ * 配置读取hbase-client.properties中writeBuffer.*配置项，当前值通过ClientMetrics的writeBuffer.表名.*指标查看
+ */
+public class AdaptiveWriteBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveWriteBuffer.class);
+
+    private static final ConcurrentHashMap<String, AdaptiveWriteBuffer> buffers = new ConcurrentHashMap<String, AdaptiveWriteBuffer>();
+
+    private static final boolean ADAPTIVE = PropertiesUtil.getBoolean(PropertiesUtil.CLIENT, "writeBuffer.adaptive", true);
+
+    private final String tableName;
+    private final long minBufferSize;
+    private final long maxBufferSize;
+    private final long minFlushIntervalMs;
+    private final long maxFlushIntervalMs;
+    private final long targetFlushLatencyMs;
+    private final double maxFailureRatio;
+    private final int adjustEveryFlushes;
+
+    private volatile long writeBufferSize;
+    private volatile long flushIntervalMs;
+
+    // 当前统计窗口内的观测值
+    private final AtomicLong windowFlushes = new AtomicLong();
+    private final AtomicLong windowFlushNanos = new AtomicLong();
+    private final AtomicLong windowBytes = new AtomicLong();
+    private final AtomicLong windowRows = new AtomicLong();
+    private final AtomicLong windowFailures = new AtomicLong();
+    private volatile long windowStartNanos = System.nanoTime();
+
+    private final AtomicLong totalFlushes;
+    private final AtomicLong totalFailures;
+    private final AtomicLong totalAdjustments;
+
+    /**
+     * 获取表对应的控制器，不存在时按配置创建
+     *
+     * @param tableName 表名
+     * @return
+     */
+    public static AdaptiveWriteBuffer forTable(String tableName) {
+        AdaptiveWriteBuffer buffer = buffers.get(tableName);
+        if (buffer == null) {
+            AdaptiveWriteBuffer created = new AdaptiveWriteBuffer(tableName);
+            buffer = buffers.putIfAbsent(tableName, created);
+            if (buffer == null) {
+                buffer = created;
+                buffer.registerMetrics();
+            }
+        }
+        return buffer;
+    }
+
+    private AdaptiveWriteBuffer(String tableName) {
+        this.tableName = tableName;
+        String p = PropertiesUtil.CLIENT;
+        this.minBufferSize = PropertiesUtil.getLong(p, "writeBuffer.minSize", 512 * 1024);
+        this.maxBufferSize = Math.max(minBufferSize, PropertiesUtil.getLong(p, "writeBuffer.maxSize", 64 * 1024 * 1024));
+        this.minFlushIntervalMs = PropertiesUtil.getLong(p, "writeBuffer.minFlushIntervalMs", 50);
+        this.maxFlushIntervalMs = Math.max(minFlushIntervalMs, PropertiesUtil.getLong(p, "writeBuffer.maxFlushIntervalMs", 5000));
+        this.targetFlushLatencyMs = PropertiesUtil.getLong(p, "writeBuffer.targetFlushLatencyMs", 200);
+        this.maxFailureRatio = PropertiesUtil.getDouble(p, "writeBuffer.maxFailureRatio", 0.01);
+        this.adjustEveryFlushes = Math.max(1, PropertiesUtil.getInt(p, "writeBuffer.adjustEveryFlushes", 8));
+        this.writeBufferSize = clamp(PropertiesUtil.getLong(p, "writeBuffer.initialSize", 5 * 1024 * 1024), minBufferSize, maxBufferSize);
+        this.flushIntervalMs = clamp(PropertiesUtil.getLong(p, "writeBuffer.initialFlushIntervalMs", 1000), minFlushIntervalMs, maxFlushIntervalMs);
+        String prefix = "writeBuffer." + tableName + ".";
+        this.totalFlushes = ClientMetrics.counter(prefix + "flushes");
+        this.totalFailures = ClientMetrics.counter(prefix + "failedRows");
+        this.totalAdjustments = ClientMetrics.counter(prefix + "adjustments");
+    }
+
+    private void registerMetrics() {
+        String prefix = "writeBuffer." + tableName + ".";
+        ClientMetrics.registerGauge(prefix + "size", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return writeBufferSize;
+            }
+        });
+        ClientMetrics.registerGauge(prefix + "flushIntervalMs", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return flushIntervalMs;
+            }
+        });
+    }
+
+    /**
+     * 当前写缓冲大小（字节）
+     *
+     * @return
+     */
+    public long getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    /**
+     * 当前定时flush间隔（毫秒）
+     *
+     * @return
+     */
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    /**
+     * 记录一次flush的观测值
+     *
+     * @param bytes        本次flush写出的字节数
+     * @param rows         本次flush写出的行数
+     * @param latencyNanos flush耗时（纳秒）
+     */
+    public void onFlush(long bytes, long rows, long latencyNanos) {
+        totalFlushes.incrementAndGet();
+        windowBytes.addAndGet(bytes);
+        windowRows.addAndGet(rows);
+        windowFlushNanos.addAndGet(latencyNanos);
+        if (windowFlushes.incrementAndGet() >= adjustEveryFlushes) {
+            adjust();
+        }
+    }
+
+    /**
+     * 记录写入失败的行数，一般在BufferedMutator.ExceptionListener中调用
+     *
+     * @param failedRows 失败行数
+     */
+    public void onFailure(int failedRows) {
+        totalFailures.addAndGet(failedRows);
+        windowFailures.addAndGet(failedRows);
+    }
+
+    /**
+     * 按当前窗口的观测值调整缓冲区大小和flush间隔，并开启新窗口
+     */
+    synchronized void adjust() {
+        long flushes = windowFlushes.getAndSet(0);
+        long flushNanos = windowFlushNanos.getAndSet(0);
+        long bytes = windowBytes.getAndSet(0);
+        long rows = windowRows.getAndSet(0);
+        long failures = windowFailures.getAndSet(0);
+        long now = System.nanoTime();
+        long elapsedNanos = now - windowStartNanos;
+        windowStartNanos = now;
+        if (!ADAPTIVE || flushes == 0) {
+            return;
+        }
+
+        long oldSize = writeBufferSize;
+        long oldInterval = flushIntervalMs;
+        double avgLatencyMs = flushNanos / (double) flushes / 1000000.0;
+        double failureRatio = failures / (double) Math.max(1, rows + failures);
+        double bytesPerFlush = bytes / (double) flushes;
+        double bytesPerMs = bytes / Math.max(1.0, elapsedNanos / 1000000.0);
+
+        long size = oldSize;
+        long interval;
+        if (failureRatio > maxFailureRatio || avgLatencyMs > targetFlushLatencyMs * 1.5) {
+            // 集群响应变慢或拒绝写入，缩小每批的数据量，同时拉长flush间隔做退避
+            size = oldSize / 2;
+            interval = oldInterval * 2;
+        } else {
+            if (avgLatencyMs < targetFlushLatencyMs / 2.0 && bytesPerFlush >= oldSize * 0.8) {
+                // flush很快并且缓冲区基本都是写满后才flush，说明还有余量
+                size = (long) (oldSize * 1.5);
+            }
+            // 按当前吞吐写满缓冲区需要的时间作为flush间隔
+            interval = bytesPerMs > 0 ? (long) (size / bytesPerMs) : maxFlushIntervalMs;
+        }
+        writeBufferSize = clamp(size, minBufferSize, maxBufferSize);
+        flushIntervalMs = clamp(interval, minFlushIntervalMs, maxFlushIntervalMs);
+
+        if (writeBufferSize != oldSize || flushIntervalMs != oldInterval) {
+            totalAdjustments.incrementAndGet();
+            logger.debug("表:{}写缓冲调整 size:{}->{} flushInterval:{}ms->{}ms, 平均flush耗时:{}ms, 失败率:{}",
+                    tableName, oldSize, writeBufferSize, oldInterval, flushIntervalMs, (long) avgLatencyMs, failureRatio);
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,110 @@
+package com.k.hbase.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 字节数组池
+ * 写入路径上编码行健、列值用的临时缓冲区从池中借出，用完归还，避免每次写入都分配新的数组。
+ * 池中最多保留maxPooled个固定大小的缓冲区，超出后归还的缓冲区直接丢弃；超过固定大小的请求临时分配，不进入池。
+ * <p>
+ * 使用情况以bufferPool.名称.*注册到ClientMetrics：acquired（借出次数）、created（新建次数）、oversize（超大请求次数）、
+ * inUse（当前借出个数）、pooled（池中空闲个数）。
+ */
+public class BufferPool {
+    private static final BufferPool defaultPool = new BufferPool("default",
+            PropertiesUtil.getInt(PropertiesUtil.CLIENT, "bufferPool.bufferSize", 64 * 1024),
+            PropertiesUtil.getInt(PropertiesUtil.CLIENT, "bufferPool.maxPooled", 64));
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> free;
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong acquired;
+    private final AtomicLong created;
+    private final AtomicLong oversize;
+
+    /**
+     * @param name       名称，用于指标
+     * @param bufferSize 缓冲区大小
+     * @param maxPooled  池中最多保留的空闲缓冲区个数
+     */
+    public BufferPool(String name, int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<byte[]>(Math.max(maxPooled, 1));
+        String prefix = "bufferPool." + name + ".";
+        this.acquired = ClientMetrics.counter(prefix + "acquired");
+        this.created = ClientMetrics.counter(prefix + "created");
+        this.oversize = ClientMetrics.counter(prefix + "oversize");
+        ClientMetrics.registerGauge(prefix + "inUse", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return inUse.get();
+            }
+        });
+        ClientMetrics.registerGauge(prefix + "pooled", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return free.size();
+            }
+        });
+    }
+
+    /**
+     * 默认池，大小由hbase-client.properties中bufferPool.*配置
+     *
+     * @return
+     */
+    public static BufferPool getDefault() {
+        return defaultPool;
+    }
+
+    /**
+     * 借出缓冲区
+     *
+     * @param minCapacity 最小容量
+     * @return 长度不小于minCapacity的数组，内容未清零
+     */
+    public byte[] acquire(int minCapacity) {
+        acquired.incrementAndGet();
+        inUse.incrementAndGet();
+        if (minCapacity > bufferSize) {
+            oversize.incrementAndGet();
+            return new byte[minCapacity];
+        }
+        byte[] buffer = free.poll();
+        if (buffer == null) {
+            created.incrementAndGet();
+            buffer = new byte[bufferSize];
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，归还后调用方不能再使用
+     *
+     * @param buffer 缓冲区
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        inUse.decrementAndGet();
+        if (buffer.length == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 当前借出的缓冲区个数
+     *
+     * @return
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+}
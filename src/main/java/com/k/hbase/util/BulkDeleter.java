@@ -0,0 +1,259 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按区间、前缀或过滤器批量删除数据
+ * 按region并行扫描出需要删除的行健（没有过滤器时只取每行第一个KeyValue的key，不传输value），
+ * 删除请求按限流速率写入共享的BufferedMutator，并定时回调进度。
+ * <pre>
+ * long deleted = new BulkDeleter("tabletest").parallelism(8).rowsPerSecond(50000).deletePrefix(Bytes.toBytes("1_20170101"));
+ * </pre>
+ * 注意：服务端批量删除需要在region server上部署BulkDeleteEndpoint协处理器，当前依赖中没有，删除全部在客户端发起
+ */
+public class BulkDeleter {
+    private static final Logger logger = LoggerFactory.getLogger(BulkDeleter.class);
+
+    /**
+     * 删除进度回调
+     */
+    public interface ProgressListener {
+        /**
+         * @param scannedRows     已扫描行数
+         * @param deletedRows     已提交删除的行数
+         * @param finishedRegions 已完成的region数
+         * @param totalRegions    需要扫描的region总数
+         */
+        void onProgress(long scannedRows, long deletedRows, int finishedRegions, int totalRegions);
+    }
+
+    // 每个扫描线程攒够这么多行再申请令牌并提交
+    private static final int DELETE_BATCH = 100;
+
+    private final String tableName;
+    private int parallelism = 8;
+    private double rowsPerSecond = 0;
+    private long progressIntervalMs = 10000;
+    private ProgressListener listener;
+
+    public BulkDeleter(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * 并行扫描的最大region数，默认8
+     */
+    public BulkDeleter parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 每秒最多删除的行数，小于等于0不限流
+     */
+    public BulkDeleter rowsPerSecond(double rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+        return this;
+    }
+
+    /**
+     * 进度回调
+     */
+    public BulkDeleter progressListener(ProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 进度回调和进度日志的间隔（毫秒），默认10秒
+     */
+    public BulkDeleter progressIntervalMs(long progressIntervalMs) {
+        this.progressIntervalMs = progressIntervalMs;
+        return this;
+    }
+
+    /**
+     * 删除[startRow, stopRow)区间内的所有行
+     *
+     * @param startRow 起始行健（包含），null表示从表头开始
+     * @param stopRow  结束行健（不包含），null表示到表尾
+     * @return 删除的行数
+     * @throws IOException
+     */
+    public long deleteRange(byte[] startRow, byte[] stopRow) throws IOException {
+        return delete(startRow, stopRow, null);
+    }
+
+    /**
+     * 删除指定前缀的所有行
+     *
+     * @param prefix 行健前缀
+     * @return 删除的行数
+     * @throws IOException
+     */
+    public long deletePrefix(byte[] prefix) throws IOException {
+        if (prefix == null || prefix.length == 0) {
+            throw new IllegalArgumentException("前缀不能为空，删除整张表请使用deleteRange");
+        }
+        return delete(prefix, stopRowForPrefix(prefix), null);
+    }
+
+    /**
+     * 删除[startRow, stopRow)区间内满足过滤器条件的行
+     * 过滤器需要读取value时不能只取行健，扫描开销会比按区间删除大
+     *
+     * @param startRow 起始行健（包含），null表示从表头开始
+     * @param stopRow  结束行健（不包含），null表示到表尾
+     * @param filter   过滤器，扫描结果不为空的行会被整行删除
+     * @return 删除的行数
+     * @throws IOException
+     */
+    public long deleteByFilter(byte[] startRow, byte[] stopRow, Filter filter) throws IOException {
+        if (filter == null) {
+            throw new IllegalArgumentException("过滤器不能为空");
+        }
+        return delete(startRow, stopRow, filter);
+    }
+
+    private long delete(byte[] startRow, byte[] stopRow, Filter filter) throws IOException {
+        Scan scan = new Scan();
+        if (filter == null) {
+            // 只需要行健
+            scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+        } else {
+            scan.setFilter(filter);
+        }
+        scan.setCacheBlocks(false);
+        scan.setCaching(1000);
+        final List<ParallelScanner.ScanRange> ranges = ParallelScanner.plan(tableName, startRow, stopRow);
+
+        final AtomicLong scanned = new AtomicLong();
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicInteger finishedRegions = new AtomicInteger();
+        final TokenBucket limiter = new TokenBucket(rowsPerSecond);
+
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(tableName))
+                .listener(new BufferedMutator.ExceptionListener() {
+                    public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator bufferedMutator) {
+                        failed.addAndGet(e.getNumExceptions());
+                        List<Mutation> rows = new ArrayList<Mutation>();
+                        for (int i = 0; i < e.getNumExceptions(); i++) {
+                            rows.add((Mutation) e.getRow(i));
+                        }
+                        if (!HBaseUtil.spill(tableName, rows)) {
+                            logger.error("表:{}批量删除{}行失败", tableName, e.getNumExceptions(), e);
+                        }
+                    }
+                });
+        params.writeBufferSize(AdaptiveWriteBuffer.forTable(tableName).getWriteBufferSize());
+        final BufferedMutator mutator = HBaseUtil.getConn().getBufferedMutator(params);
+
+        final ThreadLocal<List<Delete>> pending = new ThreadLocal<List<Delete>>() {
+            @Override
+            protected List<Delete> initialValue() {
+                return new ArrayList<Delete>(DELETE_BATCH);
+            }
+        };
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(ClientMetrics.daemonThreadFactory("hbase-bulk-delete-progress"));
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                reportProgress(scanned.get(), deleted.get(), finishedRegions.get(), ranges.size());
+            }
+        }, progressIntervalMs, progressIntervalMs, TimeUnit.MILLISECONDS);
+
+        long start = System.currentTimeMillis();
+        try {
+            ParallelScanner.scan(tableName, scan, ranges, parallelism, new ParallelScanner.Handler() {
+                @Override
+                public void handle(ParallelScanner.ScanRange range, Result result) throws IOException {
+                    scanned.incrementAndGet();
+                    List<Delete> batch = pending.get();
+                    batch.add(new Delete(result.getRow()));
+                    if (batch.size() >= DELETE_BATCH) {
+                        submit(batch);
+                    }
+                }
+
+                @Override
+                public void onRangeComplete(ParallelScanner.ScanRange range, long rows) throws IOException {
+                    submit(pending.get());
+                    finishedRegions.incrementAndGet();
+                }
+
+                private void submit(List<Delete> batch) throws IOException {
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                    try {
+                        limiter.acquire(batch.size());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("批量删除被中断");
+                    }
+                    mutator.mutate(batch);
+                    deleted.addAndGet(batch.size());
+                    batch.clear();
+                }
+            });
+            mutator.flush();
+        } finally {
+            reporter.shutdownNow();
+            mutator.close();
+        }
+        long count = deleted.get() - failed.get();
+        ClientMetrics.incr("bulkDelete." + tableName + ".deletedRows", count);
+        reportProgress(scanned.get(), deleted.get(), finishedRegions.get(), ranges.size());
+        logger.info("表:{}批量删除完成，删除{}行，失败{}行，耗时{}毫秒", tableName, count, failed.get(), System.currentTimeMillis() - start);
+        return count;
+    }
+
+    private void reportProgress(long scannedRows, long deletedRows, int finished, int total) {
+        logger.info("表:{}批量删除进度: 已扫描{}行，已删除{}行，region {}/{}", tableName, scannedRows, deletedRows, finished, total);
+        if (listener != null) {
+            listener.onProgress(scannedRows, deletedRows, finished, total);
+        }
+    }
+
+    /**
+     * 前缀扫描的结束行健：前缀最后一个不为0xFF的字节加1
+     *
+     * @param prefix 前缀
+     * @return 前缀全为0xFF时返回空数组，表示扫描到表尾
+     */
+    public static byte[] stopRowForPrefix(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] stop = Bytes.copy(prefix, 0, i + 1);
+                stop[i]++;
+                return stop;
+            }
+        }
+        return new byte[0];
+    }
+}
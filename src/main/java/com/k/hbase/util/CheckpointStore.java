@@ -0,0 +1,136 @@
+package com.k.hbase.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * 本地断点文件
+ * 以Properties格式保存键值对，每次保存先写临时文件并刷盘，再重命名覆盖原文件，进程在任何时刻退出都不会留下写了一半的断点。
+ * 增量拉取、表复制等需要断点续跑的任务共用
+ */
+public class CheckpointStore {
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointStore.class);
+
+    private final File file;
+    private final Properties properties = new Properties();
+
+    /**
+     * 打开断点文件，文件不存在时为空
+     *
+     * @param file 断点文件
+     * @throws IOException 文件存在但无法读取
+     */
+    public CheckpointStore(File file) throws IOException {
+        this.file = file;
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("创建断点目录" + dir + "失败");
+        }
+        if (file.exists()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    public synchronized long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("断点文件{}中{}={}不是数字，使用默认值{}", file, key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 修改断点，调用save后才会写入文件
+     */
+    public synchronized void put(String key, String value) {
+        properties.setProperty(key, value);
+    }
+
+    public synchronized void put(String key, long value) {
+        properties.setProperty(key, String.valueOf(value));
+    }
+
+    public synchronized void remove(String key) {
+        properties.remove(key);
+    }
+
+    /**
+     * 删除指定前缀的所有断点
+     *
+     * @param prefix 前缀
+     */
+    public synchronized void removePrefix(String prefix) {
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                properties.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 获取指定前缀的所有断点
+     *
+     * @param prefix 前缀
+     * @return 按key排序，key中不包含前缀
+     */
+    public synchronized Map<String, String> getPrefix(String prefix) {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                result.put(key.substring(prefix.length()), properties.getProperty(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把当前断点原子地写入文件
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, null);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // Windows下rename不能覆盖已有文件
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("重命名" + tmp + "失败");
+            }
+        }
+    }
+}
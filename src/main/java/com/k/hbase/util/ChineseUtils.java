@@ -1,55 +1,71 @@
 package com.k.hbase.util;
 
 import java.io.UnsupportedEncodingException;
-import java.util.Date;
 import java.util.Random;
 
+/**
+ * 随机汉字，取自GB2312一级汉字区（高字节176~214，低字节161~253）
+ * 字符表在类加载时解码一次；每个线程使用自己的Random，多线程生成时不会互相竞争
+ */
 public class ChineseUtils {
-    private static Random random = null;
+    private static final char[] CHARS = buildChars();
 
-    private static Random getRandomInstance() {
-        if (random == null) {
-            random = new Random(new Date().getTime());
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random(System.nanoTime() ^ Thread.currentThread().getId());
         }
-        return random;
-    }
+    };
 
-    public static String getChinese() {
-        String str = null;
-        int highPos, lowPos;
-        Random random = getRandomInstance();
-        highPos = (176 + Math.abs(random.nextInt(39)));
-        lowPos = 161 + Math.abs(random.nextInt(93));
-        byte[] b = new byte[2];
-        b[0] = (new Integer(highPos)).byteValue();
-        b[1] = (new Integer(lowPos)).byteValue();
+    private static char[] buildChars() {
+        byte[] b = new byte[39 * 93 * 2];
+        int p = 0;
+        for (int high = 176; high < 176 + 39; high++) {
+            for (int low = 161; low < 161 + 93; low++) {
+                b[p++] = (byte) high;
+                b[p++] = (byte) low;
+            }
+        }
         try {
-            str = new String(b, "GB2312");
+            return new String(b, "GB2312").toCharArray();
         } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("JVM不支持GB2312编码", e);
         }
-        return str;
     }
 
-    public static String getFixedLengthChinese(int length) {
-        String str = "";
-        for (int i = length; i > 0; i--) {
-            str = str + ChineseUtils.getChinese();
+    private static Random getRandomInstance() {
+        return random.get();
+    }
+
+    public static String getChinese() {
+        return String.valueOf(CHARS[getRandomInstance().nextInt(CHARS.length)]);
+    }
+
+    /**
+     * 把length个随机汉字追加到sb
+     *
+     * @param sb     目标
+     * @param length 汉字个数
+     * @param random 随机数
+     * @return
+     */
+    public static StringBuilder appendChinese(StringBuilder sb, int length, Random random) {
+        for (int i = 0; i < length; i++) {
+            sb.append(CHARS[random.nextInt(CHARS.length)]);
         }
-        return str;
+        return sb;
+    }
+
+    public static String getFixedLengthChinese(int length) {
+        return appendChinese(new StringBuilder(length), length, getRandomInstance()).toString();
     }
 
+    /**
+     * 长度在[start, end]之间的随机汉字
+     */
     public static String getRandomLengthChiness(int start, int end) {
-        String str = "";
-        int length = new Random().nextInt(end + 1);
-        if (length < start) {
-            str = getRandomLengthChiness(start, end);
-        } else {
-            for (int i = 0; i < length; i++) {
-                str = str + getChinese();
-            }
-        }
-        return str;
+        int length = start + getRandomInstance().nextInt(end - start + 1);
+        return getFixedLengthChinese(length);
     }
 
     public static String nextString(int lenghth){
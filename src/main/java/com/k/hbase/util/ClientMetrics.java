@@ -0,0 +1,185 @@
+package com.k.hbase.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客户端指标注册表
+ * 计数器与仪表（gauge）统一以“模块.表名.指标”的形式命名，可以定时输出到日志，也可以通过snapshot取出后对接外部监控
+ */
+public class ClientMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(ClientMetrics.class);
+
+    /**
+     * 仪表，读取时实时计算当前值
+     */
+    public interface Gauge {
+        long getValue();
+    }
+
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private static final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    private static ScheduledExecutorService reporter;
+
+    static {
+        long interval = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "metrics.reportIntervalSeconds", 0);
+        if (interval > 0) {
+            startReporter(interval);
+        }
+    }
+
+    /**
+     * 获取计数器，不存在时创建
+     *
+     * @param name 指标名
+     * @return
+     */
+    public static AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * 计数器累加
+     *
+     * @param name  指标名
+     * @param delta 增量
+     */
+    public static void incr(String name, long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    /**
+     * 注册仪表，同名仪表会被覆盖
+     *
+     * @param name  指标名
+     * @param gauge 仪表
+     */
+    public static void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * 注销仪表
+     *
+     * @param name 指标名
+     */
+    public static void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * 获取所有指标的当前值，按名称排序
+     *
+     * @return
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            try {
+                values.put(entry.getKey(), entry.getValue().getValue());
+            } catch (RuntimeException e) {
+                logger.warn("读取指标:{}失败", entry.getKey(), e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 获取指定前缀的指标
+     *
+     * @param prefix 指标名前缀
+     * @return
+     */
+    public static Map<String, Long> snapshot(String prefix) {
+        Map<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                values.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 把当前所有指标输出到日志
+     */
+    public static void report() {
+        Map<String, Long> values = snapshot();
+        if (values.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("HBase客户端指标:");
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        logger.info(sb.toString());
+    }
+
+    /**
+     * 启动定时输出指标的后台线程
+     *
+     * @param intervalSeconds 输出间隔（秒）
+     */
+    public static synchronized void startReporter(long intervalSeconds) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("hbase-metrics-reporter"));
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止定时输出
+     */
+    public static synchronized void stopReporter() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+
+    /**
+     * 后台守护线程工厂，避免后台任务阻止JVM退出
+     *
+     * @param name 线程名
+     * @return
+     */
+    public static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicLong index = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,383 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 启动预热
+ * 发布后的头几个请求很慢：连接是第一次调用时才创建的，region位置要在首次访问时查询meta表，相关代码也还没有被JIT编译。
+ * 预热依次完成三件事：提前建立连接；预先加载指定表的region位置缓存；对预热表循环执行Get、Put、Scan，直到各操作的延迟稳定。
+ * <p>
+ * 默认不开启，由调用方在对外提供服务前执行，配置在hbase-client.properties中warmup.*：
+ * <pre>
+ * ClientWarmup.Report report = ClientWarmup.fromConfig().run();
+ * if (!report.isReady()) {
+ *     logger.warn(report.toString());
+ * }
+ * </pre>
+ * 健康检查可以通过ClientWarmup.isWarmedUp()判断预热是否已经完成
+ */
+public class ClientWarmup {
+    private static final Logger logger = LoggerFactory.getLogger(ClientWarmup.class);
+
+    private static final byte[] ROW_PREFIX = Bytes.toBytes("warmup-");
+    private static final byte[] QUALIFIER = Bytes.toBytes("v");
+
+    private static volatile boolean warmedUp = false;
+
+    private List<String> tables = new ArrayList<String>();
+    private String warmupTable;
+    private String family = "w";
+    private boolean createTable = true;
+    private int rows = 20;
+    private int maxRounds = 50;
+    private int stableRounds = 3;
+    private double tolerance = 0.2;
+    private long timeoutMs = 60 * 1000L;
+
+    /**
+     * 按hbase-client.properties中warmup.*配置创建
+     *
+     * @return
+     */
+    public static ClientWarmup fromConfig() {
+        String p = PropertiesUtil.CLIENT;
+        ClientWarmup warmup = new ClientWarmup()
+                .warmupTable(PropertiesUtil.getString(p, "warmup.table", null))
+                .family(PropertiesUtil.getString(p, "warmup.family", "w"))
+                .createTable(PropertiesUtil.getBoolean(p, "warmup.createTable", true))
+                .rows(PropertiesUtil.getInt(p, "warmup.rows", 20))
+                .maxRounds(PropertiesUtil.getInt(p, "warmup.maxRounds", 50))
+                .stableRounds(PropertiesUtil.getInt(p, "warmup.stableRounds", 3))
+                .tolerance(PropertiesUtil.getDouble(p, "warmup.tolerance", 0.2))
+                .timeoutMs(PropertiesUtil.getLong(p, "warmup.timeoutMs", 60 * 1000L));
+        String tables = PropertiesUtil.getString(p, "warmup.tables", null);
+        if (tables != null) {
+            for (String table : tables.split(",")) {
+                if (table.trim().length() > 0) {
+                    warmup.tables(table.trim());
+                }
+            }
+        }
+        return warmup;
+    }
+
+    /**
+     * 需要预先加载region位置的业务表
+     */
+    public ClientWarmup tables(String... tables) {
+        this.tables.addAll(Arrays.asList(tables));
+        return this;
+    }
+
+    /**
+     * 执行合成读写的预热表，不设置时跳过合成读写；不要使用业务表，预热会覆盖warmup-开头的行
+     */
+    public ClientWarmup warmupTable(String warmupTable) {
+        this.warmupTable = warmupTable;
+        return this;
+    }
+
+    /**
+     * 预热表的列族，默认w
+     */
+    public ClientWarmup family(String family) {
+        this.family = family;
+        return this;
+    }
+
+    /**
+     * 预热表不存在时是否创建，默认true
+     */
+    public ClientWarmup createTable(boolean createTable) {
+        this.createTable = createTable;
+        return this;
+    }
+
+    /**
+     * 每轮读写的行数，默认20
+     */
+    public ClientWarmup rows(int rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    /**
+     * 最多执行的轮数，默认50
+     */
+    public ClientWarmup maxRounds(int maxRounds) {
+        this.maxRounds = maxRounds;
+        return this;
+    }
+
+    /**
+     * 连续多少轮延迟稳定后认为预热完成，默认3
+     */
+    public ClientWarmup stableRounds(int stableRounds) {
+        this.stableRounds = stableRounds;
+        return this;
+    }
+
+    /**
+     * 相邻两轮延迟中位数的变化比例小于这个值时认为稳定，默认0.2
+     */
+    public ClientWarmup tolerance(double tolerance) {
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * 预热的最长时间（毫秒），超时后停止并报告未就绪，默认60秒
+     */
+    public ClientWarmup timeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * 最近一次预热是否已经完成并就绪
+     *
+     * @return
+     */
+    public static boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    /**
+     * 执行预热，不抛出异常，失败原因记录在报告中
+     *
+     * @return 预热报告
+     */
+    public Report run() {
+        Report report = new Report();
+        long begin = System.currentTimeMillis();
+        long deadline = begin + timeoutMs;
+
+        long start = System.nanoTime();
+        Connection connection = HBaseUtil.getConn();
+        report.connectMs = (System.nanoTime() - start) / 1000000;
+        if (connection == null) {
+            report.errors.add("建立连接失败");
+            return finish(report, begin);
+        }
+
+        for (String table : tables) {
+            try {
+                report.regionsLocated.put(table, locateRegions(connection, table));
+            } catch (IOException e) {
+                logger.warn("加载表:{}的region位置失败", table, e);
+                report.errors.add("加载表:" + table + "的region位置失败:" + e.getMessage());
+            }
+        }
+
+        if (warmupTable != null) {
+            try {
+                if (createTable) {
+                    HBaseUtil.createTable(warmupTable, new String[]{family}, false);
+                }
+                locateRegions(connection, warmupTable);
+                exercise(connection, report, deadline);
+            } catch (Exception e) {
+                logger.warn("预热表:{}读写失败", warmupTable, e);
+                report.errors.add("预热表:" + warmupTable + "读写失败:" + e.getMessage());
+            }
+        } else {
+            report.settled = true;
+        }
+        return finish(report, begin);
+    }
+
+    private Report finish(Report report, long begin) {
+        report.elapsedMs = System.currentTimeMillis() - begin;
+        report.ready = report.settled && report.errors.isEmpty();
+        warmedUp = report.ready;
+        ClientMetrics.incr("warmup.runs", 1);
+        logger.info(report.toString());
+        return report;
+    }
+
+    /**
+     * 逐个查询region位置，结果会留在连接的位置缓存中，之后的请求不需要再访问meta表
+     */
+    private int locateRegions(Connection connection, String table) throws IOException {
+        RegionLocator locator = connection.getRegionLocator(TableName.valueOf(table));
+        try {
+            byte[][] startKeys = locator.getStartKeys();
+            for (byte[] startKey : startKeys) {
+                locator.getRegionLocation(startKey);
+            }
+            return startKeys.length;
+        } finally {
+            locator.close();
+        }
+    }
+
+    private void exercise(Connection connection, Report report, long deadline) throws IOException {
+        Table table = connection.getTable(TableName.valueOf(warmupTable));
+        byte[] cf = Bytes.toBytes(family);
+        byte[] stopRow = Bytes.add(ROW_PREFIX, new byte[]{(byte) 0xFF});
+        long[] previous = null;
+        int stable = 0;
+        try {
+            while (report.rounds < maxRounds && System.currentTimeMillis() < deadline) {
+                long[] putMicros = new long[rows];
+                long[] getMicros = new long[rows];
+                for (int i = 0; i < rows; i++) {
+                    byte[] row = Bytes.add(ROW_PREFIX, Bytes.toBytes(String.format("%04d", i)));
+                    Put put = new Put(row);
+                    // 合成数据不需要持久化
+                    put.setDurability(Durability.SKIP_WAL);
+                    put.addColumn(cf, QUALIFIER, Bytes.toBytes(report.rounds));
+                    long t = System.nanoTime();
+                    table.put(put);
+                    putMicros[i] = (System.nanoTime() - t) / 1000;
+
+                    t = System.nanoTime();
+                    table.get(new Get(row));
+                    getMicros[i] = (System.nanoTime() - t) / 1000;
+                }
+                Scan scan = new Scan(ROW_PREFIX, stopRow);
+                scan.setCaching(rows);
+                scan.setCacheBlocks(false);
+                long t = System.nanoTime();
+                ResultScanner scanner = table.getScanner(scan);
+                try {
+                    for (Result ignored : scanner) {
+                        // 只计时
+                    }
+                } finally {
+                    scanner.close();
+                }
+                long scanMicros = (System.nanoTime() - t) / 1000;
+
+                long[] current = new long[]{median(putMicros), median(getMicros), scanMicros};
+                report.rounds++;
+                report.putMicros = current[0];
+                report.getMicros = current[1];
+                report.scanMicros = current[2];
+                if (previous != null && settled(previous, current)) {
+                    stable++;
+                } else {
+                    stable = 0;
+                }
+                previous = current;
+                logger.debug("预热第{}轮，put:{}us，get:{}us，scan:{}us", report.rounds, current[0], current[1], current[2]);
+                if (stable >= stableRounds) {
+                    report.settled = true;
+                    return;
+                }
+            }
+            report.errors.add("预热" + report.rounds + "轮后延迟仍未稳定");
+        } finally {
+            table.close();
+        }
+    }
+
+    private boolean settled(long[] previous, long[] current) {
+        for (int i = 0; i < current.length; i++) {
+            long base = Math.max(previous[i], 1);
+            if (Math.abs(current[i] - previous[i]) > base * tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted.length == 0 ? 0 : sorted[sorted.length / 2];
+    }
+
+    /**
+     * 预热报告
+     */
+    public static class Report {
+        private boolean ready;
+        private boolean settled;
+        private long connectMs;
+        private long elapsedMs;
+        private int rounds;
+        private long putMicros;
+        private long getMicros;
+        private long scanMicros;
+        private final Map<String, Integer> regionsLocated = new LinkedHashMap<String, Integer>();
+        private final List<String> errors = new ArrayList<String>();
+
+        /**
+         * 连接、region位置、合成读写全部成功且延迟已经稳定
+         */
+        public boolean isReady() {
+            return ready;
+        }
+
+        public long getConnectMs() {
+            return connectMs;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * 最后一轮Put延迟的中位数（微秒）
+         */
+        public long getPutMicros() {
+            return putMicros;
+        }
+
+        /**
+         * 最后一轮Get延迟的中位数（微秒）
+         */
+        public long getGetMicros() {
+            return getMicros;
+        }
+
+        /**
+         * 最后一轮Scan的耗时（微秒）
+         */
+        public long getScanMicros() {
+            return scanMicros;
+        }
+
+        /**
+         * 各表加载的region位置数
+         */
+        public Map<String, Integer> getRegionsLocated() {
+            return regionsLocated;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        @Override
+        public String toString() {
+            return "预热" + (ready ? "完成" : "未就绪") + "，耗时" + elapsedMs + "毫秒，建立连接" + connectMs
+                    + "毫秒，region位置" + regionsLocated + "，合成读写" + rounds + "轮，put:" + putMicros
+                    + "us，get:" + getMicros + "us，scan:" + scanMicros + "us" + (errors.isEmpty() ? "" : "，错误" + errors);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.k.hbase.util;
+
+import com.k.hbase.codec.ColumnDecoder;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 列式扫描
+ * 在按region并行扫描的基础上只取指定的数值列，按行解码到定长的列块中（每列一个long[]或double[]、一个有效位图，
+ * 以及所有行健拼接成的数组和偏移量），攒满一块交给回调处理。列块在批次之间重复使用，扫描过程中不为每个值创建对象，
+ * 适合求和、求平均值等统计：
+ * <pre>
+ * final AtomicLong sum = new AtomicLong();
+ * new ColumnarScanReader("order")
+ *         .longColumn("info", "amount", ColumnDecoder.Encoding.FIXED)
+ *         .read(new ColumnarScanReader.ChunkHandler() {
+ *             public void handle(ColumnarScanReader.Chunk chunk) {
+ *                 long[] amounts = chunk.getLongs(0);
+ *                 long local = 0;
+ *                 for (int i = 0; i < chunk.size(); i++) {
+ *                     local += amounts[i];
+ *                 }
+ *                 sum.addAndGet(local);
+ *             }
+ *         });
+ * </pre>
+ * 回调在各个扫描线程中并行调用，同一个列块只在回调期间有效，需要保留数据时自行复制。
+ * 某行没有某列时该列对应位置为0，有效位为0；所有投影列都没有的行不会返回。
+ */
+public class ColumnarScanReader {
+    private static final int defaultChunkSize = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "columnarScan.chunkSize", 4096);
+    private static final int defaultParallelism = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "columnarScan.parallelism", 8);
+    private static final int defaultCaching = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "columnarScan.caching", 1000);
+
+    /**
+     * 列块处理器，会被多个线程同时调用，实现需要线程安全
+     */
+    public interface ChunkHandler {
+        /**
+         * 处理一个列块，返回后列块会被清空并重复使用
+         *
+         * @param chunk 列块
+         * @throws IOException 抛出异常时终止整个扫描
+         */
+        void handle(Chunk chunk) throws IOException;
+    }
+
+    private static class Column {
+        final byte[] family;
+        final byte[] qualifier;
+        final ColumnDecoder.Encoding encoding;
+        final boolean isDouble;
+
+        Column(byte[] family, byte[] qualifier, ColumnDecoder.Encoding encoding, boolean isDouble) {
+            this.family = family;
+            this.qualifier = qualifier;
+            this.encoding = encoding;
+            this.isDouble = isDouble;
+        }
+    }
+
+    /**
+     * 列块，列序号与添加列的顺序一致
+     */
+    public static class Chunk {
+        private final int capacity;
+        private final long[][] longs;
+        private final double[][] doubles;
+        private final long[][] validity;
+        private int size;
+        private byte[] rowKeys = new byte[4096];
+        // 第i行行健在rowKeys中的范围为[rowOffsets[i], rowOffsets[i + 1])
+        private final int[] rowOffsets;
+        private ParallelScanner.ScanRange range;
+
+        Chunk(List<Column> columns, int capacity) {
+            this.capacity = capacity;
+            this.longs = new long[columns.size()][];
+            this.doubles = new double[columns.size()][];
+            this.validity = new long[columns.size()][];
+            for (int c = 0; c < columns.size(); c++) {
+                if (columns.get(c).isDouble) {
+                    doubles[c] = new double[capacity];
+                } else {
+                    longs[c] = new long[capacity];
+                }
+                validity[c] = ColumnDecoder.newBitmap(capacity);
+            }
+            this.rowOffsets = new int[capacity + 1];
+        }
+
+        /**
+         * 块中的行数，各列数组只有前size个元素有效
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 第column列的值，该列不是long列时返回null
+         */
+        public long[] getLongs(int column) {
+            return longs[column];
+        }
+
+        /**
+         * 第column列的值，该列不是double列时返回null
+         */
+        public double[] getDoubles(int column) {
+            return doubles[column];
+        }
+
+        /**
+         * 第column列的有效位图，第i位为1表示第i行有值
+         */
+        public long[] getValidity(int column) {
+            return validity[column];
+        }
+
+        public boolean isValid(int column, int row) {
+            return ColumnDecoder.isValid(validity[column], row);
+        }
+
+        /**
+         * 所有行健拼接成的数组，配合getRowOffset、getRowLength使用
+         */
+        public byte[] getRowArray() {
+            return rowKeys;
+        }
+
+        public int getRowOffset(int row) {
+            return rowOffsets[row];
+        }
+
+        public int getRowLength(int row) {
+            return rowOffsets[row + 1] - rowOffsets[row];
+        }
+
+        public byte[] copyRow(int row) {
+            return Arrays.copyOfRange(rowKeys, rowOffsets[row], rowOffsets[row + 1]);
+        }
+
+        /**
+         * 数据所在的扫描区间
+         */
+        public ParallelScanner.ScanRange getRange() {
+            return range;
+        }
+
+        boolean isFull() {
+            return size == capacity;
+        }
+
+        void append(Result result, List<Column> columns) {
+            int row = size;
+            int offset = rowOffsets[row];
+            byte[] key = result.getRow();
+            int rowLength = key.length;
+            if (offset + rowLength > rowKeys.length) {
+                rowKeys = Arrays.copyOf(rowKeys, Math.max(rowKeys.length * 2, offset + rowLength));
+            }
+            System.arraycopy(key, 0, rowKeys, offset, rowLength);
+            rowOffsets[row + 1] = offset + rowLength;
+            long bit = 1L << row;
+            int word = row >>> 6;
+            for (int c = 0; c < columns.size(); c++) {
+                Column column = columns.get(c);
+                Cell cell = result.getColumnLatestCell(column.family, column.qualifier);
+                if (cell == null) {
+                    validity[c][word] &= ~bit;
+                    if (column.isDouble) {
+                        doubles[c][row] = 0;
+                    } else {
+                        longs[c][row] = 0;
+                    }
+                    continue;
+                }
+                validity[c][word] |= bit;
+                if (column.isDouble) {
+                    doubles[c][row] = ColumnDecoder.decodeDouble(cell, column.encoding);
+                } else {
+                    longs[c][row] = ColumnDecoder.decodeLong(cell, column.encoding);
+                }
+            }
+            size++;
+        }
+
+        void reset(ParallelScanner.ScanRange range) {
+            this.range = range;
+            this.size = 0;
+        }
+    }
+
+    private final String tableName;
+    private final List<Column> columns = new ArrayList<Column>();
+    private byte[] startRow;
+    private byte[] stopRow;
+    private Filter filter;
+    private int chunkSize = defaultChunkSize;
+    private int parallelism = defaultParallelism;
+    private int caching = defaultCaching;
+    // 空闲的列块，在多次read之间重复使用
+    private ArrayBlockingQueue<Chunk> freeChunks;
+
+    /**
+     * @param tableName 表名
+     */
+    public ColumnarScanReader(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * 添加long列，列序号为添加的顺序
+     */
+    public ColumnarScanReader longColumn(String family, String qualifier, ColumnDecoder.Encoding encoding) {
+        return addColumn(new Column(Bytes.toBytes(family), Bytes.toBytes(qualifier), encoding, false));
+    }
+
+    /**
+     * 添加double列，列序号为添加的顺序
+     */
+    public ColumnarScanReader doubleColumn(String family, String qualifier, ColumnDecoder.Encoding encoding) {
+        return addColumn(new Column(Bytes.toBytes(family), Bytes.toBytes(qualifier), encoding, true));
+    }
+
+    private ColumnarScanReader addColumn(Column column) {
+        columns.add(column);
+        freeChunks = null;
+        return this;
+    }
+
+    public ColumnarScanReader range(byte[] startRow, byte[] stopRow) {
+        this.startRow = startRow;
+        this.stopRow = stopRow;
+        return this;
+    }
+
+    /**
+     * 服务端过滤条件，与列投影同时生效
+     */
+    public ColumnarScanReader filter(Filter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * 每个列块的行数
+     */
+    public ColumnarScanReader chunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+        freeChunks = null;
+        return this;
+    }
+
+    public ColumnarScanReader parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        freeChunks = null;
+        return this;
+    }
+
+    public ColumnarScanReader caching(int caching) {
+        this.caching = caching;
+        return this;
+    }
+
+    /**
+     * 并行扫描并按列块回调
+     *
+     * @param handler 列块处理器
+     * @return 扫描的总行数
+     * @throws IOException 扫描失败、列值无法解码或处理器抛出异常
+     */
+    public long read(final ChunkHandler handler) throws IOException {
+        if (columns.isEmpty()) {
+            throw new IllegalStateException("没有指定要读取的列");
+        }
+        Scan template = new Scan();
+        for (Column column : columns) {
+            template.addColumn(column.family, column.qualifier);
+        }
+        template.setCacheBlocks(false);
+        template.setCaching(caching);
+        if (filter != null) {
+            template.setFilter(filter);
+        }
+        List<ParallelScanner.ScanRange> ranges = ParallelScanner.plan(tableName, startRow, stopRow);
+        final ArrayBlockingQueue<Chunk> pool = chunkPool();
+        final List<Column> projection = columns;
+        // 每个区间由一个线程扫描，区间正在填充的列块
+        // 扫描失败时被取消的线程可能还在使用未完成区间的列块，这些列块直接丢弃，不放回池中
+        final ConcurrentHashMap<ParallelScanner.ScanRange, Chunk> filling = new ConcurrentHashMap<ParallelScanner.ScanRange, Chunk>();
+        return ParallelScanner.scan(tableName, template, ranges, parallelism, new ParallelScanner.Handler() {
+            @Override
+            public void handle(ParallelScanner.ScanRange range, Result result) throws IOException {
+                Chunk chunk = filling.get(range);
+                if (chunk == null) {
+                    chunk = pool.poll();
+                    if (chunk == null) {
+                        chunk = new Chunk(projection, chunkSize);
+                    }
+                    chunk.reset(range);
+                    filling.put(range, chunk);
+                }
+                try {
+                    chunk.append(result, projection);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("表:" + tableName + "列值解码失败", e);
+                }
+                if (chunk.isFull()) {
+                    emit(chunk);
+                    chunk.reset(range);
+                }
+            }
+
+            @Override
+            public void onRangeComplete(ParallelScanner.ScanRange range, long rows) throws IOException {
+                Chunk chunk = filling.remove(range);
+                if (chunk == null) {
+                    return;
+                }
+                try {
+                    if (chunk.size() > 0) {
+                        emit(chunk);
+                    }
+                } finally {
+                    pool.offer(chunk);
+                }
+            }
+
+            private void emit(Chunk chunk) throws IOException {
+                ClientMetrics.incr("columnarScan." + tableName + ".chunks", 1);
+                ClientMetrics.incr("columnarScan." + tableName + ".rows", chunk.size());
+                handler.handle(chunk);
+            }
+        });
+    }
+
+    private synchronized ArrayBlockingQueue<Chunk> chunkPool() {
+        if (freeChunks == null) {
+            freeChunks = new ArrayBlockingQueue<Chunk>(parallelism);
+        }
+        return freeChunks;
+    }
+}
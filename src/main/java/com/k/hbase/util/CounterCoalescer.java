@@ -0,0 +1,399 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 计数器合并
+ * 增量先在内存中按表、行、列累加，到达flush间隔或待提交的增量次数达到上限时，
+ * 按行合并成Increment批量提交，同一个计数器每秒成千上万次累加最终只产生几次RPC。
+ * 累加路径不加锁：每个计数器分成多个槽，线程按线程号落到不同的槽上做CAS，flush时把各槽取出求和。
+ * flush时计数器会被整体摘下（槽置为RETIRED），之后的累加会创建新的计数器，内存中的计数器个数不会无限增长。
+ * <p>
+ * 注意：Increment不是幂等操作，RPC超时重试可能导致重复累加；提交失败的增量会写入溢出日志（已开启时）或放回内存等待下次提交
+ */
+public class CounterCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(CounterCoalescer.class);
+
+    // 已被flush摘下的槽，累加线程看到后需要重新获取计数器
+    private static final long RETIRED = Long.MIN_VALUE;
+    // 每个槽占8个long，避免相邻槽落在同一缓存行上
+    private static final int PADDING = 8;
+
+    private static CounterCoalescer instance;
+
+    /**
+     * 计数器标识
+     */
+    static final class CounterKey {
+        final String tableName;
+        final byte[] row;
+        final byte[] family;
+        final byte[] qualifier;
+        private final int hash;
+
+        CounterKey(String tableName, byte[] row, byte[] family, byte[] qualifier) {
+            this.tableName = tableName;
+            this.row = row;
+            this.family = family;
+            this.qualifier = qualifier;
+            int h = tableName.hashCode();
+            h = h * 31 + Bytes.hashCode(row);
+            h = h * 31 + Bytes.hashCode(family);
+            h = h * 31 + Bytes.hashCode(qualifier);
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CounterKey)) {
+                return false;
+            }
+            CounterKey other = (CounterKey) o;
+            return hash == other.hash && tableName.equals(other.tableName) && Arrays.equals(row, other.row)
+                    && Arrays.equals(family, other.family) && Arrays.equals(qualifier, other.qualifier);
+        }
+    }
+
+    /**
+     * 分槽累加器
+     */
+    static final class StripedCell {
+        private final AtomicLongArray slots;
+        private final int mask;
+
+        StripedCell(int stripes) {
+            this.slots = new AtomicLongArray(stripes * PADDING);
+            this.mask = stripes - 1;
+        }
+
+        /**
+         * @return 计数器已被摘下时返回false
+         */
+        boolean add(long delta) {
+            int index = ((int) Thread.currentThread().getId() & mask) * PADDING;
+            while (true) {
+                long current = slots.get(index);
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (slots.compareAndSet(index, current, current + delta)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 摘下计数器并返回累加值，之后的add都会返回false
+         */
+        long retire() {
+            long sum = 0;
+            for (int i = 0; i < slots.length(); i += PADDING) {
+                long value = slots.getAndSet(i, RETIRED);
+                if (value != RETIRED) {
+                    sum += value;
+                }
+            }
+            return sum;
+        }
+    }
+
+    private final ConcurrentHashMap<CounterKey, StripedCell> cells = new ConcurrentHashMap<CounterKey, StripedCell>();
+    private final int stripes;
+    private final int maxKeys;
+    private final long maxPendingDeltas;
+    private final boolean skipWal;
+    private final AtomicLong pendingDeltas = new AtomicLong();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+    private volatile boolean closed = false;
+
+    /**
+     * 获取全局计数器合并器，配置读取hbase-client.properties中counter.*配置项
+     *
+     * @return
+     */
+    public static synchronized CounterCoalescer getInstance() {
+        if (instance == null) {
+            String p = PropertiesUtil.CLIENT;
+            instance = new CounterCoalescer(
+                    PropertiesUtil.getLong(p, "counter.flushIntervalMs", 1000),
+                    PropertiesUtil.getInt(p, "counter.maxKeys", 100000),
+                    PropertiesUtil.getLong(p, "counter.maxPendingDeltas", 1000000),
+                    PropertiesUtil.getBoolean(p, "counter.skipWal", false));
+            final CounterCoalescer created = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread("hbase-counter-shutdown") {
+                @Override
+                public void run() {
+                    created.close();
+                }
+            });
+        }
+        return instance;
+    }
+
+    /**
+     * 关闭全局计数器合并器，关闭前提交内存中所有增量
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * @param flushIntervalMs  定时提交间隔（毫秒）
+     * @param maxKeys          内存中计数器个数上限，超过时立即提交，超过两倍时累加线程同步提交
+     * @param maxPendingDeltas 未提交的累加次数上限，超过时立即提交
+     * @param skipWal          提交时不写WAL，region server宕机会丢失最近的增量，换取更高的写入速度
+     */
+    public CounterCoalescer(long flushIntervalMs, int maxKeys, long maxPendingDeltas, boolean skipWal) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int n = 1;
+        while (n < cpus && n < 16) {
+            n <<= 1;
+        }
+        this.stripes = n;
+        this.maxKeys = maxKeys;
+        this.maxPendingDeltas = maxPendingDeltas;
+        this.skipWal = skipWal;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(ClientMetrics.daemonThreadFactory("hbase-counter-flusher"));
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        ClientMetrics.registerGauge("counter.pendingKeys", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return cells.size();
+            }
+        });
+        ClientMetrics.registerGauge("counter.pendingDeltas", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return pendingDeltas.get();
+            }
+        });
+    }
+
+    /**
+     * 累加计数器
+     *
+     * @param tableName 表名
+     * @param row       行健
+     * @param family    列族
+     * @param qualifier 列名
+     * @param delta     增量
+     */
+    public void increment(String tableName, byte[] row, byte[] family, byte[] qualifier, long delta) {
+        if (closed) {
+            throw new IllegalStateException("计数器合并器已关闭");
+        }
+        add(new CounterKey(tableName, row, family, qualifier), delta);
+        ClientMetrics.incr("counter.increments", 1);
+        long pending = pendingDeltas.incrementAndGet();
+        int keys = cells.size();
+        if (keys >= maxKeys * 2) {
+            // 提交跟不上累加速度，由累加线程同步提交，限制内存占用
+            flushQuietly();
+        } else if ((pending >= maxPendingDeltas || keys >= maxKeys) && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            });
+        }
+    }
+
+    private void add(CounterKey key, long delta) {
+        while (true) {
+            StripedCell cell = cells.get(key);
+            if (cell == null) {
+                StripedCell created = new StripedCell(stripes);
+                cell = cells.putIfAbsent(key, created);
+                if (cell == null) {
+                    cell = created;
+                }
+            }
+            if (cell.add(delta)) {
+                return;
+            }
+            // 计数器正在被摘下，等flush把它从map中移除后重新创建
+            cells.remove(key, cell);
+        }
+    }
+
+    /**
+     * 立即提交内存中所有增量
+     *
+     * @return 提交成功的计数器个数
+     * @throws IOException 部分增量提交失败，失败的增量已写入溢出日志或放回内存
+     */
+    public int flush() throws IOException {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            pendingDeltas.set(0);
+            Map<String, Map<byte[], Increment>> byTable = new HashMap<String, Map<byte[], Increment>>();
+            for (Map.Entry<CounterKey, StripedCell> entry : cells.entrySet()) {
+                long sum = entry.getValue().retire();
+                // 只移除这个计数器本身，累加线程可能已经放入了新的计数器
+                cells.remove(entry.getKey(), entry.getValue());
+                if (sum == 0) {
+                    continue;
+                }
+                CounterKey key = entry.getKey();
+                Map<byte[], Increment> rows = byTable.get(key.tableName);
+                if (rows == null) {
+                    rows = new TreeMap<byte[], Increment>(Bytes.BYTES_COMPARATOR);
+                    byTable.put(key.tableName, rows);
+                }
+                Increment increment = rows.get(key.row);
+                if (increment == null) {
+                    increment = new Increment(key.row);
+                    increment.setReturnResults(false);
+                    if (skipWal) {
+                        increment.setDurability(Durability.SKIP_WAL);
+                    }
+                    rows.put(key.row, increment);
+                }
+                increment.addColumn(key.family, key.qualifier, sum);
+            }
+            int flushed = 0;
+            IOException failure = null;
+            for (Map.Entry<String, Map<byte[], Increment>> entry : byTable.entrySet()) {
+                try {
+                    flushed += flushTable(entry.getKey(), new ArrayList<Increment>(entry.getValue().values()));
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return flushed;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private int flushTable(String tableName, List<Increment> increments) throws IOException {
+        long start = System.nanoTime();
+        Object[] results = new Object[increments.size()];
+        IOException error = null;
+        Table table = HBaseUtil.getTable(tableName);
+        if (table == null) {
+            error = new IOException("获取表:" + tableName + "失败");
+        } else {
+            try {
+                table.batch(increments, results);
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new IOException("表:" + tableName + "提交计数器被中断", e);
+            } finally {
+                table.close();
+            }
+        }
+        List<Increment> failed = new ArrayList<Increment>();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null || results[i] instanceof Throwable) {
+                failed.add(increments.get(i));
+            }
+        }
+        int succeeded = increments.size() - failed.size();
+        ClientMetrics.incr("counter." + tableName + ".flushedRows", succeeded);
+        ClientMetrics.incr("counter." + tableName + ".flushMicros", (System.nanoTime() - start) / 1000);
+        if (failed.isEmpty()) {
+            return succeeded;
+        }
+        ClientMetrics.incr("counter." + tableName + ".failedRows", failed.size());
+        if (!HBaseUtil.spill(tableName, failed)) {
+            restore(tableName, failed);
+        }
+        throw error != null ? error : new IOException("表:" + tableName + "有" + failed.size() + "行计数器提交失败");
+    }
+
+    /**
+     * 把提交失败的增量放回内存，等待下次提交；内存中计数器已满时丢弃
+     */
+    private void restore(String tableName, List<Increment> failed) {
+        for (Increment increment : failed) {
+            for (Map.Entry<byte[], NavigableMap<byte[], Long>> family : increment.getFamilyMapOfLongs().entrySet()) {
+                for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+                    if (cells.size() >= maxKeys * 2) {
+                        ClientMetrics.incr("counter." + tableName + ".droppedDeltas", 1);
+                        logger.error("表:{}行:{}列:{}:{}的增量{}提交失败且内存已满，已丢弃", tableName, Bytes.toStringBinary(increment.getRow()),
+                                Bytes.toString(family.getKey()), Bytes.toString(column.getKey()), column.getValue());
+                        continue;
+                    }
+                    add(new CounterKey(tableName, increment.getRow(), family.getKey(), column.getKey()), column.getValue());
+                }
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("计数器提交失败", e);
+        } catch (RuntimeException e) {
+            logger.error("计数器提交失败", e);
+        }
+    }
+
+    /**
+     * 停止定时提交并提交内存中所有增量
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        ClientMetrics.removeGauge("counter.pendingKeys");
+        ClientMetrics.removeGauge("counter.pendingDeltas");
+    }
+}
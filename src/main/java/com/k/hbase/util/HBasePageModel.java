@@ -71,7 +71,7 @@ public class HBasePageModel implements Serializable {
     }
 
     /**
-     * 获取分页总数
+     * 获取分页总数，由分页索引统计，后台建索引完成或翻到最后一页之前为0
      *
      * @return
      */
@@ -1,9 +1,12 @@
 package com.k.hbase.util;
 
+import com.k.hbase.codec.ValueCodec;
+import com.k.hbase.journal.SpillJournal;
 import jodd.util.StringUtil;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
@@ -17,7 +20,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.Response;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
 
 public class HBaseUtil {
@@ -25,9 +30,25 @@ public class HBaseUtil {
 
     private static Configuration conf;
     private static Connection conn;
+    private static volatile SpillJournal spillJournal;
+
+    //getScan返回的扫描器是否在后台预取
+    private static final boolean PREFETCH = PropertiesUtil.getBoolean(PropertiesUtil.CLIENT, "prefetch.enabled", true);
 
     private static final String[] SPLIT_KEYS = new String[]{"1", "2", "3", "4", "5", "6", "7", "8", "9", "A", "B", "C", "D", "E"};
 
+    //旧版getScan参数表解析后的扫描条件，相同的参数表只解析一次
+    private static final int SCAN_PARAM_CACHE_SIZE = 256;
+    private static final Map<HashMap<String, List<String>>, ScanQuery> scanParamCache =
+            Collections.synchronizedMap(new LinkedHashMap<HashMap<String, List<String>>, ScanQuery>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<HashMap<String, List<String>>, ScanQuery> eldest) {
+                    return size() > SCAN_PARAM_CACHE_SIZE;
+                }
+            });
+
     /**
      * 加载配置文件
      * 默认读取resources目录下的hbase-site.xml配置文件
@@ -41,6 +62,14 @@ public class HBaseUtil {
             logger.error("加载Hbase配置文件失败:", e);
             throw new RuntimeException(e);
         }
+        if (PropertiesUtil.getBoolean(PropertiesUtil.CLIENT, "journal.enabled", false)) {
+            try {
+                enableSpillJournal(new File(PropertiesUtil.getString(PropertiesUtil.CLIENT, "journal.dir",
+                        System.getProperty("java.io.tmpdir") + File.separator + "hbase-journal")));
+            } catch (IOException e) {
+                logger.error("打开溢出日志失败，写入失败的数据将不会保存到本地", e);
+            }
+        }
     }
 
     /**
@@ -51,7 +80,7 @@ public class HBaseUtil {
     public static synchronized Connection getConn() {
         try {
             if (conn == null || conn.isClosed()) {
-                conn = ConnectionFactory.createConnection();
+                conn = ConnectionFactory.createConnection(conf);
             }
         } catch (IOException e) {
             logger.error("获取Hbase连接失败:", e);
@@ -59,12 +88,108 @@ public class HBaseUtil {
         return conn;
     }
 
+    /**
+     * 获取客户端配置，默认读取resources目录下的hbase-site.xml
+     *
+     * @return
+     */
+    public static Configuration getConfiguration() {
+        return conf;
+    }
+
+    /**
+     * 替换客户端配置，例如连接本地的mini-cluster，已有的连接会被关闭，下次getConn时按新配置创建
+     *
+     * @param configuration 新配置
+     */
+    public static synchronized void setConfiguration(Configuration configuration) {
+        if (conn != null && !conn.isClosed()) {
+            try {
+                conn.close();
+            } catch (IOException e) {
+                logger.error("关闭Hbase连接失败", e);
+            }
+        }
+        conn = null;
+        conf = configuration;
+    }
+
+    /**
+     * 开启本地溢出日志，集群不可用时写入失败的数据先保存到本地，集群恢复后由后台线程按顺序回放
+     * 日志段大小、总大小上限等读取hbase-client.properties中journal.*配置项
+     *
+     * @param dir 日志目录
+     * @return
+     * @throws IOException
+     */
+    public static synchronized SpillJournal enableSpillJournal(File dir) throws IOException {
+        if (spillJournal == null) {
+            String p = PropertiesUtil.CLIENT;
+            SpillJournal journal = SpillJournal.open(dir,
+                    PropertiesUtil.getInt(p, "journal.segmentSize", 64 * 1024 * 1024),
+                    PropertiesUtil.getLong(p, "journal.maxBytes", 1024L * 1024 * 1024),
+                    PropertiesUtil.getBoolean(p, "journal.syncEachAppend", false),
+                    PropertiesUtil.getInt(p, "journal.replayBatchSize", 500));
+            journal.startReplayer(PropertiesUtil.getLong(p, "journal.replayIntervalMs", 5000));
+            spillJournal = journal;
+            logger.info("溢出日志已开启，目录:{}", dir);
+        }
+        return spillJournal;
+    }
+
+    /**
+     * 获取溢出日志，未开启时返回null
+     *
+     * @return
+     */
+    public static SpillJournal getSpillJournal() {
+        return spillJournal;
+    }
+
+    /**
+     * 把写入失败的数据保存到溢出日志
+     *
+     * @param tableName
+     * @param mutations
+     * @return 未开启溢出日志或日志已满时返回false
+     */
+    public static boolean spill(String tableName, List<? extends Mutation> mutations) {
+        SpillJournal journal = spillJournal;
+        if (journal == null || mutations.isEmpty()) {
+            return false;
+        }
+        try {
+            journal.append(tableName, mutations);
+            return true;
+        } catch (IOException e) {
+            logger.error("表:{}的{}条数据写入溢出日志失败", tableName, mutations.size(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 表在溢出日志中还有未回放的数据时，新数据也要进日志排队，否则会被之后回放的旧数据覆盖
+     *
+     * @param tableName
+     * @return
+     */
+    static boolean mustSpill(String tableName) {
+        SpillJournal journal = spillJournal;
+        return journal != null && journal.hasPending(tableName);
+    }
+
     /**
      * 关闭连接
      *
      * @throws IOException
      */
     public static void closeConnection() {
+        CounterCoalescer.shutdown();
+        AdaptiveBufferedWriter.closeAll();
+        if (spillJournal != null) {
+            spillJournal.close();
+            spillJournal = null;
+        }
         if (null != conn) {
             try {
                 conn.close();
@@ -244,6 +369,19 @@ public class HBaseUtil {
         return null;
     }
 
+    /**
+     * 离线扫描快照，直接读取快照引用的HFile，不经过RegionServer
+     *
+     * @param snapshotName 快照名称
+     * @param query        扫描条件
+     * @param handler      结果处理器，会被多个线程同时调用
+     * @return 扫描的总行数
+     * @throws IOException
+     */
+    public static long scanSnapshot(String snapshotName, ScanQuery query, ParallelScanner.Handler handler) throws IOException {
+        return new SnapshotScanner(snapshotName).scan(query, null, null, handler);
+    }
+
     /**
      * 批量删除snapshot
      *
@@ -286,12 +424,12 @@ public class HBaseUtil {
     }
 
     /**
-     * 分页检索数据
+     * 分页检索数据，每次调用返回下一页；首次调用时从起始行健开始
      *
      * @param tableName   表名
      * @param startRowKey 起始行健（可以为空，如果为空，则从表中第一行开始检索）
      * @param endRowKey   结束行健（可以为空）
-     * @param filterList  检索条件过滤集合，不包括分页过滤器，分页过滤器在函数中添加
+     * @param filterList  检索条件过滤集合，不包括分页过滤器，分页过滤器在函数中添加，不会修改传入的集合
      * @param maxVersion  最大版本数，如果为最大整数值，则检索所有版本，如果为最小整数值，则检索最小版本，否则只检索指定的版本数
      * @param pageModel   分页模型
      * @return
@@ -301,86 +439,136 @@ public class HBaseUtil {
             //默认页大小为15
             pageModel = new HBasePageModel(15);
         }
-        if (maxVersion <= 0) {
-            //默认检索数据的最新版本
-            maxVersion = Integer.MIN_VALUE;
+        int page = pageModel.getPageIndex() + 1;
+        byte[] from = null;
+        if (pageModel.getPageIndex() > 0 && pageModel.getPageEndRowKey() != null) {
+            //从上一页最后一行之后开始，不会重复返回上一页的最后一行
+            from = Bytes.add(pageModel.getPageEndRowKey(), new byte[]{0});
         }
+        return loadPage(tableName, startRowKey, endRowKey, filterList, maxVersion, pageModel, page, from);
+    }
+
+    /**
+     * 跳转到指定页，从分页索引中最近的已知页边界开始扫描，只需要一次扫描
+     * 索引还没有记录到这一页附近时，从最近的已知边界（或第一页）扫描并跳过中间的行
+     *
+     * @param tableName   表名
+     * @param startRowKey 起始行健（可以为空）
+     * @param endRowKey   结束行健（可以为空）
+     * @param filterList  检索条件过滤集合（可以为空）
+     * @param maxVersion  最大版本数，含义同scanResultByPageFilter
+     * @param pageModel   分页模型，使用其中的页大小
+     * @param pageIndex   页序号，从1开始
+     * @return
+     */
+    public static HBasePageModel scanPage(String tableName, byte[] startRowKey, byte[] endRowKey, FilterList filterList, int maxVersion, HBasePageModel pageModel, int pageIndex) {
+        if (pageModel == null) {
+            pageModel = new HBasePageModel(15);
+        }
+        return loadPage(tableName, startRowKey, endRowKey, filterList, maxVersion, pageModel, Math.max(pageIndex, 1), null);
+    }
+
+    /**
+     * 读取一页数据
+     *
+     * @param from 已知的本页起始位置（包含），为空时从分页索引中最近的边界开始并跳过中间的行
+     */
+    private static HBasePageModel loadPage(String tableName, byte[] startRowKey, byte[] endRowKey, FilterList filterList, int maxVersion,
+                                           HBasePageModel pageModel, int page, byte[] from) {
         pageModel.initStartTime();
         pageModel.initEndTime();
         if (StringUtil.isBlank(tableName)) {
             return pageModel;
         }
-        Table table = null;
-
-        try {
-            table = getTable(tableName);
-//            int tempPageSize = pageModel.getPageSize();
-            boolean isEmptyStartRowKey = false;
-            if (startRowKey == null) {
-                //如果起始行健为空，则从表的第一行数据开始检索，
-                Result firstResult = selectFirstResultRow(tableName, filterList);
-                if (firstResult == null) {
-                    return pageModel;
-                }
-                startRowKey = firstResult.getRow();
-            }
-            if (pageModel.getPageStarRowKey() == null) {
-                isEmptyStartRowKey = true;
-                pageModel.setPageStarRowKey(startRowKey);
-            } else {
-                if (pageModel.getPageEndRowKey() != null) {
-                    pageModel.setPageStarRowKey(pageModel.getPageEndRowKey());
-                }
-                //从第二页开始，每次多去一条记录，因为第一条记录需要被删除
-//                tempPageSize += 1;
-            }
-            Scan scan = new Scan();
-            scan.setStartRow(pageModel.getPageStarRowKey());
-            if (endRowKey != null) {
-                scan.setStopRow(endRowKey);
-            }
-            //[startRow,endRow),所以要+1
-            PageFilter pageFilter = new PageFilter(pageModel.getPageSize() + 1);
-            if (filterList != null) {
-                filterList.addFilter(pageFilter);
-                scan.setFilter(filterList);
+        int pageSize = pageModel.getPageSize();
+        PageIndex index = PageIndex.forQuery(tableName, startRowKey, endRowKey, filterList, pageSize);
+        long skip = 0;
+        if (from == null) {
+            Map.Entry<Integer, byte[]> boundary = index.floor(page);
+            if (boundary != null) {
+                from = boundary.getValue();
+                skip = (long) (page - boundary.getKey()) * pageSize;
             } else {
-                scan.setFilter(pageFilter);
+                from = startRowKey;
+                skip = (long) (page - 1) * pageSize;
             }
-            if (maxVersion == Integer.MAX_VALUE) {
-                scan.setMaxVersions();
-            } else if (maxVersion == Integer.MIN_VALUE) {
+        }
 
-            } else {
-                scan.setMaxVersions(maxVersion);
+        Scan scan = new Scan();
+        if (from != null) {
+            scan.setStartRow(from);
+        }
+        if (endRowKey != null) {
+            scan.setStopRow(endRowKey);
+        }
+        //PageFilter在每个region上分别计数，只是减少服务端返回的行数，客户端仍然按页大小截断
+        long limit = skip + pageSize;
+        PageFilter pageFilter = new PageFilter(limit);
+        if (filterList != null) {
+            scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, filterList, pageFilter));
+        } else {
+            scan.setFilter(pageFilter);
+        }
+        scan.setCaching((int) Math.min(limit, 1000));
+        if (maxVersion == Integer.MAX_VALUE) {
+            scan.setMaxVersions();
+        } else if (maxVersion > 0) {
+            scan.setMaxVersions(maxVersion);
+        }
+
+        List<Result> resultList = new ArrayList<Result>(pageSize);
+        //从扫描起点开始实际读到的行数，扫描起点的偏移量是(page - 1) * pageSize - skip
+        long seen = 0;
+        boolean completed = false;
+        Table table = getTable(tableName);
+        if (table == null) {
+            return pageModel;
+        }
+        try {
+            RequestThrottler.acquire(tableName, RequestThrottler.OpClass.SCAN, 1);
+            SlowOperationLog.sampleScanMetrics(scan);
+            ResultScanner scanner = new MeteredResultScanner(tableName, scan, table.getScanner(scan), System.nanoTime());
+            try {
+                Result result;
+                while (resultList.size() < pageSize && (result = scanner.next()) != null) {
+                    if (seen++ >= skip) {
+                        resultList.add(result);
+                    }
+                }
+                completed = true;
+            } finally {
+                scanner.close();
             }
-            ResultScanner scanner = table.getScanner(scan);
-            List<Result> resultList = new ArrayList<Result>();
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.error("分页检索表:{}第{}页失败", tableName, page, e);
         } finally {
             try {
                 table.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                logger.error("关闭表:{}失败", tableName, e);
             }
         }
 
-        int pageIndex = pageModel.getPageIndex() + 1;
-        pageModel.setPageIndex(pageIndex);
-        if (pageModel.getResultList().size() > 0) {
+        pageModel.setResultList(resultList);
+        pageModel.setPageIndex(page);
+        if (resultList.size() > 0) {
             //获取本次分页数据首行和末行的行健信息
-            byte[] pageStartRowKey = pageModel.getResultList().get(0).getRow();
-            byte[] pageEndRowKey = pageModel.getResultList().get(pageModel.getResultList().size() - 1).getRow();
-            pageModel.setPageStarRowKey(pageStartRowKey);
-            pageModel.setPageEndRowKey(pageEndRowKey);
+            pageModel.setPageStarRowKey(resultList.get(0).getRow());
+            pageModel.setPageEndRowKey(resultList.get(resultList.size() - 1).getRow());
+            index.record(page, resultList.get(0).getRow());
+        }
+        if (completed && resultList.size() < pageSize) {
+            //到达末尾，跳页超过最后一页时seen小于skip，总行数按实际读到的行数计算
+            long total = (long) (page - 1) * pageSize - skip + seen;
+            index.recordEnd(total);
+            pageModel.setQueryTotalCount((int) total);
+        } else {
+            pageModel.setQueryTotalCount((page - 1) * pageSize + resultList.size());
         }
-        int queryTotalCount = pageModel.getQueryTotalCount() + pageModel.getResultList().size();
-        pageModel.setQueryTotalCount(queryTotalCount);
+        pageModel.setPageCount(Math.max(index.getPageCount(), 0));
         pageModel.initEndTime();
         pageModel.printTimeInfo();
         return pageModel;
-
     }
 
     /**
@@ -438,29 +626,94 @@ public class HBaseUtil {
      * @return 返回执行的时间
      * @throws Exception
      */
-    public static long asynPut(String tableName, List<Put> puts) throws Exception {
+    public static long asynPut(final String tableName, List<Put> puts) throws Exception {
+        return asynPut(tableName, puts, false);
+    }
+
+    /**
+     * 异步往指定表中添加数据
+     *
+     * @param tableName
+     * @param puts      需要添加的数据
+     * @param merge     是否先把同一行的多个Put合并成一个
+     * @return 返回执行的时间
+     * @throws Exception
+     */
+    public static long asynPut(final String tableName, List<Put> puts, boolean merge) throws Exception {
         long currentTime = System.currentTimeMillis();
+        RequestThrottler.acquire(tableName, RequestThrottler.OpClass.WRITE, puts.size());
+        if (mustSpill(tableName) && spill(tableName, puts)) {
+            return System.currentTimeMillis() - currentTime;
+        }
+        PageIndex.onWrite(tableName, puts.size());
+        HotKeyDetector.recordAll(tableName, puts);
+        if (merge) {
+            puts = mergePuts(tableName, puts);
+        }
         Connection connection = getConn();
+        //写缓冲大小由自适应控制器根据历史flush耗时和失败率决定
+        final AdaptiveWriteBuffer writeBuffer = AdaptiveWriteBuffer.forTable(tableName);
         final BufferedMutator.ExceptionListener listener = new BufferedMutator.ExceptionListener() {
             public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator bufferedMutator) throws RetriesExhaustedWithDetailsException {
+                writeBuffer.onFailure(e.getNumExceptions());
+                List<Mutation> failed = new ArrayList<Mutation>();
                 for (int i = 0; i < e.getNumExceptions(); i++) {
-                    logger.error("异步添加数据:{}失败", e.getRow(i));
+                    failed.add((Mutation) e.getRow(i));
+                }
+                if (!spill(tableName, failed)) {
+                    for (int i = 0; i < e.getNumExceptions(); i++) {
+                        logger.error("异步添加数据:{}失败", e.getRow(i));
+                    }
                 }
             }
         };
         BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(tableName)).listener(listener);
-        params.writeBufferSize(5 * 1024 * 1024);
+        long bufferSize = writeBuffer.getWriteBufferSize();
+        params.writeBufferSize(bufferSize);
 
+        long bytes = 0;
+        for (Put put : puts) {
+            bytes += put.heapSize();
+        }
         final BufferedMutator mutator = connection.getBufferedMutator(params);
+        long start = System.nanoTime();
         try {
             mutator.mutate(puts);
             mutator.flush();
         } finally {
             mutator.close();
         }
+        //mutate过程中缓冲区每写满一次就提交一次，按提交次数折算单次flush的耗时
+        long flushes = Math.max(1, (bytes + bufferSize - 1) / bufferSize);
+        long latency = (System.nanoTime() - start) / flushes;
+        for (long i = 0; i < flushes; i++) {
+            writeBuffer.onFlush(bytes / flushes, puts.size() / flushes, latency);
+        }
         return System.currentTimeMillis() - currentTime;
     }
 
+    /**
+     * 通过表级常驻的BufferedMutator写入数据，缓冲区写满或到达自适应flush间隔时才真正提交
+     * 适合持续的小批量写入，调用方不需要自己攒批
+     *
+     * @param tableName
+     * @param mutations 需要写入的数据
+     * @throws IOException
+     */
+    public static void bufferedMutate(String tableName, List<? extends Mutation> mutations) throws IOException {
+        RequestThrottler.acquire(tableName, RequestThrottler.OpClass.WRITE, mutations.size());
+        PageIndex.onWrite(tableName, mutations.size());
+        HotKeyDetector.recordAll(tableName, mutations);
+        AdaptiveBufferedWriter.forTable(tableName).mutate(mutations);
+    }
+
+    /**
+     * 立即提交所有常驻写缓冲中的数据
+     */
+    public static void flushBufferedWriters() {
+        AdaptiveBufferedWriter.flushAll();
+    }
+
     /**
      * 表异步添加数据
      *
@@ -479,17 +732,38 @@ public class HBaseUtil {
      * @param tableName
      * @param put
      * @return
+     * @throws ThrottledException 超过客户端限流被拒绝，数据没有写入也没有进溢出日志
+     * @throws InterruptedIOException 限流排队时被中断
      */
-    public static long sycPut(String tableName, Put put) {
+    public static long sycPut(String tableName, Put put) throws ThrottledException, InterruptedIOException {
         long currentTime = System.currentTimeMillis();
+        //限流拒绝要让调用方知道，不能和集群写入失败一样转入溢出日志
+        RequestThrottler.acquire(tableName, RequestThrottler.OpClass.WRITE, 1);
+        if (mustSpill(tableName) && spill(tableName, Arrays.asList(put))) {
+            return System.currentTimeMillis() - currentTime;
+        }
 
         Table table = getTable(tableName);
-        if (table != null) {
+        if (table == null) {
+            spill(tableName, Arrays.asList(put));
+        } else {
+            //只计HBase调用本身的耗时，不含获取表和限流等待，失败的请求也记录
+            long begin = -1;
+            boolean success = false;
             try {
+                PageIndex.onWrite(tableName, 1);
+                HotKeyDetector.record(tableName, put.getRow());
+                begin = System.currentTimeMillis();
                 table.put(put);
+                success = true;
             } catch (IOException e) {
-                logger.error("同步添加数据:{}失败", put.getRow(), e);
+                if (!spill(tableName, Arrays.asList(put))) {
+                    logger.error("同步添加数据:{}失败", put.getRow(), e);
+                }
             } finally {
+                if (begin >= 0) {
+                    SlowOperationLog.record(SlowOperationLog.OpType.WRITE, tableName, put.getRow(), 1, System.currentTimeMillis() - begin, success);
+                }
                 try {
                     table.close();
                 } catch (IOException e) {
@@ -518,17 +792,53 @@ public class HBaseUtil {
      * @param tableName
      * @param puts
      * @return
+     * @throws ThrottledException 超过客户端限流被拒绝
+     * @throws InterruptedIOException 限流排队时被中断
+     */
+    public static long sycPuts(String tableName, List<Put> puts) throws ThrottledException, InterruptedIOException {
+        return sycPuts(tableName, puts, false);
+    }
+
+    /**
+     * 同步添加多行数据
+     *
+     * @param tableName
+     * @param puts
+     * @param merge     是否先把同一行的多个Put合并成一个
+     * @return
+     * @throws ThrottledException 超过客户端限流被拒绝，数据没有写入也没有进溢出日志
+     * @throws InterruptedIOException 限流排队时被中断
      */
-    public static long sycPuts(String tableName, List<Put> puts) {
+    public static long sycPuts(String tableName, List<Put> puts, boolean merge) throws ThrottledException, InterruptedIOException {
         long currentTime = System.currentTimeMillis();
+        RequestThrottler.acquire(tableName, RequestThrottler.OpClass.WRITE, puts.size());
+        if (mustSpill(tableName) && spill(tableName, puts)) {
+            return System.currentTimeMillis() - currentTime;
+        }
 
         Table table = getTable(tableName);
-        if (table != null) {
+        if (table == null) {
+            spill(tableName, puts);
+        } else {
+            long begin = -1;
+            boolean success = false;
             try {
-                table.put(puts);
+                PageIndex.onWrite(tableName, puts.size());
+                HotKeyDetector.recordAll(tableName, puts);
+                List<Put> batch = merge ? mergePuts(tableName, puts) : puts;
+                begin = System.currentTimeMillis();
+                table.put(batch);
+                success = true;
             } catch (IOException e) {
-                logger.error("同步添加数据:{}失败", e);
+                //集群拒绝或超时，整批数据进溢出日志，回放时put是幂等的
+                if (!spill(tableName, puts)) {
+                    logger.error("同步添加数据:{}失败", e);
+                }
             } finally {
+                if (begin >= 0) {
+                    SlowOperationLog.record(SlowOperationLog.OpType.WRITE, tableName, puts.isEmpty() ? null : puts.get(0).getRow(),
+                            puts.size(), System.currentTimeMillis() - begin, success);
+                }
                 try {
                     table.close();
                 } catch (IOException e) {
@@ -539,6 +849,82 @@ public class HBaseUtil {
         return System.currentTimeMillis() - currentTime;
     }
 
+    /**
+     * 批量提交Put、Delete等混合写操作
+     *
+     * @param tableName
+     * @param mutations 需要写入的数据。Table.batch不保证同一行多个操作的执行顺序，同一行的Put、Delete需要按顺序生效时merge传true
+     * @param merge     是否合并同一行的写操作，Put和Delete交替时合并成一个RowMutations，按顺序生效（MutationMerger无法合并的行除外）
+     * @return 返回执行的时间
+     * @throws ThrottledException 超过客户端限流被拒绝，数据没有写入也没有进溢出日志
+     * @throws InterruptedIOException 限流排队时被中断
+     */
+    public static long batchMutate(String tableName, List<? extends Mutation> mutations, boolean merge) throws ThrottledException, InterruptedIOException {
+        long currentTime = System.currentTimeMillis();
+        RequestThrottler.acquire(tableName, RequestThrottler.OpClass.WRITE, mutations.size());
+        if (mustSpill(tableName) && spill(tableName, mutations)) {
+            return System.currentTimeMillis() - currentTime;
+        }
+        List<? extends Row> rows = merge ? merge(tableName, mutations) : mutations;
+        Table table = getTable(tableName);
+        if (table == null) {
+            spill(tableName, mutations);
+            return System.currentTimeMillis() - currentTime;
+        }
+        Object[] results = new Object[rows.size()];
+        try {
+            PageIndex.onWrite(tableName, mutations.size());
+            HotKeyDetector.recordAll(tableName, mutations);
+            table.batch(rows, results);
+        } catch (IOException e) {
+            spillFailed(tableName, rows, results, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            spillFailed(tableName, rows, results, e);
+        } finally {
+            try {
+                table.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return System.currentTimeMillis() - currentTime;
+    }
+
+    /**
+     * batch中结果为空或异常的操作写入溢出日志，RowMutations按其中的Put、Delete写入
+     */
+    private static void spillFailed(String tableName, List<? extends Row> rows, Object[] results, Exception e) {
+        List<Mutation> failed = new ArrayList<Mutation>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (results[i] == null || results[i] instanceof Throwable) {
+                Row row = rows.get(i);
+                if (row instanceof RowMutations) {
+                    failed.addAll(((RowMutations) row).getMutations());
+                } else {
+                    failed.add((Mutation) row);
+                }
+            }
+        }
+        if (!spill(tableName, failed)) {
+            logger.error("表:{}批量写入{}条数据失败", tableName, failed.size(), e);
+        }
+    }
+
+    private static List<Put> mergePuts(String tableName, List<Put> puts) {
+        List<Put> merged = MutationMerger.mergePuts(puts);
+        ClientMetrics.incr("merge." + tableName + ".input", puts.size());
+        ClientMetrics.incr("merge." + tableName + ".output", merged.size());
+        return merged;
+    }
+
+    private static List<Row> merge(String tableName, List<? extends Mutation> mutations) {
+        List<Row> merged = MutationMerger.merge(mutations);
+        ClientMetrics.incr("merge." + tableName + ".input", mutations.size());
+        ClientMetrics.incr("merge." + tableName + ".output", merged.size());
+        return merged;
+    }
+
     /**
      * 删除单条数据
      *
@@ -550,7 +936,10 @@ public class HBaseUtil {
         Table table = getTable(tableName);
         if (table != null) {
             try {
-                Delete d = new Delete(row.getBytes());
+                RequestThrottler.acquire(tableName, RequestThrottler.OpClass.WRITE, 1);
+                PageIndex.onWrite(tableName, 1);
+                HotKeyDetector.record(tableName, Bytes.toBytes(row));
+                Delete d = new Delete(Bytes.toBytes(row));
                 table.delete(d);
             } finally {
                 table.close();
@@ -572,10 +961,13 @@ public class HBaseUtil {
                 List<Delete> list = new ArrayList<Delete>();
                 for (String row :
                         rows) {
-                    Delete d = new Delete(row.getBytes());
+                    Delete d = new Delete(Bytes.toBytes(row));
                     list.add(d);
                 }
                 if (list.size() > 0) {
+                    RequestThrottler.acquire(tableName, RequestThrottler.OpClass.WRITE, list.size());
+                    PageIndex.onWrite(tableName, list.size());
+                    HotKeyDetector.recordAll(tableName, list);
                     table.delete(list);
                 }
             } finally {
@@ -584,6 +976,31 @@ public class HBaseUtil {
         }
     }
 
+    /**
+     * 删除[startRow, stopRow)区间内的所有行，按region并行扫描行健后批量删除
+     *
+     * @param tableName
+     * @param startRow  起始行健（包含），null表示从表头开始
+     * @param stopRow   结束行健（不包含），null表示到表尾
+     * @return 删除的行数
+     * @throws IOException
+     */
+    public static long deleteRange(String tableName, byte[] startRow, byte[] stopRow) throws IOException {
+        return new BulkDeleter(tableName).deleteRange(startRow, stopRow);
+    }
+
+    /**
+     * 删除指定前缀的所有行，按region并行扫描行健后批量删除
+     *
+     * @param tableName
+     * @param prefix    行健前缀
+     * @return 删除的行数
+     * @throws IOException
+     */
+    public static long deletePrefix(String tableName, byte[] prefix) throws IOException {
+        return new BulkDeleter(tableName).deletePrefix(prefix);
+    }
+
     /**
      * 获取单条数据
      *
@@ -595,12 +1012,21 @@ public class HBaseUtil {
         Table table = getTable(tableName);
         Result rs = null;
         if (table != null) {
+            long begin = -1;
+            boolean success = false;
             try {
+                RequestThrottler.acquire(tableName, RequestThrottler.OpClass.READ, 1);
+                HotKeyDetector.record(tableName, row);
                 Get get = new Get(row);
+                begin = System.currentTimeMillis();
                 rs = table.get(get);
+                success = true;
             } catch (IOException e) {
                 logger.error("获取数据失败", e);
             } finally {
+                if (begin >= 0) {
+                    SlowOperationLog.record(SlowOperationLog.OpType.READ, tableName, row, 1, System.currentTimeMillis() - begin, success);
+                }
                 try {
                     table.close();
                 } catch (IOException e) {
@@ -623,6 +1049,8 @@ public class HBaseUtil {
         Table table = getTable(tableName);
         List<Get> gets = null;
         Result[] results = null;
+        long begin = -1;
+        boolean success = false;
         try {
             if (table != null) {
                 gets = new ArrayList<Get>();
@@ -636,11 +1064,19 @@ public class HBaseUtil {
                 }
             }
             if (gets.size() > 0) {
+                RequestThrottler.acquire(tableName, RequestThrottler.OpClass.READ, gets.size());
+                HotKeyDetector.recordAll(tableName, gets);
+                begin = System.currentTimeMillis();
                 results = table.get(gets);
+                success = true;
             }
         } catch (IOException e) {
             logger.error("获取数据失败", e);
         } finally {
+            if (begin >= 0) {
+                SlowOperationLog.record(SlowOperationLog.OpType.READ, tableName, gets.get(0).getRow(), gets.size(),
+                        System.currentTimeMillis() - begin, success);
+            }
             try {
                 table.close();
             } catch (IOException e) {
@@ -652,6 +1088,7 @@ public class HBaseUtil {
 
     /**
      * 扫描整张表，返回一个结果迭代器，使用完一定要释放，不然资源会爆炸
+     * 开启prefetch.enabled时空闲超过prefetch.idleTimeoutMs的扫描器会被自动关闭，并在日志中输出打开位置
      *
      * @param tableName
      * @param paramHashMap 可选参数列表,key是参数类型，可选的有column、timeRange、timestamp、version、startRow、stopRow、Families，值是一个list，如果值有多个参数，每个参数以“-”分割
@@ -663,7 +1100,9 @@ public class HBaseUtil {
         ResultScanner results = null;
         if (table != null) {
             try {
-                results = table.getScanner(setScanParam(paramHashMap, filters));
+                RequestThrottler.acquire(tableName, RequestThrottler.OpClass.SCAN, 1);
+                //参数表不能指定caching，总是使用自适应的caching
+                results = meteredScanner(tableName, table, setScanParam(paramHashMap, filters), ScanTuner.isEnabled());
             } catch (IOException e) {
                 logger.error("获取扫描器失败", e);
             } finally {
@@ -678,72 +1117,92 @@ public class HBaseUtil {
     }
 
     /**
-     * 为ResultScanner服务
+     * 按类型化的扫描条件扫描表，返回一个结果迭代器，使用完一定要释放
      *
-     * @param paramHashMap
-     * @param filters
+     * @param tableName
+     * @param query     扫描条件，可以缓存后重复使用
+     * @param startRow  起始行健，为null时使用query中的值
+     * @param stopRow   结束行健，为null时使用query中的值
      * @return
      */
-    private static Scan setScanParam(HashMap<String, List<String>> paramHashMap, Filter[] filters) {
-        Scan scan = new Scan();
-        scan.setCaching(1000);
-        if (filters.length != 0) {
-            for (Filter f :
-                    filters) {
-                scan.setFilter(f);
-            }
-        }
-        if (paramHashMap.containsKey("column")) {
-            for (String s :
-                    paramHashMap.get("column")) {
-                scan.addColumn(s.split("-")[0].getBytes(), s.split("-")[1].getBytes());
-            }
-        }
-        if (paramHashMap.containsKey("timeRange")) {
-            String timeRange = paramHashMap.get("timeRange").get(0);
-            try {
-                scan.setTimeRange(Long.parseLong(timeRange.split("-")[0]), Long.parseLong(timeRange.split("-")[1]));
-            } catch (IOException e) {
-                logger.error("设置扫描器时间区间失败", e);
-            }
-        }
-        if (paramHashMap.containsKey("timestamp")) {
+    public static ResultScanner getScan(String tableName, ScanQuery query, byte[] startRow, byte[] stopRow) {
+        Table table = getTable(tableName);
+        ResultScanner results = null;
+        if (table != null) {
             try {
-                scan.setTimeStamp(Long.parseLong(paramHashMap.get("timestamp").get(0)));
+                RequestThrottler.acquire(tableName, RequestThrottler.OpClass.SCAN, 1);
+                HotKeyDetector.record(tableName, startRow);
+                results = meteredScanner(tableName, table, query.newScan(startRow, stopRow), query.isAdaptiveCaching());
             } catch (IOException e) {
-                logger.error("设置扫描器查询时间失败", e);
+                logger.error("获取扫描器失败", e);
+            } finally {
+                try {
+                    table.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
-        if (paramHashMap.containsKey("version")) {
-            scan.setMaxVersions(Integer.parseInt(paramHashMap.get("version").get(0)));
-        }
-        if (paramHashMap.containsKey("startRow")) {
-            scan.setStartRow(paramHashMap.get("startRow").get(0).getBytes());
+        return results;
+    }
+
+    /**
+     * 按采样比例开启扫描指标并打开扫描器，关闭扫描器时汇总指标、记录慢扫描；
+     * 开启prefetch.enabled时在后台线程预取下一批数据，并登记到ScannerRegistry检查泄漏
+     *
+     * @param adaptive 是否按ScanTuner的学习结果设置caching和maxResultSize
+     */
+    private static ResultScanner meteredScanner(String tableName, Table table, Scan scan, boolean adaptive) throws IOException {
+        long begin = System.nanoTime();
+        SlowOperationLog.sampleScanMetrics(scan);
+        ResultScanner scanner = adaptive ? new AdaptiveResultScanner(tableName, table, scan) : table.getScanner(scan);
+        scanner = new MeteredResultScanner(tableName, scan, scanner, begin);
+        if (PREFETCH) {
+            long leaseMs = table.getConfiguration().getLong(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD,
+                    HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD);
+            scanner = new PrefetchingResultScanner(tableName, scanner, leaseMs);
         }
-        if (paramHashMap.containsKey("stopRow")) {
-            scan.setStopRow(paramHashMap.get("stopRow").get(0).getBytes());
+        return scanner;
+    }
+
+    /**
+     * 为ResultScanner服务
+     *
+     * @param paramHashMap
+     * @param filters      多个过滤器按MUST_PASS_ALL组合
+     * @return
+     */
+    private static Scan setScanParam(HashMap<String, List<String>> paramHashMap, Filter[] filters) {
+        if (paramHashMap == null) {
+            paramHashMap = new HashMap<String, List<String>>();
         }
-        if (paramHashMap.containsKey("Families")) {
-            for (String s :
-                    paramHashMap.get("Families")) {
-                scan.addFamily(s.getBytes());
+        ScanQuery query = scanParamCache.get(paramHashMap);
+        if (query == null) {
+            query = ScanQuery.fromParams(paramHashMap);
+            //复制一份作为key，避免调用方之后修改参数表
+            HashMap<String, List<String>> key = new HashMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> entry : paramHashMap.entrySet()) {
+                key.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
             }
+            scanParamCache.put(key, query);
+        }
+        Scan scan = query.newScan();
+        if (filters.length == 1) {
+            scan.setFilter(filters[0]);
+        } else if (filters.length > 1) {
+            scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, Arrays.asList(filters)));
         }
         return scan;
     }
 
     /**
-     * byte[] 类型的长整型数字转换为long类型
+     * byte[] 类型的长整型数字转换为long类型，其他类型和批量解码见com.k.hbase.codec
      *
-     * @param byteNum
+     * @param byteNum Bytes.toBytes(long)的结果
      * @return
+     * @throws IllegalArgumentException 为null或长度不是8个字节
      */
     public static long bytesToLong(byte[] byteNum) {
-        long num = 0;
-        for (int ix = 0; ix < 8; ++ix) {
-            num <<= 8;
-            num |= (byteNum[ix] & 0xff);
-        }
-        return num;
+        return ValueCodec.getLong(byteNum);
     }
 }
\ No newline at end of file
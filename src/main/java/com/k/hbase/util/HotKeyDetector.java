@@ -0,0 +1,445 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点行健、热点region检测
+ * 在HBaseUtil的读写路径上按比例抽样行健，每张表维护一个count-min草图估计行健频次，并保留估计频次最高的K个行健；
+ * 同时按region起始行健二分查找，统计每个region的抽样数。每个统计周期结束时输出热点行健、热点region和倾斜度，然后清空重新统计。
+ * <p>
+ * 未抽中的请求只有一次随机数判断，默认关闭，配置在hbase-client.properties中hotkey.*。指标：
+ * <pre>
+ * hotkey.表名.sampled         本周期抽样数
+ * hotkey.表名.topKeyPermille  最热行健占抽样数的千分比
+ * hotkey.表名.regionSkew      最热region抽样数与region平均抽样数之比（乘以100）
+ * </pre>
+ */
+public class HotKeyDetector {
+    private static final Logger logger = LoggerFactory.getLogger(HotKeyDetector.class);
+
+    private static final HotKeyDetector instance = new HotKeyDetector();
+
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private volatile boolean enabled;
+    private volatile double sampleRate;
+    private final int topK;
+    private final int width;
+    private final int depth;
+    private final double skewWarnRatio;
+    private final ConcurrentHashMap<String, TableSketch> sketches = new ConcurrentHashMap<String, TableSketch>();
+    private ScheduledExecutorService reporter;
+
+    private HotKeyDetector() {
+        String p = PropertiesUtil.CLIENT;
+        enabled = PropertiesUtil.getBoolean(p, "hotkey.enabled", false);
+        sampleRate = PropertiesUtil.getDouble(p, "hotkey.sampleRate", 0.01);
+        topK = PropertiesUtil.getInt(p, "hotkey.topK", 20);
+        width = PropertiesUtil.getInt(p, "hotkey.sketchWidth", 2048);
+        depth = PropertiesUtil.getInt(p, "hotkey.sketchDepth", 4);
+        skewWarnRatio = PropertiesUtil.getDouble(p, "hotkey.skewWarnRatio", 3.0);
+        long interval = PropertiesUtil.getLong(p, "hotkey.reportIntervalSeconds", 60);
+        if (interval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(ClientMetrics.daemonThreadFactory("hbase-hotkey-reporter"));
+            reporter.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        report();
+                    } catch (RuntimeException e) {
+                        logger.warn("输出热点统计失败", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public static HotKeyDetector getInstance() {
+        return instance;
+    }
+
+    /**
+     * 记录一次访问，按抽样比例决定是否计入
+     *
+     * @param tableName 表名
+     * @param row       行健
+     */
+    public static void record(String tableName, byte[] row) {
+        if (!instance.enabled || row == null || random.get().nextDouble() >= instance.sampleRate) {
+            return;
+        }
+        instance.sketch(tableName).add(row);
+    }
+
+    /**
+     * 记录一批访问
+     *
+     * @param tableName 表名
+     * @param rows      Put、Get、Delete等
+     */
+    public static void recordAll(String tableName, List<? extends Row> rows) {
+        if (!instance.enabled) {
+            return;
+        }
+        for (Row row : rows) {
+            record(tableName, row.getRow());
+        }
+    }
+
+    private TableSketch sketch(String tableName) {
+        TableSketch sketch = sketches.get(tableName);
+        if (sketch == null) {
+            TableSketch created = new TableSketch(tableName);
+            sketch = sketches.putIfAbsent(tableName, created);
+            if (sketch == null) {
+                sketch = created;
+                if (reporter != null) {
+                    final TableSketch loading = created;
+                    reporter.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            loading.reset();
+                        }
+                    });
+                }
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * 当前周期的统计，不清空
+     *
+     * @param tableName 表名
+     * @return 没有抽样数据时返回null
+     */
+    public Report snapshot(String tableName) {
+        TableSketch sketch = sketches.get(tableName);
+        return sketch == null ? null : sketch.report();
+    }
+
+    /**
+     * 结束当前周期：输出所有表的统计并更新指标，然后清空草图、刷新region边界
+     */
+    public void report() {
+        for (TableSketch sketch : sketches.values()) {
+            Report report = sketch.report();
+            sketch.reset();
+            String prefix = "hotkey." + report.tableName + ".";
+            ClientMetrics.counter(prefix + "sampled").set(report.sampled);
+            ClientMetrics.counter(prefix + "topKeyPermille").set(Math.round(report.getTopKeyShare() * 1000));
+            ClientMetrics.counter(prefix + "regionSkew").set(Math.round(report.getRegionSkew() * 100));
+            if (report.sampled == 0) {
+                continue;
+            }
+            if (report.getRegionSkew() >= skewWarnRatio) {
+                logger.warn(report.toString());
+            } else {
+                logger.info(report.toString());
+            }
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 调整抽样比例，取值(0, 1]
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * 单张表的草图
+     */
+    private class TableSketch {
+        private final String tableName;
+        private final long[] seeds;
+        private volatile Window window;
+
+        TableSketch(String tableName) {
+            this.tableName = tableName;
+            this.seeds = new long[depth];
+            Random r = new Random(tableName.hashCode());
+            for (int i = 0; i < depth; i++) {
+                seeds[i] = r.nextLong() | 1;
+            }
+            // region边界在后台线程加载，不在调用方线程访问meta表
+            this.window = new Window(new byte[0][]);
+        }
+
+        void add(byte[] row) {
+            Window w = window;
+            long estimate = Long.MAX_VALUE;
+            for (int i = 0; i < depth; i++) {
+                int index = i * width + bucket(row, seeds[i]);
+                estimate = Math.min(estimate, w.counts.incrementAndGet(index));
+            }
+            int region = regionIndex(w.startKeys, row);
+            if (region >= 0) {
+                w.regionCounts.incrementAndGet(region);
+            }
+            w.offer(row, estimate);
+        }
+
+        private int bucket(byte[] row, long seed) {
+            long h = seed;
+            for (byte b : row) {
+                h = (h ^ b) * 0x100000001b3L;
+            }
+            h ^= h >>> 29;
+            return (int) ((h & Long.MAX_VALUE) % width);
+        }
+
+        void reset() {
+            window = new Window(loadStartKeys());
+        }
+
+        private byte[][] loadStartKeys() {
+            RegionLocator locator = null;
+            try {
+                locator = HBaseUtil.getConn().getRegionLocator(TableName.valueOf(tableName));
+                return locator.getStartKeys();
+            } catch (Exception e) {
+                logger.debug("读取表:{}的region边界失败，本周期不统计热点region", tableName, e);
+                return new byte[0][];
+            } finally {
+                if (locator != null) {
+                    try {
+                        locator.close();
+                    } catch (IOException e) {
+                        logger.debug("关闭RegionLocator失败", e);
+                    }
+                }
+            }
+        }
+
+        Report report() {
+            Window w = window;
+            Report report = new Report(tableName, 1 / sampleRate);
+            report.sampled = w.sampled();
+            report.hotKeys = w.top();
+            report.regionStartKeys = w.startKeys;
+            report.regionCounts = new long[w.startKeys.length];
+            for (int i = 0; i < report.regionCounts.length; i++) {
+                report.regionCounts[i] = w.regionCounts.get(i);
+            }
+            return report;
+        }
+
+        /**
+         * 一个统计周期的数据
+         */
+        private class Window {
+            private final AtomicLongArray counts = new AtomicLongArray(depth * width);
+            private final byte[][] startKeys;
+            private final AtomicLongArray regionCounts;
+            // 候选热点行健及其估计频次，超过2K个时裁掉一半
+            private final Map<String, Long> candidates = new HashMap<String, Long>();
+            private volatile long minCandidate = 0;
+
+            Window(byte[][] startKeys) {
+                this.startKeys = startKeys;
+                this.regionCounts = new AtomicLongArray(Math.max(startKeys.length, 1));
+            }
+
+            void offer(byte[] row, long estimate) {
+                // 估计值低于候选集门槛的行健不加锁直接跳过，大部分抽样走这条路径
+                if (estimate < minCandidate) {
+                    return;
+                }
+                synchronized (this) {
+                    candidates.put(Bytes.toStringBinary(row), estimate);
+                    if (candidates.size() > 2 * topK) {
+                        List<Map.Entry<String, Long>> sorted = sorted();
+                        candidates.clear();
+                        for (Map.Entry<String, Long> entry : sorted.subList(0, topK)) {
+                            candidates.put(entry.getKey(), entry.getValue());
+                        }
+                        minCandidate = sorted.get(topK - 1).getValue();
+                    }
+                }
+            }
+
+            long sampled() {
+                long sum = 0;
+                for (int i = 0; i < width; i++) {
+                    sum += counts.get(i);
+                }
+                return sum;
+            }
+
+            synchronized List<Map.Entry<String, Long>> top() {
+                List<Map.Entry<String, Long>> sorted = sorted();
+                return sorted.size() > topK ? new ArrayList<Map.Entry<String, Long>>(sorted.subList(0, topK)) : sorted;
+            }
+
+            private List<Map.Entry<String, Long>> sorted() {
+                List<Map.Entry<String, Long>> sorted = new ArrayList<Map.Entry<String, Long>>();
+                for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                    sorted.add(new AbstractMap.SimpleImmutableEntry<String, Long>(entry));
+                }
+                Collections.sort(sorted, new Comparator<Map.Entry<String, Long>>() {
+                    @Override
+                    public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                        return o2.getValue().compareTo(o1.getValue());
+                    }
+                });
+                return sorted;
+            }
+        }
+    }
+
+    /**
+     * 按region起始行健找到行健所在的region下标
+     */
+    private static int regionIndex(byte[][] startKeys, byte[] row) {
+        if (startKeys.length == 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = startKeys.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (Bytes.compareTo(startKeys[mid], row) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 单张表一个周期的热点统计
+     */
+    public static class Report {
+        private final String tableName;
+        private final double scale;
+        private long sampled;
+        private List<Map.Entry<String, Long>> hotKeys;
+        private byte[][] regionStartKeys;
+        private long[] regionCounts;
+
+        Report(String tableName, double scale) {
+            this.tableName = tableName;
+            this.scale = scale;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * 抽样数
+         */
+        public long getSampled() {
+            return sampled;
+        }
+
+        /**
+         * 热点行健（Bytes.toStringBinary格式）及估计的抽样次数，按次数降序；乘以getScale()为估计的实际访问次数
+         */
+        public List<Map.Entry<String, Long>> getHotKeys() {
+            return hotKeys;
+        }
+
+        /**
+         * 抽样比例的倒数
+         */
+        public double getScale() {
+            return scale;
+        }
+
+        /**
+         * 最热行健占抽样数的比例
+         */
+        public double getTopKeyShare() {
+            return sampled == 0 || hotKeys.isEmpty() ? 0 : (double) hotKeys.get(0).getValue() / sampled;
+        }
+
+        /**
+         * 最热region的下标，region边界未知时返回-1
+         */
+        public int getHottestRegion() {
+            int hottest = -1;
+            for (int i = 0; i < regionCounts.length; i++) {
+                if (hottest < 0 || regionCounts[i] > regionCounts[hottest]) {
+                    hottest = i;
+                }
+            }
+            return hottest;
+        }
+
+        /**
+         * 最热region的抽样数与各region平均抽样数之比，均匀分布时接近1
+         */
+        public double getRegionSkew() {
+            int hottest = getHottestRegion();
+            if (hottest < 0 || sampled == 0) {
+                return 0;
+            }
+            long total = 0;
+            for (long count : regionCounts) {
+                total += count;
+            }
+            return total == 0 ? 0 : regionCounts[hottest] * (double) regionCounts.length / total;
+        }
+
+        public byte[][] getRegionStartKeys() {
+            return regionStartKeys;
+        }
+
+        public long[] getRegionCounts() {
+            return Arrays.copyOf(regionCounts, regionCounts.length);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("表:").append(tableName).append("热点统计，抽样").append(sampled)
+                    .append("次，region倾斜度").append(String.format("%.2f", getRegionSkew()));
+            int hottest = getHottestRegion();
+            if (hottest >= 0) {
+                sb.append("，最热region起始行健:").append(Bytes.toStringBinary(regionStartKeys[hottest]))
+                        .append("（抽样").append(regionCounts[hottest]).append("次）");
+            }
+            sb.append("，热点行健:");
+            for (Map.Entry<String, Long> entry : hotKeys) {
+                sb.append("\n  ").append(entry.getKey()).append(" 约").append(Math.round(entry.getValue() * scale)).append("次");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+
+import java.io.IOException;
+
+/**
+ * 带统计的扫描器
+ * 统计返回的行数、字节数和在next中等待的时间，关闭时交给SlowOperationLog汇总指标、判断是否为慢扫描。
+ * 扫描指标由HBase客户端在关闭扫描器时写回Scan，所以必须持有打开扫描器时使用的Scan对象。
+ */
+public class MeteredResultScanner extends AbstractResultScanner {
+    private final String tableName;
+    private final Scan scan;
+    private final ResultScanner delegate;
+    private final long openNanos;
+    private long rows;
+    private long bytes;
+    private long waitNanos;
+    private boolean closed;
+
+    /**
+     * @param tableName 表名
+     * @param scan      打开扫描器时使用的Scan
+     * @param delegate  扫描器
+     * @param openNanos 开始打开扫描器的时间（System.nanoTime）
+     */
+    public MeteredResultScanner(String tableName, Scan scan, ResultScanner delegate, long openNanos) {
+        this.tableName = tableName;
+        this.scan = scan;
+        this.delegate = delegate;
+        this.openNanos = openNanos;
+    }
+
+    @Override
+    public Result next() throws IOException {
+        long begin = System.nanoTime();
+        try {
+            Result result = delegate.next();
+            if (result != null) {
+                rows++;
+                bytes += sizeOf(result);
+            }
+            return result;
+        } finally {
+            waitNanos += System.nanoTime() - begin;
+        }
+    }
+
+    @Override
+    public boolean renewLease() {
+        return renewLease(delegate);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        delegate.close();
+        long wallMs = (System.nanoTime() - openNanos) / 1000000;
+        // 自适应扫描器重新打开过时，Scan中只有第一个扫描器的指标，由它合并后返回
+        ScanMetrics metrics;
+        if (delegate instanceof AdaptiveResultScanner) {
+            metrics = ((AdaptiveResultScanner) delegate).getScanMetrics();
+        } else {
+            metrics = scan.isScanMetricsEnabled() ? scan.getScanMetrics() : null;
+        }
+        SlowOperationLog.onScanComplete(tableName, scan, metrics, rows, bytes, wallMs, waitNanos / 1000000);
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,333 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 合并同一行的多个写操作
+ * 同一批数据中同一行的Put合并成一个Put，同一单元格（列族、列、时间戳）保留最后写入的值；
+ * 连续的Delete合并成一个Delete；Put和Delete交替出现时合并成一个RowMutations，
+ * 在一个行锁、一条WAL记录内完成。
+ * <p>
+ * RowMutations中的操作在服务端使用同一个时间戳，后面的Put会被前面的Delete掩盖，
+ * 所以合并成RowMutations时，未指定时间戳的单元格按出现顺序依次使用递增的客户端时间戳，保证后写的生效。
+ * 被后面的Delete覆盖的Put单元格直接丢弃，不再发送。
+ * <p>
+ * 以下情况该行不合并，按原顺序原样返回：带属性（TTL、ACL、可见性等）或Durability不一致、
+ * 包含Increment/Append、单元格带tag、未指定时间戳的单版本删除（deleteColumn不带时间戳需要服务端先读出最新版本）
+ */
+public class MutationMerger {
+
+    // 单元格按列族、列、时间戳排序，不区分类型和值，同一位置后写入的覆盖先写入的
+    private static final Comparator<Cell> CELL_POSITION = new Comparator<Cell>() {
+        @Override
+        public int compare(Cell a, Cell b) {
+            int c = Bytes.compareTo(a.getFamilyArray(), a.getFamilyOffset(), a.getFamilyLength(),
+                    b.getFamilyArray(), b.getFamilyOffset(), b.getFamilyLength());
+            if (c != 0) {
+                return c;
+            }
+            c = Bytes.compareTo(a.getQualifierArray(), a.getQualifierOffset(), a.getQualifierLength(),
+                    b.getQualifierArray(), b.getQualifierOffset(), b.getQualifierLength());
+            if (c != 0) {
+                return c;
+            }
+            return a.getTimestamp() < b.getTimestamp() ? -1 : (a.getTimestamp() == b.getTimestamp() ? 0 : 1);
+        }
+    };
+
+    // 删除标记还要区分类型
+    private static final Comparator<Cell> MARKER_POSITION = new Comparator<Cell>() {
+        @Override
+        public int compare(Cell a, Cell b) {
+            int c = CELL_POSITION.compare(a, b);
+            return c != 0 ? c : (a.getTypeByte() & 0xFF) - (b.getTypeByte() & 0xFF);
+        }
+    };
+
+    /**
+     * 一段连续的Put或Delete
+     */
+    private static class Segment {
+        final boolean put;
+        final TreeMap<Cell, Cell> cells;
+        // 整行删除的时间戳，null表示不是整行删除
+        Long rowDeleteTs;
+
+        Segment(boolean put) {
+            this.put = put;
+            this.cells = new TreeMap<Cell, Cell>(put ? CELL_POSITION : MARKER_POSITION);
+        }
+    }
+
+    /**
+     * 合并只包含Put的批量数据
+     *
+     * @param puts 待写入数据，不会被修改
+     * @return 每行一个Put，按行首次出现的顺序排列
+     */
+    public static List<Put> mergePuts(List<Put> puts) {
+        List<Row> merged = merge(puts);
+        List<Put> result = new ArrayList<Put>(merged.size());
+        for (Row row : merged) {
+            result.add((Put) row);
+        }
+        return result;
+    }
+
+    /**
+     * 合并批量写操作
+     *
+     * @param mutations 待写入数据，不会被修改
+     * @return Put、Delete或RowMutations，按行首次出现的顺序排列，可以直接交给Table.batch
+     */
+    public static List<Row> merge(List<? extends Mutation> mutations) {
+        // 按行分组，保留行首次出现的顺序
+        List<List<Mutation>> byRow = new ArrayList<List<Mutation>>();
+        Map<byte[], List<Mutation>> index = new TreeMap<byte[], List<Mutation>>(Bytes.BYTES_COMPARATOR);
+        for (Mutation mutation : mutations) {
+            List<Mutation> list = index.get(mutation.getRow());
+            if (list == null) {
+                list = new ArrayList<Mutation>(2);
+                index.put(mutation.getRow(), list);
+                byRow.add(list);
+            }
+            list.add(mutation);
+        }
+        List<Row> result = new ArrayList<Row>(byRow.size());
+        long now = System.currentTimeMillis();
+        for (List<Mutation> ops : byRow) {
+            if (ops.size() == 1) {
+                result.add(ops.get(0));
+                continue;
+            }
+            List<Row> merged = mergeable(ops) ? mergeRow(ops, now) : null;
+            if (merged == null) {
+                result.addAll(ops);
+            } else {
+                result.addAll(merged);
+            }
+        }
+        return result;
+    }
+
+    private static boolean mergeable(List<Mutation> ops) {
+        Mutation first = ops.get(0);
+        for (Mutation op : ops) {
+            if (!(op instanceof Put) && !(op instanceof Delete)) {
+                return false;
+            }
+            if (!op.getAttributesMap().isEmpty() || op.getDurability() != first.getDurability()) {
+                return false;
+            }
+            for (List<Cell> cells : op.getFamilyCellMap().values()) {
+                for (Cell cell : cells) {
+                    if (cell.getTagsLength() > 0) {
+                        return false;
+                    }
+                    if (cell.getTypeByte() == KeyValue.Type.Delete.getCode() && cell.getTimestamp() == HConstants.LATEST_TIMESTAMP) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 无法用一个操作表示时返回null
+     */
+    private static List<Row> mergeRow(List<Mutation> ops, long now) {
+        List<Segment> segments = new ArrayList<Segment>();
+        for (Mutation op : ops) {
+            Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (op instanceof Put) {
+                if (last == null || !last.put) {
+                    last = new Segment(true);
+                    segments.add(last);
+                }
+                for (List<Cell> cells : op.getFamilyCellMap().values()) {
+                    for (Cell cell : cells) {
+                        // TreeMap.put遇到已存在的键时保留原来的键，先删除才能让后写入的单元格生效
+                        last.cells.remove(cell);
+                        last.cells.put(cell, cell);
+                    }
+                }
+            } else {
+                Delete delete = (Delete) op;
+                // 之前的Put中被这个Delete覆盖的单元格不用再发送
+                for (Iterator<Segment> it = segments.iterator(); it.hasNext(); ) {
+                    Segment segment = it.next();
+                    if (segment.put) {
+                        prune(segment, delete, now);
+                        if (segment.cells.isEmpty()) {
+                            it.remove();
+                        }
+                    }
+                }
+                last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (last == null || last.put) {
+                    last = new Segment(false);
+                    segments.add(last);
+                }
+                if (delete.getFamilyCellMap().isEmpty()) {
+                    long ts = delete.getTimeStamp();
+                    last.rowDeleteTs = last.rowDeleteTs == null ? ts : Math.max(last.rowDeleteTs, ts);
+                } else {
+                    for (List<Cell> cells : delete.getFamilyCellMap().values()) {
+                        for (Cell cell : cells) {
+                            // 列、时间戳和删除类型都相同的删除标记效果一样，只保留最后出现的一个
+                            last.cells.remove(cell);
+                            last.cells.put(cell, cell);
+                        }
+                    }
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            return new ArrayList<Row>();
+        }
+        if (segments.size() == 1) {
+            Mutation single = build(ops.get(0), segments.get(0), HConstants.LATEST_TIMESTAMP);
+            if (single == null) {
+                return null;
+            }
+            List<Row> result = new ArrayList<Row>(1);
+            result.add(single);
+            return result;
+        }
+        byte[] row = ops.get(0).getRow();
+        RowMutations rowMutations = new RowMutations(row);
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                Mutation mutation = build(ops.get(0), segments.get(i), now + i);
+                if (mutation == null) {
+                    return null;
+                }
+                if (mutation instanceof Put) {
+                    rowMutations.add((Put) mutation);
+                } else {
+                    rowMutations.add((Delete) mutation);
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        List<Row> result = new ArrayList<Row>(1);
+        result.add(rowMutations);
+        return result;
+    }
+
+    /**
+     * 删除之前写入的单元格被这个Delete覆盖时从Put中去掉
+     */
+    private static void prune(Segment segment, Delete delete, long now) {
+        long rowTs = effective(delete.getTimeStamp(), now);
+        boolean rowDelete = delete.getFamilyCellMap().isEmpty();
+        for (Iterator<Cell> it = segment.cells.values().iterator(); it.hasNext(); ) {
+            Cell cell = it.next();
+            long ts = effective(cell.getTimestamp(), now);
+            if (rowDelete) {
+                if (ts <= rowTs) {
+                    it.remove();
+                }
+                continue;
+            }
+            List<Cell> markers = delete.getFamilyCellMap().get(CellUtil.cloneFamily(cell));
+            if (markers == null) {
+                continue;
+            }
+            for (Cell marker : markers) {
+                if (masks(marker, cell, ts, now)) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    private static boolean masks(Cell marker, Cell cell, long ts, long now) {
+        long markerTs = effective(marker.getTimestamp(), now);
+        byte type = marker.getTypeByte();
+        if (type == KeyValue.Type.DeleteFamily.getCode()) {
+            return ts <= markerTs;
+        }
+        if (type == KeyValue.Type.DeleteFamilyVersion.getCode()) {
+            return ts == markerTs;
+        }
+        if (!CellUtil.matchingQualifier(marker, cell)) {
+            return false;
+        }
+        if (type == KeyValue.Type.DeleteColumn.getCode()) {
+            return ts <= markerTs;
+        }
+        return ts == markerTs;
+    }
+
+    private static long effective(long ts, long now) {
+        return ts == HConstants.LATEST_TIMESTAMP ? now : ts;
+    }
+
+    /**
+     * 生成一个Put或Delete，未指定时间戳的单元格使用ts
+     *
+     * @return 无法表示时返回null
+     */
+    private static Mutation build(Mutation template, Segment segment, long ts) {
+        byte[] row = template.getRow();
+        if (segment.put) {
+            Put put = new Put(row);
+            put.setDurability(template.getDurability());
+            for (Cell cell : segment.cells.values()) {
+                put.addColumn(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell),
+                        cell.getTimestamp() == HConstants.LATEST_TIMESTAMP ? ts : cell.getTimestamp(), CellUtil.cloneValue(cell));
+            }
+            return put;
+        }
+        Delete delete;
+        if (segment.rowDeleteTs != null) {
+            long rowTs = segment.rowDeleteTs == HConstants.LATEST_TIMESTAMP ? ts : segment.rowDeleteTs;
+            // 整行删除会覆盖时间戳不大于它的删除标记，剩下的无法和整行删除放在同一个Delete中
+            for (Cell marker : segment.cells.values()) {
+                if (marker.getTimestamp() != HConstants.LATEST_TIMESTAMP && marker.getTimestamp() > rowTs) {
+                    return null;
+                }
+            }
+            delete = new Delete(row, rowTs);
+        } else {
+            delete = new Delete(row);
+            for (Cell marker : segment.cells.values()) {
+                byte[] family = CellUtil.cloneFamily(marker);
+                long markerTs = marker.getTimestamp() == HConstants.LATEST_TIMESTAMP ? ts : marker.getTimestamp();
+                byte type = marker.getTypeByte();
+                if (type == KeyValue.Type.DeleteFamily.getCode()) {
+                    delete.addFamily(family, markerTs);
+                } else if (type == KeyValue.Type.DeleteFamilyVersion.getCode()) {
+                    delete.addFamilyVersion(family, markerTs);
+                } else if (type == KeyValue.Type.DeleteColumn.getCode()) {
+                    delete.addColumns(family, CellUtil.cloneQualifier(marker), markerTs);
+                } else {
+                    delete.addColumn(family, CellUtil.cloneQualifier(marker), markerTs);
+                }
+            }
+        }
+        delete.setDurability(template.getDurability());
+        return delete;
+    }
+}
@@ -0,0 +1,569 @@
+package com.k.hbase.util;
+
+import com.k.hbase.codec.VarInt;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分页数据的二进制编解码
+ * 缓存分页结果或在服务之间传递时，Java默认序列化又慢又大。这里使用紧凑的带版本号的格式：
+ * <pre>
+ * 头部     'H' 'P' 版本号(1字节)
+ * 分页信息 pageSize pageIndex pageCount queryTotalCount（变长整数） 起始行健 结束行健（长度+1，0表示null）
+ * 行数     变长整数
+ * 每行     与上一行相同前缀的长度、剩余部分长度、剩余部分、单元格数
+ * 每个单元格 列族引用、列名引用、时间戳（与上一个单元格的差值，zigzag变长）、类型(1字节)、值长度、值
+ * </pre>
+ * 列族和列名共用一个字典，引用为0时后面紧跟名称（长度+内容）并加入字典，否则为字典下标+1，编码和解码都只需要顺序读写一遍。
+ * <p>
+ * 实例内部的缓冲区会重复使用，不是线程安全的，每个线程使用自己的实例：
+ * <pre>
+ * PageCodec codec = new PageCodec();
+ * int length = codec.encode(page);
+ * cache.put(key, Arrays.copyOf(codec.getBuffer(), length));
+ * HBasePageModel decoded = codec.decode(cache.get(key));
+ * </pre>
+ * 只需要读取部分字段时可以使用view，不创建Result和KeyValue，值直接引用原始字节数组
+ */
+public class PageCodec {
+    private static final byte MAGIC_0 = 'H';
+    private static final byte MAGIC_1 = 'P';
+    /**
+     * 当前格式版本
+     */
+    public static final byte VERSION = 1;
+
+    private byte[] buffer;
+    private int position;
+    // 编码时的字典：名称数组和开放寻址哈希表（存放下标+1），查找时不创建对象
+    private final List<byte[]> dictionary = new ArrayList<byte[]>();
+    private int[] slots = new int[64];
+    private byte[] readBuffer = new byte[0];
+
+    public PageCodec() {
+        this(4096);
+    }
+
+    /**
+     * @param initialCapacity 缓冲区初始大小，不够时自动扩大
+     */
+    public PageCodec(int initialCapacity) {
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * 编码到内部缓冲区
+     *
+     * @param page 分页数据
+     * @return 编码后的长度，数据在getBuffer()的[0, 长度)中，下次编码前有效
+     */
+    public int encode(HBasePageModel page) {
+        position = 0;
+        dictionary.clear();
+        Arrays.fill(slots, 0);
+        ensure(3);
+        buffer[position++] = MAGIC_0;
+        buffer[position++] = MAGIC_1;
+        buffer[position++] = VERSION;
+        writeVarInt(page.getPageSize());
+        writeVarInt(page.getPageIndex());
+        writeVarInt(page.getPageCount());
+        writeVarInt(page.getQueryTotalCount());
+        writeNullable(page.getPageStarRowKey());
+        writeNullable(page.getPageEndRowKey());
+
+        List<Result> results = page.getResultList();
+        writeVarInt(results.size());
+        byte[] prevRow = new byte[0];
+        int prevRowLength = 0;
+        long prevTs = 0;
+        for (Result result : results) {
+            Cell[] cells = result.rawCells();
+            byte[] row = result.isEmpty() ? new byte[0] : result.getRow();
+            int shared = commonPrefix(prevRow, prevRowLength, row, 0, row.length);
+            writeVarInt(shared);
+            writeVarInt(row.length - shared);
+            writeBytes(row, shared, row.length - shared);
+            prevRow = row;
+            prevRowLength = row.length;
+
+            writeVarInt(cells == null ? 0 : cells.length);
+            if (cells == null) {
+                continue;
+            }
+            for (Cell cell : cells) {
+                writeName(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+                writeName(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+                long ts = cell.getTimestamp();
+                long delta = ts - prevTs;
+                writeVarLong(VarInt.zigzag(delta));
+                prevTs = ts;
+                ensure(1);
+                buffer[position++] = cell.getTypeByte();
+                writeVarInt(cell.getValueLength());
+                writeBytes(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 编码并返回新的字节数组
+     *
+     * @param page 分页数据
+     * @return
+     */
+    public byte[] toByteArray(HBasePageModel page) {
+        int length = encode(page);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * 编码后写入输出流，前面带上长度，同一个流中可以连续写多页
+     *
+     * @param page 分页数据
+     * @param out  输出流
+     * @throws IOException
+     */
+    public void writeTo(HBasePageModel page, OutputStream out) throws IOException {
+        int length = encode(page);
+        byte[] header = new byte[5];
+        int n = 0;
+        int v = length;
+        while ((v & ~0x7F) != 0) {
+            header[n++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        header[n++] = (byte) v;
+        out.write(header, 0, n);
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * 从输入流读取writeTo写入的一页
+     *
+     * @param in 输入流
+     * @return 流已结束时返回null
+     * @throws IOException
+     */
+    public HBasePageModel readFrom(InputStream in) throws IOException {
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("分页数据长度不完整");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IOException("分页数据长度格式错误");
+            }
+        }
+        if (readBuffer.length < length) {
+            readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+        }
+        int read = 0;
+        while (read < length) {
+            int n = in.read(readBuffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException("分页数据不完整，需要" + length + "字节，只读到" + read + "字节");
+            }
+            read += n;
+        }
+        return decode(readBuffer, 0, length);
+    }
+
+    /**
+     * 内部缓冲区
+     *
+     * @return
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public HBasePageModel decode(byte[] data) throws IOException {
+        return decode(data, 0, data.length);
+    }
+
+    /**
+     * 解码为分页模型，单元格复制为独立的KeyValue，解码后原始数据可以重复使用
+     *
+     * @param data   数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return
+     * @throws IOException 格式或版本不正确
+     */
+    public HBasePageModel decode(byte[] data, int offset, int length) throws IOException {
+        PageView view = view(data, offset, length);
+        HBasePageModel page = new HBasePageModel(view.getPageSize());
+        page.setPageIndex(view.getPageIndex());
+        page.setPageCount(view.getPageCount());
+        page.setQueryTotalCount(view.getQueryTotalCount());
+        page.setPageStarRowKey(view.getPageStartRowKey());
+        page.setPageEndRowKey(view.getPageEndRowKey());
+        List<Result> results = new ArrayList<Result>(view.getRowCount());
+        while (view.nextRow()) {
+            byte[] row = Arrays.copyOf(view.getRowArray(), view.getRowLength());
+            List<Cell> cells = new ArrayList<Cell>(view.getCellCount());
+            while (view.nextCell()) {
+                byte[] family = view.getFamily();
+                byte[] qualifier = view.getQualifier();
+                cells.add(new KeyValue(row, 0, row.length, family, 0, family.length, qualifier, 0, qualifier.length,
+                        view.getTimestamp(), KeyValue.Type.codeToType(view.getTypeByte()),
+                        view.getValueArray(), view.getValueOffset(), view.getValueLength()));
+            }
+            results.add(Result.create(cells));
+        }
+        page.setResultList(results);
+        return page;
+    }
+
+    /**
+     * 只读视图，按顺序遍历行和单元格，值直接引用原始字节数组，不复制
+     *
+     * @param data   数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return
+     * @throws IOException 格式或版本不正确
+     */
+    public PageView view(byte[] data, int offset, int length) throws IOException {
+        return new PageView(data, offset, length);
+    }
+
+    private void writeName(byte[] array, int offset, int length) {
+        int mask = slots.length - 1;
+        int slot = Bytes.hashCode(array, offset, length) & mask;
+        while (slots[slot] != 0) {
+            byte[] name = dictionary.get(slots[slot] - 1);
+            if (Bytes.equals(name, 0, name.length, array, offset, length)) {
+                writeVarInt(slots[slot]);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        dictionary.add(Arrays.copyOfRange(array, offset, offset + length));
+        slots[slot] = dictionary.size();
+        if (dictionary.size() * 2 > slots.length) {
+            rehash();
+        }
+        writeVarInt(0);
+        writeVarInt(length);
+        writeBytes(array, offset, length);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int i = 0; i < dictionary.size(); i++) {
+            byte[] name = dictionary.get(i);
+            int slot = Bytes.hashCode(name, 0, name.length) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    private void writeNullable(byte[] bytes) {
+        if (bytes == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(bytes.length + 1);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    private void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) {
+        ensure(VarInt.MAX_VARLONG_SIZE);
+        position = VarInt.putVarLong(buffer, position, value);
+    }
+
+    private void ensure(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+
+    private static int commonPrefix(byte[] a, int aLength, byte[] b, int bOffset, int bLength) {
+        int max = Math.min(aLength, bLength);
+        int i = 0;
+        while (i < max && a[i] == b[bOffset + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 分页数据的只读视图
+     * <pre>
+     * PageView view = codec.view(bytes, 0, bytes.length);
+     * while (view.nextRow()) {
+     *     while (view.nextCell()) {
+     *         handle(view.getRowArray(), view.getRowLength(), view.getQualifier(), view.getValueArray(), view.getValueOffset(), view.getValueLength());
+     *     }
+     * }
+     * </pre>
+     * 行健数组在遍历时重复使用，需要保留时自行复制
+     */
+    public static class PageView {
+        private final byte[] data;
+        private final int end;
+        private int position;
+        private final int pageSize;
+        private final int pageIndex;
+        private final int pageCount;
+        private final int queryTotalCount;
+        private final byte[] pageStartRowKey;
+        private final byte[] pageEndRowKey;
+        private final int rowCount;
+        private final List<byte[]> dictionary = new ArrayList<byte[]>();
+
+        private int rowsRead;
+        private byte[] row = new byte[64];
+        private int rowLength;
+        private int cellCount;
+        private int cellsRead;
+        private long timestamp;
+        private byte[] family;
+        private byte[] qualifier;
+        private byte typeByte;
+        private int valueOffset;
+        private int valueLength;
+
+        PageView(byte[] data, int offset, int length) throws IOException {
+            this.data = data;
+            this.position = offset;
+            this.end = offset + length;
+            if (length < 3 || data[offset] != MAGIC_0 || data[offset + 1] != MAGIC_1) {
+                throw new IOException("不是分页数据");
+            }
+            if (data[offset + 2] != VERSION) {
+                throw new IOException("不支持的分页数据版本:" + data[offset + 2]);
+            }
+            position += 3;
+            pageSize = readVarInt();
+            pageIndex = readVarInt();
+            pageCount = readVarInt();
+            queryTotalCount = readVarInt();
+            pageStartRowKey = readNullable();
+            pageEndRowKey = readNullable();
+            rowCount = readVarInt();
+        }
+
+        /**
+         * 移动到下一行，上一行未读完的单元格会被跳过
+         *
+         * @return 没有更多行时返回false
+         * @throws IOException 数据不完整
+         */
+        public boolean nextRow() throws IOException {
+            while (cellsRead < cellCount) {
+                nextCell();
+            }
+            if (rowsRead >= rowCount) {
+                return false;
+            }
+            int shared = readVarInt();
+            int suffix = readVarInt();
+            if (shared > rowLength) {
+                throw new IOException("分页数据行健前缀错误");
+            }
+            if (row.length < shared + suffix) {
+                row = Arrays.copyOf(row, Math.max(row.length * 2, shared + suffix));
+            }
+            check(suffix);
+            System.arraycopy(data, position, row, shared, suffix);
+            position += suffix;
+            rowLength = shared + suffix;
+            cellCount = readVarInt();
+            cellsRead = 0;
+            rowsRead++;
+            return true;
+        }
+
+        /**
+         * 移动到当前行的下一个单元格
+         *
+         * @return 当前行没有更多单元格时返回false
+         * @throws IOException 数据不完整
+         */
+        public boolean nextCell() throws IOException {
+            if (cellsRead >= cellCount) {
+                return false;
+            }
+            family = readName();
+            qualifier = readName();
+            timestamp += VarInt.unzigzag(readVarLong());
+            check(1);
+            typeByte = data[position++];
+            valueLength = readVarInt();
+            check(valueLength);
+            valueOffset = position;
+            position += valueLength;
+            cellsRead++;
+            return true;
+        }
+
+        private byte[] readName() throws IOException {
+            int ref = readVarInt();
+            if (ref > 0) {
+                if (ref > dictionary.size()) {
+                    throw new IOException("分页数据字典引用错误:" + ref);
+                }
+                return dictionary.get(ref - 1);
+            }
+            int length = readVarInt();
+            check(length);
+            byte[] name = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            dictionary.add(name);
+            return name;
+        }
+
+        private byte[] readNullable() throws IOException {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            length--;
+            check(length);
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        private int readVarInt() throws IOException {
+            return (int) readVarLong();
+        }
+
+        private long readVarLong() throws IOException {
+            try {
+                int length = VarInt.lengthAt(data, position, end);
+                long value = VarInt.getVarLong(data, position, position + length);
+                position += length;
+                return value;
+            } catch (IllegalArgumentException e) {
+                throw new IOException("分页数据变长整数格式错误", e);
+            }
+        }
+
+        private void check(int bytes) throws IOException {
+            if (bytes < 0 || position + bytes > end) {
+                throw new EOFException("分页数据不完整");
+            }
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        public int getPageIndex() {
+            return pageIndex;
+        }
+
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        public int getQueryTotalCount() {
+            return queryTotalCount;
+        }
+
+        public byte[] getPageStartRowKey() {
+            return pageStartRowKey;
+        }
+
+        public byte[] getPageEndRowKey() {
+            return pageEndRowKey;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * 当前行健，有效长度为getRowLength()
+         */
+        public byte[] getRowArray() {
+            return row;
+        }
+
+        public int getRowLength() {
+            return rowLength;
+        }
+
+        /**
+         * 当前行的单元格数
+         */
+        public int getCellCount() {
+            return cellCount;
+        }
+
+        /**
+         * 当前列族，字典中的共享数组，不要修改
+         */
+        public byte[] getFamily() {
+            return family;
+        }
+
+        /**
+         * 当前列名，字典中的共享数组，不要修改
+         */
+        public byte[] getQualifier() {
+            return qualifier;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte getTypeByte() {
+            return typeByte;
+        }
+
+        /**
+         * 值所在的原始字节数组
+         */
+        public byte[] getValueArray() {
+            return data;
+        }
+
+        public int getValueOffset() {
+            return valueOffset;
+        }
+
+        public int getValueLength() {
+            return valueLength;
+        }
+    }
+}
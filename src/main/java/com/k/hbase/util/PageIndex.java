@@ -0,0 +1,292 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.MD5Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分页边界索引
+ * 按查询条件（表、起止行健、过滤器、页大小）记录每隔N页的起始行健，跳页时从最近的已知边界开始扫描，不需要从第一页翻过去。
+ * 索引在用户翻页时顺带记录，也可以在后台用并行的只取行健的扫描一次建好，建好后可以得到准确的总页数
+ * （pageIndex.eagerBuild，默认关闭：每个新的查询条件、每次索引失效都要扫描整个查询范围）。
+ * <p>
+ * 索引缓存在内存中，超过pageIndex.ttlSeconds或表的写入条数超过pageIndex.maxWrites后失效重建。
+ * 过滤器依赖列值时（例如SingleColumnValueFilter）后台建索引不能只取行健，扫描的数据量与全表扫描相同。
+ */
+public class PageIndex {
+    private static final Logger logger = LoggerFactory.getLogger(PageIndex.class);
+
+    private static final int interval = Math.max(1, PropertiesUtil.getInt(PropertiesUtil.CLIENT, "pageIndex.interval", 1));
+    private static final long ttlMs = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "pageIndex.ttlSeconds", 600) * 1000;
+    private static final long maxWrites = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "pageIndex.maxWrites", 10000);
+    private static final boolean eagerBuild = PropertiesUtil.getBoolean(PropertiesUtil.CLIENT, "pageIndex.eagerBuild", false);
+    private static final int parallelism = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "pageIndex.parallelism", 8);
+    private static final int maxIndexes = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "pageIndex.maxIndexes", 256);
+
+    private static final Map<String, PageIndex> indexes = Collections.synchronizedMap(new LinkedHashMap<String, PageIndex>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PageIndex> eldest) {
+            return size() > maxIndexes;
+        }
+    });
+    private static final ConcurrentHashMap<String, AtomicLong> tableWrites = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final String tableName;
+    private final byte[] startRow;
+    private final byte[] stopRow;
+    private final FilterList filterList;
+    private final int pageSize;
+    private final long createdAt = System.currentTimeMillis();
+    private final long writesAtCreate;
+    // 页序号（从1开始） -> 该页第一行的行健
+    private final TreeMap<Integer, byte[]> boundaries = new TreeMap<Integer, byte[]>();
+    private volatile long totalRows = -1;
+    private volatile boolean building = false;
+
+    private PageIndex(String tableName, byte[] startRow, byte[] stopRow, FilterList filterList, int pageSize) {
+        this.tableName = tableName;
+        this.startRow = startRow;
+        this.stopRow = stopRow;
+        this.filterList = filterList;
+        this.pageSize = pageSize;
+        this.writesAtCreate = writes(tableName).get();
+    }
+
+    /**
+     * 获取查询条件对应的索引，不存在或已失效时创建，开启pageIndex.eagerBuild时在后台扫描线程池中建索引
+     *
+     * @param tableName  表名
+     * @param startRow   起始行健，可以为null
+     * @param stopRow    结束行健，可以为null
+     * @param filterList 过滤条件，可以为null
+     * @param pageSize   页大小
+     * @return
+     */
+    public static PageIndex forQuery(String tableName, byte[] startRow, byte[] stopRow, FilterList filterList, int pageSize) {
+        String signature = signature(tableName, startRow, stopRow, filterList, pageSize);
+        PageIndex index;
+        boolean created = false;
+        synchronized (indexes) {
+            index = indexes.get(signature);
+            if (index == null || index.isExpired()) {
+                index = new PageIndex(tableName, startRow, stopRow, filterList, pageSize);
+                indexes.put(signature, index);
+                created = true;
+            }
+        }
+        if (created && eagerBuild) {
+            index.buildAsync();
+        }
+        return index;
+    }
+
+    /**
+     * 记录表的写入条数，用于判断索引是否失效
+     *
+     * @param tableName 表名
+     * @param count     写入条数
+     */
+    public static void onWrite(String tableName, long count) {
+        AtomicLong writes = tableWrites.get(tableName);
+        if (writes != null) {
+            writes.addAndGet(count);
+        }
+    }
+
+    private static AtomicLong writes(String tableName) {
+        AtomicLong writes = tableWrites.get(tableName);
+        if (writes == null) {
+            AtomicLong created = new AtomicLong();
+            writes = tableWrites.putIfAbsent(tableName, created);
+            if (writes == null) {
+                writes = created;
+            }
+        }
+        return writes;
+    }
+
+    private static String signature(String tableName, byte[] startRow, byte[] stopRow, FilterList filterList, int pageSize) {
+        StringBuilder sb = new StringBuilder(tableName).append('|')
+                .append(startRow == null ? "" : Bytes.toStringBinary(startRow)).append('|')
+                .append(stopRow == null ? "" : Bytes.toStringBinary(stopRow)).append('|').append(pageSize).append('|');
+        if (filterList != null) {
+            try {
+                sb.append(MD5Hash.getMD5AsHex(filterList.toByteArray()));
+            } catch (IOException e) {
+                // 无法序列化的过滤器按对象区分，只能在同一个过滤器对象上复用索引
+                sb.append(System.identityHashCode(filterList));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 是否因超时或写入过多而失效
+     *
+     * @return
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() - createdAt > ttlMs
+                || writes(tableName).get() - writesAtCreate > maxWrites;
+    }
+
+    /**
+     * 记录某页的起始行健，只保留每隔pageIndex.interval页的边界
+     *
+     * @param page     页序号，从1开始
+     * @param startRow 该页第一行的行健
+     */
+    public void record(int page, byte[] startRow) {
+        if (page < 1 || (page - 1) % interval != 0) {
+            return;
+        }
+        synchronized (boundaries) {
+            boundaries.put(page, startRow);
+        }
+    }
+
+    /**
+     * 扫描到查询范围末尾时记录总行数
+     *
+     * @param total 总行数，由扫描起点的偏移量加上实际读到的行数得到；跳页超过末尾时不能按页序号推算
+     */
+    public void recordEnd(long total) {
+        totalRows = total;
+    }
+
+    /**
+     * 不超过指定页的最近一个已知边界
+     *
+     * @param page 页序号
+     * @return 没有已知边界时返回null
+     */
+    public Map.Entry<Integer, byte[]> floor(int page) {
+        synchronized (boundaries) {
+            return boundaries.floorEntry(page);
+        }
+    }
+
+    /**
+     * 总页数，还不知道时返回-1
+     *
+     * @return
+     */
+    public int getPageCount() {
+        long rows = totalRows;
+        return rows < 0 ? -1 : (int) ((rows + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * 总行数，还不知道时返回-1
+     *
+     * @return
+     */
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    /**
+     * 在后台扫描线程池中建索引
+     */
+    public void buildAsync() {
+        try {
+            ThreadPoolUtil.init().execute(ThreadPoolUtil.Lane.SCAN, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        build();
+                    } catch (IOException e) {
+                        logger.warn("表:{}建分页索引失败", tableName, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("扫描线程池已满，表:{}的分页索引改为翻页时记录", tableName);
+        }
+    }
+
+    /**
+     * 建索引：先按region并行统计每个区间的行数，算出每页起始行在各区间中的位置，再并行扫描一次取出这些行健
+     *
+     * @throws IOException
+     */
+    public void build() throws IOException {
+        synchronized (this) {
+            if (building) {
+                return;
+            }
+            building = true;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            Scan template = new Scan();
+            template.setCacheBlocks(false);
+            template.setCaching(1000);
+            if (filterList == null) {
+                template.setFilter(new FilterList(new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+            } else {
+                template.setFilter(filterList);
+            }
+            List<ParallelScanner.ScanRange> ranges = ParallelScanner.plan(tableName, startRow, stopRow);
+
+            final Map<ParallelScanner.ScanRange, Long> counts =
+                    Collections.synchronizedMap(new IdentityHashMap<ParallelScanner.ScanRange, Long>());
+            ParallelScanner.scan(tableName, template, ranges, parallelism, new ParallelScanner.Handler() {
+                @Override
+                public void handle(ParallelScanner.ScanRange range, Result result) {
+                }
+
+                @Override
+                public void onRangeComplete(ParallelScanner.ScanRange range, long rows) {
+                    counts.put(range, rows);
+                }
+            });
+
+            // 各区间在整个结果中的起始行序号
+            final Map<ParallelScanner.ScanRange, Long> bases = new IdentityHashMap<ParallelScanner.ScanRange, Long>();
+            long total = 0;
+            for (ParallelScanner.ScanRange range : ranges) {
+                bases.put(range, total);
+                total += counts.get(range);
+            }
+            final long step = (long) pageSize * interval;
+            final Map<ParallelScanner.ScanRange, AtomicLong> offsets = new IdentityHashMap<ParallelScanner.ScanRange, AtomicLong>();
+            for (ParallelScanner.ScanRange range : ranges) {
+                offsets.put(range, new AtomicLong());
+            }
+            ParallelScanner.scan(tableName, template, ranges, parallelism, new ParallelScanner.Handler() {
+                @Override
+                public void handle(ParallelScanner.ScanRange range, Result result) {
+                    long row = bases.get(range) + offsets.get(range).getAndIncrement();
+                    if (row % step == 0) {
+                        record((int) (row / pageSize) + 1, result.getRow());
+                    }
+                }
+            });
+            totalRows = total;
+            ClientMetrics.incr("pageIndex." + tableName + ".builds", 1);
+            logger.info("表:{}分页索引建立完成，共{}行{}页，耗时{}毫秒", tableName, total, getPageCount(), System.currentTimeMillis() - begin);
+        } finally {
+            building = false;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 按region并行扫描
+ * 把扫描区间按表的region边界切分，在线程池的扫描通道（ThreadPoolUtil.Lane.SCAN）中并行执行，
+ * 长扫描与在线读、批量写入相互隔离，同时进行的并行扫描共享通道的线程数上限。
+ */
+public class ParallelScanner {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelScanner.class);
+
+    /**
+     * 一个region内的扫描区间[startRow, stopRow)，空数组表示不限
+     */
+    public static class ScanRange {
+        private final byte[] startRow;
+        private final byte[] stopRow;
+        private final byte[] regionStartKey;
+
+        public ScanRange(byte[] startRow, byte[] stopRow, byte[] regionStartKey) {
+            this.startRow = startRow;
+            this.stopRow = stopRow;
+            this.regionStartKey = regionStartKey;
+        }
+
+        public byte[] getStartRow() {
+            return startRow;
+        }
+
+        public byte[] getStopRow() {
+            return stopRow;
+        }
+
+        /**
+         * 所在region的起始行健，可以作为断点记录的key
+         *
+         * @return
+         */
+        public byte[] getRegionStartKey() {
+            return regionStartKey;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + Bytes.toStringBinary(startRow) + ", " + Bytes.toStringBinary(stopRow) + ")";
+        }
+    }
+
+    /**
+     * 扫描结果处理器，会被多个线程同时调用，实现需要线程安全
+     */
+    public abstract static class Handler {
+        /**
+         * 处理一行数据
+         *
+         * @param range  数据所在的扫描区间
+         * @param result 行数据
+         * @throws IOException 抛出异常时终止整个扫描
+         */
+        public abstract void handle(ScanRange range, Result result) throws IOException;
+
+        /**
+         * 一个扫描区间处理完成
+         *
+         * @param range 扫描区间
+         * @param rows  区间内的行数
+         * @throws IOException
+         */
+        public void onRangeComplete(ScanRange range, long rows) throws IOException {
+        }
+    }
+
+    /**
+     * 按region边界切分扫描区间
+     *
+     * @param tableName 表名
+     * @param startRow  起始行健（包含），null或空数组表示从表头开始
+     * @param stopRow   结束行健（不包含），null或空数组表示到表尾
+     * @return
+     * @throws IOException
+     */
+    public static List<ScanRange> plan(String tableName, byte[] startRow, byte[] stopRow) throws IOException {
+        byte[] start = startRow == null ? HConstants.EMPTY_START_ROW : startRow;
+        byte[] stop = stopRow == null ? HConstants.EMPTY_END_ROW : stopRow;
+        RegionLocator locator = HBaseUtil.getConn().getRegionLocator(TableName.valueOf(tableName));
+        Pair<byte[][], byte[][]> keys;
+        try {
+            keys = locator.getStartEndKeys();
+        } finally {
+            locator.close();
+        }
+        List<ScanRange> ranges = new ArrayList<ScanRange>();
+        for (int i = 0; i < keys.getFirst().length; i++) {
+            byte[] regionStart = keys.getFirst()[i];
+            byte[] regionEnd = keys.getSecond()[i];
+            // region完全在扫描区间之外
+            if (stop.length > 0 && Bytes.compareTo(regionStart, stop) >= 0) {
+                continue;
+            }
+            if (regionEnd.length > 0 && Bytes.compareTo(regionEnd, start) <= 0) {
+                continue;
+            }
+            byte[] rangeStart = Bytes.compareTo(regionStart, start) > 0 ? regionStart : start;
+            byte[] rangeStop;
+            if (stop.length == 0) {
+                rangeStop = regionEnd;
+            } else if (regionEnd.length == 0) {
+                rangeStop = stop;
+            } else {
+                rangeStop = Bytes.compareTo(regionEnd, stop) < 0 ? regionEnd : stop;
+            }
+            ranges.add(new ScanRange(rangeStart, rangeStop, regionStart));
+        }
+        return ranges;
+    }
+
+    /**
+     * 按扫描模板中的起止行健切分后并行扫描
+     *
+     * @param tableName   表名
+     * @param template    扫描模板，每个区间会复制一份并替换起止行健
+     * @param parallelism 最大并行数
+     * @param handler     结果处理器
+     * @return 扫描的总行数
+     * @throws IOException
+     */
+    public static long scan(String tableName, Scan template, int parallelism, Handler handler) throws IOException {
+        return scan(tableName, template, plan(tableName, template.getStartRow(), template.getStopRow()), parallelism, handler);
+    }
+
+    /**
+     * 并行扫描指定的区间
+     *
+     * @param tableName   表名
+     * @param template    扫描模板，每个区间会复制一份并替换起止行健
+     * @param ranges      扫描区间
+     * @param parallelism 最大并行数，实际并行数不超过扫描通道的线程数
+     * @param handler     结果处理器
+     * @return 扫描的总行数
+     * @throws IOException 任意一个区间失败时取消其余区间并抛出
+     */
+    public static long scan(String tableName, Scan template, List<ScanRange> ranges, int parallelism, Handler handler) throws IOException {
+        if (ranges.isEmpty()) {
+            return 0;
+        }
+        int threads = Math.max(1, Math.min(parallelism, ranges.size()));
+        if (ThreadPoolUtil.currentLane() != ThreadPoolUtil.Lane.SCAN) {
+            return scan(tableName, template, ranges, ThreadPoolUtil.init().getExecutor(ThreadPoolUtil.Lane.SCAN), threads, handler);
+        }
+        // 已经在扫描通道的线程中（如后台构建分页索引），再向通道提交并等待，通道占满时会互相等待，改用临时线程池
+        ExecutorService executor = Executors.newFixedThreadPool(threads, ClientMetrics.daemonThreadFactory("hbase-parallel-scan-" + tableName));
+        try {
+            return scan(tableName, template, ranges, executor, threads, handler);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 在调用方提供的线程池中并行扫描指定的区间，适合频繁的小范围查询，避免每次创建线程
+     *
+     * @param tableName 表名
+     * @param template  扫描模板，每个区间会复制一份并替换起止行健
+     * @param ranges    扫描区间
+     * @param executor  执行扫描任务的线程池，并行数由线程池大小决定
+     * @param handler   结果处理器
+     * @return 扫描的总行数
+     * @throws IOException 任意一个区间失败时取消其余区间并抛出
+     */
+    public static long scan(String tableName, Scan template, List<ScanRange> ranges, ExecutorService executor, Handler handler) throws IOException {
+        return scan(tableName, template, ranges, executor, ranges.size(), handler);
+    }
+
+    /**
+     * 提交workers个任务，各自从共享的队列中取区间扫描，同一次扫描最多占用workers个线程
+     * 线程池拒绝时由已经提交的任务扫描剩余区间，一个也没有提交成功时抛出IOException
+     */
+    private static long scan(final String tableName, final Scan template, List<ScanRange> ranges, ExecutorService executor, int workers, final Handler handler) throws IOException {
+        if (template.isReversed()) {
+            throw new IllegalArgumentException("并行扫描不支持反向扫描");
+        }
+        final Queue<ScanRange> pending = new ConcurrentLinkedQueue<ScanRange>(ranges);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                try {
+                    futures.add(executor.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            long rows = 0;
+                            ScanRange range;
+                            while (!Thread.currentThread().isInterrupted() && (range = pending.poll()) != null) {
+                                rows += scanRange(tableName, template, range, handler);
+                            }
+                            return rows;
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    if (futures.isEmpty()) {
+                        throw new IOException("并行扫描表:" + tableName + "的任务被线程池拒绝", e);
+                    }
+                    break;
+                }
+            }
+            long rows = 0;
+            for (Future<Long> future : futures) {
+                rows += future.get();
+            }
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("并行扫描表:" + tableName + "被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("并行扫描表:" + tableName + "失败", cause);
+        } finally {
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static long scanRange(String tableName, Scan template, ScanRange range, Handler handler) throws IOException {
+        Scan scan = new Scan(template);
+        scan.setStartRow(range.getStartRow());
+        scan.setStopRow(range.getStopRow());
+        RequestThrottler.acquire(tableName, RequestThrottler.OpClass.SCAN, 1);
+        Table table = HBaseUtil.getTable(tableName);
+        if (table == null) {
+            throw new IOException("获取表:" + tableName + "失败");
+        }
+        long rows = 0;
+        try {
+            ResultScanner scanner = table.getScanner(scan);
+            try {
+                Result result;
+                while ((result = scanner.next()) != null) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("扫描区间:" + range + "被取消");
+                    }
+                    handler.handle(range, result);
+                    rows++;
+                }
+            } finally {
+                scanner.close();
+            }
+        } finally {
+            table.close();
+        }
+        handler.onRangeComplete(range, rows);
+        logger.debug("表:{}区间:{}扫描完成，共{}行", tableName, range, rows);
+        return rows;
+    }
+}
@@ -0,0 +1,300 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 预取扫描器
+ * 后台线程不断从被包装的扫描器取数据放进缓冲区，调用方处理当前数据时下一批数据的RPC已经在进行，
+ * 两者的耗时重叠而不是相加。缓冲区按字节数限制（prefetch.maxBytes），缓冲区满时后台线程等待，
+ * 等待超过服务端租约的一半时续租，调用方处理得慢也不会因为租约过期出现UnknownScannerException；
+ * 调用方已经超过一个租约周期没有访问时不再续租，泄漏的扫描器在服务端的租约不会比不预取时存活得更久。
+ * <p>
+ * 打开后在ScannerRegistry中登记，调用方超过prefetch.idleTimeoutMs没有调用next或close时自动关闭，
+ * 并在日志中输出打开扫描器的调用栈，之后再调用next会抛出IOException。
+ * 读到最后一行时立即释放服务端资源，但调用方仍然需要close。
+ */
+public class PrefetchingResultScanner extends AbstractResultScanner {
+    private static final Logger logger = LoggerFactory.getLogger(PrefetchingResultScanner.class);
+
+    private static final long maxBytes = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "prefetch.maxBytes", 8 * 1024 * 1024);
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(ClientMetrics.daemonThreadFactory("hbase-scan-prefetch"));
+
+    private final String tableName;
+    private final ResultScanner delegate;
+    private final long leaseMs;
+    private final Throwable openedAt;
+    private final long openedMillis = System.currentTimeMillis();
+    private volatile long lastAccessMillis = openedMillis;
+    private volatile boolean waiting;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final LinkedList<Result> buffer = new LinkedList<Result>();
+    private final LinkedList<Long> sizes = new LinkedList<Long>();
+    private long bufferedBytes;
+    private boolean exhausted;
+    private boolean fetching;
+    private boolean closed;
+    private String closedReason;
+    private IOException failure;
+
+    /**
+     * @param tableName 表名
+     * @param delegate  被包装的扫描器，只在后台线程中使用
+     * @param leaseMs   服务端扫描器租约（hbase.client.scanner.timeout.period）
+     */
+    public PrefetchingResultScanner(String tableName, ResultScanner delegate, long leaseMs) {
+        this.tableName = tableName;
+        this.delegate = delegate;
+        this.leaseMs = leaseMs;
+        this.openedAt = ScannerRegistry.captureStack() ? new Throwable("扫描器打开位置") : null;
+        ScannerRegistry.register(this);
+        fetching = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                fetch();
+            }
+        });
+    }
+
+    private void fetch() {
+        try {
+            while (true) {
+                if (!awaitSpace()) {
+                    break;
+                }
+                Result result = delegate.next();
+                lock.lock();
+                try {
+                    if (closed) {
+                        break;
+                    }
+                    if (result == null) {
+                        exhausted = true;
+                        notEmpty.signalAll();
+                        break;
+                    }
+                    long size = sizeOf(result);
+                    buffer.addLast(result);
+                    sizes.addLast(size);
+                    bufferedBytes += size;
+                    notEmpty.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("预取扫描结果失败", e));
+        } finally {
+            // 被中断或抛出Error时既没有读到末尾也没有失败信息，必须唤醒等待中的调用方，否则会一直阻塞
+            lock.lock();
+            try {
+                if (!exhausted && !closed && failure == null) {
+                    failure = new IOException("表:" + tableName + "的预取线程异常退出");
+                    notEmpty.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            closeDelegate();
+        }
+    }
+
+    /**
+     * 等待缓冲区有空间，缓冲区为空时总是允许放入一行，单行超过maxBytes也能返回
+     *
+     * @return false表示扫描器已关闭
+     */
+    private boolean awaitSpace() {
+        long waitMs = Math.max(leaseMs / 2, 1000);
+        while (true) {
+            lock.lock();
+            try {
+                boolean full = false;
+                while (!closed && !buffer.isEmpty() && bufferedBytes >= maxBytes) {
+                    if (!notFull.await(waitMs, TimeUnit.MILLISECONDS)) {
+                        full = true;
+                        break;
+                    }
+                }
+                if (closed) {
+                    return false;
+                }
+                if (!full) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                lock.unlock();
+            }
+            // 续租只能在使用被包装扫描器的线程中进行；调用方空闲超过一个租约周期时不再续租
+            if (!waiting && System.currentTimeMillis() - lastAccessMillis >= leaseMs) {
+                continue;
+            }
+            if (renewLease(delegate)) {
+                ClientMetrics.incr("prefetch.leaseRenewals", 1);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeDelegate() {
+        try {
+            delegate.close();
+        } catch (RuntimeException e) {
+            logger.error("关闭表:{}的扫描器失败", tableName, e);
+        }
+        lock.lock();
+        try {
+            fetching = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Result next() throws IOException {
+        lastAccessMillis = System.currentTimeMillis();
+        waiting = true;
+        lock.lock();
+        try {
+            if (buffer.isEmpty() && !exhausted && failure == null && !closed) {
+                // 调用方处理得比RPC快，只能等待
+                ClientMetrics.incr("prefetch.stalls", 1);
+            }
+            while (buffer.isEmpty() && !exhausted && failure == null && !closed) {
+                notEmpty.await();
+            }
+            if (closed) {
+                if (closedReason != null) {
+                    throw new IOException(closedReason);
+                }
+                return null;
+            }
+            if (!buffer.isEmpty()) {
+                bufferedBytes -= sizes.removeFirst();
+                notFull.signalAll();
+                return buffer.removeFirst();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待预取结果时被中断", e);
+        } finally {
+            lock.unlock();
+            lastAccessMillis = System.currentTimeMillis();
+            waiting = false;
+        }
+    }
+
+    /**
+     * 续租由后台线程在缓冲区满时进行，调用方不需要续租
+     */
+    @Override
+    public boolean renewLease() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * 关闭扫描器，后台线程正在RPC时由它在RPC返回后关闭被包装的扫描器
+     *
+     * @param reason 不为null时表示被自动关闭，之后调用next抛出带此信息的异常
+     */
+    void close(String reason) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closedReason = reason;
+            buffer.clear();
+            sizes.clear();
+            bufferedBytes = 0;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        ScannerRegistry.unregister(this);
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 后台线程是否还在使用被包装的扫描器
+     */
+    boolean isFetching() {
+        lock.lock();
+        try {
+            return fetching;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    Throwable getOpenedAt() {
+        return openedAt;
+    }
+
+    long getOpenedMillis() {
+        return openedMillis;
+    }
+
+    long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    /**
+     * 调用方是否正在next中等待数据，等待RPC不算空闲
+     */
+    boolean isWaiting() {
+        return waiting;
+    }
+}
@@ -0,0 +1,103 @@
+package com.k.hbase.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 读取resources目录下的properties配置，配置项不存在时返回默认值
+ */
+public class PropertiesUtil {
+    private static final Logger logger = LoggerFactory.getLogger(PropertiesUtil.class);
+
+    /**
+     * 客户端调优配置 hbase-client.properties
+     */
+    public static final String CLIENT = "hbase-client";
+
+    /**
+     * 线程池配置 hbase-threadpool.properties
+     */
+    public static final String THREAD_POOL = "hbase-threadpool";
+
+    // 已确认不存在的配置文件，只提示一次
+    private static final Set<String> missing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * 加载配置文件
+     *
+     * @param baseName 配置文件名（不含.properties）
+     * @return 配置文件不存在时返回null
+     */
+    public static ResourceBundle load(String baseName) {
+        try {
+            return ResourceBundle.getBundle(baseName);
+        } catch (MissingResourceException e) {
+            if (missing.add(baseName)) {
+                logger.warn("配置文件:{}不存在，使用默认配置", baseName);
+            }
+            return null;
+        }
+    }
+
+    public static String getString(String baseName, String key, String defaultValue) {
+        ResourceBundle bundle = load(baseName);
+        if (bundle == null || !bundle.containsKey(key)) {
+            return defaultValue;
+        }
+        String value = bundle.getString(key).trim();
+        return value.length() == 0 ? defaultValue : value;
+    }
+
+    public static int getInt(String baseName, String key, int defaultValue) {
+        String value = getString(baseName, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logger.error("配置项:{}={}不是合法的整数，使用默认值:{}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String baseName, String key, long defaultValue) {
+        String value = getString(baseName, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.error("配置项:{}={}不是合法的整数，使用默认值:{}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static double getDouble(String baseName, String key, double defaultValue) {
+        String value = getString(baseName, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            logger.error("配置项:{}={}不是合法的数字，使用默认值:{}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String baseName, String key, boolean defaultValue) {
+        String value = getString(baseName, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+}
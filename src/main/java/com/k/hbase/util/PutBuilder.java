@@ -0,0 +1,346 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Put构造器
+ * 直接把数字、字符串、ByteBuffer编码到从BufferPool借来的缓冲区中，每个单元格只分配一次最终的KeyValue数组，
+ * 不再为行健、列名、列值各自调用getBytes()产生临时数组。列族和列名按字符串缓存一份字节数组，所有Put共用。
+ * <p>
+ * 实例不是线程安全的，每个线程使用自己的实例，可以连续构造多个Put，用完后close归还缓冲区：
+ * <pre>
+ * PutBuilder builder = new PutBuilder();
+ * try {
+ *     for (User user : users) {
+ *         puts.add(builder.row("user").appendRow(user.getId())
+ *                 .add("info", "name", user.getName())
+ *                 .add("info", "age", user.getAge())
+ *                 .build());
+ *     }
+ * } finally {
+ *     builder.close();
+ * }
+ * </pre>
+ * 数值编码与Bytes.toBytes一致，字符串为UTF-8
+ */
+public class PutBuilder implements Closeable {
+    private static final int MAX_INTERNED = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "putBuilder.maxInternedNames", 10000);
+    private static final ConcurrentHashMap<String, byte[]> names = new ConcurrentHashMap<String, byte[]>();
+
+    private final BufferPool pool;
+    private byte[] scratch;
+    private int rowLength;
+    private long timestamp = HConstants.LATEST_TIMESTAMP;
+    private final List<Cell> cells = new ArrayList<Cell>();
+    // 与cells一一对应，作为familyMap的键，通过名称添加时是共享数组
+    private final List<byte[]> families = new ArrayList<byte[]>();
+
+    public PutBuilder() {
+        this(BufferPool.getDefault());
+    }
+
+    /**
+     * @param pool 缓冲区池
+     */
+    public PutBuilder(BufferPool pool) {
+        this.pool = pool;
+        this.scratch = pool.acquire(256);
+    }
+
+    /**
+     * 列族、列名的共享字节数组，同一个名称只编码一次；超过putBuilder.maxInternedNames个名称后不再缓存
+     *
+     * @param name 名称
+     * @return 不要修改返回的数组
+     */
+    public static byte[] intern(String name) {
+        byte[] bytes = names.get(name);
+        if (bytes == null) {
+            bytes = Bytes.toBytes(name);
+            if (names.size() < MAX_INTERNED) {
+                byte[] existing = names.putIfAbsent(name, bytes);
+                if (existing != null) {
+                    bytes = existing;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 开始一个新的Put，行健为空，之后用appendRow拼接
+     */
+    public PutBuilder row() {
+        cells.clear();
+        families.clear();
+        rowLength = 0;
+        timestamp = HConstants.LATEST_TIMESTAMP;
+        return this;
+    }
+
+    public PutBuilder row(byte[] row) {
+        return row().appendRow(row);
+    }
+
+    public PutBuilder row(CharSequence row) {
+        return row().appendRow(row);
+    }
+
+    public PutBuilder row(long row) {
+        return row().appendRow(row);
+    }
+
+    public PutBuilder row(ByteBuffer row) {
+        return row().appendRow(row);
+    }
+
+    public PutBuilder appendRow(byte[] part) {
+        checkRowOpen();
+        ensure(rowLength, part.length);
+        System.arraycopy(part, 0, scratch, rowLength, part.length);
+        rowLength += part.length;
+        return this;
+    }
+
+    public PutBuilder appendRow(CharSequence part) {
+        checkRowOpen();
+        rowLength = writeUtf8(rowLength, part);
+        return this;
+    }
+
+    public PutBuilder appendRow(long part) {
+        checkRowOpen();
+        ensure(rowLength, Bytes.SIZEOF_LONG);
+        rowLength = Bytes.putLong(scratch, rowLength, part);
+        return this;
+    }
+
+    public PutBuilder appendRow(int part) {
+        checkRowOpen();
+        ensure(rowLength, Bytes.SIZEOF_INT);
+        rowLength = Bytes.putInt(scratch, rowLength, part);
+        return this;
+    }
+
+    public PutBuilder appendRow(byte part) {
+        checkRowOpen();
+        ensure(rowLength, 1);
+        scratch[rowLength++] = part;
+        return this;
+    }
+
+    public PutBuilder appendRow(ByteBuffer part) {
+        checkRowOpen();
+        rowLength = writeBuffer(rowLength, part);
+        return this;
+    }
+
+    /**
+     * 本Put中之后添加的单元格使用的时间戳，默认由服务端指定
+     */
+    public PutBuilder timestamp(long timestamp) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    public PutBuilder add(String family, String qualifier, byte[] value) {
+        return add(intern(family), intern(qualifier), value);
+    }
+
+    public PutBuilder add(String family, String qualifier, CharSequence value) {
+        return add(intern(family), intern(qualifier), value);
+    }
+
+    public PutBuilder add(String family, String qualifier, long value) {
+        return add(intern(family), intern(qualifier), value);
+    }
+
+    public PutBuilder add(String family, String qualifier, int value) {
+        return add(intern(family), intern(qualifier), value);
+    }
+
+    public PutBuilder add(String family, String qualifier, double value) {
+        return add(intern(family), intern(qualifier), value);
+    }
+
+    public PutBuilder add(String family, String qualifier, boolean value) {
+        return add(intern(family), intern(qualifier), value);
+    }
+
+    public PutBuilder add(String family, String qualifier, ByteBuffer value) {
+        return add(intern(family), intern(qualifier), value);
+    }
+
+    public PutBuilder add(byte[] family, byte[] qualifier, byte[] value) {
+        return cell(family, qualifier, value, 0, value.length);
+    }
+
+    /**
+     * 列值取value中[offset, offset + length)的一段，只在生成KeyValue时复制一次
+     */
+    public PutBuilder add(byte[] family, byte[] qualifier, byte[] value, int offset, int length) {
+        return cell(family, qualifier, value, offset, length);
+    }
+
+    public PutBuilder add(byte[] family, byte[] qualifier, CharSequence value) {
+        int valueOffset = rowLength;
+        int end = writeUtf8(valueOffset, value);
+        return cell(family, qualifier, scratch, valueOffset, end - valueOffset);
+    }
+
+    public PutBuilder add(byte[] family, byte[] qualifier, long value) {
+        int valueOffset = rowLength;
+        ensure(valueOffset, Bytes.SIZEOF_LONG);
+        Bytes.putLong(scratch, valueOffset, value);
+        return cell(family, qualifier, scratch, valueOffset, Bytes.SIZEOF_LONG);
+    }
+
+    public PutBuilder add(byte[] family, byte[] qualifier, int value) {
+        int valueOffset = rowLength;
+        ensure(valueOffset, Bytes.SIZEOF_INT);
+        Bytes.putInt(scratch, valueOffset, value);
+        return cell(family, qualifier, scratch, valueOffset, Bytes.SIZEOF_INT);
+    }
+
+    public PutBuilder add(byte[] family, byte[] qualifier, double value) {
+        int valueOffset = rowLength;
+        ensure(valueOffset, Bytes.SIZEOF_DOUBLE);
+        Bytes.putDouble(scratch, valueOffset, value);
+        return cell(family, qualifier, scratch, valueOffset, Bytes.SIZEOF_DOUBLE);
+    }
+
+    public PutBuilder add(byte[] family, byte[] qualifier, boolean value) {
+        int valueOffset = rowLength;
+        ensure(valueOffset, 1);
+        scratch[valueOffset] = value ? (byte) -1 : (byte) 0;
+        return cell(family, qualifier, scratch, valueOffset, 1);
+    }
+
+    public PutBuilder add(byte[] family, byte[] qualifier, ByteBuffer value) {
+        int valueOffset = rowLength;
+        int end = writeBuffer(valueOffset, value);
+        return cell(family, qualifier, scratch, valueOffset, end - valueOffset);
+    }
+
+    private PutBuilder cell(byte[] family, byte[] qualifier, byte[] value, int offset, int length) {
+        if (rowLength == 0) {
+            throw new IllegalStateException("添加列之前需要先设置行健");
+        }
+        cells.add(new KeyValue(scratch, 0, rowLength, family, 0, family.length, qualifier, 0, qualifier.length,
+                timestamp, KeyValue.Type.Put, value, offset, length));
+        families.add(family);
+        return this;
+    }
+
+    /**
+     * 生成Put，之后可以继续构造下一个
+     *
+     * @return
+     */
+    public Put build() {
+        if (rowLength == 0) {
+            throw new IllegalStateException("行健不能为空");
+        }
+        Put put = new Put(scratch, 0, rowLength, timestamp);
+        NavigableMap<byte[], List<Cell>> familyMap = put.getFamilyCellMap();
+        for (int i = 0; i < cells.size(); i++) {
+            byte[] family = families.get(i);
+            List<Cell> list = familyMap.get(family);
+            if (list == null) {
+                list = new ArrayList<Cell>();
+                familyMap.put(family, list);
+            }
+            list.add(cells.get(i));
+        }
+        cells.clear();
+        families.clear();
+        rowLength = 0;
+        timestamp = HConstants.LATEST_TIMESTAMP;
+        return put;
+    }
+
+    /**
+     * 归还缓冲区，之后不能再使用
+     */
+    @Override
+    public void close() {
+        if (scratch != null) {
+            pool.release(scratch);
+            scratch = null;
+        }
+    }
+
+    private void checkRowOpen() {
+        if (!cells.isEmpty()) {
+            throw new IllegalStateException("已经添加了列，不能再修改行健");
+        }
+    }
+
+    /**
+     * 把UTF-8编码写到scratch的offset处
+     *
+     * @return 写入后的位置
+     */
+    private int writeUtf8(int offset, CharSequence value) {
+        int length = value.length();
+        // 每个char最多3个字节，代理对两个char共4个字节
+        ensure(offset, length * 3);
+        int p = offset;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                scratch[p++] = (byte) c;
+            } else if (c < 0x800) {
+                scratch[p++] = (byte) (0xC0 | (c >> 6));
+                scratch[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                scratch[p++] = (byte) (0xF0 | (cp >> 18));
+                scratch[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                scratch[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                scratch[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // 不成对的代理字符与String.getBytes一样替换为'?'
+                scratch[p++] = '?';
+            } else {
+                scratch[p++] = (byte) (0xE0 | (c >> 12));
+                scratch[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                scratch[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    private int writeBuffer(int offset, ByteBuffer value) {
+        int length = value.remaining();
+        ensure(offset, length);
+        int position = value.position();
+        value.get(scratch, offset, length);
+        value.position(position);
+        return offset + length;
+    }
+
+    /**
+     * 保证scratch从offset开始还有length字节，不够时换一个更大的缓冲区并保留已写入的内容
+     */
+    private void ensure(int offset, int length) {
+        if (offset + length <= scratch.length) {
+            return;
+        }
+        byte[] larger = pool.acquire(Math.max(scratch.length * 2, offset + length));
+        System.arraycopy(scratch, 0, larger, 0, offset);
+        pool.release(scratch);
+        scratch = larger;
+    }
+}
@@ -0,0 +1,565 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.ClusterStatus;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLoad;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * region拆分建议
+ * 建表时只能用固定的SPLIT_KEYS预分区，运行一段时间后常出现少数几个很大或很忙的region，限制了扫描并行度和写入吞吐。
+ * 这个工具读取表的每个region的大小和请求数，按大小或按负载找出需要拆分的region，抽样region中的行健后按分位数给出拆分点；
+ * 开启merges后对相邻的小region给出合并建议，取不到负载信息的region不参与合并。
+ * <p>
+ * analyze只生成计划，不修改表，计划的toString即为预演报告；apply按计划逐步执行，每一步等待完成并间隔一段时间，避免集群同时大量拆分和compaction。
+ * <pre>
+ * RegionSplitAdvisor advisor = new RegionSplitAdvisor("tabletest").balanceBy(RegionSplitAdvisor.Balance.SIZE).targetRegionMB(4096);
+ * RegionSplitAdvisor.Plan plan = advisor.analyze();
+ * logger.info(plan.toString());
+ * advisor.apply(plan);
+ * </pre>
+ * 注意：按负载拆分时假设region内的请求与行数成正比；请求数是region打开以来的累计值，设置loadWindowMs后取时间窗口内的增量
+ */
+public class RegionSplitAdvisor {
+    private static final Logger logger = LoggerFactory.getLogger(RegionSplitAdvisor.class);
+
+    /**
+     * 均衡依据
+     */
+    public enum Balance {
+        /**
+         * 按region存储大小
+         */
+        SIZE,
+        /**
+         * 按region读写请求数
+         */
+        LOAD
+    }
+
+    private final String tableName;
+    private Balance balance = Balance.SIZE;
+    private long targetRegionMB = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "splitAdvisor.targetRegionMB", 10240);
+    private double loadFactor = PropertiesUtil.getDouble(PropertiesUtil.CLIENT, "splitAdvisor.loadFactor", 2.0);
+    private long loadWindowMs = 0;
+    private int maxPiecesPerRegion = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "splitAdvisor.maxPiecesPerRegion", 8);
+    private float sampleChance = (float) PropertiesUtil.getDouble(PropertiesUtil.CLIENT, "splitAdvisor.sampleChance", 0.001);
+    private boolean merges = PropertiesUtil.getBoolean(PropertiesUtil.CLIENT, "splitAdvisor.merges", false);
+    private long stepIntervalMs = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "splitAdvisor.stepIntervalMs", 60 * 1000L);
+    private long stepTimeoutMs = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "splitAdvisor.stepTimeoutMs", 10 * 60 * 1000L);
+
+    public RegionSplitAdvisor(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * 均衡依据，默认按大小
+     */
+    public RegionSplitAdvisor balanceBy(Balance balance) {
+        this.balance = balance;
+        return this;
+    }
+
+    /**
+     * 按大小均衡时每个region的目标大小（MB），超过的region拆成若干份，合并后的region不超过一半
+     */
+    public RegionSplitAdvisor targetRegionMB(long targetRegionMB) {
+        this.targetRegionMB = targetRegionMB;
+        return this;
+    }
+
+    /**
+     * 按负载均衡时，请求数超过平均值这么多倍的region需要拆分，默认2
+     */
+    public RegionSplitAdvisor loadFactor(double loadFactor) {
+        this.loadFactor = loadFactor;
+        return this;
+    }
+
+    /**
+     * 负载统计窗口（毫秒），大于0时间隔这么久取两次请求数做差，默认0使用累计值
+     */
+    public RegionSplitAdvisor loadWindowMs(long loadWindowMs) {
+        this.loadWindowMs = loadWindowMs;
+        return this;
+    }
+
+    /**
+     * 单个region最多拆成几份，默认8
+     */
+    public RegionSplitAdvisor maxPiecesPerRegion(int maxPiecesPerRegion) {
+        this.maxPiecesPerRegion = maxPiecesPerRegion;
+        return this;
+    }
+
+    /**
+     * 抽样行健的比例，默认0.001；抽样需要扫描整个region的行健
+     */
+    public RegionSplitAdvisor sampleChance(float sampleChance) {
+        this.sampleChance = sampleChance;
+        return this;
+    }
+
+    /**
+     * 是否给出合并建议，默认false；合并后不能撤销，需要时显式开启
+     */
+    public RegionSplitAdvisor merges(boolean merges) {
+        this.merges = merges;
+        return this;
+    }
+
+    /**
+     * 执行时每一步之间的间隔（毫秒），默认60秒
+     */
+    public RegionSplitAdvisor stepIntervalMs(long stepIntervalMs) {
+        this.stepIntervalMs = stepIntervalMs;
+        return this;
+    }
+
+    /**
+     * 执行时每一步等待完成的最长时间（毫秒），默认10分钟
+     */
+    public RegionSplitAdvisor stepTimeoutMs(long stepTimeoutMs) {
+        this.stepTimeoutMs = stepTimeoutMs;
+        return this;
+    }
+
+    /**
+     * 分析表的region分布，生成拆分、合并计划，不修改表
+     *
+     * @return 计划
+     * @throws IOException
+     */
+    public Plan analyze() throws IOException {
+        Connection connection = HBaseUtil.getConn();
+        List<RegionStat> regions = loadRegions(connection);
+        if (loadWindowMs > 0) {
+            Map<String, RegionStat> before = new TreeMap<String, RegionStat>();
+            for (RegionStat stat : regions) {
+                before.put(stat.encodedName, stat);
+            }
+            try {
+                Thread.sleep(loadWindowMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("统计负载时被中断");
+            }
+            regions = loadRegions(connection);
+            for (RegionStat stat : regions) {
+                RegionStat old = before.get(stat.encodedName);
+                if (old != null && old.loaded) {
+                    stat.readRequests -= old.readRequests;
+                    stat.writeRequests -= old.writeRequests;
+                } else {
+                    // 窗口开始时没有负载信息，取不到增量
+                    stat.loaded = false;
+                    stat.readRequests = 0;
+                    stat.writeRequests = 0;
+                }
+            }
+        }
+
+        Plan plan = new Plan(tableName, balance, regions);
+        long totalLoad = 0;
+        int loaded = 0;
+        for (RegionStat stat : regions) {
+            if (stat.loaded) {
+                totalLoad += stat.getRequests();
+                loaded++;
+            }
+        }
+        double meanLoad = loaded == 0 ? 0 : (double) totalLoad / loaded;
+
+        Table table = connection.getTable(TableName.valueOf(tableName));
+        try {
+            for (RegionStat stat : regions) {
+                int pieces;
+                if (balance == Balance.SIZE) {
+                    pieces = (int) Math.ceil((double) stat.sizeMB / targetRegionMB);
+                } else {
+                    pieces = meanLoad > 0 && stat.getRequests() > meanLoad * loadFactor
+                            ? (int) Math.ceil(stat.getRequests() / meanLoad) : 1;
+                }
+                pieces = Math.min(pieces, maxPiecesPerRegion);
+                if (pieces < 2) {
+                    continue;
+                }
+                List<byte[]> points = splitPoints(table, stat, pieces);
+                String reason = balance == Balance.SIZE
+                        ? "大小" + stat.sizeMB + "MB，目标" + targetRegionMB + "MB"
+                        : "请求数" + stat.getRequests() + "，平均" + Math.round(meanLoad);
+                if (points.isEmpty()) {
+                    // 抽样不到足够的行健时交给服务端按最大存储文件的中间行健拆分
+                    plan.actions.add(Action.split(stat, null, reason + "，抽样不足，由服务端选择拆分点"));
+                } else {
+                    for (byte[] point : points) {
+                        plan.actions.add(Action.split(stat, point, reason + "，拆成" + pieces + "份"));
+                    }
+                }
+                stat.splitting = true;
+            }
+        } finally {
+            table.close();
+        }
+
+        if (merges) {
+            long mergeLimitMB = targetRegionMB / 2;
+            for (int i = 0; i + 1 < regions.size(); i++) {
+                RegionStat a = regions.get(i);
+                RegionStat b = regions.get(i + 1);
+                // 没有取到RegionLoad（正在迁移、刚上线等）的region大小未知，不能按0参与合并
+                if (!a.loaded || !b.loaded || a.splitting || b.splitting || a.sizeMB + b.sizeMB >= mergeLimitMB) {
+                    continue;
+                }
+                if (balance == Balance.LOAD && a.getRequests() + b.getRequests() > meanLoad) {
+                    continue;
+                }
+                plan.actions.add(Action.merge(a, b, "合并后" + (a.sizeMB + b.sizeMB) + "MB"));
+                // 每个region只参与一次合并
+                i++;
+            }
+        }
+        return plan;
+    }
+
+    private List<RegionStat> loadRegions(Connection connection) throws IOException {
+        Admin admin = connection.getAdmin();
+        try {
+            Map<byte[], RegionLoad> loads = new TreeMap<byte[], RegionLoad>(Bytes.BYTES_COMPARATOR);
+            ClusterStatus status = admin.getClusterStatus();
+            for (ServerName server : status.getServers()) {
+                loads.putAll(status.getLoad(server).getRegionsLoad());
+            }
+            List<RegionStat> regions = new ArrayList<RegionStat>();
+            for (HRegionInfo info : admin.getTableRegions(TableName.valueOf(tableName))) {
+                if (info.isOffline() || info.isSplitParent()) {
+                    continue;
+                }
+                RegionStat stat = new RegionStat(info);
+                RegionLoad load = loads.get(info.getRegionName());
+                if (load != null) {
+                    stat.loaded = true;
+                    stat.sizeMB = load.getStorefileSizeMB() + load.getMemStoreSizeMB();
+                    stat.readRequests = load.getReadRequestsCount();
+                    stat.writeRequests = load.getWriteRequestsCount();
+                }
+                regions.add(stat);
+            }
+            Collections.sort(regions);
+            return regions;
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * 抽样region中的行健，按分位数取pieces-1个拆分点
+     */
+    private List<byte[]> splitPoints(Table table, RegionStat stat, int pieces) throws IOException {
+        Scan scan = new Scan(stat.startKey, stat.endKey);
+        scan.setFilter(new FilterList(new FirstKeyOnlyFilter(), new KeyOnlyFilter(), new RandomRowFilter(sampleChance)));
+        scan.setCacheBlocks(false);
+        scan.setCaching(1000);
+        List<byte[]> samples = new ArrayList<byte[]>();
+        ResultScanner scanner = table.getScanner(scan);
+        try {
+            for (Result result : scanner) {
+                samples.add(result.getRow());
+            }
+        } finally {
+            scanner.close();
+        }
+        List<byte[]> points = new ArrayList<byte[]>();
+        if (samples.size() < pieces * 2) {
+            return points;
+        }
+        // 扫描结果已按行健排序
+        for (int i = 1; i < pieces; i++) {
+            byte[] point = samples.get(i * samples.size() / pieces);
+            if (points.isEmpty() || Bytes.compareTo(points.get(points.size() - 1), point) < 0) {
+                points.add(point);
+            }
+        }
+        logger.debug("region:{}抽样{}个行健，拆分点{}个", stat.encodedName, samples.size(), points.size());
+        return points;
+    }
+
+    /**
+     * 按计划逐步执行拆分和合并
+     *
+     * @param plan 计划
+     * @return 成功执行的步数
+     * @throws IOException
+     */
+    public int apply(Plan plan) throws IOException {
+        Connection connection = HBaseUtil.getConn();
+        Admin admin = connection.getAdmin();
+        RegionLocator locator = connection.getRegionLocator(TableName.valueOf(tableName));
+        int done = 0;
+        try {
+            for (Action action : plan.actions) {
+                if (done > 0) {
+                    sleep(stepIntervalMs);
+                }
+                logger.info("表:{}执行第{}/{}步:{}", tableName, done + 1, plan.actions.size(), action);
+                boolean ok = action.type == Action.Type.SPLIT
+                        ? split(admin, locator, action) : merge(admin, locator, action);
+                if (ok) {
+                    done++;
+                    ClientMetrics.incr("splitAdvisor." + tableName + "." + action.type.name().toLowerCase(), 1);
+                } else {
+                    logger.warn("表:{}第{}步在{}毫秒内未完成，停止执行剩余步骤", tableName, done + 1, stepTimeoutMs);
+                    break;
+                }
+            }
+        } finally {
+            locator.close();
+            admin.close();
+        }
+        logger.info("表:{}共执行{}/{}步", tableName, done, plan.actions.size());
+        return done;
+    }
+
+    private boolean split(Admin admin, RegionLocator locator, Action action) throws IOException {
+        if (action.splitPoint == null) {
+            HRegionLocation location = locator.getRegionLocation(action.regions.get(0).startKey, true);
+            byte[] oldEnd = location.getRegionInfo().getEndKey();
+            admin.splitRegion(location.getRegionInfo().getRegionName());
+            long deadline = System.currentTimeMillis() + stepTimeoutMs;
+            while (System.currentTimeMillis() < deadline) {
+                sleep(1000);
+                HRegionInfo info = locator.getRegionLocation(action.regions.get(0).startKey, true).getRegionInfo();
+                if (!Bytes.equals(info.getEndKey(), oldEnd)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // 前面的拆分可能已经改变了region边界，按拆分点重新定位所在region
+        HRegionLocation location = locator.getRegionLocation(action.splitPoint, true);
+        if (Bytes.equals(location.getRegionInfo().getStartKey(), action.splitPoint)) {
+            return true;
+        }
+        admin.splitRegion(location.getRegionInfo().getRegionName(), action.splitPoint);
+        long deadline = System.currentTimeMillis() + stepTimeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            sleep(1000);
+            if (Bytes.equals(locator.getRegionLocation(action.splitPoint, true).getRegionInfo().getStartKey(), action.splitPoint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean merge(Admin admin, RegionLocator locator, Action action) throws IOException {
+        RegionStat a = action.regions.get(0);
+        RegionStat b = action.regions.get(1);
+        HRegionInfo current = locator.getRegionLocation(a.startKey, true).getRegionInfo();
+        if (!current.getEncodedName().equals(a.encodedName)) {
+            logger.warn("region:{}已经变化，跳过合并", a.encodedName);
+            return true;
+        }
+        admin.mergeRegions(Bytes.toBytes(a.encodedName), Bytes.toBytes(b.encodedName), false);
+        long deadline = System.currentTimeMillis() + stepTimeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            sleep(1000);
+            HRegionInfo info = locator.getRegionLocation(a.startKey, true).getRegionInfo();
+            if (Bytes.equals(info.getEndKey(), b.endKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("执行拆分计划时被中断");
+        }
+    }
+
+    /**
+     * 单个region的统计
+     */
+    public static class RegionStat implements Comparable<RegionStat> {
+        private final String encodedName;
+        private final byte[] startKey;
+        private final byte[] endKey;
+        private long sizeMB;
+        private long readRequests;
+        private long writeRequests;
+        private boolean loaded;
+        private boolean splitting;
+
+        RegionStat(HRegionInfo info) {
+            this.encodedName = info.getEncodedName();
+            this.startKey = info.getStartKey();
+            this.endKey = info.getEndKey();
+        }
+
+        public String getEncodedName() {
+            return encodedName;
+        }
+
+        public byte[] getStartKey() {
+            return startKey;
+        }
+
+        public byte[] getEndKey() {
+            return endKey;
+        }
+
+        /**
+         * 存储文件与memstore大小之和（MB）
+         */
+        public long getSizeMB() {
+            return sizeMB;
+        }
+
+        public long getRequests() {
+            return readRequests + writeRequests;
+        }
+
+        /**
+         * 是否取到了region的负载信息，没有时大小和请求数都是0
+         */
+        public boolean isLoaded() {
+            return loaded;
+        }
+
+        @Override
+        public int compareTo(RegionStat o) {
+            return Bytes.compareTo(startKey, o.startKey);
+        }
+
+        @Override
+        public String toString() {
+            String range = encodedName + "[" + Bytes.toStringBinary(startKey) + ", " + Bytes.toStringBinary(endKey) + ") ";
+            return loaded ? range + sizeMB + "MB 读" + readRequests + " 写" + writeRequests : range + "负载未知";
+        }
+    }
+
+    /**
+     * 计划中的一步
+     */
+    public static class Action {
+        public enum Type {
+            SPLIT, MERGE
+        }
+
+        private final Type type;
+        private final List<RegionStat> regions;
+        private final byte[] splitPoint;
+        private final String reason;
+
+        private Action(Type type, List<RegionStat> regions, byte[] splitPoint, String reason) {
+            this.type = type;
+            this.regions = regions;
+            this.splitPoint = splitPoint;
+            this.reason = reason;
+        }
+
+        static Action split(RegionStat region, byte[] splitPoint, String reason) {
+            return new Action(Type.SPLIT, Collections.singletonList(region), splitPoint, reason);
+        }
+
+        static Action merge(RegionStat a, RegionStat b, String reason) {
+            List<RegionStat> regions = new ArrayList<RegionStat>(2);
+            regions.add(a);
+            regions.add(b);
+            return new Action(Type.MERGE, regions, null, reason);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public List<RegionStat> getRegions() {
+            return regions;
+        }
+
+        /**
+         * 拆分点，为null时由服务端选择
+         */
+        public byte[] getSplitPoint() {
+            return splitPoint;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            if (type == Type.SPLIT) {
+                return "拆分" + regions.get(0).encodedName + "于"
+                        + (splitPoint == null ? "服务端中间行健" : Bytes.toStringBinary(splitPoint)) + "（" + reason + "）";
+            }
+            return "合并" + regions.get(0).encodedName + "和" + regions.get(1).encodedName + "（" + reason + "）";
+        }
+    }
+
+    /**
+     * 拆分、合并计划
+     */
+    public static class Plan {
+        private final String tableName;
+        private final Balance balance;
+        private final List<RegionStat> regions;
+        private final List<Action> actions = new ArrayList<Action>();
+
+        Plan(String tableName, Balance balance, List<RegionStat> regions) {
+            this.tableName = tableName;
+            this.balance = balance;
+            this.regions = regions;
+        }
+
+        public List<RegionStat> getRegions() {
+            return regions;
+        }
+
+        public List<Action> getActions() {
+            return actions;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("表:").append(tableName).append("按")
+                    .append(balance == Balance.SIZE ? "大小" : "负载").append("均衡，当前").append(regions.size())
+                    .append("个region，计划").append(actions.size()).append("步");
+            for (RegionStat stat : regions) {
+                sb.append("\n  ").append(stat);
+            }
+            for (Action action : actions) {
+                sb.append("\n  -> ").append(action);
+            }
+            return sb.toString();
+        }
+    }
+}
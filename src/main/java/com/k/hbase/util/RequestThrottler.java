@@ -0,0 +1,208 @@
+package com.k.hbase.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端请求限流
+ * 按表和操作类型（读、写、扫描）分别设置令牌桶，同一个JVM中的批量任务不会把集群和共享线程池占满，
+ * 在线请求的延迟可以预期。读按Get的行数计，写按Mutation的条数计，扫描按打开扫描器的次数计。
+ * <p>
+ * 配置在hbase-threadpool.properties中：
+ * <pre>
+ * throttle.enabled=true
+ * #超限时排队等待(queue)还是立即拒绝(reject)
+ * throttle.mode=queue
+ * #排队最长等待时间（毫秒），超过时拒绝
+ * throttle.maxWaitMs=1000
+ * #每张表的默认速率（每秒），0表示不限
+ * throttle.read.rate=0
+ * throttle.write.rate=0
+ * throttle.scan.rate=0
+ * #单独指定某张表的速率
+ * throttle.table.tabletest.write.rate=5000
+ * </pre>
+ * 排队按到达顺序依次获得令牌，被拒绝时抛出ThrottledException；速率可以在运行时通过setRate调整
+ */
+public class RequestThrottler {
+    private static final Logger logger = LoggerFactory.getLogger(RequestThrottler.class);
+
+    /**
+     * 操作类型
+     */
+    public enum OpClass {
+        READ, WRITE, SCAN;
+
+        String key() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * 超限处理方式
+     */
+    public enum Mode {
+        /**
+         * 排队等待，超过最长等待时间后拒绝
+         */
+        QUEUE,
+        /**
+         * 立即拒绝
+         */
+        REJECT
+    }
+
+    private static final RequestThrottler instance = new RequestThrottler();
+
+    private volatile boolean enabled;
+    private volatile Mode mode;
+    private volatile long maxWaitMs;
+    private final Map<OpClass, Double> defaultRates = new ConcurrentHashMap<OpClass, Double>();
+    // 运行时按表指定的速率，优先于配置文件
+    private final Map<String, Double> tableRates = new ConcurrentHashMap<String, Double>();
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    private RequestThrottler() {
+        String p = PropertiesUtil.THREAD_POOL;
+        enabled = PropertiesUtil.getBoolean(p, "throttle.enabled", false);
+        mode = "reject".equalsIgnoreCase(PropertiesUtil.getString(p, "throttle.mode", "queue")) ? Mode.REJECT : Mode.QUEUE;
+        maxWaitMs = PropertiesUtil.getLong(p, "throttle.maxWaitMs", 1000);
+        for (OpClass op : OpClass.values()) {
+            defaultRates.put(op, PropertiesUtil.getDouble(p, "throttle." + op.key() + ".rate", 0));
+        }
+    }
+
+    public static RequestThrottler getInstance() {
+        return instance;
+    }
+
+    /**
+     * 申请执行请求，限流关闭或未设置速率时立即返回
+     *
+     * @param tableName 表名
+     * @param op        操作类型
+     * @param permits   请求数（行数、条数）
+     * @throws ThrottledException 超限被拒绝
+     * @throws InterruptedIOException 排队时被中断
+     */
+    public static void acquire(String tableName, OpClass op, int permits) throws ThrottledException, InterruptedIOException {
+        if (instance.enabled && permits > 0) {
+            instance.doAcquire(tableName, op, permits);
+        }
+    }
+
+    private void doAcquire(String tableName, OpClass op, int permits) throws ThrottledException, InterruptedIOException {
+        TokenBucket bucket = bucket(tableName, op);
+        if (bucket == null) {
+            return;
+        }
+        String metric = "throttle." + tableName + "." + op.key();
+        long waited;
+        try {
+            waited = bucket.tryAcquire(permits, mode == Mode.REJECT ? 0 : maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("表:" + tableName + "的" + op + "请求排队时被中断");
+        }
+        if (waited < 0) {
+            ClientMetrics.incr(metric + ".rejected", permits);
+            throw new ThrottledException("表:" + tableName + "的" + op + "请求超过限流速率" + bucket.getRate() + "/s");
+        }
+        if (waited > 0) {
+            ClientMetrics.incr(metric + ".throttled", permits);
+            ClientMetrics.incr(metric + ".throttledMicros", waited / 1000);
+        }
+    }
+
+    private TokenBucket bucket(String tableName, OpClass op) {
+        String key = tableName + "." + op.key();
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            // 不限流的表也放一个桶，之后调整速率时可以直接生效
+            TokenBucket created = new TokenBucket(rateOf(tableName, op));
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket.getRate() > 0 ? bucket : null;
+    }
+
+    private double rateOf(String tableName, OpClass op) {
+        Double rate = tableRates.get(tableName + "." + op.key());
+        if (rate != null) {
+            return rate;
+        }
+        double configured = PropertiesUtil.getDouble(PropertiesUtil.THREAD_POOL,
+                "throttle.table." + tableName + "." + op.key() + ".rate", -1);
+        return configured >= 0 ? configured : defaultRates.get(op);
+    }
+
+    /**
+     * 运行时调整某张表的速率
+     *
+     * @param tableName 表名
+     * @param op        操作类型
+     * @param rate      每秒请求数，小于等于0表示不限
+     */
+    public void setRate(String tableName, OpClass op, double rate) {
+        String key = tableName + "." + op.key();
+        tableRates.put(key, rate);
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.setRate(rate);
+        }
+        logger.info("表:{}的{}限流速率调整为{}/s", tableName, op, rate);
+    }
+
+    /**
+     * 运行时调整默认速率，已单独指定速率的表不受影响
+     *
+     * @param op   操作类型
+     * @param rate 每秒请求数，小于等于0表示不限
+     */
+    public void setDefaultRate(OpClass op, double rate) {
+        defaultRates.put(op, rate);
+        for (Map.Entry<String, TokenBucket> entry : buckets.entrySet()) {
+            String key = entry.getKey();
+            if (!key.endsWith("." + op.key())) {
+                continue;
+            }
+            String tableName = key.substring(0, key.length() - op.key().length() - 1);
+            entry.getValue().setRate(rateOf(tableName, op));
+        }
+        logger.info("{}默认限流速率调整为{}/s", op, rate);
+    }
+
+    public double getRate(String tableName, OpClass op) {
+        return rateOf(tableName, op);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 排队模式下的最长等待时间（毫秒）
+     */
+    public void setMaxWaitMs(long maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+    }
+}
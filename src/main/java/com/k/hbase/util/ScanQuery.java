@@ -0,0 +1,491 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 类型化的扫描条件，构建后不可变
+ * build时把投影列、时间区间、版本数、过滤器、caching等编译成一个原型Scan，
+ * 之后每次newScan只复制原型并设置行健区间，同一个ScanQuery可以在多个线程、多次调用间复用。
+ * 多个过滤器会组合成一个FilterList（默认MUST_PASS_ALL），不会互相覆盖。
+ * <pre>
+ * ScanQuery query = ScanQuery.builder()
+ *         .addColumn("cfs1", "content")
+ *         .timeRange(begin, end)
+ *         .addFilter(new PrefixFilter(prefix))
+ *         .caching(500)
+ *         .build();
+ * ResultScanner scanner = HBaseUtil.getScan("tabletest", query, startRow, stopRow);
+ * </pre>
+ */
+public final class ScanQuery {
+
+    /**
+     * 不经过HBaseUtil.getScan使用时（例如ParallelScanner）自适应caching对应的固定值
+     */
+    public static final int DEFAULT_CACHING = 1000;
+
+    /**
+     * 自适应caching，HBaseUtil.getScan按ScanTuner的学习结果设置caching和maxResultSize
+     */
+    public static final int ADAPTIVE_CACHING = -1;
+
+    private final List<byte[][]> columns;
+    private final List<byte[]> families;
+    private final long minStamp;
+    private final long maxStamp;
+    private final long timestamp;
+    private final int maxVersions;
+    private final List<Filter> filters;
+    private final FilterList.Operator filterOperator;
+    private final int caching;
+    private final long maxResultSize;
+    private final boolean cacheBlocks;
+    private final int batch;
+    private final boolean reversed;
+    private final byte[] startRow;
+    private final byte[] stopRow;
+
+    // 编译好的原型，不对外暴露，只复制使用
+    private final Scan prototype;
+
+    private ScanQuery(Builder builder) {
+        this.columns = Collections.unmodifiableList(new ArrayList<byte[][]>(builder.columns));
+        this.families = Collections.unmodifiableList(new ArrayList<byte[]>(builder.families));
+        this.minStamp = builder.minStamp;
+        this.maxStamp = builder.maxStamp;
+        this.timestamp = builder.timestamp;
+        this.maxVersions = builder.maxVersions;
+        this.filters = Collections.unmodifiableList(new ArrayList<Filter>(builder.filters));
+        this.filterOperator = builder.filterOperator;
+        this.caching = builder.caching;
+        this.maxResultSize = builder.maxResultSize;
+        this.cacheBlocks = builder.cacheBlocks;
+        this.batch = builder.batch;
+        this.reversed = builder.reversed;
+        this.startRow = builder.startRow;
+        this.stopRow = builder.stopRow;
+        this.prototype = compile();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 以当前条件为基础创建新的构建器
+     *
+     * @return
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.columns.addAll(columns);
+        builder.families.addAll(families);
+        builder.minStamp = minStamp;
+        builder.maxStamp = maxStamp;
+        builder.timestamp = timestamp;
+        builder.maxVersions = maxVersions;
+        builder.filters.addAll(filters);
+        builder.filterOperator = filterOperator;
+        builder.caching = caching;
+        builder.maxResultSize = maxResultSize;
+        builder.cacheBlocks = cacheBlocks;
+        builder.batch = batch;
+        builder.reversed = reversed;
+        builder.startRow = startRow;
+        builder.stopRow = stopRow;
+        return builder;
+    }
+
+    private Scan compile() {
+        Scan scan = new Scan();
+        for (byte[][] column : columns) {
+            scan.addColumn(column[0], column[1]);
+        }
+        for (byte[] family : families) {
+            scan.addFamily(family);
+        }
+        try {
+            if (timestamp >= 0) {
+                scan.setTimeStamp(timestamp);
+            } else if (minStamp > 0 || maxStamp != Long.MAX_VALUE) {
+                scan.setTimeRange(minStamp, maxStamp);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("时间区间不合法", e);
+        }
+        if (maxVersions == Integer.MAX_VALUE) {
+            scan.setMaxVersions();
+        } else if (maxVersions > 0) {
+            scan.setMaxVersions(maxVersions);
+        }
+        Filter filter = combinedFilter();
+        if (filter != null) {
+            scan.setFilter(filter);
+        }
+        if (caching > 0) {
+            scan.setCaching(caching);
+        } else if (caching == ADAPTIVE_CACHING) {
+            scan.setCaching(DEFAULT_CACHING);
+        }
+        if (maxResultSize > 0) {
+            scan.setMaxResultSize(maxResultSize);
+        }
+        scan.setCacheBlocks(cacheBlocks);
+        if (batch > 0) {
+            scan.setBatch(batch);
+        }
+        scan.setReversed(reversed);
+        if (startRow != null) {
+            scan.setStartRow(startRow);
+        }
+        if (stopRow != null) {
+            scan.setStopRow(stopRow);
+        }
+        return scan;
+    }
+
+    /**
+     * 组合后的过滤器，没有过滤器时返回null
+     *
+     * @return
+     */
+    public Filter combinedFilter() {
+        if (filters.isEmpty()) {
+            return null;
+        }
+        if (filters.size() == 1) {
+            return filters.get(0);
+        }
+        return new FilterList(filterOperator, new ArrayList<Filter>(filters));
+    }
+
+    /**
+     * 使用构建时指定的行健区间创建扫描器参数
+     *
+     * @return
+     */
+    public Scan newScan() {
+        try {
+            return new Scan(prototype);
+        } catch (IOException e) {
+            throw new IllegalStateException("复制Scan失败", e);
+        }
+    }
+
+    /**
+     * 使用指定的行健区间创建扫描器参数
+     *
+     * @param startRow 起始行健，为null时使用构建时指定的值
+     * @param stopRow  结束行健，为null时使用构建时指定的值
+     * @return
+     */
+    public Scan newScan(byte[] startRow, byte[] stopRow) {
+        Scan scan = newScan();
+        if (startRow != null) {
+            scan.setStartRow(startRow);
+        }
+        if (stopRow != null) {
+            scan.setStopRow(stopRow);
+        }
+        return scan;
+    }
+
+    /**
+     * 解析旧版getScan的参数表，参数含义见HBaseUtil.getScan
+     *
+     * @param paramHashMap 参数表
+     * @return 不含过滤器的扫描条件
+     */
+    public static ScanQuery fromParams(HashMap<String, List<String>> paramHashMap) {
+        Builder builder = builder();
+        if (paramHashMap == null) {
+            return builder.build();
+        }
+        if (paramHashMap.containsKey("column")) {
+            for (String s : paramHashMap.get("column")) {
+                String[] parts = s.split("-");
+                builder.addColumn(Bytes.toBytes(parts[0]), Bytes.toBytes(parts[1]));
+            }
+        }
+        if (paramHashMap.containsKey("timeRange")) {
+            String[] parts = paramHashMap.get("timeRange").get(0).split("-");
+            builder.timeRange(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        }
+        if (paramHashMap.containsKey("timestamp")) {
+            builder.timestamp(Long.parseLong(paramHashMap.get("timestamp").get(0)));
+        }
+        if (paramHashMap.containsKey("version")) {
+            builder.maxVersions(Integer.parseInt(paramHashMap.get("version").get(0)));
+        }
+        if (paramHashMap.containsKey("startRow")) {
+            builder.startRow(Bytes.toBytes(paramHashMap.get("startRow").get(0)));
+        }
+        if (paramHashMap.containsKey("stopRow")) {
+            builder.stopRow(Bytes.toBytes(paramHashMap.get("stopRow").get(0)));
+        }
+        if (paramHashMap.containsKey("Families")) {
+            for (String s : paramHashMap.get("Families")) {
+                builder.addFamily(Bytes.toBytes(s));
+            }
+        }
+        return builder.build();
+    }
+
+    public List<byte[][]> getColumns() {
+        return columns;
+    }
+
+    public List<byte[]> getFamilies() {
+        return families;
+    }
+
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    public int getCaching() {
+        return caching;
+    }
+
+    /**
+     * 是否使用自适应caching：没有指定caching和maxResultSize，并且开启了scanTuner.enabled
+     */
+    public boolean isAdaptiveCaching() {
+        return caching == ADAPTIVE_CACHING && maxResultSize <= 0 && ScanTuner.isEnabled();
+    }
+
+    public long getMaxResultSize() {
+        return maxResultSize;
+    }
+
+    public int getBatch() {
+        return batch;
+    }
+
+    public boolean isReversed() {
+        return reversed;
+    }
+
+    public byte[] getStartRow() {
+        return startRow;
+    }
+
+    public byte[] getStopRow() {
+        return stopRow;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ScanQuery{");
+        if (!columns.isEmpty()) {
+            sb.append("columns=[");
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(Bytes.toStringBinary(columns.get(i)[0])).append(':').append(Bytes.toStringBinary(columns.get(i)[1]));
+            }
+            sb.append("] ");
+        }
+        if (!families.isEmpty()) {
+            sb.append("families=[");
+            for (int i = 0; i < families.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(Bytes.toStringBinary(families.get(i)));
+            }
+            sb.append("] ");
+        }
+        if (timestamp >= 0) {
+            sb.append("timestamp=").append(timestamp).append(' ');
+        } else if (minStamp > 0 || maxStamp != Long.MAX_VALUE) {
+            sb.append("timeRange=[").append(minStamp).append(',').append(maxStamp).append(") ");
+        }
+        if (!filters.isEmpty()) {
+            sb.append("filter=").append(combinedFilter()).append(' ');
+        }
+        sb.append("caching=").append(caching == ADAPTIVE_CACHING ? "adaptive" : String.valueOf(caching));
+        if (maxResultSize > 0) {
+            sb.append(" maxResultSize=").append(maxResultSize);
+        }
+        if (reversed) {
+            sb.append(" reversed");
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 扫描条件构建器，非线程安全
+     */
+    public static final class Builder {
+        private final List<byte[][]> columns = new ArrayList<byte[][]>();
+        private final List<byte[]> families = new ArrayList<byte[]>();
+        private long minStamp = 0;
+        private long maxStamp = Long.MAX_VALUE;
+        private long timestamp = -1;
+        private int maxVersions = 0;
+        private final List<Filter> filters = new ArrayList<Filter>();
+        private FilterList.Operator filterOperator = FilterList.Operator.MUST_PASS_ALL;
+        private int caching = ADAPTIVE_CACHING;
+        private long maxResultSize = 0;
+        private boolean cacheBlocks = true;
+        private int batch = 0;
+        private boolean reversed = false;
+        private byte[] startRow;
+        private byte[] stopRow;
+
+        private Builder() {
+        }
+
+        /**
+         * 只返回指定列
+         */
+        public Builder addColumn(byte[] family, byte[] qualifier) {
+            columns.add(new byte[][]{family, qualifier});
+            return this;
+        }
+
+        public Builder addColumn(String family, String qualifier) {
+            return addColumn(Bytes.toBytes(family), Bytes.toBytes(qualifier));
+        }
+
+        /**
+         * 只返回指定列簇
+         */
+        public Builder addFamily(byte[] family) {
+            families.add(family);
+            return this;
+        }
+
+        public Builder addFamily(String family) {
+            return addFamily(Bytes.toBytes(family));
+        }
+
+        /**
+         * 时间区间[minStamp, maxStamp)
+         */
+        public Builder timeRange(long minStamp, long maxStamp) {
+            if (minStamp < 0 || maxStamp < minStamp) {
+                throw new IllegalArgumentException("时间区间不合法: [" + minStamp + ", " + maxStamp + ")");
+            }
+            this.minStamp = minStamp;
+            this.maxStamp = maxStamp;
+            this.timestamp = -1;
+            return this;
+        }
+
+        /**
+         * 只返回指定时间戳的版本
+         */
+        public Builder timestamp(long timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        /**
+         * 返回的最大版本数，Integer.MAX_VALUE表示所有版本
+         */
+        public Builder maxVersions(int maxVersions) {
+            this.maxVersions = maxVersions;
+            return this;
+        }
+
+        /**
+         * 追加过滤器，多个过滤器按filterOperator组合
+         */
+        public Builder addFilter(Filter filter) {
+            if (filter != null) {
+                filters.add(filter);
+            }
+            return this;
+        }
+
+        public Builder addFilters(Filter... filters) {
+            if (filters != null) {
+                for (Filter filter : filters) {
+                    addFilter(filter);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 多个过滤器的组合方式，默认MUST_PASS_ALL
+         */
+        public Builder filterOperator(FilterList.Operator filterOperator) {
+            this.filterOperator = filterOperator;
+            return this;
+        }
+
+        /**
+         * 每次RPC返回的行数，默认ADAPTIVE_CACHING，由HBaseUtil.getScan按行大小和RPC耗时自动调整
+         */
+        public Builder caching(int caching) {
+            this.caching = caching;
+            return this;
+        }
+
+        /**
+         * 每次RPC返回的最大字节数，0表示使用集群配置
+         */
+        public Builder maxResultSize(long maxResultSize) {
+            this.maxResultSize = maxResultSize;
+            return this;
+        }
+
+        /**
+         * 是否把扫描到的数据块放进BlockCache，大范围扫描建议关闭
+         */
+        public Builder cacheBlocks(boolean cacheBlocks) {
+            this.cacheBlocks = cacheBlocks;
+            return this;
+        }
+
+        /**
+         * 每个Result最多返回的列数，0表示不拆分行
+         */
+        public Builder batch(int batch) {
+            this.batch = batch;
+            return this;
+        }
+
+        /**
+         * 反向扫描
+         */
+        public Builder reversed(boolean reversed) {
+            this.reversed = reversed;
+            return this;
+        }
+
+        /**
+         * 默认起始行健（包含），newScan(startRow, stopRow)可以覆盖
+         */
+        public Builder startRow(byte[] startRow) {
+            this.startRow = startRow == null ? null : Arrays.copyOf(startRow, startRow.length);
+            return this;
+        }
+
+        /**
+         * 默认结束行健（不包含），newScan(startRow, stopRow)可以覆盖
+         */
+        public Builder stopRow(byte[] stopRow) {
+            this.stopRow = stopRow == null ? null : Arrays.copyOf(stopRow, stopRow.length);
+            return this;
+        }
+
+        public ScanQuery build() {
+            return new ScanQuery(this);
+        }
+    }
+}
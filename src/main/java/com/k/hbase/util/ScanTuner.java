@@ -0,0 +1,169 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+
+/**
+ * 自适应的扫描caching和maxResultSize
+ * 按“表名+投影列”记住每行的平均字节数和每次RPC的吞吐量，据此计算caching：
+ * 每次RPC返回的字节数接近scanTuner.targetBatchBytes，耗时不超过scanTuner.targetRpcMs，
+ * 同时把maxResultSize设为scanTuner.targetBatchBytes，行很大时服务端提前返回，不会因为caching过大超时或占满内存。
+ * <p>
+ * 没有学习结果时先用scanTuner.probeCaching做一次试探（见AdaptiveResultScanner），第一批数据返回后计算出合适的值；
+ * 之后每次扫描结束都用实测值按scanTuner.smoothing平滑更新。只有ScanQuery没有指定caching时才使用自适应的值。
+ */
+public final class ScanTuner {
+    private static final Logger logger = LoggerFactory.getLogger(ScanTuner.class);
+
+    private static final boolean enabled = PropertiesUtil.getBoolean(PropertiesUtil.CLIENT, "scanTuner.enabled", true);
+    private static final long targetBatchBytes = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "scanTuner.targetBatchBytes", 2 * 1024 * 1024);
+    private static final long targetRpcMs = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "scanTuner.targetRpcMs", 100);
+    private static final int probeCaching = Math.max(1, PropertiesUtil.getInt(PropertiesUtil.CLIENT, "scanTuner.probeCaching", 100));
+    private static final int minCaching = Math.max(1, PropertiesUtil.getInt(PropertiesUtil.CLIENT, "scanTuner.minCaching", 1));
+    private static final int maxCaching = Math.max(minCaching, PropertiesUtil.getInt(PropertiesUtil.CLIENT, "scanTuner.maxCaching", 10000));
+    private static final double smoothing = PropertiesUtil.getDouble(PropertiesUtil.CLIENT, "scanTuner.smoothing", 0.3);
+    private static final int maxProfiles = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "scanTuner.maxProfiles", 1024);
+
+    private static final Map<String, Profile> profiles = Collections.synchronizedMap(new LinkedHashMap<String, Profile>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Profile> eldest) {
+            return size() > maxProfiles;
+        }
+    });
+
+    static {
+        ClientMetrics.registerGauge("scanTuner.profiles", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return profiles.size();
+            }
+        });
+    }
+
+    private ScanTuner() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 按学习结果设置caching和maxResultSize
+     *
+     * @param tableName 表名
+     * @param scan      扫描
+     * @return 已有学习结果时返回true；否则设置为试探用的caching并返回false
+     */
+    public static boolean apply(String tableName, Scan scan) {
+        Profile profile = profiles.get(key(tableName, scan));
+        scan.setMaxResultSize(targetBatchBytes);
+        if (profile == null) {
+            scan.setCaching(probeCaching);
+            return false;
+        }
+        scan.setCaching(profile.caching);
+        return true;
+    }
+
+    /**
+     * 记录一次实测结果
+     *
+     * @param tableName 表名
+     * @param scan      扫描
+     * @param rows      返回的行数
+     * @param bytes     返回的字节数
+     * @param rpcs      RPC次数，至少为1
+     * @param rpcNanos  等待RPC的总时间（纳秒）
+     * @return 更新后的caching
+     */
+    public static int observe(String tableName, Scan scan, long rows, long bytes, long rpcs, long rpcNanos) {
+        String key = key(tableName, scan);
+        if (rows <= 0) {
+            Profile profile = profiles.get(key);
+            return profile == null ? probeCaching : profile.caching;
+        }
+        double rowBytes = Math.max(1.0, (double) bytes / rows);
+        // 不到1毫秒按1毫秒算，避免本地扫描时吞吐量被高估
+        double bytesPerMs = Math.max(bytes, 1) / Math.max(rpcNanos / 1e6, Math.max(rpcs, 1));
+        Profile profile;
+        synchronized (profiles) {
+            Profile old = profiles.get(key);
+            if (old != null) {
+                rowBytes = old.rowBytes + smoothing * (rowBytes - old.rowBytes);
+                bytesPerMs = old.bytesPerMs + smoothing * (bytesPerMs - old.bytesPerMs);
+            }
+            profile = new Profile(rowBytes, bytesPerMs, caching(rowBytes, bytesPerMs));
+            profiles.put(key, profile);
+            if (old == null || old.caching != profile.caching) {
+                logger.debug("扫描参数{}: 平均行大小{}字节, 吞吐量{}字节/毫秒, caching {} -> {}", key, (long) rowBytes,
+                        (long) bytesPerMs, old == null ? probeCaching : old.caching, profile.caching);
+            }
+        }
+        ClientMetrics.incr("scanTuner.observations", 1);
+        return profile.caching;
+    }
+
+    private static int caching(double rowBytes, double bytesPerMs) {
+        double bySize = targetBatchBytes / rowBytes;
+        double byTime = targetRpcMs * bytesPerMs / rowBytes;
+        long caching = (long) Math.min(bySize, byTime);
+        return (int) Math.max(minCaching, Math.min(maxCaching, caching));
+    }
+
+    /**
+     * 学到的caching，没有学习结果时返回0
+     */
+    public static int learnedCaching(String tableName, Scan scan) {
+        Profile profile = profiles.get(key(tableName, scan));
+        return profile == null ? 0 : profile.caching;
+    }
+
+    /**
+     * 清除所有学习结果，例如表结构或数据分布变化后
+     */
+    public static void reset() {
+        profiles.clear();
+    }
+
+    /**
+     * 表名和投影列（列族、列名）相同的扫描共用学习结果，batch不同时每个Result的大小不同，分开记录
+     */
+    static String key(String tableName, Scan scan) {
+        StringBuilder sb = new StringBuilder(tableName);
+        for (Map.Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
+            sb.append('|').append(Bytes.toStringBinary(entry.getKey()));
+            if (entry.getValue() != null) {
+                char separator = ':';
+                for (byte[] qualifier : entry.getValue()) {
+                    sb.append(separator).append(Bytes.toStringBinary(qualifier));
+                    separator = ',';
+                }
+            }
+        }
+        if (scan.getBatch() > 0) {
+            sb.append("|batch=").append(scan.getBatch());
+        }
+        return sb.toString();
+    }
+
+    private static final class Profile {
+        final double rowBytes;
+        final double bytesPerMs;
+        final int caching;
+
+        Profile(double rowBytes, double bytesPerMs, int caching) {
+            this.rowBytes = rowBytes;
+            this.bytesPerMs = bytesPerMs;
+            this.caching = caching;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.k.hbase.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 打开中的预取扫描器登记表，用来发现没有关闭的扫描器
+ * 后台线程每隔scannerRegistry.checkIntervalMs检查一次，调用方超过prefetch.idleTimeoutMs没有访问的扫描器视为泄漏：
+ * 自动关闭，计数scanner.leaked，并在日志中输出打开它的调用栈（scannerRegistry.captureStack=true时记录）。
+ */
+public final class ScannerRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ScannerRegistry.class);
+
+    private static final long idleTimeoutMs = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "prefetch.idleTimeoutMs", 60000);
+    private static final long checkIntervalMs = Math.max(1000, PropertiesUtil.getLong(PropertiesUtil.CLIENT, "scannerRegistry.checkIntervalMs", 10000));
+    private static final boolean captureStack = PropertiesUtil.getBoolean(PropertiesUtil.CLIENT, "scannerRegistry.captureStack", true);
+
+    private static final Set<PrefetchingResultScanner> scanners =
+            Collections.newSetFromMap(new ConcurrentHashMap<PrefetchingResultScanner, Boolean>());
+
+    static {
+        ClientMetrics.registerGauge("scanner.open", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return scanners.size();
+            }
+        });
+        if (idleTimeoutMs > 0) {
+            ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(ClientMetrics.daemonThreadFactory("hbase-scanner-registry"));
+            checker.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        closeIdle(System.currentTimeMillis());
+                    } catch (RuntimeException e) {
+                        logger.error("检查扫描器泄漏失败", e);
+                    }
+                }
+            }, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private ScannerRegistry() {
+    }
+
+    static boolean captureStack() {
+        return captureStack;
+    }
+
+    static void register(PrefetchingResultScanner scanner) {
+        scanners.add(scanner);
+        ClientMetrics.incr("scanner.opened", 1);
+    }
+
+    static void unregister(PrefetchingResultScanner scanner) {
+        scanners.remove(scanner);
+    }
+
+    /**
+     * 关闭空闲超时的扫描器
+     *
+     * @param now 当前时间
+     * @return 关闭的个数
+     */
+    static int closeIdle(long now) {
+        int closed = 0;
+        for (PrefetchingResultScanner scanner : scanners) {
+            long idle = now - scanner.getLastAccessMillis();
+            if (scanner.isWaiting() || idle < idleTimeoutMs) {
+                continue;
+            }
+            String reason = "表:" + scanner.getTableName() + "的扫描器空闲" + idle + "毫秒，已自动关闭";
+            if (scanner.getOpenedAt() != null) {
+                logger.warn("{}，可能没有调用close", reason, scanner.getOpenedAt());
+            } else {
+                logger.warn("{}，可能没有调用close（scannerRegistry.captureStack=false，没有记录打开位置）", reason);
+            }
+            scanner.close(reason);
+            ClientMetrics.incr("scanner.leaked", 1);
+            closed++;
+        }
+        return closed;
+    }
+
+    /**
+     * 打开中的扫描器的描述：表名、打开时长、空闲时长，用于排查
+     */
+    public static List<String> describeOpen() {
+        long now = System.currentTimeMillis();
+        List<String> result = new ArrayList<String>();
+        for (PrefetchingResultScanner scanner : scanners) {
+            result.add("table=" + scanner.getTableName() + " openMs=" + (now - scanner.getOpenedMillis())
+                    + " idleMs=" + (now - scanner.getLastAccessMillis()) + " fetching=" + scanner.isFetching());
+        }
+        return result;
+    }
+
+    public static int openCount() {
+        return scanners.size();
+    }
+}
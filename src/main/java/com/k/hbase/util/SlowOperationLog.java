@@ -0,0 +1,198 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 慢操作日志和扫描指标
+ * 超过各类操作阈值（slowlog.*ThresholdMs）的请求以key=value的格式写到名为hbase.slowlog的日志中，
+ * 可以在log4j中单独配置输出文件；最近的slowlog.keepRecent条同时保存在内存中，可以通过getRecent取出。
+ * <p>
+ * 扫描按scanMetrics.sampleRate的比例开启HBase的扫描指标，关闭扫描器时取出RPC次数、访问的region数、返回字节数、
+ * 等待RPC的时间等，按表汇总到ClientMetrics（scan.表名.*），慢扫描的日志中也会带上这些指标，用于区分是过滤器效率低、
+ * caching不合适还是某个region过热。
+ * 当前客户端版本（1.1.2）的扫描指标不包含服务端扫描和过滤掉的行数，日志中只有返回的行数。
+ */
+public class SlowOperationLog {
+    private static final Logger slowLogger = LoggerFactory.getLogger("hbase.slowlog");
+
+    private static final boolean enabled = PropertiesUtil.getBoolean(PropertiesUtil.CLIENT, "slowlog.enabled", true);
+    private static final long scanThresholdMs = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "slowlog.scanThresholdMs", 1000);
+    private static final long readThresholdMs = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "slowlog.readThresholdMs", 200);
+    private static final long writeThresholdMs = PropertiesUtil.getLong(PropertiesUtil.CLIENT, "slowlog.writeThresholdMs", 500);
+    private static final int keepRecent = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "slowlog.keepRecent", 100);
+    private static final int maxFilterLength = PropertiesUtil.getInt(PropertiesUtil.CLIENT, "slowlog.maxFilterLength", 200);
+    private static volatile double sampleRate = PropertiesUtil.getDouble(PropertiesUtil.CLIENT, "scanMetrics.sampleRate", 0.1);
+
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private static final LinkedList<String> recent = new LinkedList<String>();
+
+    /**
+     * 操作类型，对应不同的阈值
+     */
+    public enum OpType {
+        SCAN, READ, WRITE
+    }
+
+    private SlowOperationLog() {
+    }
+
+    /**
+     * 按采样比例开启扫描指标，调用方已经开启的不修改
+     *
+     * @param scan 扫描
+     * @return 是否开启了扫描指标
+     */
+    public static boolean sampleScanMetrics(Scan scan) {
+        if (!scan.isScanMetricsEnabled() && sampleRate > 0 && random.get().nextDouble() < sampleRate) {
+            scan.setScanMetricsEnabled(true);
+        }
+        return scan.isScanMetricsEnabled();
+    }
+
+    /**
+     * 修改扫描指标的采样比例，1表示每次扫描都开启
+     */
+    public static void setSampleRate(double rate) {
+        sampleRate = rate;
+    }
+
+    public static long thresholdMs(OpType type) {
+        switch (type) {
+            case SCAN:
+                return scanThresholdMs;
+            case READ:
+                return readThresholdMs;
+            default:
+                return writeThresholdMs;
+        }
+    }
+
+    /**
+     * 扫描结束，汇总指标，在HBase中等待的时间超过阈值时写慢操作日志；
+     * 从打开到关闭的总时间包含调用方处理结果的时间，只作为wallMs字段输出，不参与判断
+     *
+     * @param tableName 表名
+     * @param scan      扫描，用于输出行健区间、过滤器等
+     * @param metrics   扫描指标，没有采样时为null
+     * @param rows      返回的行数
+     * @param bytes     返回的字节数（客户端统计）
+     * @param wallMs    从打开到关闭的总时间
+     * @param waitMs    客户端在next中等待的时间，其余为调用方处理结果的时间
+     */
+    public static void onScanComplete(String tableName, Scan scan, ScanMetrics metrics, long rows, long bytes, long wallMs, long waitMs) {
+        String prefix = "scan." + tableName + ".";
+        ClientMetrics.incr(prefix + "count", 1);
+        ClientMetrics.incr(prefix + "rows", rows);
+        ClientMetrics.incr(prefix + "bytes", bytes);
+        ClientMetrics.incr(prefix + "wallMillis", wallMs);
+        ClientMetrics.incr(prefix + "waitMillis", waitMs);
+        if (metrics != null) {
+            ClientMetrics.incr(prefix + "sampled", 1);
+            ClientMetrics.incr(prefix + "rpcs", metrics.countOfRPCcalls.get());
+            ClientMetrics.incr(prefix + "remoteRpcs", metrics.countOfRemoteRPCcalls.get());
+            ClientMetrics.incr(prefix + "regions", metrics.countOfRegions.get());
+            ClientMetrics.incr(prefix + "rpcMillis", metrics.sumOfMillisSecBetweenNexts.get());
+            ClientMetrics.incr(prefix + "rpcRetries", metrics.countOfRPCRetries.get());
+            ClientMetrics.incr(prefix + "notServingRegion", metrics.countOfNSRE.get());
+        }
+        if (!enabled || waitMs < scanThresholdMs) {
+            return;
+        }
+        StringBuilder sb = entry(OpType.SCAN, tableName, waitMs)
+                .append(" startRow=").append(Bytes.toStringBinary(scan.getStartRow()))
+                .append(" stopRow=").append(Bytes.toStringBinary(scan.getStopRow()))
+                .append(" filter=").append(summarize(scan.getFilter()))
+                .append(" caching=").append(scan.getCaching())
+                .append(" maxResultSize=").append(scan.getMaxResultSize())
+                .append(" rows=").append(rows)
+                .append(" bytes=").append(bytes)
+                .append(" wallMs=").append(wallMs)
+                .append(" clientMs=").append(Math.max(0, wallMs - waitMs));
+        if (metrics != null) {
+            sb.append(" rpcs=").append(metrics.countOfRPCcalls.get())
+                    .append(" remoteRpcs=").append(metrics.countOfRemoteRPCcalls.get())
+                    .append(" regions=").append(metrics.countOfRegions.get())
+                    .append(" rpcMs=").append(metrics.sumOfMillisSecBetweenNexts.get())
+                    .append(" resultBytes=").append(metrics.countOfBytesInResults.get())
+                    .append(" remoteBytes=").append(metrics.countOfBytesInRemoteResults.get())
+                    .append(" retries=").append(metrics.countOfRPCRetries.get())
+                    .append(" nsre=").append(metrics.countOfNSRE.get());
+        } else {
+            sb.append(" metrics=unsampled");
+        }
+        write(sb.toString());
+    }
+
+    /**
+     * 记录一次读写操作，超过阈值时写慢操作日志
+     *
+     * @param type      操作类型
+     * @param tableName 表名
+     * @param firstRow  涉及的第一行，可以为null
+     * @param rows      涉及的行数
+     * @param elapsedMs HBase调用本身的耗时，不含限流等待
+     * @param success   是否成功，重试耗尽或超时的请求往往最慢，同样要记录
+     */
+    public static void record(OpType type, String tableName, byte[] firstRow, int rows, long elapsedMs, boolean success) {
+        if (!enabled || elapsedMs < thresholdMs(type)) {
+            return;
+        }
+        StringBuilder sb = entry(type, tableName, elapsedMs)
+                .append(" outcome=").append(success ? "ok" : "error")
+                .append(" row=").append(firstRow == null ? "" : Bytes.toStringBinary(firstRow))
+                .append(" rows=").append(rows);
+        write(sb.toString());
+    }
+
+    /**
+     * 内存中保存的最近的慢操作
+     */
+    public static List<String> getRecent() {
+        synchronized (recent) {
+            return new ArrayList<String>(recent);
+        }
+    }
+
+    private static StringBuilder entry(OpType type, String tableName, long elapsedMs) {
+        ClientMetrics.incr("slowlog." + type.name().toLowerCase() + ".count", 1);
+        return new StringBuilder(256).append("op=").append(type).append(" table=").append(tableName)
+                .append(" durationMs=").append(elapsedMs);
+    }
+
+    private static String summarize(Filter filter) {
+        if (filter == null) {
+            return "none";
+        }
+        String text = filter.toString().replace(' ', '_');
+        return text.length() > maxFilterLength ? text.substring(0, maxFilterLength) + "..." : text;
+    }
+
+    private static void write(String line) {
+        slowLogger.warn(line);
+        if (keepRecent <= 0) {
+            return;
+        }
+        synchronized (recent) {
+            recent.addLast(line);
+            while (recent.size() > keepRecent) {
+                recent.removeFirst();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.ClientSideRegionScanner;
+import org.apache.hadoop.hbase.client.IsolationLevel;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos;
+import org.apache.hadoop.hbase.protobuf.generated.SnapshotProtos;
+import org.apache.hadoop.hbase.snapshot.RestoreSnapshotHelper;
+import org.apache.hadoop.hbase.snapshot.SnapshotDescriptionUtils;
+import org.apache.hadoop.hbase.snapshot.SnapshotManifest;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 快照离线扫描
+ * 直接从文件系统读取快照引用的HFile，不经过RegionServer，不占用服务端的handler线程和block cache，
+ * 适合全表分析类的重读取。快照先以引用文件的形式恢复到临时目录（不复制数据），
+ * 再按region并行在客户端打开region扫描，扫描结束后删除临时目录。
+ * <pre>
+ * HBaseUtil.snapshot("tabletest_20170101", TableName.valueOf("tabletest"));
+ * long rows = new SnapshotScanner("tabletest_20170101").parallelism(8)
+ *         .scan(ScanQuery.builder().addFamily("cfs1").build(), null, null, handler);
+ * </pre>
+ * 注意：客户端需要能访问hbase.rootdir所在的文件系统，并有读取权限；临时目录必须和hbase.rootdir在同一个文件系统上
+ */
+public class SnapshotScanner {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotScanner.class);
+
+    private final Configuration conf;
+    private final String snapshotName;
+    private int parallelism = 8;
+    private String restoreBaseDir;
+
+    /**
+     * 使用HBaseUtil的客户端配置
+     *
+     * @param snapshotName 快照名称
+     */
+    public SnapshotScanner(String snapshotName) {
+        this(HBaseUtil.getConfiguration(), snapshotName);
+    }
+
+    /**
+     * @param conf         客户端配置，需要包含hbase.rootdir
+     * @param snapshotName 快照名称
+     */
+    public SnapshotScanner(Configuration conf, String snapshotName) {
+        this.conf = conf;
+        this.snapshotName = snapshotName;
+        this.restoreBaseDir = PropertiesUtil.getString(PropertiesUtil.CLIENT, "snapshotScan.restoreDir",
+                System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * 并行扫描的最大region数，默认8
+     */
+    public SnapshotScanner parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 快照恢复的临时目录，每次扫描在其下创建一个子目录，扫描结束后删除
+     * 默认读取hbase-client.properties中snapshotScan.restoreDir，未配置时使用系统临时目录
+     */
+    public SnapshotScanner restoreDir(String restoreBaseDir) {
+        this.restoreBaseDir = restoreBaseDir;
+        return this;
+    }
+
+    /**
+     * 使用getScan的参数表扫描快照
+     *
+     * @param paramHashMap 扫描参数，格式同HBaseUtil.getScan
+     * @param handler      结果处理器，会被多个线程同时调用
+     * @param filters      过滤器
+     * @return 扫描的总行数
+     * @throws IOException
+     */
+    public long scan(HashMap<String, List<String>> paramHashMap, ParallelScanner.Handler handler, Filter... filters) throws IOException {
+        ScanQuery query = ScanQuery.fromParams(paramHashMap == null ? new HashMap<String, List<String>>() : paramHashMap);
+        if (filters != null && filters.length > 0) {
+            query = query.toBuilder().addFilters(filters).build();
+        }
+        return scan(query, null, null, handler);
+    }
+
+    /**
+     * 扫描快照中[startRow, stopRow)区间的数据，每个region一个任务并行执行
+     *
+     * @param query    扫描条件，不支持反向扫描
+     * @param startRow 起始行健（包含），null表示使用query中的起始行健
+     * @param stopRow  结束行健（不包含），null表示使用query中的结束行健
+     * @param handler  结果处理器，会被多个线程同时调用
+     * @return 扫描的总行数
+     * @throws IOException
+     */
+    public long scan(ScanQuery query, byte[] startRow, byte[] stopRow, final ParallelScanner.Handler handler) throws IOException {
+        if (query.isReversed()) {
+            throw new IllegalArgumentException("快照扫描不支持反向扫描");
+        }
+        final Scan template = startRow == null && stopRow == null ? query.newScan() : query.newScan(
+                startRow == null ? query.getStartRow() : startRow, stopRow == null ? query.getStopRow() : stopRow);
+        // 快照中的数据不会再变化，不需要MVCC读一致性，也不应该污染本地缓存
+        template.setIsolationLevel(IsolationLevel.READ_UNCOMMITTED);
+        template.setCacheBlocks(false);
+
+        long start = System.currentTimeMillis();
+        final Path rootDir = FSUtils.getRootDir(conf);
+        final FileSystem fs = rootDir.getFileSystem(conf);
+        final Path restoreDir = fs.makeQualified(new Path(restoreBaseDir, "hbase-snapshot-scan-" + snapshotName + "-" + UUID.randomUUID()));
+        ExecutorService executor = null;
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        try {
+            RestoreSnapshotHelper.copySnapshotForScanner(conf, fs, rootDir, restoreDir, snapshotName);
+            Path snapshotDir = SnapshotDescriptionUtils.getCompletedSnapshotDir(snapshotName, rootDir);
+            HBaseProtos.SnapshotDescription description = SnapshotDescriptionUtils.readSnapshotInfo(fs, snapshotDir);
+            SnapshotManifest manifest = SnapshotManifest.open(conf, fs, snapshotDir, description);
+            final HTableDescriptor htd = manifest.getTableDescriptor();
+            List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+            for (SnapshotProtos.SnapshotRegionManifest regionManifest : manifest.getRegionManifests()) {
+                HRegionInfo region = HRegionInfo.convert(regionManifest.getRegionInfo());
+                // 已经分裂的父region数据都在子region中
+                if (region.isOffline() && (region.isSplit() || region.isSplitParent())) {
+                    continue;
+                }
+                if (CellUtil.overlappingKeys(template.getStartRow(), template.getStopRow(), region.getStartKey(), region.getEndKey())) {
+                    regions.add(region);
+                }
+            }
+            Collections.sort(regions);
+            logger.info("快照:{}恢复到{}，需要扫描{}个region", snapshotName, restoreDir, regions.size());
+            if (regions.isEmpty()) {
+                return 0;
+            }
+
+            executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, regions.size())),
+                    ClientMetrics.daemonThreadFactory("hbase-snapshot-scan-" + snapshotName));
+            for (final HRegionInfo region : regions) {
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return scanRegion(fs, restoreDir, htd, region, template, handler);
+                    }
+                }));
+            }
+            long rows = 0;
+            for (Future<Long> future : futures) {
+                rows += future.get();
+            }
+            ClientMetrics.incr("snapshotScan." + snapshotName + ".rows", rows);
+            logger.info("快照:{}扫描完成，共{}行，耗时{}毫秒", snapshotName, rows, System.currentTimeMillis() - start);
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("扫描快照:" + snapshotName + "被中断");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("扫描快照:" + snapshotName + "失败", e.getCause());
+        } finally {
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            try {
+                fs.delete(restoreDir, true);
+            } catch (IOException e) {
+                logger.warn("删除快照恢复目录:{}失败", restoreDir, e);
+            }
+        }
+    }
+
+    private long scanRegion(FileSystem fs, Path restoreDir, HTableDescriptor htd, HRegionInfo region, Scan template, ParallelScanner.Handler handler) throws IOException {
+        Scan scan = new Scan(template);
+        // Scan的复制构造函数共用同一个过滤器实例，ClientSideRegionScanner在本地执行过滤器，
+        // 多个region并行扫描时PageFilter计数等有状态的过滤器会互相干扰，每个region序列化一份新的
+        if (template.getFilter() != null) {
+            scan.setFilter(ProtobufUtil.toFilter(ProtobufUtil.toFilter(template.getFilter())));
+        }
+        // 扫描区间限制在region内
+        if (region.getStartKey().length > 0 && Bytes.compareTo(region.getStartKey(), scan.getStartRow()) > 0) {
+            scan.setStartRow(region.getStartKey());
+        }
+        if (region.getEndKey().length > 0 && (scan.getStopRow().length == 0
+                || Bytes.compareTo(region.getEndKey(), scan.getStopRow()) < 0)) {
+            scan.setStopRow(region.getEndKey());
+        }
+        ParallelScanner.ScanRange range = new ParallelScanner.ScanRange(scan.getStartRow(), scan.getStopRow(), region.getStartKey());
+        ScanMetrics metrics = new ScanMetrics();
+        ClientSideRegionScanner scanner = new ClientSideRegionScanner(conf, fs, restoreDir, htd, region, scan, metrics);
+        long rows = 0;
+        try {
+            Result result;
+            while ((result = scanner.next()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("扫描快照region:" + region.getEncodedName() + "被取消");
+                }
+                handler.handle(range, result);
+                rows++;
+            }
+        } finally {
+            scanner.close();
+        }
+        handler.onRangeComplete(range, rows);
+        ClientMetrics.incr("snapshotScan." + snapshotName + ".bytes", metrics.countOfBytesInResults.get());
+        logger.debug("快照:{}region:{}扫描完成，共{}行", snapshotName, region.getEncodedName(), rows);
+        return rows;
+    }
+}
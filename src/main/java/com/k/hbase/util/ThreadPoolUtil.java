@@ -3,17 +3,65 @@ package com.k.hbase.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 线程池
+ * 按任务类型分成相互隔离的几条通道（lane），每条通道有自己的线程数和队列，
+ * 耗时的批量写入、长扫描不会让在线读请求排在后面。不指定通道的提交进入批量写入通道，与原来的共享线程池行为一致。
+ * <p>
+ * 通道配置在hbase-threadpool.properties中，以lane.read、lane.scan、lane.admin为前缀；
+ * 批量写入通道沿用corePoolSize、maximumPoolSize、queueCapacity。
+ * 各通道的活动线程数、排队数等以threadPool.通道名.*的名称注册到ClientMetrics。
+ */
 public class ThreadPoolUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(ThreadPoolUtil.class);
 
 
 
+    /**
+     * 通道
+     */
+    public enum Lane {
+        /**
+         * 在线读：getRow、getRows等耗时短、对延迟敏感的请求
+         */
+        INTERACTIVE_READ("read"),
+        /**
+         * 批量写入：batchPut、batchAsyncPut、batchMutate
+         */
+        BULK_WRITE("write"),
+        /**
+         * 长扫描、导出：ParallelScanner的各区间、分页索引的后台构建。
+         * getScan、scanResultByPageFilter在调用方线程中执行，不经过线程池；
+         * 预取扫描器的后台线程与扫描器同生命周期，占满通道会让后打开的扫描器一直等待，使用单独的线程
+         */
+        SCAN("scan"),
+        /**
+         * 建表、分裂等管理操作
+         */
+        ADMIN("admin");
+
+        private final String key;
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+    }
+
     private static ThreadPoolUtil threadPool;
+    private static final ThreadLocal<Lane> currentLane = new ThreadLocal<Lane>();
     private ThreadPoolExecutor executor=null;
+    private final Map<Lane, ThreadPoolExecutor> lanes = new EnumMap<Lane, ThreadPoolExecutor>(Lane.class);
 
     private int corePoolSize = 10;          // 核心池的大小 运行线程的最大值 当线程池中的线程数目达到corePoolSize后，就会把多余的任务放到缓存队列当中；
     private int maximumPoolSize = 15;  // 创建线程最大值
@@ -45,7 +93,7 @@ public class ThreadPoolUtil {
      * 单例
      * @return
      */
-    public static ThreadPoolUtil init(){
+    public static synchronized ThreadPoolUtil init(){
         if(threadPool==null)
             threadPool=new ThreadPoolUtil();
         return threadPool;
@@ -61,18 +109,126 @@ public class ThreadPoolUtil {
         maximumPoolSize=Integer.valueOf(resourceBundle.getString("maximumPoolSize"));
         keepAliveTime=Long.parseLong(resourceBundle.getString("keepAliveTime"));
         timeout=Long.parseLong(resourceBundle.getString("timeout"));
-        //实现线程池
+        //队列容量，不配置时为无界队列；配置后队列满时提交会被拒绝，由调用方把数据转入溢出日志
+        int queueCapacity = PropertiesUtil.getInt(PropertiesUtil.THREAD_POOL, "queueCapacity", 0);
+        if (queueCapacity > 0) {
+            workQueue = new LinkedBlockingQueue<Runnable>(queueCapacity);
+        }
+        //实现线程池，原来的共享线程池作为批量写入通道
         executor=new ThreadPoolExecutor(corePoolSize,maximumPoolSize, keepAliveTime, unit,
-                workQueue);
+                workQueue, new LaneThreadFactory(Lane.BULK_WRITE), new RejectCounter(Lane.BULK_WRITE));
+        lanes.put(Lane.BULK_WRITE, executor);
+        lanes.put(Lane.INTERACTIVE_READ, newLane(Lane.INTERACTIVE_READ, 10, 20, 1000));
+        lanes.put(Lane.SCAN, newLane(Lane.SCAN, 4, 8, 0));
+        lanes.put(Lane.ADMIN, newLane(Lane.ADMIN, 1, 2, 0));
+        for (Lane lane : Lane.values()) {
+            registerGauges(lane, lanes.get(lane));
+        }
         logger.info("线程池初始化成功");
     }
 
+    private ThreadPoolExecutor newLane(Lane lane, int defaultCore, int defaultMax, int defaultQueue) {
+        String prefix = "lane." + lane.key() + ".";
+        int core = PropertiesUtil.getInt(PropertiesUtil.THREAD_POOL, prefix + "corePoolSize", defaultCore);
+        int max = Math.max(core, PropertiesUtil.getInt(PropertiesUtil.THREAD_POOL, prefix + "maximumPoolSize", defaultMax));
+        int capacity = PropertiesUtil.getInt(PropertiesUtil.THREAD_POOL, prefix + "queueCapacity", defaultQueue);
+        // 无界队列时线程数不会超过核心线程数，有界队列满后才会扩到最大线程数，再满时拒绝
+        BlockingQueue<Runnable> queue = capacity > 0 ? new LinkedBlockingQueue<Runnable>(capacity) : new LinkedBlockingQueue<Runnable>();
+        logger.info("线程池通道:{}，核心线程数:{}，最大线程数:{}，队列容量:{}", lane.key(), core, max, capacity > 0 ? capacity : "无界");
+        return new ThreadPoolExecutor(core, max, keepAliveTime, unit, queue,
+                new LaneThreadFactory(lane), new RejectCounter(lane));
+    }
+
+    private static void registerGauges(Lane lane, final ThreadPoolExecutor pool) {
+        String prefix = "threadPool." + lane.key() + ".";
+        ClientMetrics.registerGauge(prefix + "active", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return pool.getActiveCount();
+            }
+        });
+        ClientMetrics.registerGauge(prefix + "poolSize", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return pool.getPoolSize();
+            }
+        });
+        ClientMetrics.registerGauge(prefix + "queued", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return pool.getQueue().size();
+            }
+        });
+        ClientMetrics.registerGauge(prefix + "completed", new ClientMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return pool.getCompletedTaskCount();
+            }
+        });
+    }
+
+    /**
+     * 按通道命名线程，与原来的线程池一样不是守护线程，JVM退出前会等待未完成的写入
+     */
+    private static class LaneThreadFactory implements ThreadFactory {
+        private final Lane lane;
+        private final String name;
+        private final AtomicInteger index = new AtomicInteger();
+
+        LaneThreadFactory(Lane lane) {
+            this.lane = lane;
+            this.name = "hbase-" + lane.key() + "-";
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    currentLane.set(lane);
+                    r.run();
+                }
+            }, name + index.incrementAndGet());
+        }
+    }
+
+    /**
+     * 拒绝时记录指标后仍然抛出RejectedExecutionException，由调用方决定转入溢出日志还是报错
+     */
+    private static class RejectCounter extends ThreadPoolExecutor.AbortPolicy {
+        private final String metric;
+
+        RejectCounter(Lane lane) {
+            this.metric = "threadPool." + lane.key() + ".rejected";
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            ClientMetrics.incr(metric, 1);
+            super.rejectedExecution(r, e);
+        }
+    }
+
     /**
      * 线程池获取方法
      * @return
      */
     public ThreadPoolExecutor getExecutor() {return executor;}
 
+    /**
+     * 获取指定通道的线程池
+     * @param lane 通道
+     * @return
+     */
+    public ThreadPoolExecutor getExecutor(Lane lane) {return lanes.get(lane);}
+
+    /**
+     * 当前线程所属的通道，不是线程池中的线程时返回null
+     * 通道中的任务再向同一通道提交并等待结果时，通道占满后会互相等待，可以据此改用其他线程
+     * @return
+     */
+    public static Lane currentLane() {return currentLane.get();}
+
     /**
      *  准备执行 抛入线程池
      * @param t
@@ -83,10 +239,21 @@ public class ThreadPoolUtil {
 
     public void execute(Runnable t){ executor.execute(t);}
 
+    /**
+     * 在指定通道中执行
+     * @param lane 通道
+     * @param t
+     */
+    public void execute(Lane lane, Runnable t){ lanes.get(lane).execute(t);}
+
     public int getQueueSize(){
         return executor.getQueue().size();
     }
 
+    public int getQueueSize(Lane lane){
+        return lanes.get(lane).getQueue().size();
+    }
+
     /**
      * 异步提交返回 Future
      * Future.get()可获得返回结果
@@ -102,12 +269,23 @@ public class ThreadPoolUtil {
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public Future<?> submit(Callable t){return getExecutor().submit(t);}
 
+    /**
+     * 在指定通道中异步提交
+     * @param lane 通道
+     * @return
+     */
+    public <T> Future<T> submit(Lane lane, Callable<T> t){return lanes.get(lane).submit(t);}
+
+    public Future<?> submit(Lane lane, Runnable t){return lanes.get(lane).submit(t);}
+
     /**
      * 销毁线程池
      * */
     public void shutdown(){
         logger.info("关闭线程池");
-        getExecutor().shutdown();
+        for (ThreadPoolExecutor pool : lanes.values()) {
+            pool.shutdown();
+        }
     }
 
     /**
@@ -117,4 +295,11 @@ public class ThreadPoolUtil {
         logger.info("线程池已阻塞，请等待所有任务结束");
         executor.awaitTermination(timeout, unit);
     }
+
+    /**
+     * 阻塞，直到指定通道的任务结束或超时
+     */
+    public void awaitTermination(Lane lane) throws InterruptedException {
+        lanes.get(lane).awaitTermination(timeout, unit);
+    }
 }
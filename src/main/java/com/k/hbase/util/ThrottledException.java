@@ -0,0 +1,15 @@
+package com.k.hbase.util;
+
+import java.io.IOException;
+
+/**
+ * 请求超过客户端限流被拒绝
+ * 继承IOException，写入路径上直接抛给调用方，不会像集群写入失败一样转入溢出日志
+ */
+public class ThrottledException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ThrottledException(String message) {
+        super(message);
+    }
+}
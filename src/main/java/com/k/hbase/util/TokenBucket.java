@@ -0,0 +1,115 @@
+package com.k.hbase.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限流器
+ * 按预约的方式发放令牌：请求按到达顺序预约，先到先得，令牌不足时由请求线程自己等待，等待期间不持有锁。
+ * 空闲时最多积攒burstSeconds秒的令牌，允许短时突发。速率小于等于0表示不限流。
+ */
+public class TokenBucket {
+    private final double burstSeconds;
+
+    private double permitsPerSecond;
+    private double maxPermits;
+    private double storedPermits;
+    // 下一次可以发放令牌的时间（纳秒）
+    private long nextFreeNanos = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond 每秒发放的令牌数，小于等于0表示不限流
+     */
+    public TokenBucket(double permitsPerSecond) {
+        this(permitsPerSecond, 1.0);
+    }
+
+    /**
+     * @param permitsPerSecond 每秒发放的令牌数，小于等于0表示不限流
+     * @param burstSeconds     空闲时最多积攒多少秒的令牌
+     */
+    public TokenBucket(double permitsPerSecond, double burstSeconds) {
+        this.burstSeconds = burstSeconds;
+        setRate(permitsPerSecond);
+    }
+
+    /**
+     * 运行时调整速率
+     *
+     * @param permitsPerSecond 每秒发放的令牌数，小于等于0表示不限流
+     */
+    public synchronized void setRate(double permitsPerSecond) {
+        resync(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+        double oldMax = maxPermits;
+        this.maxPermits = permitsPerSecond > 0 ? permitsPerSecond * burstSeconds : 0;
+        this.storedPermits = oldMax > 0 ? storedPermits * maxPermits / oldMax : maxPermits;
+    }
+
+    public synchronized double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * 获取令牌，令牌不足时阻塞等待
+     *
+     * @param permits 令牌数
+     * @return 等待的时间（纳秒）
+     * @throws InterruptedException
+     */
+    public long acquire(int permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            waitNanos = reserve(permits, System.nanoTime());
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * 在超时时间内能拿到令牌时获取并等待，否则立即返回
+     *
+     * @param permits 令牌数
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     * @return 等待的时间（纳秒），超时拿不到令牌时返回-1
+     * @throws InterruptedException
+     */
+    public long tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (permitsPerSecond > 0 && nextFreeNanos - now > unit.toNanos(timeout)) {
+                return -1;
+            }
+            waitNanos = reserve(permits, now);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    private long reserve(int permits, long now) {
+        if (permitsPerSecond <= 0) {
+            return 0;
+        }
+        resync(now);
+        long waitNanos = Math.max(0, nextFreeNanos - now);
+        double fromStored = Math.min(permits, storedPermits);
+        double fresh = permits - fromStored;
+        storedPermits -= fromStored;
+        nextFreeNanos += (long) (fresh / permitsPerSecond * 1000000000L);
+        return waitNanos;
+    }
+
+    private void resync(long now) {
+        if (now > nextFreeNanos) {
+            if (permitsPerSecond > 0) {
+                storedPermits = Math.min(maxPermits, storedPermits + (now - nextFreeNanos) / 1000000000.0 * permitsPerSecond);
+            }
+            nextFreeNanos = now;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.k.hbase.workload;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 压测时选择要访问的记录序号，分布与YCSB一致：
+ * <ul>
+ * <li>uniform：所有记录等概率</li>
+ * <li>zipfian：少数记录被频繁访问，热点记录经过哈希打散，不会集中在相邻的行健上</li>
+ * <li>latest：越新插入的记录越容易被访问</li>
+ * </ul>
+ * 实例可以被多个线程共用，随机数由调用方的线程提供
+ */
+public abstract class KeyChooser {
+    /**
+     * 选择一条记录
+     *
+     * @param random 调用线程自己的随机数
+     * @return 记录序号，在[0, 已插入记录数)之间
+     */
+    public abstract long next(Random random);
+
+    /**
+     * @param name         uniform、zipfian或latest
+     * @param inserted     已插入的记录数，插入操作完成后递增
+     * @param zipfConstant zipfian分布的倾斜系数，YCSB默认0.99
+     * @return
+     */
+    public static KeyChooser create(String name, AtomicLong inserted, double zipfConstant) {
+        if ("uniform".equalsIgnoreCase(name)) {
+            return new Uniform(inserted);
+        }
+        if ("zipfian".equalsIgnoreCase(name)) {
+            return new ScrambledZipfian(inserted, zipfConstant);
+        }
+        if ("latest".equalsIgnoreCase(name)) {
+            return new Latest(inserted, zipfConstant);
+        }
+        throw new IllegalArgumentException("不支持的请求分布:" + name);
+    }
+
+    static class Uniform extends KeyChooser {
+        private final AtomicLong inserted;
+
+        Uniform(AtomicLong inserted) {
+            this.inserted = inserted;
+        }
+
+        @Override
+        public long next(Random random) {
+            return (long) (random.nextDouble() * inserted.get());
+        }
+    }
+
+    /**
+     * Gray等人的快速zipfian生成算法，记录数增加时增量更新zeta
+     */
+    static class Zipfian {
+        private final double theta;
+        private final double alpha;
+        private final double zeta2;
+        // 记录数、zeta、eta一起替换，生成时不加锁
+        private volatile double[] state;
+
+        Zipfian(long items, double theta) {
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zeta2 = zeta(0, 2, 0);
+            this.state = new double[]{0, 0, 0};
+            grow(Math.max(items, 1));
+        }
+
+        private double zeta(long from, long to, double initial) {
+            double sum = initial;
+            for (long i = from; i < to; i++) {
+                sum += 1 / Math.pow(i + 1, theta);
+            }
+            return sum;
+        }
+
+        private synchronized double[] grow(long newItems) {
+            double[] current = state;
+            if (newItems <= (long) current[0]) {
+                return current;
+            }
+            double zetaN = zeta((long) current[0], newItems, current[1]);
+            double eta = (1 - Math.pow(2.0 / newItems, 1 - theta)) / (1 - zeta2 / zetaN);
+            state = new double[]{newItems, zetaN, eta};
+            return state;
+        }
+
+        /**
+         * @return [0, n)之间，0最热
+         */
+        long next(Random random, long n) {
+            double[] current = state;
+            if (n > (long) current[0]) {
+                current = grow(n);
+            }
+            double zetaN = current[1];
+            double eta = current[2];
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            long value = (long) (n * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(value, n - 1);
+        }
+    }
+
+    static class ScrambledZipfian extends KeyChooser {
+        private final AtomicLong inserted;
+        private final Zipfian zipfian;
+
+        ScrambledZipfian(AtomicLong inserted, double theta) {
+            this.inserted = inserted;
+            this.zipfian = new Zipfian(inserted.get(), theta);
+        }
+
+        @Override
+        public long next(Random random) {
+            long n = Math.max(1, inserted.get());
+            return (KeyChooser.hash(zipfian.next(random, n)) & Long.MAX_VALUE) % n;
+        }
+    }
+
+    static class Latest extends KeyChooser {
+        private final AtomicLong inserted;
+        private final Zipfian zipfian;
+
+        Latest(AtomicLong inserted, double theta) {
+            this.inserted = inserted;
+            this.zipfian = new Zipfian(inserted.get(), theta);
+        }
+
+        @Override
+        public long next(Random random) {
+            long n = Math.max(1, inserted.get());
+            return n - 1 - zipfian.next(random, n);
+        }
+    }
+
+    /**
+     * FNV-1a 64位哈希，用于打散记录序号
+     */
+    static long hash(long value) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < 8; i++) {
+            h ^= value & 0xFF;
+            h *= 0x100000001B3L;
+            value >>>= 8;
+        }
+        return h;
+    }
+}
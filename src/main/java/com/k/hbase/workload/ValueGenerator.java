@@ -0,0 +1,111 @@
+package com.k.hbase.workload;
+
+import com.k.hbase.util.ChineseUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.Random;
+
+/**
+ * 压测列值生成
+ * 启动时生成一块1MB的随机内容，每次取其中随机位置、随机长度的一段作为列值，生成时不分配内存也不逐字节计算随机数。
+ * 内容有三种：binary（任意字节）、ascii（可打印字符）、chinese（UTF-8编码的GB2312常用汉字，长度按3字节对齐）。
+ * <p>
+ * 实例不是线程安全的，每个压测线程使用自己的实例，内容块在所有实例之间共用且只读
+ */
+public class ValueGenerator {
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static volatile byte[] binaryBlock;
+    private static volatile byte[] asciiBlock;
+    private static volatile byte[] chineseBlock;
+
+    private final byte[] block;
+    private final int align;
+    private final int minLength;
+    private final int maxLength;
+    private final Random random;
+    private int offset;
+    private int length;
+
+    /**
+     * @param mode      binary、ascii或chinese
+     * @param minLength 最小长度（字节）
+     * @param maxLength 最大长度（字节），等于minLength时为定长
+     * @param random    当前线程的随机数
+     */
+    public ValueGenerator(String mode, int minLength, int maxLength, Random random) {
+        if ("binary".equalsIgnoreCase(mode)) {
+            block = binaryBlock();
+            align = 1;
+        } else if ("ascii".equalsIgnoreCase(mode)) {
+            block = asciiBlock();
+            align = 1;
+        } else if ("chinese".equalsIgnoreCase(mode)) {
+            block = chineseBlock();
+            align = 3;
+        } else {
+            throw new IllegalArgumentException("不支持的列值类型:" + mode);
+        }
+        if (minLength < 1 || maxLength < minLength || maxLength > BLOCK_SIZE / 2) {
+            throw new IllegalArgumentException("列值长度范围不正确:[" + minLength + ", " + maxLength + "]");
+        }
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.random = random;
+    }
+
+    /**
+     * 生成下一个列值，之后通过getArray、getOffset、getLength取得
+     */
+    public ValueGenerator next() {
+        int len = minLength == maxLength ? minLength : minLength + random.nextInt(maxLength - minLength + 1);
+        len = Math.max(align, len - len % align);
+        int start = random.nextInt((block.length - len) / align) * align;
+        this.offset = start;
+        this.length = len;
+        return this;
+    }
+
+    /**
+     * 共用的内容块，不要修改
+     */
+    public byte[] getArray() {
+        return block;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    private static byte[] binaryBlock() {
+        if (binaryBlock == null) {
+            byte[] b = new byte[BLOCK_SIZE];
+            new Random().nextBytes(b);
+            binaryBlock = b;
+        }
+        return binaryBlock;
+    }
+
+    private static byte[] asciiBlock() {
+        if (asciiBlock == null) {
+            byte[] b = new byte[BLOCK_SIZE];
+            Random random = new Random();
+            for (int i = 0; i < b.length; i++) {
+                b[i] = (byte) (' ' + random.nextInt(95));
+            }
+            asciiBlock = b;
+        }
+        return asciiBlock;
+    }
+
+    private static byte[] chineseBlock() {
+        if (chineseBlock == null) {
+            StringBuilder sb = new StringBuilder(BLOCK_SIZE / 3);
+            chineseBlock = Bytes.toBytes(ChineseUtils.appendChinese(sb, BLOCK_SIZE / 3, new Random()).toString());
+        }
+        return chineseBlock;
+    }
+}
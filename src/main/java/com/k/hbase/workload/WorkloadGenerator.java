@@ -0,0 +1,716 @@
+package com.k.hbase.workload;
+
+import com.k.hbase.util.ClientMetrics;
+import com.k.hbase.util.HBaseUtil;
+import com.k.hbase.util.LatencyHistogram;
+import com.k.hbase.util.PropertiesUtil;
+import com.k.hbase.util.PutBuilder;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 压测负载生成
+ * 按YCSB的方式组合读、更新、扫描、插入四种操作，记录按uniform、zipfian、latest分布选择，多线程执行并按时间段输出各操作的延迟分位数。
+ * 先用load写入recordCount条记录，再用run执行operationCount次操作或持续durationSeconds秒：
+ * <pre>
+ * WorkloadGenerator generator = WorkloadGenerator.fromConfig();
+ * generator.load();
+ * logger.info(generator.run().toString());
+ * </pre>
+ * 设置targetOpsPerSecond后为开环调度：每个线程按固定间隔安排操作，延迟从计划开始时间算起，
+ * 服务端变慢导致操作排队时排队时间也会计入延迟，不会因为线程被阻塞而少发请求、低估延迟（coordinated omission）。
+ * 线程数需要足够，保证在目标速率下线程不会长期处于排队状态。
+ * <p>
+ * 配置在hbase-client.properties中workload.*，连接的集群由HBaseUtil的配置决定，本地mini-cluster可以通过
+ * HBaseUtil.setConfiguration指定；命令行入口见WorkloadRunner
+ */
+public class WorkloadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(WorkloadGenerator.class);
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * 操作类型
+     */
+    public enum Operation {
+        READ, UPDATE, INSERT, SCAN
+    }
+
+    private String table = "workload";
+    private String family = "cf";
+    private int fieldCount = 10;
+    private int minFieldLength = 100;
+    private int maxFieldLength = 100;
+    private String valueMode = "ascii";
+    private long recordCount = 100000;
+    private long operationCount = 1000000;
+    private long durationSeconds = 0;
+    private double readProportion = 0.95;
+    private double updateProportion = 0.05;
+    private double insertProportion = 0;
+    private double scanProportion = 0;
+    private String distribution = "zipfian";
+    private double zipfConstant = 0.99;
+    private int maxScanLength = 100;
+    private int threads = 16;
+    private double targetOpsPerSecond = 0;
+    private int reportIntervalSeconds = 10;
+    private int loadBatchSize = 500;
+    private boolean createTable = true;
+    private String compression = "none";
+
+    private byte[] familyBytes;
+    private byte[][] qualifiers;
+
+    /**
+     * 按hbase-client.properties中workload.*配置创建
+     *
+     * @return
+     */
+    public static WorkloadGenerator fromConfig() {
+        return fromConfig(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * 按hbase-client.properties中workload.*配置创建，overrides中的同名配置优先
+     *
+     * @param overrides 例如命令行参数，键为完整的配置名
+     * @return
+     */
+    public static WorkloadGenerator fromConfig(Map<String, String> overrides) {
+        Config c = new Config(overrides);
+        return new WorkloadGenerator()
+                .table(c.get("workload.table", "workload"))
+                .family(c.get("workload.family", "cf"))
+                .fieldCount(Integer.parseInt(c.get("workload.fieldCount", "10")))
+                .fieldLength(Integer.parseInt(c.get("workload.minFieldLength", "100")),
+                        Integer.parseInt(c.get("workload.maxFieldLength", "100")))
+                .valueMode(c.get("workload.valueMode", "ascii"))
+                .recordCount(Long.parseLong(c.get("workload.recordCount", "100000")))
+                .operationCount(Long.parseLong(c.get("workload.operationCount", "1000000")))
+                .durationSeconds(Long.parseLong(c.get("workload.durationSeconds", "0")))
+                .proportions(Double.parseDouble(c.get("workload.readProportion", "0.95")),
+                        Double.parseDouble(c.get("workload.updateProportion", "0.05")),
+                        Double.parseDouble(c.get("workload.insertProportion", "0")),
+                        Double.parseDouble(c.get("workload.scanProportion", "0")))
+                .distribution(c.get("workload.requestDistribution", "zipfian"))
+                .zipfConstant(Double.parseDouble(c.get("workload.zipfianConstant", "0.99")))
+                .maxScanLength(Integer.parseInt(c.get("workload.maxScanLength", "100")))
+                .threads(Integer.parseInt(c.get("workload.threads", "16")))
+                .targetOpsPerSecond(Double.parseDouble(c.get("workload.targetOpsPerSecond", "0")))
+                .reportIntervalSeconds(Integer.parseInt(c.get("workload.reportIntervalSeconds", "10")))
+                .loadBatchSize(Integer.parseInt(c.get("workload.loadBatchSize", "500")))
+                .createTable(Boolean.parseBoolean(c.get("workload.createTable", "true")))
+                .compression(c.get("workload.compression", "none"));
+    }
+
+    private static class Config {
+        private final Map<String, String> overrides;
+
+        Config(Map<String, String> overrides) {
+            this.overrides = overrides;
+        }
+
+        String get(String key, String defaultValue) {
+            String value = overrides.get(key);
+            if (value != null && value.trim().length() > 0) {
+                return value.trim();
+            }
+            return PropertiesUtil.getString(PropertiesUtil.CLIENT, key, defaultValue);
+        }
+    }
+
+    /**
+     * 压测表，默认workload
+     */
+    public WorkloadGenerator table(String table) {
+        this.table = table;
+        return this;
+    }
+
+    /**
+     * 列族，默认cf
+     */
+    public WorkloadGenerator family(String family) {
+        this.family = family;
+        return this;
+    }
+
+    /**
+     * 每条记录的列数，列名为field0、field1...，默认10
+     */
+    public WorkloadGenerator fieldCount(int fieldCount) {
+        this.fieldCount = fieldCount;
+        return this;
+    }
+
+    /**
+     * 列值长度范围（字节），默认定长100
+     */
+    public WorkloadGenerator fieldLength(int minFieldLength, int maxFieldLength) {
+        this.minFieldLength = minFieldLength;
+        this.maxFieldLength = maxFieldLength;
+        return this;
+    }
+
+    /**
+     * 列值内容：binary、ascii或chinese，默认ascii
+     */
+    public WorkloadGenerator valueMode(String valueMode) {
+        this.valueMode = valueMode;
+        return this;
+    }
+
+    /**
+     * load写入的记录数，也是run开始时已有的记录数，默认100000
+     */
+    public WorkloadGenerator recordCount(long recordCount) {
+        this.recordCount = recordCount;
+        return this;
+    }
+
+    /**
+     * run执行的操作次数，0表示不限，由durationSeconds控制，默认1000000
+     */
+    public WorkloadGenerator operationCount(long operationCount) {
+        this.operationCount = operationCount;
+        return this;
+    }
+
+    /**
+     * run最长执行时间（秒），0表示不限，默认0
+     */
+    public WorkloadGenerator durationSeconds(long durationSeconds) {
+        this.durationSeconds = durationSeconds;
+        return this;
+    }
+
+    /**
+     * 各操作的比例，按总和归一化，默认读95%、更新5%
+     */
+    public WorkloadGenerator proportions(double read, double update, double insert, double scan) {
+        if (read < 0 || update < 0 || insert < 0 || scan < 0 || read + update + insert + scan <= 0) {
+            throw new IllegalArgumentException("操作比例不正确");
+        }
+        this.readProportion = read;
+        this.updateProportion = update;
+        this.insertProportion = insert;
+        this.scanProportion = scan;
+        return this;
+    }
+
+    /**
+     * 请求分布：uniform、zipfian或latest，默认zipfian
+     */
+    public WorkloadGenerator distribution(String distribution) {
+        this.distribution = distribution;
+        return this;
+    }
+
+    /**
+     * zipfian分布的倾斜系数，越大热点越集中，默认0.99
+     */
+    public WorkloadGenerator zipfConstant(double zipfConstant) {
+        this.zipfConstant = zipfConstant;
+        return this;
+    }
+
+    /**
+     * 每次扫描的最大行数，实际行数在[1, maxScanLength]之间均匀分布，默认100
+     */
+    public WorkloadGenerator maxScanLength(int maxScanLength) {
+        this.maxScanLength = maxScanLength;
+        return this;
+    }
+
+    /**
+     * 压测线程数，默认16
+     */
+    public WorkloadGenerator threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * run的目标速率（次/秒），0表示不限速，各线程发完一个请求立即发下一个
+     */
+    public WorkloadGenerator targetOpsPerSecond(double targetOpsPerSecond) {
+        this.targetOpsPerSecond = targetOpsPerSecond;
+        return this;
+    }
+
+    /**
+     * 输出中间结果的间隔（秒），0表示只在结束时输出，默认10
+     */
+    public WorkloadGenerator reportIntervalSeconds(int reportIntervalSeconds) {
+        this.reportIntervalSeconds = reportIntervalSeconds;
+        return this;
+    }
+
+    /**
+     * load时每批写入的行数，默认500
+     */
+    public WorkloadGenerator loadBatchSize(int loadBatchSize) {
+        this.loadBatchSize = loadBatchSize;
+        return this;
+    }
+
+    /**
+     * load时表不存在是否创建，默认true
+     */
+    public WorkloadGenerator createTable(boolean createTable) {
+        this.createTable = createTable;
+        return this;
+    }
+
+    /**
+     * 创建表时列族的压缩方式，默认none，本地mini-cluster通常没有snappy
+     */
+    public WorkloadGenerator compression(String compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * 记录序号对应的行健：序号哈希后的16位十六进制，均匀分布在按0~F预分区的region上
+     *
+     * @param keyNum 记录序号
+     * @return
+     */
+    public static byte[] rowKey(long keyNum) {
+        long h = KeyChooser.hash(keyNum);
+        byte[] row = new byte[16];
+        for (int i = 15; i >= 0; i--) {
+            row[i] = (byte) HEX[(int) (h & 0xF)];
+            h >>>= 4;
+        }
+        return row;
+    }
+
+    private void prepare() {
+        familyBytes = Bytes.toBytes(family);
+        qualifiers = new byte[fieldCount][];
+        for (int i = 0; i < fieldCount; i++) {
+            qualifiers[i] = PutBuilder.intern("field" + i);
+        }
+    }
+
+    /**
+     * 写入recordCount条记录，序号为[0, recordCount)
+     *
+     * @return
+     * @throws IOException
+     */
+    public Report load() throws IOException {
+        prepare();
+        if (createTable) {
+            ensureTable();
+        }
+        final AtomicLong nextKey = new AtomicLong();
+        return execute("load", new Work() {
+            @Override
+            public boolean step(Worker worker) throws IOException {
+                long first = nextKey.getAndAdd(loadBatchSize);
+                if (first >= recordCount) {
+                    return false;
+                }
+                long last = Math.min(first + loadBatchSize, recordCount);
+                List<Put> puts = new ArrayList<Put>((int) (last - first));
+                for (long k = first; k < last; k++) {
+                    puts.add(worker.fullRecord(k));
+                }
+                long begin = System.nanoTime();
+                boolean ok = true;
+                try {
+                    worker.table.put(puts);
+                } catch (IOException e) {
+                    ok = false;
+                    logger.warn("写入记录[{}, {})失败", first, last, e);
+                }
+                worker.stats.record(Operation.INSERT, (System.nanoTime() - begin) / 1000, ok, puts.size());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 按操作比例执行压测，要求表中已有recordCount条记录
+     *
+     * @return
+     * @throws IOException
+     */
+    public Report run() throws IOException {
+        prepare();
+        final AtomicLong inserted = new AtomicLong(recordCount);
+        final AtomicLong nextInsert = new AtomicLong(recordCount);
+        final KeyChooser chooser = KeyChooser.create(distribution, inserted, zipfConstant);
+        final AtomicLong tickets = new AtomicLong();
+        final long deadline = durationSeconds > 0 ? System.currentTimeMillis() + durationSeconds * 1000 : Long.MAX_VALUE;
+        final long periodNanos = targetOpsPerSecond > 0 ? (long) (threads * 1e9 / targetOpsPerSecond) : 0;
+        double total = readProportion + updateProportion + insertProportion + scanProportion;
+        final double readBound = readProportion / total;
+        final double updateBound = readBound + updateProportion / total;
+        final double insertBound = updateBound + insertProportion / total;
+        final long startNanos = System.nanoTime();
+        return execute("run", new Work() {
+            @Override
+            public boolean step(Worker worker) throws IOException {
+                if (operationCount > 0 && tickets.incrementAndGet() > operationCount) {
+                    return false;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                long begin;
+                if (periodNanos > 0) {
+                    if (worker.intended == 0) {
+                        worker.intended = startNanos + periodNanos * worker.id / threads;
+                    }
+                    begin = worker.intended;
+                    worker.intended += periodNanos;
+                    long wait;
+                    while ((wait = begin - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedIOException("压测被中断");
+                        }
+                    }
+                } else {
+                    begin = System.nanoTime();
+                }
+                double r = worker.random.nextDouble();
+                Operation op = r < readBound ? Operation.READ : r < updateBound ? Operation.UPDATE
+                        : r < insertBound ? Operation.INSERT : Operation.SCAN;
+                boolean ok = true;
+                long rows = 1;
+                try {
+                    switch (op) {
+                        case READ:
+                            Result result = worker.table.get(new Get(rowKey(chooser.next(worker.random))).addFamily(familyBytes));
+                            if (result.isEmpty()) {
+                                worker.stats.notFound.incrementAndGet();
+                            }
+                            break;
+                        case UPDATE:
+                            worker.table.put(worker.oneField(chooser.next(worker.random)));
+                            break;
+                        case INSERT:
+                            long keyNum = nextInsert.getAndIncrement();
+                            worker.table.put(worker.fullRecord(keyNum));
+                            // 乱序完成时latest分布可能选到还没写完的记录，计入notFound
+                            inserted.incrementAndGet();
+                            break;
+                        default:
+                            rows = worker.scan(rowKey(chooser.next(worker.random)), 1 + worker.random.nextInt(maxScanLength));
+                            break;
+                    }
+                } catch (IOException e) {
+                    ok = false;
+                    if (worker.stats.errors.get(op.ordinal()) == 0) {
+                        logger.warn("{}操作失败", op, e);
+                    }
+                }
+                worker.stats.record(op, (System.nanoTime() - begin) / 1000, ok, rows);
+                return true;
+            }
+        });
+    }
+
+    private void ensureTable() throws IOException {
+        Admin admin = HBaseUtil.getConn().getAdmin();
+        try {
+            TableName tableName = TableName.valueOf(table);
+            if (admin.tableExists(tableName)) {
+                return;
+            }
+            HTableDescriptor descriptor = new HTableDescriptor(tableName);
+            HColumnDescriptor column = new HColumnDescriptor(family);
+            column.setMaxVersions(1);
+            column.setCompressionType(Compression.getCompressionAlgorithmByName(compression.toLowerCase()));
+            descriptor.addFamily(column);
+            byte[][] splitKeys = new byte[15][];
+            for (int i = 1; i < 16; i++) {
+                splitKeys[i - 1] = new byte[]{(byte) HEX[i]};
+            }
+            admin.createTable(descriptor, splitKeys);
+            logger.info("压测表:{}已建立", table);
+        } finally {
+            admin.close();
+        }
+    }
+
+    private interface Work {
+        /**
+         * 执行一步
+         *
+         * @return false表示没有更多工作
+         */
+        boolean step(Worker worker) throws IOException;
+    }
+
+    private class Worker implements Runnable {
+        final int id;
+        final Work work;
+        final Stats stats;
+        final Random random;
+        final ValueGenerator values;
+        final PutBuilder builder = new PutBuilder();
+        Table table;
+        long intended;
+
+        Worker(int id, Work work, Stats stats) {
+            this.id = id;
+            this.work = work;
+            this.stats = stats;
+            this.random = new Random(System.nanoTime() ^ ((long) id << 32));
+            this.values = new ValueGenerator(valueMode, minFieldLength, maxFieldLength, random);
+        }
+
+        Put fullRecord(long keyNum) {
+            builder.row(rowKey(keyNum));
+            for (byte[] qualifier : qualifiers) {
+                values.next();
+                builder.add(familyBytes, qualifier, values.getArray(), values.getOffset(), values.getLength());
+            }
+            return builder.build();
+        }
+
+        Put oneField(long keyNum) {
+            values.next();
+            return builder.row(rowKey(keyNum))
+                    .add(familyBytes, qualifiers[random.nextInt(qualifiers.length)], values.getArray(), values.getOffset(), values.getLength())
+                    .build();
+        }
+
+        long scan(byte[] startRow, int length) throws IOException {
+            Scan scan = new Scan(startRow);
+            scan.addFamily(familyBytes);
+            scan.setCaching(length);
+            scan.setCacheBlocks(true);
+            ResultScanner scanner = table.getScanner(scan);
+            long rows = 0;
+            try {
+                while (rows < length && scanner.next() != null) {
+                    rows++;
+                }
+            } finally {
+                scanner.close();
+            }
+            return rows;
+        }
+
+        @Override
+        public void run() {
+            try {
+                table = HBaseUtil.getTable(WorkloadGenerator.this.table);
+                if (table == null) {
+                    throw new IOException("获取表:" + WorkloadGenerator.this.table + "失败");
+                }
+                while (stats.failure.get() == null && work.step(this)) {
+                    // 继续
+                }
+            } catch (IOException e) {
+                stats.failure.compareAndSet(null, e);
+            } catch (RuntimeException e) {
+                stats.failure.compareAndSet(null, new IOException(e));
+            } finally {
+                builder.close();
+                if (table != null) {
+                    try {
+                        table.close();
+                    } catch (IOException e) {
+                        logger.warn("关闭表:{}失败", WorkloadGenerator.this.table, e);
+                    }
+                }
+            }
+        }
+    }
+
+    private Report execute(final String phase, Work work) throws IOException {
+        final Stats stats = new Stats();
+        final long begin = System.currentTimeMillis();
+        ScheduledExecutorService reporter = null;
+        if (reportIntervalSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(ClientMetrics.daemonThreadFactory("workload-reporter"));
+            reporter.scheduleAtFixedRate(new Runnable() {
+                private long lastTime = begin;
+
+                @Override
+                public void run() {
+                    long now = System.currentTimeMillis();
+                    logInterval(phase, stats, (now - begin) / 1000, Math.max(1, now - lastTime));
+                    lastTime = now;
+                }
+            }, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+        }
+        List<Thread> workers = new ArrayList<Thread>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(new Worker(i, work, stats), "workload-" + phase + "-" + i);
+            thread.start();
+            workers.add(thread);
+        }
+        try {
+            for (Thread thread : workers) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            stats.failure.compareAndSet(null, new InterruptedIOException("压测被中断"));
+            for (Thread thread : workers) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+        }
+        if (stats.failure.get() != null) {
+            throw stats.failure.get();
+        }
+        Report report = new Report(phase, System.currentTimeMillis() - begin, stats);
+        logger.info(report.toString());
+        return report;
+    }
+
+    private void logInterval(String phase, Stats stats, long elapsedSeconds, long intervalMs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(phase).append(" 已运行").append(elapsedSeconds).append("秒");
+        for (Operation op : Operation.values()) {
+            LatencyHistogram interval = stats.interval.get(op).snapshotAndReset();
+            if (interval.getCount() == 0) {
+                continue;
+            }
+            sb.append("; ").append(op).append(' ').append(interval.getCount() * 1000 / intervalMs).append("次/秒 [")
+                    .append(interval).append(']');
+        }
+        logger.info(sb.toString());
+    }
+
+    private static class Stats {
+        final Map<Operation, LatencyHistogram> total = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+        final Map<Operation, LatencyHistogram> interval = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+        final AtomicLongArray errors = new AtomicLongArray(Operation.values().length);
+        final AtomicLongArray rows = new AtomicLongArray(Operation.values().length);
+        final AtomicLong notFound = new AtomicLong();
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+        Stats() {
+            for (Operation op : Operation.values()) {
+                total.put(op, new LatencyHistogram());
+                interval.put(op, new LatencyHistogram());
+            }
+        }
+
+        void record(Operation op, long micros, boolean ok, long rowCount) {
+            total.get(op).record(micros);
+            interval.get(op).record(micros);
+            rows.addAndGet(op.ordinal(), rowCount);
+            if (!ok) {
+                errors.incrementAndGet(op.ordinal());
+            }
+        }
+    }
+
+    /**
+     * 压测结果，延迟单位为微秒；load阶段INSERT的一次操作是一批写入
+     */
+    public static class Report {
+        private final String phase;
+        private final long elapsedMs;
+        private final Stats stats;
+
+        Report(String phase, long elapsedMs, Stats stats) {
+            this.phase = phase;
+            this.elapsedMs = elapsedMs;
+            this.stats = stats;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public LatencyHistogram getLatency(Operation op) {
+            return stats.total.get(op);
+        }
+
+        public long getErrors(Operation op) {
+            return stats.errors.get(op.ordinal());
+        }
+
+        /**
+         * 操作涉及的行数，scan为返回的行数，load阶段为写入的行数
+         */
+        public long getRows(Operation op) {
+            return stats.rows.get(op.ordinal());
+        }
+
+        /**
+         * 读操作没有找到记录的次数
+         */
+        public long getNotFound() {
+            return stats.notFound.get();
+        }
+
+        public long getOperations() {
+            long count = 0;
+            for (Operation op : Operation.values()) {
+                count += stats.total.get(op).getCount();
+            }
+            return count;
+        }
+
+        /**
+         * 吞吐量（次/秒）
+         */
+        public double getThroughput() {
+            return elapsedMs == 0 ? 0 : getOperations() * 1000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(phase).append("完成，耗时").append(elapsedMs).append("毫秒，共").append(getOperations())
+                    .append("次操作，").append(String.format("%.1f", getThroughput())).append("次/秒");
+            for (Operation op : Operation.values()) {
+                LatencyHistogram histogram = stats.total.get(op);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                sb.append("\n  ").append(op).append(": ").append(histogram)
+                        .append(", rows=").append(getRows(op)).append(", errors=").append(getErrors(op));
+            }
+            if (getNotFound() > 0) {
+                sb.append("\n  notFound=").append(getNotFound());
+            }
+            return sb.toString();
+        }
+    }
+}
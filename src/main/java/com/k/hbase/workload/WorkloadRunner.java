@@ -0,0 +1,62 @@
+package com.k.hbase.workload;
+
+import com.k.hbase.util.HBaseUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 压测命令行入口
+ * <pre>
+ * java com.k.hbase.workload.WorkloadRunner [load|run|both] [配置名=值 ...]
+ * </pre>
+ * workload.*开头的参数覆盖hbase-client.properties中的压测配置，其余参数设置到HBase客户端配置中，
+ * 例如连接本地mini-cluster：hbase.zookeeper.quorum=localhost hbase.zookeeper.property.clientPort=21818
+ */
+public class WorkloadRunner {
+    private static final Logger logger = LoggerFactory.getLogger(WorkloadRunner.class);
+
+    public static void main(String[] args) throws Exception {
+        String phase = "both";
+        Map<String, String> overrides = new HashMap<String, String>();
+        Map<String, String> hbaseConf = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                phase = arg;
+            } else if (arg.startsWith("workload.")) {
+                overrides.put(arg.substring(0, eq), arg.substring(eq + 1));
+            } else {
+                hbaseConf.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        if (!"load".equals(phase) && !"run".equals(phase) && !"both".equals(phase)) {
+            System.err.println("用法: WorkloadRunner [load|run|both] [配置名=值 ...]");
+            System.exit(1);
+        }
+        if (!hbaseConf.isEmpty()) {
+            Configuration conf = new Configuration(HBaseUtil.getConfiguration());
+            for (Map.Entry<String, String> entry : hbaseConf.entrySet()) {
+                conf.set(entry.getKey(), entry.getValue());
+            }
+            HBaseUtil.setConfiguration(conf);
+        }
+        WorkloadGenerator generator = WorkloadGenerator.fromConfig(overrides);
+        try {
+            if (!"run".equals(phase)) {
+                generator.load();
+            }
+            if (!"load".equals(phase)) {
+                generator.run();
+            }
+        } catch (Exception e) {
+            logger.error("压测失败", e);
+            System.exit(2);
+        } finally {
+            HBaseUtil.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.k.hbase;
+
+import com.k.hbase.util.HBasePageModel;
+import com.k.hbase.util.HBaseUtil;
+import com.k.hbase.util.LatencyHistogram;
+import com.k.hbase.util.ParallelScanner;
+import com.k.hbase.util.PutBuilder;
+import com.k.hbase.util.ScanQuery;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在进程内的mini-cluster上通过HBaseServiceImpl、HBaseUtil执行固定负载：批量写入、单行读、多行读、分页扫描、全表扫描，
+ * 记录吞吐量和延迟并与基线对比（见PerfBaseline），同时检查结果的正确性。
+ * 行数用-Dperf.rows指定，默认20000；各测试依赖第一步写入的数据，按方法名顺序执行。
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MiniClusterPerfTest {
+    private static final String TABLE = "perf_test";
+    private static final String FAMILY = "cf";
+    private static final byte[] FAMILY_BYTES = Bytes.toBytes(FAMILY);
+    private static final byte[] QUALIFIER = Bytes.toBytes("v");
+    private static final byte[] NUMBER = Bytes.toBytes("n");
+    private static final String HEX = "0123456789ABCDEF";
+    private static final int ROWS = Integer.getInteger("perf.rows", 20000);
+    private static final int BATCH = 1000;
+
+    private static HBaseTestingUtility util;
+    private static HBaseServiceImpl service;
+    private static PerfBaseline baseline;
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        util = new HBaseTestingUtility();
+        util.startMiniCluster(1);
+        HBaseUtil.setConfiguration(util.getConfiguration());
+        service = new HBaseServiceImpl();
+        baseline = PerfBaseline.load();
+
+        // 与HBaseUtil.createTable相同的预分区，但不使用snappy压缩，mini-cluster上通常没有本地库
+        Admin admin = HBaseUtil.getConn().getAdmin();
+        try {
+            HTableDescriptor descriptor = new HTableDescriptor(TableName.valueOf(TABLE));
+            HColumnDescriptor column = new HColumnDescriptor(FAMILY);
+            column.setMaxVersions(1);
+            descriptor.addFamily(column);
+            byte[][] splitKeys = new byte[14][];
+            for (int i = 1; i < 15; i++) {
+                splitKeys[i - 1] = Bytes.toBytes(HEX.substring(i, i + 1));
+            }
+            admin.createTable(descriptor, splitKeys);
+        } finally {
+            admin.close();
+        }
+    }
+
+    @AfterClass
+    public static void stopCluster() throws Exception {
+        if (baseline != null) {
+            baseline.writeResults();
+        }
+        if (service != null) {
+            service.shutdownThreadPool();
+        }
+        HBaseUtil.closeConnection();
+        if (util != null) {
+            util.shutdownMiniCluster();
+        }
+    }
+
+    /**
+     * 第i行的行健，首字符按i轮换，数据分布在所有预分区上
+     */
+    private static String rowKey(int i) {
+        return HEX.charAt(i % 16) + String.format("%08d", i);
+    }
+
+    private static int rowNumber(byte[] row) {
+        return Integer.parseInt(Bytes.toString(row, 1, row.length - 1));
+    }
+
+    private static void checkRow(int i, Result result) {
+        assertNotNull("行" + rowKey(i) + "不存在", result);
+        assertFalse("行" + rowKey(i) + "不存在", result.isEmpty());
+        assertEquals(rowKey(i), Bytes.toString(result.getRow()));
+        assertEquals("value-" + i, Bytes.toString(result.getValue(FAMILY_BYTES, QUALIFIER)));
+        assertEquals(i, Bytes.toLong(result.getValue(FAMILY_BYTES, NUMBER)));
+    }
+
+    @Test
+    public void test1BulkWrite() throws Exception {
+        LatencyHistogram latency = new LatencyHistogram();
+        PutBuilder builder = new PutBuilder();
+        long begin = System.nanoTime();
+        try {
+            for (int first = 0; first < ROWS; first += BATCH) {
+                List<Put> puts = new ArrayList<Put>(BATCH);
+                for (int i = first; i < Math.min(first + BATCH, ROWS); i++) {
+                    puts.add(builder.row(rowKey(i)).add(FAMILY, "v", "value-" + i).add(FAMILY, "n", (long) i).build());
+                }
+                long start = System.nanoTime();
+                // 一半走同步批量写，一半走服务层的线程池异步写
+                if ((first / BATCH) % 2 == 0) {
+                    HBaseUtil.sycPuts(TABLE, puts);
+                } else {
+                    service.batchAsyncPut(TABLE, puts, true);
+                }
+                latency.record((System.nanoTime() - start) / 1000);
+            }
+        } finally {
+            builder.close();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        baseline.checkThroughput("bulkWrite.rowsPerSecond", ROWS / seconds);
+        baseline.checkLatency("bulkWrite.batchP99Micros", latency.percentile(0.99));
+    }
+
+    @Test
+    public void test2PointRead() throws Exception {
+        int reads = Math.max(1, ROWS / 10);
+        Random random = new Random(42);
+        LatencyHistogram latency = new LatencyHistogram();
+        long begin = System.nanoTime();
+        for (int n = 0; n < reads; n++) {
+            int i = random.nextInt(ROWS);
+            long start = System.nanoTime();
+            Result result = service.getRow(TABLE, Bytes.toBytes(rowKey(i)));
+            latency.record((System.nanoTime() - start) / 1000);
+            checkRow(i, result);
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        baseline.checkThroughput("pointRead.opsPerSecond", reads / seconds);
+        baseline.checkLatency("pointRead.p99Micros", latency.percentile(0.99));
+    }
+
+    @Test
+    public void test3MultiGet() throws Exception {
+        int batch = 100;
+        int batches = Math.max(1, ROWS / batch / 10);
+        Random random = new Random(43);
+        LatencyHistogram latency = new LatencyHistogram();
+        long begin = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+            List<String> rows = new ArrayList<String>(batch);
+            int[] numbers = new int[batch];
+            for (int k = 0; k < batch; k++) {
+                numbers[k] = random.nextInt(ROWS);
+                rows.add(rowKey(numbers[k]));
+            }
+            long start = System.nanoTime();
+            Result[] results = HBaseUtil.getRows(TABLE, rows);
+            latency.record((System.nanoTime() - start) / 1000);
+            assertNotNull(results);
+            assertEquals(batch, results.length);
+            for (int k = 0; k < batch; k++) {
+                checkRow(numbers[k], results[k]);
+            }
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        baseline.checkThroughput("multiGet.rowsPerSecond", batches * batch / seconds);
+        baseline.checkLatency("multiGet.p99Micros", latency.percentile(0.99));
+    }
+
+    @Test
+    public void test4PagedScan() throws Exception {
+        int pageSize = 100;
+        Set<Integer> seen = new HashSet<Integer>(ROWS * 2);
+        List<byte[]> pageStarts = new ArrayList<byte[]>();
+        LatencyHistogram latency = new LatencyHistogram();
+        HBasePageModel page = new HBasePageModel(pageSize);
+        byte[] previous = null;
+        long begin = System.nanoTime();
+        while (true) {
+            long start = System.nanoTime();
+            page = HBaseUtil.scanResultByPageFilter(TABLE, null, null, null, 1, page);
+            latency.record((System.nanoTime() - start) / 1000);
+            List<Result> results = page.getResultList();
+            if (!results.isEmpty()) {
+                pageStarts.add(results.get(0).getRow());
+            }
+            for (Result result : results) {
+                if (previous != null) {
+                    assertTrue("分页结果没有按行健排序", Bytes.compareTo(previous, result.getRow()) < 0);
+                }
+                previous = result.getRow();
+                int i = rowNumber(result.getRow());
+                assertTrue("行" + rowKey(i) + "重复返回", seen.add(i));
+                checkRow(i, result);
+            }
+            if (results.size() < pageSize) {
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        assertEquals("分页扫描没有返回所有行", ROWS, seen.size());
+
+        // 跳页结果与顺序翻页一致
+        Random random = new Random(44);
+        for (int n = 0; n < 10 && !pageStarts.isEmpty(); n++) {
+            int index = random.nextInt(pageStarts.size());
+            HBasePageModel jumped = HBaseUtil.scanPage(TABLE, null, null, null, 1, new HBasePageModel(pageSize), index + 1);
+            assertFalse(jumped.getResultList().isEmpty());
+            assertArrayEquals("第" + (index + 1) + "页的起始行不一致", pageStarts.get(index), jumped.getResultList().get(0).getRow());
+        }
+
+        // 跳页超过最后一页时返回空页，总行数和总页数不受影响
+        int pageCount = (ROWS + pageSize - 1) / pageSize;
+        HBasePageModel beyond = HBaseUtil.scanPage(TABLE, null, null, null, 1, new HBasePageModel(pageSize), pageCount + 50);
+        assertTrue(beyond.getResultList().isEmpty());
+        assertEquals(ROWS, beyond.getQueryTotalCount());
+        assertEquals(pageCount, beyond.getPageCount());
+        HBasePageModel first = HBaseUtil.scanPage(TABLE, null, null, null, 1, new HBasePageModel(pageSize), 1);
+        assertEquals(pageCount, first.getPageCount());
+
+        baseline.checkThroughput("pagedScan.rowsPerSecond", ROWS / seconds);
+        baseline.checkLatency("pagedScan.pageP99Micros", latency.percentile(0.99));
+    }
+
+    @Test
+    public void test5FullScan() throws Exception {
+        long begin = System.nanoTime();
+        ResultScanner scanner = HBaseUtil.getScan(TABLE, ScanQuery.builder().addFamily(FAMILY).build(), null, null);
+        assertNotNull(scanner);
+        Set<Integer> seen = new HashSet<Integer>(ROWS * 2);
+        try {
+            Result result;
+            while ((result = scanner.next()) != null) {
+                int i = rowNumber(result.getRow());
+                assertTrue("行" + rowKey(i) + "重复返回", seen.add(i));
+            }
+        } finally {
+            scanner.close();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        assertEquals(ROWS, seen.size());
+        baseline.checkThroughput("fullScan.rowsPerSecond", ROWS / seconds);
+
+        final AtomicLong handled = new AtomicLong();
+        begin = System.nanoTime();
+        long rows = ParallelScanner.scan(TABLE, new Scan().addFamily(FAMILY_BYTES), 8, new ParallelScanner.Handler() {
+            @Override
+            public void handle(ParallelScanner.ScanRange range, Result result) throws IOException {
+                handled.incrementAndGet();
+            }
+        });
+        seconds = (System.nanoTime() - begin) / 1e9;
+        assertEquals(ROWS, rows);
+        assertEquals(ROWS, handled.get());
+        baseline.checkThroughput("parallelScan.rowsPerSecond", ROWS / seconds);
+    }
+}
@@ -0,0 +1,124 @@
+package com.k.hbase;
+
+import org.junit.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 性能基线
+ * 基线默认读取classpath下的perf-baseline.properties，可以用-Dperf.baseline=文件路径指定；
+ * 吞吐量低于基线*(1-tolerance.throughput)或延迟高于基线*(1+tolerance.latency)时测试失败。
+ * 每次运行的实测值写到perf.resultFile（默认target/perf-results.properties），在参考机器上运行后可以用它更新基线。
+ * <p>
+ * -Dperf.enforce=false时只输出对比结果不判定失败；-Dperf.tolerance.throughput、-Dperf.tolerance.latency覆盖文件中的容差
+ */
+public class PerfBaseline {
+    private static final Logger logger = LoggerFactory.getLogger(PerfBaseline.class);
+
+    private final Properties baseline = new Properties();
+    private final Properties results = new Properties();
+    private final List<String> regressions = new ArrayList<String>();
+    private final double throughputTolerance;
+    private final double latencyTolerance;
+    private final boolean enforce;
+
+    private PerfBaseline() throws IOException {
+        String file = System.getProperty("perf.baseline");
+        InputStream in = file != null ? new FileInputStream(file)
+                : PerfBaseline.class.getClassLoader().getResourceAsStream("perf-baseline.properties");
+        if (in != null) {
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        } else {
+            logger.warn("没有找到性能基线，只记录实测值");
+        }
+        throughputTolerance = Double.parseDouble(System.getProperty("perf.tolerance.throughput",
+                baseline.getProperty("tolerance.throughput", "0.3")));
+        latencyTolerance = Double.parseDouble(System.getProperty("perf.tolerance.latency",
+                baseline.getProperty("tolerance.latency", "0.5")));
+        enforce = Boolean.parseBoolean(System.getProperty("perf.enforce", "true"));
+    }
+
+    public static PerfBaseline load() throws IOException {
+        return new PerfBaseline();
+    }
+
+    /**
+     * 检查吞吐量，越大越好
+     *
+     * @param name     指标名，例如bulkWrite.rowsPerSecond
+     * @param measured 实测值
+     */
+    public void checkThroughput(String name, double measured) {
+        results.setProperty(name, String.format("%.1f", measured));
+        String base = baseline.getProperty(name);
+        if (base == null) {
+            logger.info("{}={}，没有基线", name, measured);
+            return;
+        }
+        double limit = Double.parseDouble(base) * (1 - throughputTolerance);
+        logger.info("{}={}，基线{}，下限{}", name, String.format("%.1f", measured), base, String.format("%.1f", limit));
+        if (measured < limit) {
+            regression(name + "=" + String.format("%.1f", measured) + "低于下限" + String.format("%.1f", limit) + "（基线" + base + "）");
+        }
+    }
+
+    /**
+     * 检查延迟，越小越好
+     *
+     * @param name     指标名，例如pointRead.p99Micros
+     * @param measured 实测值（微秒）
+     */
+    public void checkLatency(String name, long measured) {
+        results.setProperty(name, String.valueOf(measured));
+        String base = baseline.getProperty(name);
+        if (base == null) {
+            logger.info("{}={}，没有基线", name, measured);
+            return;
+        }
+        double limit = Double.parseDouble(base) * (1 + latencyTolerance);
+        logger.info("{}={}，基线{}，上限{}", name, measured, base, String.format("%.0f", limit));
+        if (measured > limit) {
+            regression(name + "=" + measured + "超过上限" + String.format("%.0f", limit) + "（基线" + base + "）");
+        }
+    }
+
+    private void regression(String message) {
+        regressions.add(message);
+        if (enforce) {
+            Assert.fail("性能回退：" + message);
+        }
+        logger.warn("性能回退（未强制）：{}", message);
+    }
+
+    /**
+     * 把实测值写到perf.resultFile
+     */
+    public void writeResults() throws IOException {
+        String file = System.getProperty("perf.resultFile", "target" + File.separator + "perf-results.properties");
+        File out = new File(file);
+        if (out.getParentFile() != null) {
+            out.getParentFile().mkdirs();
+        }
+        OutputStream stream = new FileOutputStream(out);
+        try {
+            results.store(stream, "mini-cluster perf results, regressions: " + regressions.size());
+        } finally {
+            stream.close();
+        }
+        logger.info("性能实测值已写入:{}", out.getAbsolutePath());
+    }
+}
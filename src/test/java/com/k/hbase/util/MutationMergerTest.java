@@ -0,0 +1,152 @@
+package com.k.hbase.util;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MutationMergerTest {
+    private static final byte[] F = Bytes.toBytes("f");
+    private static final byte[] Q = Bytes.toBytes("q");
+    private static final byte[] Q2 = Bytes.toBytes("q2");
+
+    private static Put put(String row, byte[] qualifier, String value) {
+        return new Put(Bytes.toBytes(row)).addColumn(F, qualifier, Bytes.toBytes(value));
+    }
+
+    private static Put put(String row, byte[] qualifier, long ts, String value) {
+        return new Put(Bytes.toBytes(row)).addColumn(F, qualifier, ts, Bytes.toBytes(value));
+    }
+
+    private static String value(Mutation mutation, byte[] qualifier) {
+        List<Cell> cells = mutation.getFamilyCellMap().get(F);
+        String result = null;
+        for (Cell cell : cells) {
+            if (CellUtil.matchingQualifier(cell, qualifier)) {
+                result = Bytes.toString(CellUtil.cloneValue(cell));
+            }
+        }
+        return result;
+    }
+
+    private static int cellCount(Mutation mutation) {
+        int count = 0;
+        for (List<Cell> cells : mutation.getFamilyCellMap().values()) {
+            count += cells.size();
+        }
+        return count;
+    }
+
+    @Test
+    public void laterPutToSameColumnWins() {
+        List<Put> merged = MutationMerger.mergePuts(Arrays.asList(put("r", Q, "first"), put("r", Q, "second")));
+        assertEquals(1, merged.size());
+        assertEquals(1, cellCount(merged.get(0)));
+        assertEquals("second", value(merged.get(0), Q));
+    }
+
+    @Test
+    public void putsAreGroupedByRowInFirstSeenOrder() {
+        List<Put> merged = MutationMerger.mergePuts(Arrays.asList(
+                put("b", Q, "1"), put("a", Q, "2"), put("b", Q2, "3"), put("a", Q, "4")));
+        assertEquals(2, merged.size());
+        assertEquals("b", Bytes.toString(merged.get(0).getRow()));
+        assertEquals("1", value(merged.get(0), Q));
+        assertEquals("3", value(merged.get(0), Q2));
+        assertEquals("a", Bytes.toString(merged.get(1).getRow()));
+        assertEquals("4", value(merged.get(1), Q));
+    }
+
+    @Test
+    public void explicitTimestampsAreKeptPerVersion() {
+        List<Put> merged = MutationMerger.mergePuts(Arrays.asList(
+                put("r", Q, 5, "a"), put("r", Q, 10, "b"), put("r", Q, 5, "c")));
+        assertEquals(1, merged.size());
+        List<Cell> cells = merged.get(0).getFamilyCellMap().get(F);
+        assertEquals(2, cells.size());
+        for (Cell cell : cells) {
+            String value = Bytes.toString(CellUtil.cloneValue(cell));
+            if (cell.getTimestamp() == 5) {
+                assertEquals("c", value);
+            } else {
+                assertEquals(10, cell.getTimestamp());
+                assertEquals("b", value);
+            }
+        }
+    }
+
+    @Test
+    public void putDeletePutBecomesRowMutationsInOrder() throws Exception {
+        List<Mutation> ops = new ArrayList<Mutation>();
+        ops.add(put("r", Q, "old"));
+        ops.add(new Delete(Bytes.toBytes("r")).addColumns(F, Q2, 100));
+        ops.add(put("r", Q, "new"));
+        List<Row> merged = MutationMerger.merge(ops);
+        assertEquals(1, merged.size());
+        assertTrue(merged.get(0) instanceof RowMutations);
+        List<Mutation> mutations = ((RowMutations) merged.get(0)).getMutations();
+        assertEquals(3, mutations.size());
+        assertTrue(mutations.get(0) instanceof Put);
+        assertTrue(mutations.get(1) instanceof Delete);
+        assertTrue(mutations.get(2) instanceof Put);
+        assertEquals("old", value(mutations.get(0), Q));
+        assertEquals("new", value(mutations.get(2), Q));
+        // 未指定时间戳的单元格按出现顺序使用递增的时间戳，后写的生效
+        long first = mutations.get(0).getFamilyCellMap().get(F).get(0).getTimestamp();
+        long last = mutations.get(2).getFamilyCellMap().get(F).get(0).getTimestamp();
+        assertTrue(last > first);
+    }
+
+    @Test
+    public void deleteDropsMaskedPutCells() {
+        List<Mutation> ops = new ArrayList<Mutation>();
+        ops.add(put("r", Q, 5, "masked"));
+        ops.add(put("r", Q2, 50, "kept"));
+        ops.add(new Delete(Bytes.toBytes("r")).addColumns(F, Q, 10));
+        List<Row> merged = MutationMerger.merge(ops);
+        assertEquals(1, merged.size());
+        List<Mutation> mutations = ((RowMutations) merged.get(0)).getMutations();
+        assertEquals(2, mutations.size());
+        assertEquals(1, cellCount(mutations.get(0)));
+        assertEquals("kept", value(mutations.get(0), Q2));
+        assertTrue(mutations.get(1) instanceof Delete);
+    }
+
+    @Test
+    public void rowDeleteAfterPutsLeavesOnlyDelete() {
+        List<Mutation> ops = new ArrayList<Mutation>();
+        ops.add(put("r", Q, "a"));
+        ops.add(put("r", Q2, "b"));
+        ops.add(new Delete(Bytes.toBytes("r")));
+        List<Row> merged = MutationMerger.merge(ops);
+        assertEquals(1, merged.size());
+        assertTrue(merged.get(0) instanceof Delete);
+        assertTrue(((Delete) merged.get(0)).getFamilyCellMap().isEmpty());
+    }
+
+    @Test
+    public void unmergeableRowIsReturnedUnchanged() {
+        Put first = put("r", Q, "a");
+        // 不带时间戳的单版本删除需要服务端读出最新版本，不能合并
+        Delete delete = new Delete(Bytes.toBytes("r")).addColumn(F, Q);
+        Put second = put("r", Q, "b");
+        List<Row> merged = MutationMerger.merge(Arrays.<Mutation>asList(first, delete, second));
+        assertEquals(3, merged.size());
+        assertSame(first, merged.get(0));
+        assertSame(delete, merged.get(1));
+        assertSame(second, merged.get(2));
+    }
+}
@@ -0,0 +1,56 @@
+package com.k.hbase.util;
+
+import com.k.hbase.journal.SpillJournal;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class RequestThrottlerTest {
+    private static final String TABLE = "throttle_test";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RequestThrottler throttler;
+
+    @Before
+    public void setUp() throws Exception {
+        throttler = RequestThrottler.getInstance();
+        throttler.setEnabled(true);
+        throttler.setMode(RequestThrottler.Mode.REJECT);
+        throttler.setRate(TABLE, RequestThrottler.OpClass.WRITE, 1);
+        HBaseUtil.enableSpillJournal(folder.newFolder("journal"));
+    }
+
+    @After
+    public void tearDown() {
+        throttler.setRate(TABLE, RequestThrottler.OpClass.WRITE, 0);
+        throttler.setMode(RequestThrottler.Mode.QUEUE);
+        throttler.setEnabled(false);
+        HBaseUtil.closeConnection();
+    }
+
+    @Test(timeout = 30000)
+    public void throttledSycPutThrowsAndDoesNotSpill() throws Exception {
+        // 用掉桶里积攒的令牌并预约下一秒的令牌，之后的写入立即被拒绝
+        RequestThrottler.acquire(TABLE, RequestThrottler.OpClass.WRITE, 2);
+        Put put = new Put(Bytes.toBytes("r")).addColumn(Bytes.toBytes("f"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+        try {
+            HBaseUtil.sycPut(TABLE, put);
+            fail("超过限流的写入应该抛出ThrottledException");
+        } catch (ThrottledException expected) {
+            // 拒绝发生在获取表之前，不需要连接集群
+        }
+        SpillJournal journal = HBaseUtil.getSpillJournal();
+        assertEquals(0, journal.getPendingCount());
+        assertFalse(journal.hasPending(TABLE));
+    }
+}